@@ -0,0 +1,140 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.soap;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import com.zimbra.common.util.ZimbraServletOutputStream;
+
+/**
+ * Serializes a synthetic SearchResponse with N messages, as XML and as JSON,
+ * the way SoapServlet used to (build the whole response as a String, then
+ * encode it) and the way it does now (encode straight to the response stream),
+ * and prints the time and bytes allocated per response.  Not a unit test; run
+ * it by hand:
+ * <pre>
+ *   ElementSerializeBenchmark [messages ...]
+ * </pre>
+ * Allocation figures come from {@code com.sun.management.ThreadMXBean} and
+ * are only printed on JVMs that support it.
+ */
+public class ElementSerializeBenchmark {
+
+    private static final OutputStream NULL = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private static Element searchResponse(Element.ElementFactory factory, int count) {
+        Element resp = factory.createElement(MailConstants.SEARCH_RESPONSE);
+        resp.addAttribute(MailConstants.A_SORTBY, "dateDesc");
+        resp.addAttribute(MailConstants.A_QUERY_OFFSET, 0);
+        resp.addAttribute(MailConstants.A_QUERY_MORE, false);
+        for (int i = 0; i < count; i++) {
+            Element m = resp.addNonUniqueElement(MailConstants.E_MSG);
+            m.addAttribute(MailConstants.A_ID, 1000 + i);
+            m.addAttribute(MailConstants.A_CONV_ID, -(1000 + i));
+            m.addAttribute(MailConstants.A_FOLDER, "2");
+            m.addAttribute(MailConstants.A_FLAGS, "ua");
+            m.addAttribute(MailConstants.A_SIZE, 4096 + i);
+            m.addAttribute(MailConstants.A_DATE, 1400000000000L + i);
+            m.addAttribute(MailConstants.A_REVISION, 2000 + i);
+            Element e = m.addNonUniqueElement(MailConstants.E_EMAIL);
+            e.addAttribute(MailConstants.A_ADDRESS, "sender" + i + "@example.com");
+            e.addAttribute(MailConstants.A_DISPLAY, "Sender " + i);
+            e.addAttribute(MailConstants.A_ADDRESS_TYPE, "f");
+            m.addNonUniqueElement(MailConstants.E_SUBJECT).setText("Quarterly report \u00e9dition " + i + " <draft> & notes");
+            m.addNonUniqueElement(MailConstants.E_FRAG).setText(
+                    "Hi all, attached is the latest revision of the report. Please review \u65e5\u672c before Friday " + i);
+        }
+        return resp;
+    }
+
+    private static long allocated() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static void viaString(Element elt) throws IOException {
+        NULL.write(elt.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void streamed(Element elt) throws IOException {
+        ZimbraServletOutputStream out = new ZimbraServletOutputStream(NULL);
+        elt.output(out);
+        out.flush();
+    }
+
+    private static void time(String label, Element elt, boolean streamed, int iterations) throws IOException {
+        for (int i = 0; i < Math.max(iterations / 4, 1); i++) {
+            if (streamed) {
+                streamed(elt);
+            } else {
+                viaString(elt);
+            }
+        }
+        long alloc = allocated();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            if (streamed) {
+                streamed(elt);
+            } else {
+                viaString(elt);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocPer = alloc < 0 ? -1 : (allocated() - alloc) / iterations;
+        p("%-6s %8s %10.2f %14d", label, streamed ? "stream" : "string", elapsed / 1e6 / iterations, allocPer);
+    }
+
+    private static void p(String fmt, Object... args) {
+        System.out.println(String.format(fmt, args));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] counts = new int[] { 1000, 10000, 50000 };
+        if (args.length > 0) {
+            counts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                counts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int count : counts) {
+            int iterations = Math.max(2000000 / count, 5);
+            Element xml = searchResponse(Element.XMLElement.mFactory, count);
+            Element json = searchResponse(Element.JSONElement.mFactory, count);
+            p("%d messages, %d bytes XML, %d bytes JSON", count, xml.toUTF8().length, json.toUTF8().length);
+            p("%-6s %8s %10s %14s", "format", "path", "ms/resp", "bytes alloc/resp");
+            time("xml", xml, false, iterations);
+            time("xml", xml, true, iterations);
+            time("json", json, false, iterations);
+            time("json", json, true, iterations);
+            p("");
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.common.util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ZimbraServletOutputStream}, checking its UTF-8 against
+ * {@link String#getBytes}.
+ */
+public final class ZimbraServletOutputStreamTest {
+
+    private static byte[] encode(String str, int chunk) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ZimbraServletOutputStream out = new ZimbraServletOutputStream(baos);
+        for (int i = 0; i < str.length(); i += chunk) {
+            if (chunk == 1) {
+                out.append(str.charAt(i));
+            } else {
+                out.append(str, i, Math.min(i + chunk, str.length()));
+            }
+        }
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    private static void check(String str) throws Exception {
+        byte[] expected = str.getBytes(StandardCharsets.UTF_8);
+        // chunk sizes that split surrogate pairs across appends
+        for (int chunk : new int[] { 1, 2, 3, 7, str.length() + 1 }) {
+            Assert.assertArrayEquals("chunk " + chunk, expected, encode(str, chunk));
+        }
+    }
+
+    @Test
+    public void ascii() throws Exception {
+        check("");
+        check("<m id=\"257\" f=\"u\"/>");
+    }
+
+    @Test
+    public void multibyte() throws Exception {
+        check("caf\u00e9 \u65e5\u672c\u8a9e \ud83d\ude00 \u2028 \ud800\udc00 \udbff\udfff");
+    }
+
+    @Test
+    public void unpairedSurrogates() throws Exception {
+        check("a\ud800b");
+        check("a\udc00b");
+        check("\ud800\ud800\udc00");
+        check("trailing \ud83d");
+    }
+
+    @Test
+    public void large() throws Exception {
+        // several times the buffer size, with multibyte characters straddling every boundary
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 100000) {
+            switch (random.nextInt(4)) {
+            case 0:
+                sb.append((char) (0x20 + random.nextInt(0x5f)));
+                break;
+            case 1:
+                sb.append((char) (0x80 + random.nextInt(0x780)));
+                break;
+            case 2:
+                sb.append((char) (0x800 + random.nextInt(0xd000)));
+                break;
+            default:
+                sb.appendCodePoint(0x10000 + random.nextInt(0x100000));
+            }
+        }
+        check(sb.toString());
+    }
+
+    @Test
+    public void reuse() throws Exception {
+        ByteArrayOutputStream outer = new ByteArrayOutputStream();
+        ZimbraServletOutputStream out = new ZimbraServletOutputStream(outer);
+        out.append("outer ");
+        // a second stream on the same thread while the first still holds its buffer
+        ByteArrayOutputStream inner = new ByteArrayOutputStream();
+        ZimbraServletOutputStream in = new ZimbraServletOutputStream(inner);
+        in.append("inner");
+        in.flush();
+        out.append("\u00e9");
+        out.flush();
+        out.append(" again");
+        out.flush();
+        Assert.assertEquals("outer \u00e9 again", new String(outer.toByteArray(), StandardCharsets.UTF_8));
+        Assert.assertEquals("inner", new String(inner.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
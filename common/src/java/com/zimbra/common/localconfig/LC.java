@@ -164,6 +164,12 @@ public final class LC {
     @Supported
     public static final KnownKey zimbra_mailbox_galsync_cache = KnownKey.newKey(10000);
 
+    // server-wide limit on the number of MailItems held in the item caches of all loaded mailboxes
+    public static final KnownKey zimbra_mailbox_item_cache_budget = KnownKey.newKey(500000);
+
+    // max number of per-item flag/tag/move/delete writes queued before a bulk item operation flushes them; 1 disables
+    public static final KnownKey zimbra_mailbox_write_batch_size = KnownKey.newKey(1000);
+
     @Supported
     public static final KnownKey zimbra_mailbox_change_checkpoint_frequency = KnownKey.newKey(100);
 
@@ -206,6 +212,8 @@ public final class LC {
     public static final KnownKey zimbra_index_max_transaction_items = KnownKey.newKey(100);
 
     public static final KnownKey zimbra_index_lucene_io_impl = KnownKey.newKey("nio");
+    // with zimbra_index_lucene_io_impl=auto, indexes at least this big are memory-mapped
+    public static final KnownKey zimbra_index_lucene_mmap_min_size = KnownKey.newKey(64L * 1024 * 1024);
 
     @Supported
     public static final KnownKey zimbra_index_lucene_merge_policy = KnownKey.newKey(true);
@@ -242,6 +250,8 @@ public final class LC {
 
     public static final KnownKey zimbra_index_rfc822address_max_token_length = KnownKey.newKey(256);
     public static final KnownKey zimbra_index_rfc822address_max_token_count = KnownKey.newKey(512);
+    public static final KnownKey zimbra_index_shared_data_cache_size = KnownKey.newKey(100);
+    public static final KnownKey zimbra_index_shared_data_cache_ttl = KnownKey.newKey(600);
 
     public static final KnownKey zimbra_rights_delegated_admin_supported = KnownKey.newKey(true);
 
@@ -642,6 +652,8 @@ public final class LC {
     public static final KnownKey calendar_allow_invite_without_method = KnownKey.newKey(false);
     public static final KnownKey calendar_freebusy_max_days = KnownKey.newKey(366);
     public static final KnownKey calendar_search_max_days  = KnownKey.newKey(400);
+    // instances of one calendar item's recurrence kept expanded in memory; 0 disables
+    public static final KnownKey calendar_recurrence_cache_max_instances = KnownKey.newKey(1000);
     public static final KnownKey exchange_free_busy_interval_min = KnownKey.newKey(15);
 
     @Supported
@@ -671,8 +683,11 @@ public final class LC {
 
     public static final KnownKey nio_imap_enabled = KnownKey.newKey(true);
     public static final KnownKey nio_pop3_enabled = KnownKey.newKey(true);
+    public static final KnownKey nio_lmtp_enabled = KnownKey.newKey(false);
 
     public static final KnownKey nio_max_write_queue_size = KnownKey.newKey(10000);
+    // send uncompressed message blobs to IMAP/POP3 clients with FileChannel.transferTo when no TLS or SASL layer is active
+    public static final KnownKey nio_zero_copy_enabled = KnownKey.newKey(true);
 
     public static final KnownKey imap_max_request_size = KnownKey.newKey(10 * 1024);
     public static final KnownKey imap_max_nesting_in_search_request = KnownKey.newKey(100);
@@ -684,6 +699,8 @@ public final class LC {
     // Default 3 days.  Without limit 1 server was needing to restart every 30 to 45 days
     public static final KnownKey imap_noninteractive_session_cache_maxage_days = KnownKey.newKey(3);
     public static final KnownKey imap_use_ehcache = KnownKey.newKey(true);
+    // serialized IMAP folder state larger than this many bytes is deflated before caching; 0 disables compression
+    public static final KnownKey imap_session_cache_compress_threshold = KnownKey.newKey(16 * 1024);
     public static final KnownKey imap_write_timeout = KnownKey.newKey(10);
     public static final KnownKey imap_write_chunk_size = KnownKey.newKey(8 * 1024);
     public static final KnownKey imap_thread_keep_alive_time = KnownKey.newKey(60);
@@ -693,6 +710,13 @@ public final class LC {
     public static final KnownKey imap_throttle_acct_limit = KnownKey.newKey(5000);
     public static final KnownKey imap_throttle_command_limit = KnownKey.newKey(25);
     public static final KnownKey imap_throttle_fetch = KnownKey.newKey(true);
+    // messages whose items a FETCH looks up together, and whose responses it flushes together
+    public static final KnownKey imap_fetch_batch_size = KnownKey.newKey(100);
+    // longest ENVELOPE+BODY+BODYSTRUCTURE rendering stored with a message for header-only FETCHes
+    public static final KnownKey imap_message_summary_max_length = KnownKey.newKey(16384);
+    // whether mailboxd stores summaries on messages delivered before they were computed at delivery, and how fast
+    public static final KnownKey imap_summary_backfill_enabled = KnownKey.newKey(false);
+    public static final KnownKey imap_summary_backfill_messages_per_second = KnownKey.newKey(20);
     public static final KnownKey data_source_imap_reuse_connections = KnownKey.newKey(false);
 
     @Supported
@@ -806,6 +830,9 @@ public final class LC {
     public static final KnownKey search_disable_database_hints = KnownKey.newKey(false);
     public static final KnownKey search_dbfirst_term_percentage_cutoff = KnownKey.newKey(0.8F);
     public static final KnownKey search_tagged_item_count_join_query_cutoff = KnownKey.newKey(1000); //beyond this limit server will not use join in the query while fetching unread items
+    // text+DB searches whose text part has between (IN clause batch size, this) hits intersect the two in memory
+    public static final KnownKey search_bitmap_intersection_enabled = KnownKey.newKey(true);
+    public static final KnownKey search_bitmap_intersection_max_hits = KnownKey.newKey(100000);
 
     public static final KnownKey zmstat_interval = KnownKey.newKey(30);
     public static final KnownKey zmstat_disk_interval = KnownKey.newKey(600);
@@ -904,6 +931,9 @@ public final class LC {
     public static final KnownKey yauth_baseuri = KnownKey.newKey("https://login.yahoo.com/WSLogin/V1");
 
     public static final KnownKey purge_initial_sleep_ms = KnownKey.newKey(30 * Constants.MILLIS_PER_MINUTE);
+    public static final KnownKey purge_threads = KnownKey.newKey(1);
+    public static final KnownKey purge_max_db_connections = KnownKey.newKey(4);
+    public static final KnownKey purge_max_mailboxes_per_second = KnownKey.newKey(0);
 
     public static final KnownKey conversation_max_age_ms = KnownKey.newKey(31 * Constants.MILLIS_PER_DAY);
     public static final KnownKey tombstone_max_age_ms = KnownKey.newKey(3 * Constants.MILLIS_PER_MONTH);
@@ -1062,6 +1092,8 @@ public final class LC {
 
     public static final KnownKey zimbra_lmtp_validate_messages = KnownKey.newKey(true);
     public static final KnownKey zimbra_lmtp_max_line_length = KnownKey.newKey(10240);
+    public static final KnownKey zimbra_lmtp_delivery_threads = KnownKey.newKey(16);
+    public static final KnownKey zimbra_lmtp_delivery_parallelism = KnownKey.newKey(4);
 
     public static final KnownKey data_source_scheduling_enabled = KnownKey.newKey(true);
     public static final KnownKey data_source_eas_sync_email = KnownKey.newKey(true);
@@ -1255,6 +1287,14 @@ public final class LC {
 
     public static final KnownKey uncompressed_cache_min_lifetime = KnownKey.newKey(Constants.MILLIS_PER_MINUTE);
 
+    // online deduplication of file store blobs against the volume_blobs digest index
+    public static final KnownKey blob_dedupe_online_enabled = KnownKey.newKey(false);
+    public static final KnownKey blob_dedupe_min_size = KnownKey.newKey(32 * 1024);
+    public static final KnownKey blob_dedupe_background_interval_ms = KnownKey.newKey(0);
+
+    // upper bound for the estimated memory held by MessageCache; zimbraMessageCacheSize caps the entry count
+    public static final KnownKey message_cache_max_bytes = KnownKey.newKey(100L * 1024 * 1024);
+
     public static final KnownKey check_dl_membership_enabled = KnownKey.newKey(true);
 
     public static final KnownKey octopus_public_static_folder = KnownKey.newKey("${zimbra_home}/jetty/static");
@@ -1296,6 +1336,17 @@ public final class LC {
     // Feed Manager comma-separated blacklist. addresses can be CIDR notation, or single ip. no wild-cards (default blacklist private networks)
     public static final KnownKey zimbra_feed_manager_blacklist = KnownKey.newKey("10.0.0.0/8,172.16.0.0/12,192.168.0.0/16,fd00::/8");
 
+    // redolog group commit writer
+    public static final KnownKey redolog_group_commit_enabled = KnownKey.newKey(false);
+    public static final KnownKey redolog_group_commit_mmap_enabled = KnownKey.newKey(false);
+    public static final KnownKey redolog_group_commit_segment_size_kb = KnownKey.newKey(16384);
+    public static final KnownKey redolog_group_commit_ring_size = KnownKey.newKey(4096);
+
+    // redo playback
+    public static final KnownKey redolog_crash_recovery_threads = KnownKey.newKey(1);
+    public static final KnownKey redolog_replay_queue_capacity = KnownKey.newKey(100);
+    public static final KnownKey redolog_replay_batch_size = KnownKey.newKey(32);
+
     static {
         // Automatically set the key name with the variable name.
         for (Field field : LC.class.getFields()) {
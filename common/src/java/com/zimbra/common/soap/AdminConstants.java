@@ -1283,6 +1283,7 @@ public final class AdminConstants {
     public static final String A_VOLUME_FBITS = "fbits";
     public static final String A_VOLUME_COMPRESS_BLOBS = "compressBlobs";
     public static final String A_VOLUME_COMPRESSION_THRESHOLD = "compressionThreshold";
+    public static final String A_VOLUME_COMPRESSION_CODEC = "compressionCodec";
     public static final String A_VOLUME_IS_CURRENT = "isCurrent";
 
     // Blob consistency check
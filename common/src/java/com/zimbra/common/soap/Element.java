@@ -16,10 +16,10 @@
  */
 package com.zimbra.common.soap;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -40,6 +40,7 @@ import com.google.common.io.Files;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.StringUtil;
 import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.common.util.ZimbraServletOutputStream;
 
 /**
  * @since Mar 16, 2005
@@ -466,12 +467,17 @@ public abstract class Element implements Cloneable {
 
     // dumping the element hierarchy
     public byte[] toUTF8() {
+        // encode as we go rather than building the whole document as a String first
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
         try {
-            return toString().getBytes("utf-8");
-        } catch (UnsupportedEncodingException e) {
-            // should *never* happen since UTF-8 and UTF-16 cover the exact same character space
-            return null;
+            ZimbraServletOutputStream out = new ZimbraServletOutputStream(baos);
+            marshal(out);
+            out.flush();
+        } catch (IOException e) {
+            // should really not happen when writing to memory, just log it
+            ZimbraLog.soap.error("Caught IOException: ", e);
         }
+        return baos.toByteArray();
     }
 
     public void output(Appendable out) throws IOException {
@@ -1423,6 +1429,181 @@ public abstract class Element implements Cloneable {
             return elt;
         }
 
+        /**
+         * Builds a JSONElement tree from a stream of JSON events, following the same rules as
+         * {@link Element#parseJSON(String, QName, ElementFactory)}.  This lets a JSON serializer such as
+         * Jackson feed its output straight into Elements without first rendering it as JSON text and then
+         * re-parsing it.
+         * <p>
+         * Keys are ignored for events whose parent is an array; the array's own key is used instead.
+         * Scalar values must be {@code null}, a {@link Boolean}, {@link Long}, {@link Double} or a
+         * {@link String}; use {@link #literalValue(String)} for unquoted JSON literals.
+         */
+        public static final class Builder {
+            private static final int ELEMENT  = 0;
+            private static final int ARRAY    = 1;
+            private static final int ATTRS    = 2;
+            private static final int KV_ARRAY = 3;
+            private static final int KVP      = 4;
+
+            private static final class Frame {
+                final int type;
+                final String key;
+                final Element elt;
+                final Element parent;
+                final boolean unique;
+                final KeyValuePair kvp;
+
+                Frame(int type, String key, Element elt, Element parent, boolean unique, KeyValuePair kvp) {
+                    this.type = type;
+                    this.key = key;
+                    this.elt = elt;
+                    this.parent = parent;
+                    this.unique = unique;
+                    this.kvp = kvp;
+                }
+            }
+
+            private final QName mQName;
+            private final ElementFactory mFactory;
+            private final List<Frame> mStack = new ArrayList<Frame>();
+            private Element mRoot;
+
+            public Builder(QName qname, ElementFactory factory) {
+                mQName = qname;
+                mFactory = factory;
+            }
+
+            private Frame top() {
+                return mStack.isEmpty() ? null : mStack.get(mStack.size() - 1);
+            }
+
+            private Frame pop() {
+                if (mStack.isEmpty())
+                    throw new ContainerException("unbalanced end of JSON object or array");
+                return mStack.remove(mStack.size() - 1);
+            }
+
+            public void startObject(String key) throws ContainerException {
+                Frame top = top();
+                if (top == null) {
+                    if (mRoot != null)
+                        throw new ContainerException("more than one top-level JSON object");
+                    mRoot = mFactory.createElement(mQName.getName());
+                    mStack.add(new Frame(ELEMENT, null, mRoot, null, false, null));
+                    return;
+                }
+                switch (top.type) {
+                    case ELEMENT:   startChild(key, top.elt, true);  break;
+                    case ARRAY:     startChild(top.key, top.parent, false);  break;
+                    case ATTRS:     mStack.add(new Frame(KVP, key, null, null, false, top.parent.addKeyValuePair(key, null)));  break;
+                    case KV_ARRAY:  mStack.add(new Frame(KVP, top.key, null, null, false, top.parent.addKeyValuePair(top.key, null)));  break;
+                    default:        throw new ContainerException("unexpected JSON object in key/value pair: " + top.key);
+                }
+            }
+
+            private void startChild(String key, Element parent, boolean unique) {
+                if (key.equals(E_ATTRS)) {
+                    mStack.add(new Frame(ATTRS, key, null, parent, false, null));
+                } else {
+                    mStack.add(new Frame(ELEMENT, key, mFactory.createElement(key), parent, unique, null));
+                }
+            }
+
+            public void endObject() throws ContainerException {
+                Frame frame = pop();
+                if (frame.type == ELEMENT) {
+                    if (frame.parent == null)
+                        return;
+                    if (frame.unique)
+                        frame.parent.addUniqueElement(frame.elt);
+                    else
+                        frame.parent.addNonUniqueElement(frame.elt);
+                } else if (frame.type != ATTRS && frame.type != KVP) {
+                    throw new ContainerException("expected end of JSON array");
+                }
+            }
+
+            public void startArray(String key) throws ContainerException {
+                Frame top = top();
+                if (top == null)
+                    throw new ContainerException("top-level JSON value must be an object");
+                switch (top.type) {
+                    case ELEMENT:   mStack.add(new Frame(ARRAY, key, null, top.elt, false, null));  break;
+                    case ATTRS:     mStack.add(new Frame(KV_ARRAY, key, null, top.parent, false, null));  break;
+                    case KV_ARRAY:  mStack.add(new Frame(KV_ARRAY, top.key, null, top.parent, false, null));  break;
+                    default:        throw new ContainerException("unexpected JSON array in " + top.key);
+                }
+            }
+
+            public void endArray() throws ContainerException {
+                Frame frame = pop();
+                if (frame.type != ARRAY && frame.type != KV_ARRAY)
+                    throw new ContainerException("expected end of JSON object");
+            }
+
+            public void value(String key, Object value) throws ContainerException {
+                Frame top = top();
+                if (top == null)
+                    throw new ContainerException("top-level JSON value must be an object");
+                switch (top.type) {
+                    case ELEMENT:
+                        if (value == null)                    break;
+                        if (key.equals(A_NAMESPACE))          top.elt.setNamespace("", value.toString());
+                        else if (value instanceof Boolean)    top.elt.addAttribute(key, ((Boolean) value).booleanValue());
+                        else if (value instanceof Long)       top.elt.addAttribute(key, ((Long) value).longValue());
+                        else if (value instanceof Double)     top.elt.addAttribute(key, ((Double) value).doubleValue());
+                        else                                  top.elt.addAttribute(key, value.toString());
+                        break;
+                    case ATTRS:
+                        if (value != null)
+                            top.parent.addKeyValuePair(key, value.toString());
+                        break;
+                    case KV_ARRAY:
+                        if (value != null)
+                            top.parent.addKeyValuePair(top.key, value.toString());
+                        break;
+                    case KVP:
+                        if (value == null)                    break;
+                        if (top.key.equals(A_CONTENT))        top.kvp.setValue(value.toString());
+                        else if (value instanceof Boolean)    top.kvp.addAttribute(key, ((Boolean) value).booleanValue());
+                        else if (value instanceof Long)       top.kvp.addAttribute(key, ((Long) value).longValue());
+                        else if (value instanceof Double)     top.kvp.addAttribute(key, ((Double) value).doubleValue());
+                        else                                  top.kvp.addAttribute(key, value.toString());
+                        break;
+                    default:
+                        throw new ContainerException("expected JSON object in array: " + top.key);
+                }
+            }
+
+            /** @return the completed tree, with the builder's namespace applied if the JSON did not set one */
+            public Element finish() throws ContainerException {
+                if (mRoot == null || !mStack.isEmpty())
+                    throw new ContainerException("incomplete JSON object");
+                if (mRoot.getNamespaceURI("") == null) {
+                    mRoot.setNamespace("", mQName.getNamespaceURI());
+                }
+                return mRoot;
+            }
+
+            /** Interprets an unquoted JSON literal the way the JSON text parser does. */
+            public static Object literalValue(String literal) {
+                if (literal.equals("null"))   return null;
+                if (literal.equals("true"))   return Boolean.TRUE;
+                if (literal.equals("false"))  return Boolean.FALSE;
+                char c = literal.isEmpty() ? ' ' : literal.charAt(0);
+                if ((c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+') {
+                    try {
+                        return Long.decode(literal);
+                    } catch (NumberFormatException nfe) { }
+                    try {
+                        return new Double(literal);
+                    } catch (NumberFormatException nfe) { }
+                }
+                return literal;
+            }
+        }
+
         @Override
         public String toString() {
             StringBuilder sb = new StringBuilder();
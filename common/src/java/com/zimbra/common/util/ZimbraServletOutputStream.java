@@ -17,8 +17,7 @@
 package com.zimbra.common.util;
 
 import java.io.IOException;
-
-import javax.servlet.ServletOutputStream;
+import java.io.OutputStream;
 
 import com.zimbra.common.localconfig.LC;
 
@@ -57,56 +56,144 @@ import com.zimbra.common.localconfig.LC;
  * This wrapper implements the append methods by converting data to UTF-8 and 
  * write to the ServletOutputStream.  This way IOexception won't be eaten(problem of doing 1), 
  * and we don't interfere with jetty's process in deciding on the transfer encoding(problem of doing 2).
+ *
+ * Characters are encoded straight into a byte buffer that is reused by the
+ * next stream created on the same thread, so serializing a response doesn't
+ * allocate in proportion to its size.  The buffer is handed back on
+ * {@link #flush()}; nothing is written to the underlying stream before then
+ * unless the buffer fills up.
  */
 
 public class ZimbraServletOutputStream implements Appendable {
 
     private static final int BUFFER_SIZE = LC.zimbra_servlet_output_stream_buffer_size.intValueWithinRange(512, 20480);
-    ServletOutputStream mOut;
-    
-    // buffer to avoid frequent toString().getBytes()
-    StringBuilder mBuffer = new StringBuilder(BUFFER_SIZE);
-    
-    public ZimbraServletOutputStream(ServletOutputStream out) {
+    // room for the longest UTF-8 sequence a single append(char) can produce
+    private static final int MAX_BYTES_PER_CHAR = 4;
+    private static final ThreadLocal<byte[]> sBuffers = new ThreadLocal<byte[]>();
+
+    OutputStream mOut;
+    byte[] mBuffer;
+    int mCount;
+    // high surrogate waiting for the low surrogate in the next append
+    char mHighSurrogate;
+
+    public ZimbraServletOutputStream(OutputStream out) {
         mOut = out;
     }
-    
+
+    private void acquire() {
+        mBuffer = sBuffers.get();
+        if (mBuffer != null) {
+            sBuffers.remove();
+        } else {
+            mBuffer = new byte[BUFFER_SIZE];
+        }
+        mCount = 0;
+    }
+
+    private void release() {
+        if (mBuffer != null) {
+            sBuffers.set(mBuffer);
+            mBuffer = null;
+        }
+    }
+
+    @Override
     public Appendable append(CharSequence csq) throws IOException {
         append(csq, 0, csq.length());
         return this;
     }
 
+    @Override
     public Appendable append(char c) throws IOException {
-        if (mBuffer.length() + 1 > BUFFER_SIZE)
-            flush();
-        mBuffer.append(c);
+        if (mBuffer == null) {
+            acquire();
+        } else if (mCount + MAX_BYTES_PER_CHAR > mBuffer.length) {
+            drain();
+        }
+        encode(c);
         return this;
     }
 
+    @Override
     public Appendable append(CharSequence csq, int start, int end) throws IOException {
-        int lenToAppend = end - start;
-        
-        if (lenToAppend >= BUFFER_SIZE) {
-            // data to append itself exceeds our threshold, don't let the buffer grow(realloc)
-            flush(); // flush existing data in the buffer
-            write(csq.subSequence(start, end).toString()); // then directly flush this append data out without buffering
-        } else {
-            if (mBuffer.length() + lenToAppend > BUFFER_SIZE)
-                flush();
-            mBuffer.append(csq, start, end);
+        if (mBuffer == null) {
+            acquire();
+        }
+        byte[] buf = mBuffer;
+        for (int i = start; i < end; i++) {
+            if (mCount + MAX_BYTES_PER_CHAR > buf.length) {
+                drain();
+            }
+            char c = csq.charAt(i);
+            if (c < 0x80 && mHighSurrogate == 0) {
+                buf[mCount++] = (byte) c;
+            } else {
+                encode(c);
+            }
         }
-        
         return this;
     }
-    
-    private void write(String str) throws IOException {
-        mOut.write(str.getBytes("utf-8"));
+
+    private void encode(char c) {
+        byte[] buf = mBuffer;
+        if (mHighSurrogate != 0) {
+            char high = mHighSurrogate;
+            mHighSurrogate = 0;
+            if (Character.isLowSurrogate(c)) {
+                int cp = Character.toCodePoint(high, c);
+                buf[mCount++] = (byte) (0xF0 | (cp >> 18));
+                buf[mCount++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[mCount++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[mCount++] = (byte) (0x80 | (cp & 0x3F));
+                return;
+            }
+            // unpaired surrogate, replaced the way String.getBytes() does;
+            // that and c itself still fit the MAX_BYTES_PER_CHAR the caller made room for
+            buf[mCount++] = '?';
+        }
+        if (c < 0x80) {
+            buf[mCount++] = (byte) c;
+        } else if (c < 0x800) {
+            buf[mCount++] = (byte) (0xC0 | (c >> 6));
+            buf[mCount++] = (byte) (0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            mHighSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            buf[mCount++] = '?';
+        } else {
+            buf[mCount++] = (byte) (0xE0 | (c >> 12));
+            buf[mCount++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buf[mCount++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    // writes the buffered bytes without flushing the underlying stream
+    private void drain() throws IOException {
+        if (mCount > 0) {
+            mOut.write(mBuffer, 0, mCount);
+            mCount = 0;
+        }
     }
-    
+
+    /**
+     * Writes out everything appended so far.  Does not flush the underlying
+     * stream.
+     */
     public void flush() throws IOException {
-        if (mBuffer.length() > 0) {
-            write(mBuffer.toString());
-            mBuffer.setLength(0);
+        if (mHighSurrogate != 0) {
+            if (mBuffer == null) {
+                acquire();
+            }
+            mHighSurrogate = 0;
+            mBuffer[mCount++] = '?';
+        }
+        if (mBuffer != null) {
+            try {
+                drain();
+            } finally {
+                release();
+            }
         }
     }
 
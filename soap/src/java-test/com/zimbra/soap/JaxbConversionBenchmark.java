@@ -0,0 +1,142 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.soap;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.bind.Marshaller;
+
+import org.dom4j.io.DocumentResult;
+
+import com.google.common.collect.Lists;
+import com.zimbra.common.soap.Element;
+import com.zimbra.common.soap.Element.XMLElement;
+import com.zimbra.soap.account.message.GetDistributionListResponse;
+import com.zimbra.soap.account.type.DistributionListInfo;
+import com.zimbra.soap.admin.message.AuthResponse;
+import com.zimbra.soap.admin.message.VerifyIndexResponse;
+import com.zimbra.soap.json.JacksonUtil;
+import com.zimbra.soap.mail.message.GetSystemRetentionPolicyResponse;
+import com.zimbra.soap.mail.type.Policy;
+import com.zimbra.soap.mail.type.RetentionPolicy;
+import com.zimbra.soap.type.KeyValuePair;
+
+/**
+ * Converts a few representative JAXB responses to XML and JSON Elements the way JaxbUtil used to (a new
+ * Marshaller per call; a new ObjectMapper and a JSON text round trip per call) and the way it does now (pooled
+ * Marshallers; Jackson output fed straight into the Element tree), and prints the time and bytes allocated per
+ * conversion.  Not a unit test; run it by hand:
+ * <pre>
+ *   JaxbConversionBenchmark [iterations]
+ * </pre>
+ * Allocation figures come from {@code com.sun.management.ThreadMXBean} and are only printed on JVMs that
+ * support it.
+ */
+public class JaxbConversionBenchmark {
+
+    private interface Conversion {
+        Element convert(Object jaxb) throws Exception;
+    }
+
+    private static final Conversion XML_LEGACY = new Conversion() {
+        @Override
+        public Element convert(Object jaxb) throws Exception {
+            Marshaller marshaller = JaxbUtil.createMarshaller();
+            DocumentResult dr = new DocumentResult();
+            marshaller.marshal(jaxb, dr);
+            return Element.convertDOM(dr.getDocument().getRootElement(), XMLElement.mFactory);
+        }
+    };
+
+    private static final Conversion XML_POOLED = new Conversion() {
+        @Override
+        public Element convert(Object jaxb) throws Exception {
+            return JaxbUtil.jaxbToElement(jaxb, XMLElement.mFactory, false, true);
+        }
+    };
+
+    private static final Conversion JSON_LEGACY = new Conversion() {
+        @Override
+        public Element convert(Object jaxb) throws Exception {
+            return Element.parseJSON(JacksonUtil.jaxbToJsonString(JacksonUtil.getObjectMapper(), jaxb));
+        }
+    };
+
+    private static final Conversion JSON_DIRECT = new Conversion() {
+        @Override
+        public Element convert(Object jaxb) throws Exception {
+            return JacksonUtil.jaxbToJSONElement(jaxb);
+        }
+    };
+
+    private static List<Object> messages() {
+        List<KeyValuePair> attrs = Lists.newArrayList();
+        for (int i = 0; i < 50; i++) {
+            attrs.add(new KeyValuePair("zimbraAttr" + i, "value " + i));
+        }
+        DistributionListInfo dl = new DistributionListInfo("b6a1e2c4-5e0c-4c6e-9e53-0b3a1b0a4b1f",
+                "dl@example.test", null, attrs);
+        AuthResponse auth = new AuthResponse();
+        auth.setAuthToken("0_4e7c9b1f2d3a4e5f6a7b8c9d0e1f2a3b4c5d6e7f_69643d33363a");
+        auth.setLifetime(172800000);
+        RetentionPolicy rp = new RetentionPolicy(
+                Arrays.asList(Policy.newUserPolicy("30d"), Policy.newSystemPolicy("id1", "legal", "365d")),
+                Arrays.asList(Policy.newUserPolicy("90d")));
+        return Arrays.<Object>asList(new GetDistributionListResponse(dl), auth,
+                new VerifyIndexResponse(true, "index is consistent"), new GetSystemRetentionPolicyResponse(rp));
+    }
+
+    private static long allocated() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static void time(String label, Object jaxb, Conversion conversion, int iterations) throws Exception {
+        for (int i = 0; i < Math.max(iterations / 4, 1); i++) {
+            conversion.convert(jaxb);
+        }
+        long alloc = allocated();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            conversion.convert(jaxb);
+        }
+        long elapsed = System.nanoTime() - start;
+        long allocPer = alloc < 0 ? -1 : (allocated() - alloc) / iterations;
+        p("%-36s %-12s %10.1f %14d", jaxb.getClass().getSimpleName(), label, elapsed / 1e3 / iterations, allocPer);
+    }
+
+    private static void p(String fmt, Object... args) {
+        System.out.println(String.format(fmt, args));
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        p("%-36s %-12s %10s %14s", "message", "path", "us/conv", "bytes alloc/conv");
+        for (Object jaxb : messages()) {
+            time("xml legacy", jaxb, XML_LEGACY, iterations);
+            time("xml pooled", jaxb, XML_POOLED, iterations);
+            time("json legacy", jaxb, JSON_LEGACY, iterations);
+            time("json direct", jaxb, JSON_DIRECT, iterations);
+            p("");
+        }
+    }
+}
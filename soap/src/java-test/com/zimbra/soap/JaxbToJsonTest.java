@@ -315,6 +315,35 @@ public class JaxbToJsonTest {
         Assert.assertEquals("roundtripped message", msg, roundtripped.getMessage());
     }
 
+    /**
+     * jaxbToJSONElement builds Elements directly from Jackson's output.  Check that gives the same tree as
+     * rendering the JSON text and parsing it, which is what it used to do.
+     */
+    @Test
+    public void directJsonElementMatchesParsedText() throws Exception {
+        List<KeyValuePair> attrs = Lists.newArrayList();
+        attrs.add(new KeyValuePair("mail", "fun@example.test"));
+        attrs.add(new KeyValuePair("zimbraMailStatus", "enabled"));
+        attrs.add(new KeyValuePair("zimbraMailStatus", "locked"));
+        DistributionListInfo dl = new DistributionListInfo("myId", "my name",  null, attrs);
+        dl.setDynamic(true);
+        AuthResponse authResp = new AuthResponse();
+        authResp.setAuthToken("authenticationtoken");
+        authResp.setLifetime(3000);
+        StringAttrStringElem strs = new StringAttrStringElem();
+        strs.setAttr1("My attribute ONE");
+        strs.setElem1("My element ONE");
+        ObjectMapper mapper = JacksonUtil.getObjectMapper();
+        for (Object jaxb : new Object[] { new GetDistributionListResponse(dl), new KeyValuePairsTester(attrs),
+                new VerifyIndexResponse(true, "ver ndx message"), authResp, strs }) {
+            Element direct = JacksonUtil.jaxbToJSONElement(jaxb);
+            Element parsed = Element.parseJSON(JacksonUtil.jaxbToJsonString(mapper, jaxb),
+                    QName.get(direct.getName(), direct.getNamespaceURI("")), JSONElement.mFactory);
+            logDebug("JSONElement from JAXB ---> prettyPrint\n%1$s", direct.prettyPrint());
+            Assert.assertEquals(jaxb.getClass().getSimpleName(), parsed.prettyPrint(), direct.prettyPrint());
+        }
+    }
+
     /**
      * XmlValue should map to an attribute with name "_content"
      * At present, classes that want this feature need the annotation @JsonProperty("_content"),
@@ -0,0 +1,83 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.soap;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.zimbra.common.soap.Element;
+import com.zimbra.common.soap.Element.XMLElement;
+import com.zimbra.soap.admin.message.VerifyIndexResponse;
+import com.zimbra.soap.jaxb.StringAttrStringElem;
+
+/**
+ * Marshallers and Unmarshallers are pooled and shared between threads, so make sure concurrent conversions
+ * don't see each other's state.
+ */
+public class JaxbUtilTest {
+
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 200;
+
+    @Test
+    public void concurrentRoundTrips() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Void>> results = Lists.newArrayList();
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+                results.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i = 0; i < ITERATIONS; i++) {
+                            String msg = "message " + thread + "/" + i;
+                            // request/response class, uses the shared context
+                            Element elem = JaxbUtil.jaxbToElement(new VerifyIndexResponse(i % 2 == 0, msg),
+                                    XMLElement.mFactory);
+                            VerifyIndexResponse resp = JaxbUtil.elementToJaxb(elem);
+                            Assert.assertEquals("status", i % 2 == 0, resp.isStatus());
+                            Assert.assertEquals("message", msg, resp.getMessage());
+
+                            // other classes get a context of their own
+                            StringAttrStringElem strs = new StringAttrStringElem();
+                            strs.setAttr1(msg);
+                            strs.setElem1(msg + " elem");
+                            elem = JaxbUtil.jaxbToElement(strs, XMLElement.mFactory, true, false);
+                            StringAttrStringElem roundtripped =
+                                    JaxbUtil.elementToJaxb(elem, StringAttrStringElem.class);
+                            Assert.assertEquals("attr1", msg, roundtripped.getAttr1());
+                            Assert.assertEquals("elem1", msg + " elem", roundtripped.getElem1());
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+
+package com.zimbra.soap;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+/**
+ * Marshallers and Unmarshallers are cheap to use but not to create, and are not thread-safe.  This keeps a bounded
+ * set of idle ones for a single {@link JAXBContext} so that each conversion does not have to build its own.
+ * <p>
+ * Only hand back an instance after a conversion that completed normally - a JAXB runtime which has thrown can be
+ * left in a state that breaks later calls.  Instances handed back must not have had any properties or handlers
+ * changed.
+ */
+final class JaxbContextPool {
+
+    private static final int MAX_IDLE = Math.max(8, Runtime.getRuntime().availableProcessors() * 2);
+
+    private final JAXBContext context;
+    private final BlockingQueue<Marshaller> marshallers = new ArrayBlockingQueue<Marshaller>(MAX_IDLE);
+    private final BlockingQueue<Unmarshaller> unmarshallers = new ArrayBlockingQueue<Unmarshaller>(MAX_IDLE);
+
+    JaxbContextPool(JAXBContext context) {
+        this.context = context;
+    }
+
+    JAXBContext getContext() {
+        return context;
+    }
+
+    Marshaller borrowMarshaller() throws JAXBException {
+        Marshaller marshaller = marshallers.poll();
+        return marshaller != null ? marshaller : context.createMarshaller();
+    }
+
+    void returnMarshaller(Marshaller marshaller) {
+        marshallers.offer(marshaller);
+    }
+
+    Unmarshaller borrowUnmarshaller() throws JAXBException {
+        Unmarshaller unmarshaller = unmarshallers.poll();
+        return unmarshaller != null ? unmarshaller : context.createUnmarshaller();
+    }
+
+    void returnUnmarshaller(Unmarshaller unmarshaller) {
+        unmarshallers.offer(unmarshaller);
+    }
+}
@@ -21,7 +21,7 @@ import java.io.ByteArrayInputStream;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
@@ -74,7 +74,8 @@ public final class JaxbUtil {
     private static final String MAIL_JAXB_PACKAGE = "com.zimbra.soap.mail.message";
     private static final String ADMIN_EXT_JAXB_PACKAGE = "com.zimbra.soap.adminext.message";
     private static JAXBContext JAXB_CONTEXT;
-    private static Map <Class<?>,JAXBContext> classJaxbContexts;
+    private static JaxbContextPool JAXB_CONTEXT_POOL;
+    private static final ConcurrentMap<Class<?>,JaxbContextPool> classJaxbContexts = Maps.newConcurrentMap();
 
     static {
         MESSAGE_CLASSES = new Class<?>[] {
@@ -1124,6 +1125,7 @@ public final class JaxbUtil {
 
         try {
             JAXB_CONTEXT = JAXBContext.newInstance(MESSAGE_CLASSES);
+            JAXB_CONTEXT_POOL = new JaxbContextPool(JAXB_CONTEXT);
         } catch (JAXBException e) {
             throw new RuntimeException("Unable to initialize JAXB", e);
         }
@@ -1169,15 +1171,12 @@ public final class JaxbUtil {
             return JacksonUtil.jaxbToJSONElement(o);
         }
         try {
-            Marshaller marshaller;
-            if (useContextMarshaller) {
-                marshaller = getContext().createMarshaller();
-            } else {
-                marshaller = createMarshaller(o.getClass());
-            }
+            JaxbContextPool pool = useContextMarshaller ? getContextPool() : getJaxbContextPool(o.getClass());
+            Marshaller marshaller = pool.borrowMarshaller();
             // marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
             DocumentResult dr = new DocumentResult();
             marshaller.marshal(o, dr);
+            pool.returnMarshaller(marshaller);
             Document theDoc = dr.getDocument();
             org.dom4j.Element rootElem = theDoc.getRootElement();
             if (removePrefixes) {
@@ -1227,16 +1226,24 @@ public final class JaxbUtil {
 
     private static JAXBContext getJaxbContext(Class<?> klass)
     throws JAXBException {
-        JAXBContext jaxb = null;
-        if (JaxbUtil.classJaxbContexts == null) {
-            JaxbUtil.classJaxbContexts = Maps.newHashMap();
-        }
-        if (JaxbUtil.classJaxbContexts.containsKey(klass)) {
-            jaxb = JaxbUtil.classJaxbContexts.get(klass);
-        } else {
-            jaxb = JAXBContext.newInstance(klass);
+        return getJaxbContextPool(klass).getContext();
+    }
+
+    /**
+     * Building a JAXBContext means introspecting the whole class graph, so keep one per class.  Two threads
+     * racing on a new class may both build one; only the first to be registered is kept.
+     */
+    private static JaxbContextPool getJaxbContextPool(Class<?> klass)
+    throws JAXBException {
+        JaxbContextPool pool = classJaxbContexts.get(klass);
+        if (pool == null) {
+            pool = new JaxbContextPool(JAXBContext.newInstance(klass));
+            JaxbContextPool existing = classJaxbContexts.putIfAbsent(klass, pool);
+            if (existing != null) {
+                pool = existing;
+            }
         }
-        return jaxb;
+        return pool;
     }
 
     @SuppressWarnings({ "unchecked", "rawtypes" })
@@ -1246,11 +1253,13 @@ public final class JaxbUtil {
             return JacksonUtil.jaxbToJSONElement(o, org.dom4j.QName.get(name, namespace));
         }
         try {
-            Marshaller marshaller = createMarshaller(o.getClass());
+            JaxbContextPool pool = getJaxbContextPool(o.getClass());
+            Marshaller marshaller = pool.borrowMarshaller();
             // marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
             DocumentResult dr = new DocumentResult();
             marshaller.marshal(new JAXBElement(new QName(namespace, name),
                     o.getClass(), o) , dr);
+            pool.returnMarshaller(marshaller);
             Document theDoc = dr.getDocument();
             org.dom4j.Element rootElem = theDoc.getRootElement();
             return Element.convertDOM(rootElem, factory);
@@ -1525,15 +1534,19 @@ public final class JaxbUtil {
         }
         try {
             // LOG.warn("Dom to Xml:\n" + W3cDomUtil.asXML(document);
-            Unmarshaller unmarshaller;
             if (jaxbClassInContext) {
-                unmarshaller = getContext().createUnmarshaller();
-                return (T) unmarshaller.unmarshal(doc);
+                JaxbContextPool pool = getContextPool();
+                Unmarshaller unmarshaller = pool.borrowUnmarshaller();
+                T ret = (T) unmarshaller.unmarshal(doc);
+                pool.returnUnmarshaller(unmarshaller);
+                return ret;
             } else {
                 org.w3c.dom.Element docElem = doc.getDocumentElement();
-                unmarshaller = createUnmarshaller(klass);
+                JaxbContextPool pool = getJaxbContextPool(klass);
+                Unmarshaller unmarshaller = pool.borrowUnmarshaller();
                 JAXBElement<T> ret =
                     (JAXBElement<T>) unmarshaller.unmarshal(docElem, klass);
+                pool.returnUnmarshaller(unmarshaller);
                 return ret.getValue();
             }
         } catch (JAXBException ex) {
@@ -1618,6 +1631,13 @@ public final class JaxbUtil {
         return JAXB_CONTEXT;
     }
 
+    private static JaxbContextPool getContextPool() {
+        if (JAXB_CONTEXT_POOL == null) {
+            throw new IllegalStateException("JAXB has not been initialized");
+        }
+        return JAXB_CONTEXT_POOL;
+    }
+
     public static CreateItemNotification getCreatedItemSOAP(BaseItemInfo mod) throws ServiceException {
         String tags = mod.getTags() == null ? null : Joiner.on(",").join(mod.getTags());
         ImapMessageInfo messageInfo = new ImapMessageInfo(mod.getIdInMailbox(), mod.getImapUid(), mod.getMailItemType().toString(), mod.getFlagBitmask(), tags);
@@ -75,6 +75,14 @@ public final class VolumeInfo {
     @XmlAttribute(name=AdminConstants.A_VOLUME_COMPRESSION_THRESHOLD /* compressionThreshold */, required=false)
     private long compressionThreshold = -1;
 
+    /**
+     * @zm-api-field-tag compression-codec
+     * @zm-api-field-description Codec used to compress new blobs: <b>gzip</b> (default) or <b>lz4</b>.
+     * Existing blobs remain readable after the codec is changed.
+     */
+    @XmlAttribute(name=AdminConstants.A_VOLUME_COMPRESSION_CODEC /* compressionCodec */, required=false)
+    private String compressionCodec;
+
     /**
      * @zm-api-field-description mgbits
      */
@@ -157,6 +165,14 @@ public final class VolumeInfo {
         return compressionThreshold;
     }
 
+    public void setCompressionCodec(String value) {
+        compressionCodec = value;
+    }
+
+    public String getCompressionCodec() {
+        return compressionCodec;
+    }
+
     public void setMgbits(short value) {
         mgbits = value;
     }
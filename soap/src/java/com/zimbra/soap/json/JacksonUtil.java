@@ -22,15 +22,21 @@ import java.io.StringWriter;
 import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlSchema;
 
+import com.fasterxml.jackson.core.Base64Variants;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.AnnotationIntrospector;
 import com.fasterxml.jackson.databind.MapperFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import com.google.common.base.Strings;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.soap.Element;
+import com.zimbra.common.soap.Element.ContainerException;
 import com.zimbra.common.soap.Element.JSONElement;
 import com.zimbra.common.soap.SoapParseException;
+import com.zimbra.common.soap.SoapProtocol;
 import com.zimbra.common.util.Log;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.soap.json.jackson.ZimbraJsonModule;
@@ -42,6 +48,13 @@ public final class JacksonUtil {
     private JacksonUtil() { }
 
     private static final Log LOG = ZimbraLog.soap;
+
+    /**
+     * ObjectMappers are thread-safe once configured and cache the serializers they build for each class, so
+     * the conversions done here share one rather than paying for that introspection on every call.
+     */
+    private static final ObjectMapper SHARED_MAPPER = getObjectMapper();
+
     /**
      *  e.g.
      *      calData = new AppointmentData(uid, uid);
@@ -53,12 +66,62 @@ public final class JacksonUtil {
      */
     public static Element jaxbToJSONElement(Object obj, org.dom4j.QName qn)
     throws ServiceException {
+        if (obj == null)
+            return null;
+        if (qn == null) {
+            qn = SoapProtocol.SoapJS.getEnvelopeQName();
+        }
         try {
-            String json = jaxbToJsonString(JacksonUtil.getObjectMapper(), obj);
-            return jacksonJsonToElement(json, qn, obj);
-        } catch (IOException e) {
-            throw ServiceException.FAILURE("IOException", e);
+            TokenBuffer tokens = new TokenBuffer(SHARED_MAPPER, false);
+            SHARED_MAPPER.writeValue(tokens, obj);
+            return tokensToElement(tokens.asParser(), qn);
+        } catch (IOException | ContainerException e) {
+            throw ServiceException.FAILURE("Unable to convert " + obj.getClass().getName() + " to JSONElement", e);
+        }
+    }
+
+    /**
+     * Replays Jackson's serialization of a JAXB object into a {@link JSONElement.Builder}.  Scalars are converted
+     * exactly as {@link Element#parseJSON} would convert the equivalent JSON text, so the result is the same as
+     * rendering the object with {@link #jaxbToJsonString} and parsing that.
+     */
+    private static Element tokensToElement(JsonParser parser, org.dom4j.QName qn)
+    throws IOException {
+        JSONElement.Builder builder = new JSONElement.Builder(qn, JSONElement.mFactory);
+        String name = null;
+        JsonToken token;
+        while ((token = parser.nextToken()) != null) {
+            switch (token) {
+                case FIELD_NAME:          name = parser.getCurrentName();  break;
+                case START_OBJECT:        builder.startObject(name);  break;
+                case END_OBJECT:          builder.endObject();  break;
+                case START_ARRAY:         builder.startArray(name);  break;
+                case END_ARRAY:           builder.endArray();  break;
+                case VALUE_STRING:        builder.value(name, parser.getText());  break;
+                case VALUE_TRUE:          builder.value(name, Boolean.TRUE);  break;
+                case VALUE_FALSE:         builder.value(name, Boolean.FALSE);  break;
+                case VALUE_NULL:          builder.value(name, null);  break;
+                case VALUE_NUMBER_INT:    builder.value(name, JSONElement.Builder.literalValue(parser.getText()));  break;
+                case VALUE_NUMBER_FLOAT:
+                    // NaN and the infinities are written as quoted strings
+                    double d = parser.getDoubleValue();
+                    if (Double.isNaN(d) || Double.isInfinite(d))
+                        builder.value(name, parser.getText());
+                    else
+                        builder.value(name, JSONElement.Builder.literalValue(parser.getText()));
+                    break;
+                case VALUE_EMBEDDED_OBJECT:
+                    Object embedded = parser.getEmbeddedObject();
+                    if (embedded instanceof byte[])
+                        builder.value(name, Base64Variants.getDefaultVariant().encode((byte[]) embedded));
+                    else
+                        builder.value(name, embedded == null ? null : embedded.toString());
+                    break;
+                default:
+                    throw new ContainerException("unexpected JSON token " + token);
+            }
         }
+        return builder.finish();
     }
 
     public static Element jaxbToJSONElement(Object obj)
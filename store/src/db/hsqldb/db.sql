@@ -71,6 +71,10 @@ create table volume_blobs (
   -- CONSTRAINT fk_volume_blobs_mailbox_id FOREIGN KEY (mailbox_id) REFERENCES mailbox(id)
 );
 
+-- Not needed for unit test, but the MySQL schema must have it: the online blob deduper looks up
+-- blob_digest on every delivery.
+CREATE INDEX i_volume_blobs_digest ON volume_blobs(blob_digest, volume_id);
+
 
 CREATE TABLE mailbox (
    id                  INTEGER NOT NULL PRIMARY KEY,
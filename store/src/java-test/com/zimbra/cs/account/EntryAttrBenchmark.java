@@ -0,0 +1,120 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import com.zimbra.common.account.ProvisioningConstants;
+import com.zimbra.common.util.DateUtil;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Times the typed getters an account is hit with on every request (quota,
+ * feature flags, lifetimes), against parsing the string value each time the
+ * way {@link Entry} used to:
+ * <pre>
+ *   EntryAttrBenchmark [iterations] [threads]
+ * </pre>
+ */
+public class EntryAttrBenchmark {
+
+    private static volatile long sink;
+
+    private final Account acct;
+
+    public EntryAttrBenchmark() throws Exception {
+        Provisioning prov = Provisioning.getInstance();
+        Map<String, Object> cosAttrs = new HashMap<String, Object>();
+        cosAttrs.put(Provisioning.A_zimbraMailQuota, "1073741824");
+        cosAttrs.put(Provisioning.A_zimbraFeatureMobileSyncEnabled, ProvisioningConstants.TRUE);
+        cosAttrs.put(Provisioning.A_zimbraMailTrashLifetime, "30d");
+        Cos cos = prov.createCos("bench-" + UUID.randomUUID(), cosAttrs);
+
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        String id = UUID.randomUUID().toString();
+        attrs.put(Provisioning.A_zimbraId, id);
+        attrs.put(Provisioning.A_zimbraContactMaxNumEntries, "5000");
+        acct = new Account("bench@zimbra.com", id, attrs, cos.getAccountDefaults(), prov);
+    }
+
+    private long cached(int iterations) {
+        long total = 0;
+        for (int i = 0; i < iterations; i++) {
+            total += acct.getMailQuota();
+            total += acct.getContactMaxNumEntries();
+            total += acct.isFeatureMobileSyncEnabled() ? 1 : 0;
+            total += acct.isFeatureCalendarEnabled() ? 1 : 0;
+            total += acct.getMailTrashLifetime();
+        }
+        return total;
+    }
+
+    private long parsed(int iterations) {
+        long total = 0;
+        for (int i = 0; i < iterations; i++) {
+            total += Long.parseLong(acct.getAttr(Provisioning.A_zimbraMailQuota, true, true));
+            total += Integer.parseInt(acct.getAttr(Provisioning.A_zimbraContactMaxNumEntries, true, true));
+            total += ProvisioningConstants.TRUE.equals(acct.getAttr(Provisioning.A_zimbraFeatureMobileSyncEnabled, true, true)) ? 1 : 0;
+            total += ProvisioningConstants.TRUE.equals(acct.getAttr(Provisioning.A_zimbraFeatureCalendarEnabled, true, true)) ? 1 : 0;
+            total += DateUtil.getTimeInterval(acct.getAttr(Provisioning.A_zimbraMailTrashLifetime, true, true), 0L);
+        }
+        return total;
+    }
+
+    private double time(final boolean cached, final int iterations, int threads) throws Exception {
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    sink += cached ? cached(iterations) : parsed(iterations);
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return 5.0 * iterations * threads / ((System.nanoTime() - start) / 1e9);
+    }
+
+    public void run(int iterations, int threads) throws Exception {
+        // warm up both paths
+        time(false, iterations / 10, 1);
+        time(true, iterations / 10, 1);
+        p("%8s %14s %14s   (lookups/s)", "threads", "parsed", "cached");
+        for (int n = 1; n <= threads; n *= 2) {
+            p("%8d %14.0f %14.0f", n, time(false, iterations, n), time(true, iterations, n));
+        }
+    }
+
+    private static void p(String fmt, Object... args) {
+        System.out.println(String.format(fmt, args));
+    }
+
+    public static void main(String[] args) throws Exception {
+        MailboxTestUtil.initProvisioning();
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        new EntryAttrBenchmark().run(iterations, threads);
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.account.ProvisioningConstants;
+import com.zimbra.common.util.Constants;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Unit test for the parsed attribute values {@link Entry} keeps for its typed
+ * getters.
+ */
+public final class EntryTypedAttrTest {
+
+    private static Provisioning prov;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initProvisioning();
+        prov = Provisioning.getInstance();
+    }
+
+    private static Account account(Map<String, Object> attrs, Cos cos) {
+        String id = UUID.randomUUID().toString();
+        attrs.put(Provisioning.A_zimbraId, id);
+        return new Account("typed-" + id + "@zimbra.com", id, attrs, cos == null ? null : cos.getAccountDefaults(), prov);
+    }
+
+    @Test
+    public void values() throws Exception {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraMailQuota, "1048576");
+        attrs.put(Provisioning.A_zimbraContactMaxNumEntries, "5");
+        attrs.put(Provisioning.A_zimbraFeatureMobileSyncEnabled, ProvisioningConstants.TRUE);
+        attrs.put(Provisioning.A_zimbraMailTrashLifetime, "1h");
+        Account acct = account(attrs, null);
+
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals(1048576L, acct.getMailQuota());
+            Assert.assertEquals(5, acct.getContactMaxNumEntries());
+            Assert.assertTrue(acct.isFeatureMobileSyncEnabled());
+            Assert.assertEquals(Constants.MILLIS_PER_HOUR, acct.getMailTrashLifetime());
+        }
+        // the same attribute read as a different type is parsed separately
+        Assert.assertEquals(5L, acct.getLongAttr(Provisioning.A_zimbraContactMaxNumEntries, -1L));
+        // attribute names are case-insensitive
+        Assert.assertEquals(1048576L, acct.getLongAttr("ZIMBRAMAILQUOTA", -1L));
+    }
+
+    @Test
+    public void defaults() throws Exception {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraContactMaxNumEntries, "many");
+        attrs.put(Provisioning.A_zimbraMailTrashLifetime, "soon");
+        Account acct = account(attrs, null);
+
+        for (int i = 0; i < 2; i++) {
+            Assert.assertEquals(0L, acct.getMailQuota());
+            Assert.assertEquals(7L, acct.getLongAttr(Provisioning.A_zimbraMailQuota, 7L));
+            Assert.assertFalse(acct.isFeatureMobileSyncEnabled());
+            Assert.assertTrue(acct.getBooleanAttr(Provisioning.A_zimbraFeatureMobileSyncEnabled, true));
+            // values that don't parse fall back to whatever default the caller passes
+            Assert.assertEquals(10000, acct.getContactMaxNumEntries());
+            Assert.assertEquals(3, acct.getIntAttr(Provisioning.A_zimbraContactMaxNumEntries, 3));
+            Assert.assertEquals(2592000000L, acct.getMailTrashLifetime());
+        }
+        // attributes not in the attrs xml files aren't cached but still parse
+        acct.getAttrs(false, false).put("extensionCount", "11");
+        Assert.assertEquals(11, acct.getIntAttr("extensionCount", -1));
+    }
+
+    @Test
+    public void modify() throws Exception {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraMailQuota, "100");
+        Account acct = account(attrs, null);
+        Assert.assertEquals(100L, acct.getMailQuota());
+
+        Map<String, Object> mods = new HashMap<String, Object>();
+        mods.put(Provisioning.A_zimbraMailQuota, "200");
+        prov.modifyAttrs(acct, mods);
+        Assert.assertEquals(200L, acct.getMailQuota());
+
+        attrs = new HashMap<String, Object>(acct.getAttrs(false, false));
+        attrs.put(Provisioning.A_zimbraMailQuota, "300");
+        acct.setAttrs(attrs);
+        Assert.assertEquals(300L, acct.getMailQuota());
+    }
+
+    @Test
+    public void cosReload() throws Exception {
+        Map<String, Object> cosAttrs = new HashMap<String, Object>();
+        cosAttrs.put(Provisioning.A_zimbraMailQuota, "1000");
+        Cos cos = prov.createCos("typed-" + UUID.randomUUID(), cosAttrs);
+        Account acct = account(new HashMap<String, Object>(), cos);
+        Account other = account(new HashMap<String, Object>(), cos);
+        Assert.assertEquals(1000L, acct.getMailQuota());
+        Assert.assertFalse(acct.isFeatureMobileSyncEnabled());
+        Assert.assertEquals(1000L, other.getMailQuota());
+
+        // refreshing the cos refills the defaults map the accounts share
+        cosAttrs = new HashMap<String, Object>(cos.getAttrs(false, false));
+        cosAttrs.put(Provisioning.A_zimbraMailQuota, "2000");
+        cosAttrs.put(Provisioning.A_zimbraFeatureMobileSyncEnabled, ProvisioningConstants.TRUE);
+        cos.setAttrs(cosAttrs);
+        Assert.assertEquals(2000L, acct.getMailQuota());
+        Assert.assertTrue(acct.isFeatureMobileSyncEnabled());
+        Assert.assertEquals(2000L, other.getMailQuota());
+
+        // the account's own value still wins over the cos
+        Map<String, Object> mods = new HashMap<String, Object>();
+        mods.put(Provisioning.A_zimbraMailQuota, "10");
+        prov.modifyAttrs(acct, mods);
+        Assert.assertEquals(10L, acct.getMailQuota());
+        Assert.assertEquals(2000L, other.getMailQuota());
+    }
+
+    @Test
+    public void defaultsGeneration() throws Exception {
+        Map<String, Object> cosAttrs = new HashMap<String, Object>();
+        cosAttrs.put(Provisioning.A_zimbraMailQuota, "1000");
+        long generation = Entry.getDefaultsGeneration();
+        Cos cos = prov.createCos("typed-" + UUID.randomUUID(), cosAttrs);
+        new Cos(cos.getName(), cos.getId(), new HashMap<String, Object>(cos.getAttrs(false, false)), prov);
+        // loading a cos fills a defaults map nobody reads yet
+        Assert.assertEquals(generation, Entry.getDefaultsGeneration());
+
+        // nor does reloading it with the same values drop anybody's parsed values
+        cos.setAttrs(new HashMap<String, Object>(cos.getAttrs(false, false)));
+        Assert.assertEquals(generation, Entry.getDefaultsGeneration());
+
+        cosAttrs = new HashMap<String, Object>(cos.getAttrs(false, false));
+        cosAttrs.put(Provisioning.A_zimbraMailQuota, "2000");
+        cos.setAttrs(cosAttrs);
+        Assert.assertTrue(Entry.getDefaultsGeneration() > generation);
+    }
+
+    @Test
+    public void slots() {
+        TypedAttrSlots slots = new TypedAttrSlots(0, 0);
+        for (int i = 0; i < 100; i++) {
+            slots = slots.with(TypedAttrSlots.key(i, TypedAttrSlots.INT), i);
+        }
+        slots = slots.with(TypedAttrSlots.key(5, TypedAttrSlots.BOOLEAN), TypedAttrSlots.ABSENT);
+        Assert.assertEquals(101, slots.size());
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(i, slots.get(TypedAttrSlots.key(i, TypedAttrSlots.INT)));
+        }
+        Assert.assertSame(TypedAttrSlots.ABSENT, slots.get(TypedAttrSlots.key(5, TypedAttrSlots.BOOLEAN)));
+        Assert.assertNull(slots.get(TypedAttrSlots.key(5, TypedAttrSlots.LONG)));
+        Assert.assertNull(slots.get(TypedAttrSlots.key(100, TypedAttrSlots.INT)));
+    }
+}
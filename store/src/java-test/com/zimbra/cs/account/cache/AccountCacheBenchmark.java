@@ -0,0 +1,209 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.zimbra.common.stats.HitRateCounter;
+import com.zimbra.common.util.MapUtil;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Times account lookups by id, name and alias from many threads against
+ * {@link AccountCache} and against the synchronized LRU maps it replaced.
+ * One lookup in a thousand is followed by a put, as happens when accounts
+ * are modified or reloaded:
+ * <pre>
+ *   AccountCacheBenchmark [threads] [accounts] [seconds]
+ * </pre>
+ */
+public class AccountCacheBenchmark {
+
+    /** The previous implementation: five LRU maps behind one monitor. */
+    static final class SynchronizedAccountCache implements IAccountCache {
+        private final Map<String, Account> mNameCache;
+        private final Map<String, Account> mIdCache;
+        private final Map<String, Account> mAliasCache;
+        private final HitRateCounter mHitRate = new HitRateCounter();
+
+        SynchronizedAccountCache(int maxItems) {
+            mNameCache = MapUtil.newLruMap(maxItems);
+            mIdCache = MapUtil.newLruMap(maxItems);
+            mAliasCache = MapUtil.newLruMap(maxItems);
+        }
+
+        @Override
+        public synchronized void clear() {
+            mNameCache.clear();
+            mIdCache.clear();
+            mAliasCache.clear();
+        }
+
+        @Override
+        public synchronized void remove(Account entry) {
+            mNameCache.remove(entry.getName());
+            mIdCache.remove(entry.getId());
+            for (String alias : entry.getMultiAttr(Provisioning.A_zimbraMailAlias)) {
+                mAliasCache.remove(alias);
+            }
+        }
+
+        @Override
+        public synchronized void put(Account entry) {
+            mNameCache.put(entry.getName(), entry);
+            mIdCache.put(entry.getId(), entry);
+            for (String alias : entry.getMultiAttr(Provisioning.A_zimbraMailAlias)) {
+                mAliasCache.put(alias, entry);
+            }
+        }
+
+        @Override
+        public synchronized void replace(Account entry) {
+            remove(entry);
+            put(entry);
+        }
+
+        private Account get(String key, Map<String, Account> cache) {
+            Account acct = cache.get(key);
+            mHitRate.increment(acct != null ? 100 : 0);
+            return acct;
+        }
+
+        @Override
+        public synchronized Account getById(String key) {
+            return get(key, mIdCache);
+        }
+
+        @Override
+        public synchronized Account getByName(String key) {
+            Account acct = get(key.toLowerCase(), mNameCache);
+            return acct != null ? acct : get(key.toLowerCase(), mAliasCache);
+        }
+
+        @Override
+        public synchronized Account getByForeignPrincipal(String key) {
+            return null;
+        }
+
+        @Override
+        public synchronized int getSize() {
+            return mIdCache.size();
+        }
+
+        @Override
+        public synchronized double getHitRate() {
+            return mHitRate.getAverage();
+        }
+    }
+
+    private static volatile Object sink;
+
+    private final Account[] accounts;
+
+    public AccountCacheBenchmark(int count) {
+        accounts = new Account[count];
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> attrs = new HashMap<String, Object>();
+            String id = UUID.randomUUID().toString();
+            attrs.put(Provisioning.A_zimbraId, id);
+            attrs.put(Provisioning.A_zimbraMailAlias, "alias" + i + "@zimbra.com");
+            accounts[i] = new Account("user" + i + "@zimbra.com", id, attrs, null, Provisioning.getInstance());
+        }
+    }
+
+    private double run(final IAccountCache cache, int threads, final long millis) throws Exception {
+        for (Account acct : accounts) {
+            cache.put(acct);
+        }
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] counts = new long[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int slot = t;
+            workers[t] = new Thread() {
+                @Override
+                public void run() {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long n = 0;
+                    Object last = null;
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    long end = System.currentTimeMillis() + millis;
+                    while ((n & 0xff) != 0 || System.currentTimeMillis() < end) {
+                        int i = random.nextInt(accounts.length);
+                        switch ((int) (n % 3)) {
+                        case 0:
+                            last = cache.getById(accounts[i].getId());
+                            break;
+                        case 1:
+                            last = cache.getByName(accounts[i].getName());
+                            break;
+                        default:
+                            last = cache.getByName("alias" + i + "@zimbra.com");
+                        }
+                        if (random.nextInt(1000) == 0) {
+                            cache.put(accounts[i]);
+                        }
+                        n++;
+                    }
+                    counts[slot] = n;
+                    sink = last;
+                }
+            };
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        long total = 0;
+        for (int t = 0; t < threads; t++) {
+            workers[t].join();
+            total += counts[t];
+        }
+        return total / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    private static void p(String fmt, Object... args) {
+        System.out.println(String.format(fmt, args));
+    }
+
+    public static void main(String[] args) throws Exception {
+        MailboxTestUtil.initProvisioning();
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        long millis = (args.length > 2 ? Integer.parseInt(args[2]) : 5) * 1000L;
+
+        AccountCacheBenchmark bench = new AccountCacheBenchmark(count);
+        // warm up
+        bench.run(new SynchronizedAccountCache(count * 2), threads, millis / 5);
+        bench.run(new AccountCache(count * 2, 0), threads, millis / 5);
+
+        p("%8s %14s %14s   (lookups/s)", "threads", "synchronized", "concurrent");
+        for (int n = 1; n <= threads; n *= 2) {
+            p("%8d %14.0f %14.0f", n, bench.run(new SynchronizedAccountCache(count * 2), n, millis),
+                    bench.run(new AccountCache(count * 2, 0), n, millis));
+        }
+    }
+}
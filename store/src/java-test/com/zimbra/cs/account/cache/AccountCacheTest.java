@@ -0,0 +1,144 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account.cache;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Cos;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Unit test for {@link AccountCache} and {@link NamedEntryCache}.
+ */
+public final class AccountCacheTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initProvisioning();
+    }
+
+    private static Account account(String name, String id, String... aliases) {
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraId, id);
+        attrs.put(Provisioning.A_zimbraMailAlias, aliases);
+        attrs.put(Provisioning.A_zimbraForeignPrincipal, "fp:" + name);
+        return new Account(name, id, attrs, null, Provisioning.getInstance());
+    }
+
+    @Test
+    public void lookup() {
+        AccountCache cache = new AccountCache(100, 0);
+        Account acct = account("user1@zimbra.com", UUID.randomUUID().toString(), "alias1@zimbra.com");
+        Assert.assertNull(cache.getByName("user1@zimbra.com"));
+        cache.put(acct);
+
+        Assert.assertSame(acct, cache.getById(acct.getId()));
+        Assert.assertSame(acct, cache.getByName("USER1@zimbra.com"));
+        Assert.assertSame(acct, cache.getByName("alias1@zimbra.com"));
+        Assert.assertSame(acct, cache.getByForeignPrincipal("fp:user1@zimbra.com"));
+        Assert.assertNull(cache.getByName("user2@zimbra.com"));
+        Assert.assertEquals(1, cache.getSize());
+        Assert.assertEquals(4 * 100.0 / 6, cache.getHitRate(), 0.01);
+        Assert.assertEquals(0.0, cache.getHitRate(), 0.01);
+
+        cache.remove(acct);
+        Assert.assertNull(cache.getById(acct.getId()));
+        Assert.assertNull(cache.getByName("alias1@zimbra.com"));
+        Assert.assertNull(cache.getByForeignPrincipal("fp:user1@zimbra.com"));
+        Assert.assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void replace() {
+        AccountCache cache = new AccountCache(100, 0);
+        String id = UUID.randomUUID().toString();
+        cache.put(account("user1@zimbra.com", id, "alias1@zimbra.com"));
+
+        // an update that drops the alias; readers must not find the old entry under it
+        Account renamed = account("user2@zimbra.com", id, "alias2@zimbra.com");
+        cache.put(renamed);
+        Assert.assertSame(renamed, cache.getById(id));
+        Assert.assertSame(renamed, cache.getByName("user2@zimbra.com"));
+        Assert.assertSame(renamed, cache.getByName("alias2@zimbra.com"));
+        Assert.assertNull(cache.getByName("user1@zimbra.com"));
+        Assert.assertNull(cache.getByName("alias1@zimbra.com"));
+        Assert.assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    public void evict() {
+        AccountCache cache = new AccountCache(10, 0);
+        for (int i = 0; i < 100; i++) {
+            cache.put(account("user" + i + "@zimbra.com", UUID.randomUUID().toString(), "alias" + i + "@zimbra.com"));
+        }
+        Assert.assertTrue(cache.getSize() <= 10);
+        int found = 0;
+        for (int i = 0; i < 100; i++) {
+            Account byName = cache.getByName("user" + i + "@zimbra.com");
+            Account byAlias = cache.getByName("alias" + i + "@zimbra.com");
+            Assert.assertSame(byName, byAlias);
+            if (byName != null) {
+                Assert.assertSame(byName, cache.getById(byName.getId()));
+                found++;
+            }
+        }
+        Assert.assertEquals(cache.getSize(), found);
+    }
+
+    @Test
+    public void expire() throws Exception {
+        AccountCache cache = new AccountCache(100, 50);
+        Account acct = account("user1@zimbra.com", UUID.randomUUID().toString());
+        cache.put(acct);
+        Assert.assertSame(acct, cache.getByName("user1@zimbra.com"));
+        Thread.sleep(100);
+        Assert.assertNull(cache.getByName("user1@zimbra.com"));
+        Assert.assertNull(cache.getById(acct.getId()));
+    }
+
+    @Test
+    public void namedEntries() throws Exception {
+        NamedEntryCache<Cos> cache = new NamedEntryCache<Cos>(2, 0);
+        Cos cos1 = new Cos("cos1", UUID.randomUUID().toString(), new HashMap<String, Object>(), Provisioning.getInstance());
+        Cos cos2 = new Cos("cos2", UUID.randomUUID().toString(), new HashMap<String, Object>(), Provisioning.getInstance());
+        Cos cos3 = new Cos("cos3", UUID.randomUUID().toString(), new HashMap<String, Object>(), Provisioning.getInstance());
+        cache.put(cos1);
+        cache.put(cos2);
+        Assert.assertSame(cos1, cache.getByName("COS1"));
+        Assert.assertSame(cos2, cache.getById(cos2.getId()));
+
+        cache.put(cos3);
+        Assert.assertEquals(2, cache.getSize());
+        cache.remove("cos3", cos3.getId());
+        Assert.assertNull(cache.getByName("cos3"));
+        Assert.assertNull(cache.getById(cos3.getId()));
+
+        cache.put(Arrays.asList(cos1, cos3), true);
+        Assert.assertNull(cache.getByName("cos2"));
+        Assert.assertSame(cos3, cache.getByName("cos3"));
+        Assert.assertSame(cos1, cache.getById(cos1.getId()));
+    }
+}
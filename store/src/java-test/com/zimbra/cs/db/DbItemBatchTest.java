@@ -0,0 +1,176 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.db;
+
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.db.DbPool.DbConnection;
+import com.zimbra.cs.mailbox.DeliveryOptions;
+import com.zimbra.cs.mailbox.Flag;
+import com.zimbra.cs.mailbox.Folder;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.Message;
+
+/**
+ * Unit test for {@link DbItemBatch}, driven through the bulk {@link Mailbox}
+ * operations that use it.  The batch size is kept small so that every
+ * operation flushes several times part-way through.
+ */
+public final class DbItemBatchTest {
+
+    private static final int COUNT = 30;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning prov = Provisioning.getInstance();
+        prov.createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+        LC.zimbra_mailbox_write_batch_size.setDefault(7);
+    }
+
+    @AfterClass
+    public static void destroy() {
+        LC.zimbra_mailbox_write_batch_size.setDefault(1000);
+    }
+
+    private DbConnection conn = null;
+    private Mailbox mbox = null;
+    private int[] ids;
+    private int convId;
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        conn = DbPool.getConnection(mbox);
+
+        // a few real conversations mixed in with single messages
+        ids = new int[COUNT];
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+        for (int i = 0; i < COUNT - 2; i++) {
+            ids[i] = mbox.addMessage(null, MailboxTestUtil.generateMessage("subject " + i), dopt, null).getId();
+        }
+        dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX).setConversationId(-ids[0]);
+        Message reply = mbox.addMessage(null, MailboxTestUtil.generateMessage("Re: subject 0"), dopt, null);
+        ids[COUNT - 2] = reply.getId();
+        convId = reply.getConversationId();
+        ids[COUNT - 1] = mbox.addMessage(null, MailboxTestUtil.generateMessage("Re: subject 0"), dopt, null).getId();
+    }
+
+    @After
+    public void tearDown() {
+        conn.closeQuietly();
+    }
+
+    private int count(String where, Object... params) throws Exception {
+        Object[] args = new Object[params.length + 1];
+        args[0] = mbox.getId();
+        System.arraycopy(params, 0, args, 1, params.length);
+        return DbUtil.executeQuery(conn, "SELECT COUNT(*) FROM mboxgroup1.mail_item WHERE mailbox_id = ? AND " + where,
+                args).getInt(1);
+    }
+
+    @Test
+    public void move() throws Exception {
+        Folder folder = mbox.createFolder(null, "/batch", new Folder.FolderOptions());
+        mbox.move(null, ids, MailItem.Type.MESSAGE, folder.getId(), null);
+
+        Assert.assertEquals(COUNT, count("folder_id = ?", folder.getId()));
+        Assert.assertEquals(COUNT, count("folder_id = ? AND prev_folders IS NOT NULL", folder.getId()));
+        Assert.assertEquals(COUNT, folder.getSize());
+
+        // the in-memory folder counts must agree with what's on disk
+        mbox.purge(MailItem.Type.UNKNOWN);
+        for (int id : ids) {
+            Assert.assertEquals(folder.getId(), mbox.getMessageById(null, id).getFolderId());
+        }
+
+        // moving the conversation flushes whatever message moves were queued before it
+        int[] mixed = new int[] { ids[1], ids[2], convId, ids[3] };
+        mbox.move(null, mixed, MailItem.Type.UNKNOWN, Mailbox.ID_FOLDER_INBOX, null);
+        Assert.assertEquals(6, count("folder_id = ? AND type = ?", Mailbox.ID_FOLDER_INBOX, MailItem.Type.MESSAGE.toByte()));
+    }
+
+    @Test
+    public void alterTag() throws Exception {
+        mbox.alterTag(null, ids, MailItem.Type.MESSAGE, Flag.FlagInfo.FLAGGED, true, null);
+        Assert.assertEquals(COUNT, DbUtil.executeQuery(conn,
+                "SELECT COUNT(*) FROM mboxgroup1.tagged_item WHERE mailbox_id = ? AND tag_id = ?",
+                mbox.getId(), Flag.ID_FLAGGED).getInt(1));
+
+        mbox.alterTag(null, ids, MailItem.Type.MESSAGE, "batched", true, null);
+        int tagId = mbox.getTagByName(null, "batched").getId();
+        Assert.assertEquals(COUNT, DbUtil.executeQuery(conn,
+                "SELECT COUNT(*) FROM mboxgroup1.tagged_item WHERE mailbox_id = ? AND tag_id = ?",
+                mbox.getId(), tagId).getInt(1));
+        Assert.assertEquals(COUNT, count("tag_names IS NOT NULL"));
+
+        mbox.alterTag(null, ids, MailItem.Type.MESSAGE, "batched", false, null);
+        mbox.alterTag(null, ids, MailItem.Type.MESSAGE, Flag.FlagInfo.FLAGGED, false, null);
+        Assert.assertEquals(0, DbUtil.executeQuery(conn,
+                "SELECT COUNT(*) FROM mboxgroup1.tagged_item WHERE mailbox_id = ? AND tag_id IN (?, ?)",
+                mbox.getId(), Flag.ID_FLAGGED, tagId).getInt(1));
+        Assert.assertEquals(0, count("tag_names IS NOT NULL"));
+    }
+
+    @Test
+    public void alterUnread() throws Exception {
+        mbox.alterTag(null, ids, MailItem.Type.MESSAGE, Flag.FlagInfo.UNREAD, true, null);
+        Assert.assertEquals(COUNT, count("unread = 1 AND type = ?", MailItem.Type.MESSAGE.toByte()));
+        Assert.assertEquals(COUNT, mbox.getFolderById(null, Mailbox.ID_FOLDER_INBOX).getUnreadCount());
+
+        // moving to Trash marks read as part of the same batch
+        mbox.move(null, ids, MailItem.Type.MESSAGE, Mailbox.ID_FOLDER_TRASH, null);
+        Assert.assertEquals(0, count("unread = 1 AND type = ?", MailItem.Type.MESSAGE.toByte()));
+        Assert.assertEquals(COUNT, count("folder_id = ?", Mailbox.ID_FOLDER_TRASH));
+
+        mbox.purge(MailItem.Type.UNKNOWN);
+        Assert.assertEquals(0, mbox.getFolderById(null, Mailbox.ID_FOLDER_TRASH).getUnreadCount());
+    }
+
+    @Test
+    public void delete() throws Exception {
+        mbox.delete(null, ids, MailItem.Type.MESSAGE, null);
+        Assert.assertEquals(0, count("type = ?", MailItem.Type.MESSAGE.toByte()));
+        Assert.assertEquals(0, count("type = ?", MailItem.Type.CONVERSATION.toByte()));
+        Assert.assertEquals(0, mbox.getFolderById(null, Mailbox.ID_FOLDER_INBOX).getSize());
+    }
+
+    @Test
+    public void disabled() throws Exception {
+        LC.zimbra_mailbox_write_batch_size.setDefault(1);
+        try {
+            mbox.move(null, ids, MailItem.Type.MESSAGE, Mailbox.ID_FOLDER_TRASH, null);
+            Assert.assertEquals(COUNT, count("folder_id = ?", Mailbox.ID_FOLDER_TRASH));
+        } finally {
+            LC.zimbra_mailbox_write_batch_size.setDefault(7);
+        }
+    }
+}
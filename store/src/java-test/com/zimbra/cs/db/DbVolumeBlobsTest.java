@@ -19,6 +19,7 @@ package com.zimbra.cs.db;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
+import java.nio.file.Files;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -47,7 +48,10 @@ import com.zimbra.cs.mailbox.MailboxTestUtil;
 import com.zimbra.cs.mailbox.Message;
 import com.zimbra.cs.mime.ParsedDocument;
 import com.zimbra.cs.mime.ParsedMessage;
+import com.zimbra.cs.store.Blob;
+import com.zimbra.cs.store.MailboxBlob;
 import com.zimbra.cs.store.MailboxBlob.MailboxBlobInfo;
+import com.zimbra.cs.store.StagedBlob;
 import com.zimbra.cs.store.StoreManager;
 import com.zimbra.cs.store.file.BlobReference;
 import com.zimbra.cs.store.file.FileBlobStore;
@@ -527,4 +531,96 @@ public class DbVolumeBlobsTest {
         }
     }
 
+
+    @Test
+    public void onlineDedupeIndex() throws Exception {
+        LC.blob_dedupe_online_enabled.setDefault(true);
+        LC.blob_dedupe_min_size.setDefault(0);
+        try {
+            Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+            DeliveryOptions opt = new DeliveryOptions();
+            opt.setFolderId(Mailbox.ID_FOLDER_INBOX);
+            byte[] content = "From: from1@zimbra.com\r\nTo: to1@zimbra.com\r\nSubject: newsletter".getBytes();
+            Message msg1 = mbox.addMessage(null, new ParsedMessage(content, false), opt, null);
+            Message msg2 = mbox.addMessage(null, new ParsedMessage(content, false), opt, null);
+
+            // both deliveries are recorded in the digest index by the transactions that created them
+            Volume vol = VolumeManager.getInstance().getCurrentMessageVolume();
+            List<BlobReference> blobs = DbVolumeBlobs.getBlobReferences(conn, msg1.getDigest(), vol.getId(), 5);
+            Assert.assertEquals(2, blobs.size());
+            Set<String> paths = new HashSet<String>();
+            paths.add(msg1.getBlob().getLocalBlob().getFile().getPath());
+            paths.add(msg2.getBlob().getLocalBlob().getFile().getPath());
+            for (BlobReference ref : blobs) {
+                Assert.assertTrue(paths.remove(getPath(ref)));
+            }
+            Assert.assertEquals(1, DbVolumeBlobs.getBlobReferences(conn, msg1.getDigest(), vol.getId(), 1).size());
+
+            // the second delivery was linked to the first blob rather than stored again
+            File file1 = msg1.getBlob().getLocalBlob().getFile();
+            File file2 = msg2.getBlob().getLocalBlob().getFile();
+            Assert.assertTrue(Files.isSameFile(file1.toPath(), file2.toPath()));
+            Assert.assertEquals(2, Files.getAttribute(file1.toPath(), "unix:nlink"));
+            Assert.assertEquals(new String(content), new String(msg2.getContent()));
+
+            // deleting an item drops its row, so lookups don't keep returning it
+            mbox.delete(null, msg1.getId(), MailItem.Type.MESSAGE);
+            blobs = DbVolumeBlobs.getBlobReferences(conn, msg2.getDigest(), vol.getId(), 5);
+            Assert.assertEquals(1, blobs.size());
+            Assert.assertEquals(msg2.getId(), blobs.get(0).getItemId());
+            Assert.assertFalse(file1.exists());
+            Assert.assertEquals(new String(content), new String(msg2.getContent()));
+        } finally {
+            LC.blob_dedupe_online_enabled.setDefault(false);
+            LC.blob_dedupe_min_size.setDefault(32 * 1024);
+        }
+    }
+
+    @Test
+    public void onlineDedupeDropsSmallBlobRows() throws Exception {
+        LC.blob_dedupe_online_enabled.setDefault(true);
+        try {
+            Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+            DeliveryOptions opt = new DeliveryOptions();
+            opt.setFolderId(Mailbox.ID_FOLDER_INBOX);
+            Message msg = mbox.addMessage(null, new ParsedMessage("From: from1@zimbra.com\r\nTo: to1@zimbra.com".getBytes(), false), opt, null);
+            Volume vol = VolumeManager.getInstance().getCurrentMessageVolume();
+            Assert.assertTrue(msg.getSize() < LC.blob_dedupe_min_size.longValue());
+            Assert.assertEquals(0, DbVolumeBlobs.getBlobReferences(conn, msg.getDigest(), vol.getId(), 5).size());
+
+            // a background BlobDeduper run indexes blobs of any size
+            DbVolumeBlobs.addBlobReference(conn, mbox, vol, msg);
+            conn.commit();
+            Assert.assertEquals(1, DbVolumeBlobs.getBlobReferences(conn, msg.getDigest(), vol.getId(), 5).size());
+
+            mbox.delete(null, msg.getId(), MailItem.Type.MESSAGE);
+            Assert.assertEquals(0, DbVolumeBlobs.getBlobReferences(conn, msg.getDigest(), vol.getId(), 5).size());
+        } finally {
+            LC.blob_dedupe_online_enabled.setDefault(false);
+        }
+    }
+
+    @Test
+    public void onlineDedupeOutsideTransaction() throws Exception {
+        LC.blob_dedupe_online_enabled.setDefault(true);
+        LC.blob_dedupe_min_size.setDefault(0);
+        try {
+            Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+            StoreManager sm = StoreManager.getInstance();
+            Blob blob = sm.storeIncoming(new ByteArrayInputStream("verify store manager".getBytes()));
+            StagedBlob staged = sm.stage(blob, mbox);
+            Assert.assertFalse(mbox.isInTransaction());
+
+            // as VerifyStoreManager does: no transaction, so nothing goes into the index
+            MailboxBlob mblob = sm.link(staged, mbox, 0, 0);
+            Volume vol = VolumeManager.getInstance().getCurrentMessageVolume();
+            Assert.assertEquals(0, DbVolumeBlobs.getBlobReferences(conn, blob.getDigest(), vol.getId(), 5).size());
+            Assert.assertTrue(sm.delete(mblob));
+            sm.quietDelete(staged);
+            sm.quietDelete(blob);
+        } finally {
+            LC.blob_dedupe_online_enabled.setDefault(false);
+            LC.blob_dedupe_min_size.setDefault(32 * 1024);
+        }
+    }
 }
@@ -0,0 +1,106 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.io.output.ByteArrayOutputStream;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.mailbox.FolderStore;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.qa.unittest.TestUtil;
+
+/**
+ * Measures FETCH throughput over a large folder with per-message item lookups versus batched ones:
+ * <pre>
+ *   ImapFetchBenchmark [iterations] [messages] [batch sizes...]
+ * </pre>
+ * Defaults to 3 iterations over 100000 messages, comparing batch sizes 1 and {@code imap_fetch_batch_size}.
+ */
+public class ImapFetchBenchmark {
+
+    private static final String ACCOUNT_ID = "c5a5b0b1-4b8a-4d3c-9a3e-2f4f7e0c1d01";
+
+    private static class SelectablePath extends ImapPath {
+        SelectablePath(FolderStore folderStore, ImapCredentials creds) throws ServiceException {
+            super(null, folderStore, creds);
+        }
+
+        @Override
+        protected boolean isSelectable() {
+            return true;
+        }
+    }
+
+    private static void run(String name, ImapHandler handler, int attributes, int iterations) throws Exception {
+        ByteArrayOutputStream baos = (ByteArrayOutputStream) handler.output;
+        long best = Long.MAX_VALUE;
+        int bytes = 0;
+        for (int i = 0; i < iterations; i++) {
+            baos.reset();
+            long start = System.nanoTime();
+            handler.doFETCH("bench", "1:*", attributes, null, false, -1);
+            best = Math.min(best, System.nanoTime() - start);
+            bytes = baos.size();
+        }
+        int size = handler.getSelectedFolder().getSize();
+        System.out.printf("%-24s %9d msgs %12d bytes  %9.2f ms  %10.0f msgs/s%n",
+                name, size, bytes, best / 1e6, size / (best / 1e9));
+    }
+
+    public static void main(String[] args) throws Exception {
+        LC.imap_use_ehcache.setDefault(false);
+        MailboxTestUtil.initServer();
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int[] batchSizes = { 1, LC.imap_fetch_batch_size.intValue() };
+        if (args.length > 2) {
+            batchSizes = new int[args.length - 2];
+            for (int i = 2; i < args.length; i++) {
+                batchSizes[i - 2] = Integer.parseInt(args[i]);
+            }
+        }
+
+        Map<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraId, ACCOUNT_ID);
+        Account acct = Provisioning.getInstance().createAccount("fetch-bench@zimbra.com", "secret", attrs);
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(acct);
+        for (int i = 0; i < count; i++) {
+            TestUtil.addMessage(mbox, "fetch benchmark " + i);
+        }
+
+        ImapHandler handler = new MockImapHandler();
+        ImapCredentials creds = new ImapCredentials(acct, ImapCredentials.EnabledHack.NONE);
+        handler.setCredentials(creds);
+        handler.setSelectedFolder(new SelectablePath(mbox.getFolderById(null, Mailbox.ID_FOLDER_INBOX), creds),
+                (byte) 0);
+
+        for (int batchSize : batchSizes) {
+            LC.imap_fetch_batch_size.setDefault(batchSize);
+            run("FLAGS UID, batch " + batchSize, handler, ImapHandler.FETCH_FROM_CACHE, iterations);
+            run("FAST, batch " + batchSize, handler, ImapHandler.FETCH_FAST | ImapHandler.FETCH_UID, iterations);
+        }
+        MailboxTestUtil.clearData();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Compares encode/decode time and size of cached {@link ImapFolder} state between Java serialization and
+ * {@link ImapFolderCodec}, with and without compression, for folders of 10000, 100000 and 1000000 messages unless
+ * other sizes are given:
+ * <pre>
+ *   ImapFolderCodecBenchmark [iterations] [folder sizes...]
+ * </pre>
+ */
+public class ImapFolderCodecBenchmark {
+
+    private interface Codec {
+        byte[] encode(ImapFolder i4folder) throws Exception;
+        ImapFolder decode(byte[] data) throws Exception;
+    }
+
+    private static final Codec JAVA = new Codec() {
+        @Override
+        public byte[] encode(ImapFolder i4folder) throws Exception {
+            ByteArrayOutputStream bout = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bout)) {
+                out.writeObject(i4folder);
+            }
+            return bout.toByteArray();
+        }
+
+        @Override
+        public ImapFolder decode(byte[] data) throws Exception {
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+                return (ImapFolder) in.readObject();
+            }
+        }
+    };
+
+    private static Codec compact(final int threshold) {
+        return new Codec() {
+            @Override
+            public byte[] encode(ImapFolder i4folder) throws Exception {
+                return ImapFolderCodec.encode(i4folder, threshold);
+            }
+
+            @Override
+            public ImapFolder decode(byte[] data) throws Exception {
+                return ImapFolderCodec.decode(data);
+            }
+        };
+    }
+
+    private static void run(String name, Codec codec, ImapFolder i4folder, int iterations) throws Exception {
+        byte[] data = null;
+        long encode = Long.MAX_VALUE, decode = Long.MAX_VALUE;
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            data = codec.encode(i4folder);
+            encode = Math.min(encode, System.nanoTime() - start);
+            start = System.nanoTime();
+            codec.decode(data);
+            decode = Math.min(decode, System.nanoTime() - start);
+        }
+        System.out.printf("%-10s %9d msgs %12d bytes %8.2f bytes/msg  encode %9.2f ms  decode %9.2f ms%n",
+                name, i4folder.getSize(), data.length, (double) data.length / i4folder.getSize(),
+                encode / 1e6, decode / 1e6);
+    }
+
+    public static void main(String[] args) throws Exception {
+        MailboxTestUtil.initServer();
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int[] sizes = { 10000, 100000, 1000000 };
+        if (args.length > 1) {
+            sizes = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                sizes[i - 1] = Integer.parseInt(args[i]);
+            }
+        }
+        for (int size : sizes) {
+            ImapFolder i4folder = ImapFolderCodecTest.folder(size);
+            run("java", JAVA, i4folder, iterations);
+            run("compact", compact(0), i4folder, iterations);
+            run("deflated", compact(1), i4folder, iterations);
+        }
+    }
+}
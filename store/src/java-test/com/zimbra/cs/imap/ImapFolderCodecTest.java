@@ -0,0 +1,188 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.mailbox.ItemIdentifier;
+import com.zimbra.cs.imap.ImapFlagCache.ImapFlag;
+import com.zimbra.cs.mailbox.Flag;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Unit test for {@link ImapFolderCodec}.
+ */
+public final class ImapFolderCodecTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    static ImapFolder folder(int size) {
+        ImapFlagCache tags = new ImapFlagCache();
+        tags.cache(new ImapFlag("work", "work", 64, 0, true, true, true));
+        tags.cache(new ImapFlag("home", "home", 65, 0, true, true, true));
+        ImapFolder i4folder = new ImapFolder(new ItemIdentifier("0-1-2", 2), 12345, null, ImapHandler.ITEM_TYPES,
+                tags, new ImapSequence());
+        for (int i = 1; i <= size; i++) {
+            int uid = i * 3;
+            int flags = i % 2 == 0 ? Flag.BITMASK_UNREAD : Flag.BITMASK_FLAGGED;
+            String[] msgTags = i % 5 == 0 ? new String[] { "work" } : i % 7 == 0 ? new String[] { "work", "home" } : null;
+            MailItem.Type type = i % 11 == 0 ? MailItem.Type.CONTACT : MailItem.Type.MESSAGE;
+            i4folder.cache(new ImapMessage(i % 13 == 0 ? uid + 1000000 : uid, type, uid, flags, msgTags), i % 17 == 0);
+        }
+        return i4folder;
+    }
+
+    private static void assertSameFolder(ImapFolder expected, ImapFolder actual) {
+        Assert.assertEquals(expected.getItemIdentifier().toString(), actual.getItemIdentifier().toString());
+        Assert.assertEquals(expected.getUIDValidity(), actual.getUIDValidity());
+        Assert.assertEquals(expected.isVirtual(), actual.isVirtual());
+        Assert.assertEquals(expected.getQuery(), actual.getQuery());
+        Assert.assertEquals(expected.getTypeConstraint(), actual.getTypeConstraint());
+        Assert.assertEquals(expected.getTagset().listNames(false), actual.getTagset().listNames(false));
+        Assert.assertEquals(expected.getSize(), actual.getSize());
+        for (int seq = 1; seq <= expected.getSize(); seq++) {
+            ImapMessage i4msg = expected.getBySequence(seq);
+            ImapMessage copy = actual.getBySequence(seq);
+            Assert.assertEquals(seq, copy.sequence);
+            Assert.assertEquals(i4msg.imapUid, copy.imapUid);
+            Assert.assertEquals(i4msg.msgId, copy.msgId);
+            Assert.assertEquals(i4msg.flags, copy.flags);
+            Assert.assertEquals(i4msg.sflags, copy.sflags);
+            Assert.assertArrayEquals(i4msg.tags, copy.tags);
+            Assert.assertSame(copy, actual.getById(copy.msgId));
+        }
+    }
+
+    @Test
+    public void plain() throws Exception {
+        ImapFolder i4folder = folder(1000);
+        byte[] data = ImapFolderCodec.encode(i4folder, 0);
+        Assert.assertTrue(ImapFolderCodec.isEncoded(data));
+        assertSameFolder(i4folder, ImapFolderCodec.decode(data));
+    }
+
+    @Test
+    public void deflated() throws Exception {
+        ImapFolder i4folder = folder(1000);
+        byte[] plain = ImapFolderCodec.encode(i4folder, 0);
+        byte[] deflated = ImapFolderCodec.encode(i4folder, 1);
+        Assert.assertTrue(deflated.length < plain.length);
+        assertSameFolder(i4folder, ImapFolderCodec.decode(deflated));
+    }
+
+    @Test
+    public void searchFolder() throws Exception {
+        ImapFolder i4folder = new ImapFolder(new ItemIdentifier(null, 300, -1), 77, "in:inbox is:unread",
+                java.util.EnumSet.of(MailItem.Type.MESSAGE), new ImapFlagCache(), new ImapSequence());
+        ImapFolder copy = ImapFolderCodec.decode(ImapFolderCodec.encode(i4folder, 0));
+        Assert.assertEquals(0, copy.getSize());
+        Assert.assertNull(copy.getItemIdentifier().accountId);
+        Assert.assertEquals(-1, copy.getItemIdentifier().subPartId);
+        Assert.assertEquals("in:inbox is:unread", copy.getQuery());
+        Assert.assertEquals(java.util.EnumSet.of(MailItem.Type.MESSAGE), copy.getTypeConstraint());
+    }
+
+    @Test
+    public void javaSerialized() throws Exception {
+        ImapFolder i4folder = folder(100);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bout)) {
+            out.writeObject(i4folder);
+        }
+        byte[] data = bout.toByteArray();
+        Assert.assertFalse(ImapFolderCodec.isEncoded(data));
+        assertSameFolder(i4folder, ImapFolderCodec.decode(data));
+    }
+
+    /**
+     * Java serialization of a three-message folder as written by servers that kept the message list in a
+     * {@code List<ImapMessage>} (ImapFolder serialVersionUID 3845968507901145794).
+     */
+    private static final String BASELINE_FOLDER =
+            "rO0ABXNyAB1jb20uemltYnJhLmNzLmltYXAuSW1hcEZvbGRlcjVfn/sqyXLCAgAGSQALdWlkVmFsaWRpdHlMABBmb2xkZXJJZGVu"
+            + "dGlmaWVydAAqTGNvbS96aW1icmEvY29tbW9uL21haWxib3gvSXRlbUlkZW50aWZpZXI7TAAFcXVlcnl0ABJMamF2YS9sYW5nL1N0"
+            + "cmluZztMAAhzZXF1ZW5jZXQAEExqYXZhL3V0aWwvTGlzdDtMAAR0YWdzdAAiTGNvbS96aW1icmEvY3MvaW1hcC9JbWFwRmxhZ0Nh"
+            + "Y2hlO0wADnR5cGVDb25zdHJhaW50dAAPTGphdmEvdXRpbC9TZXQ7eHAAADA5c3IAKGNvbS56aW1icmEuY29tbW9uLm1haWxib3gu"
+            + "SXRlbUlkZW50aWZpZXJu+hjoNQIQngIAA0kAAmlkSQAJc3ViUGFydElkTAAJYWNjb3VudElkcQB+AAJ4cAAAAAL/////dAAFMC0x"
+            + "LTJwc3IAE2phdmEudXRpbC5BcnJheUxpc3R4gdIdmcdhnQMAAUkABHNpemV4cAAAAAN3BAAAAANzcgAeY29tLnppbWJyYS5jcy5p"
+            + "bWFwLkltYXBNZXNzYWdl55968kopGMMCAAZJAAVmbGFnc0kAB2ltYXBVaWRJAAVtc2dJZEkACHNlcXVlbmNlUwAGc2ZsYWdzWwAE"
+            + "dGFnc3QAE1tMamF2YS9sYW5nL1N0cmluZzt4cAAAAAAAAAEBAAABAQAAAAEAAHBzcQB+AAwAAAAEAAABLQAAAQIAAAACABB1cgAT"
+            + "W0xqYXZhLmxhbmcuU3RyaW5nO63SVufpHXtHAgAAeHAAAAABdAAEd29ya3NxAH4ADAAAABAAAAEuAAABLAAAAAMAAHVxAH4AEAAA"
+            + "AAJxAH4AEnQABGhvbWV4c3IAIGNvbS56aW1icmEuY3MuaW1hcC5JbWFwRmxhZ0NhY2hlg/SiAAIMlOICAAJMAAptSW1hcE5hbWVz"
+            + "dAAPTGphdmEvdXRpbC9NYXA7TAAGbU5hbWVzcQB+ABd4cHNyABdqYXZhLnV0aWwuTGlua2VkSGFzaE1hcDTATlwQbMD7AgABWgAL"
+            + "YWNjZXNzT3JkZXJ4cgARamF2YS51dGlsLkhhc2hNYXAFB9rBwxZg0QMAAkYACmxvYWRGYWN0b3JJAAl0aHJlc2hvbGR4cD9AAAAA"
+            + "AAAMdwgAAAAQAAAAAnQABFdPUktzcgApY29tLnppbWJyYS5jcy5pbWFwLkltYXBGbGFnQ2FjaGUkSW1hcEZsYWdLkzAD3Qk3JwIA"
+            + "B0oACG1CaXRtYXNrSQADbUlkWgAHbUxpc3RlZFoACm1QZXJtYW5lbnRaAAltUG9zaXRpdmVMAAltSW1hcE5hbWVxAH4AAkwABW1O"
+            + "YW1lcQB+AAJ4cAAAAAAAAAAAAAAAQAEBAXEAfgAScQB+ABJ0AARIT01Fc3EAfgAdAAAAAAAAAAAAAABBAQEBcQB+ABVxAH4AFXgA"
+            + "c3EAfgAaP0AAAAAAAAx3CAAAABAAAAACdAAEV09SS3EAfgAedAAESE9NRXEAfgAgeHNyACRqYXZhLnV0aWwuRW51bVNldCRTZXJp"
+            + "YWxpemF0aW9uUHJveHkFB9PbdlTK0QIAAkwAC2VsZW1lbnRUeXBldAARTGphdmEvbGFuZy9DbGFzcztbAAhlbGVtZW50c3QAEVtM"
+            + "amF2YS9sYW5nL0VudW07eHB2cgAjY29tLnppbWJyYS5jcy5tYWlsYm94Lk1haWxJdGVtJFR5cGUAAAAAAAAAABIAAHhyAA5qYXZh"
+            + "LmxhbmcuRW51bQAAAAAAAAAAEgAAeHB1cgARW0xqYXZhLmxhbmcuRW51bTuojeotM9IvmAIAAHhwAAAAA35xAH4AKHQAB01FU1NB"
+            + "R0V+cQB+ACh0AAdDT05UQUNUfnEAfgAodAAEQ0hBVA==";
+
+    @Test
+    public void baselineSerialized() throws Exception {
+        byte[] data = java.util.Base64.getDecoder().decode(BASELINE_FOLDER);
+        Assert.assertFalse(ImapFolderCodec.isEncoded(data));
+        ImapFolder i4folder = ImapFolderCodec.decode(data);
+        Assert.assertEquals("0-1-2", i4folder.getItemIdentifier().accountId);
+        Assert.assertEquals(2, i4folder.getItemIdentifier().id);
+        Assert.assertEquals(12345, i4folder.getUIDValidity());
+        Assert.assertNull(i4folder.getQuery());
+        Assert.assertEquals(ImapHandler.ITEM_TYPES, i4folder.getTypeConstraint());
+        Assert.assertEquals(java.util.Arrays.asList("work", "home"), i4folder.getTagset().listNames(false));
+        Assert.assertEquals(3, i4folder.getSize());
+        int[] uids = { 257, 301, 302 };
+        int[] ids = { 257, 258, 300 };
+        int[] flags = { 0, 4, 16 };
+        short[] sflags = { 0, ImapMessage.FLAG_IS_CONTACT, 0 };
+        String[][] tags = { null, { "work" }, { "work", "home" } };
+        for (int seq = 1; seq <= 3; seq++) {
+            ImapMessage i4msg = i4folder.getBySequence(seq);
+            Assert.assertEquals(seq, i4msg.sequence);
+            Assert.assertEquals(uids[seq - 1], i4msg.imapUid);
+            Assert.assertEquals(ids[seq - 1], i4msg.msgId);
+            Assert.assertEquals(flags[seq - 1], i4msg.flags);
+            Assert.assertEquals(sflags[seq - 1], i4msg.sflags);
+            Assert.assertArrayEquals(tags[seq - 1], i4msg.tags);
+            Assert.assertSame(i4msg, i4folder.getById(ids[seq - 1]));
+            Assert.assertSame(i4msg, i4folder.getByImapId(uids[seq - 1]));
+        }
+        assertSameFolder(i4folder, ImapFolderCodec.decode(ImapFolderCodec.encode(i4folder, 0)));
+    }
+
+    @Test
+    public void newerVersion() throws Exception {
+        byte[] data = ImapFolderCodec.encode(folder(10), 0);
+        data[4] = ImapFolderCodec.VERSION + 1;
+        try {
+            ImapFolderCodec.decode(data);
+            Assert.fail("decoded an unknown version");
+        } catch (IOException expected) {
+        }
+    }
+}
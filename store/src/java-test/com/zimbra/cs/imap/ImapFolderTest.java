@@ -1,6 +1,11 @@
 package com.zimbra.cs.imap;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Set;
 
 import junit.framework.Assert;
@@ -12,6 +17,7 @@ import org.junit.Test;
 
 import com.zimbra.cs.account.Account;
 import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.Flag;
 import com.zimbra.cs.mailbox.MailItem.Type;
 import com.zimbra.cs.mailbox.Mailbox;
 import com.zimbra.cs.mailbox.MailboxManager;
@@ -61,4 +67,78 @@ public class ImapFolderTest {
         Assert.assertNotNull(i4set);
         Assert.assertEquals(3, i4set.size());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void getById() throws Exception {
+        ImapCredentials creds = new ImapCredentials(acct, ImapCredentials.EnabledHack.NONE);
+        ImapFolder i4folder = new ImapFolder(new ImapPath("trash", creds), (byte) 0, null);
+        i4folder.cache(new ImapMessage(10, Type.MESSAGE, 10, 0, null), false);
+        i4folder.cache(new ImapMessage(5, Type.MESSAGE, 20, 0, null), false);
+        i4folder.cache(new ImapMessage(30, Type.MESSAGE, 30, 0, null), false);
+
+        Assert.assertEquals(20, i4folder.getById(5).imapUid);
+        Assert.assertEquals(30, i4folder.getById(30).imapUid);
+        Assert.assertNull(i4folder.getById(20));
+        Assert.assertEquals(2, i4folder.getByImapId(20).sequence);
+
+        // out of order UID goes in before the newly added messages
+        ImapMessage added = new ImapMessage(40, Type.MESSAGE, 40, 0, null);
+        added.setAdded(true);
+        i4folder.cache(added, false);
+        ImapMessage late = new ImapMessage(35, Type.MESSAGE, 35, 0, null);
+        Assert.assertTrue(i4folder.cache(late, false));
+        Assert.assertEquals(4, late.sequence);
+        Assert.assertEquals(5, added.sequence);
+        Assert.assertSame(late, i4folder.getById(35));
+        Assert.assertSame(added, i4folder.getBySequence(5));
+    }
+
+    @Test
+    public void collapseExpunged() throws Exception {
+        ImapCredentials creds = new ImapCredentials(acct, ImapCredentials.EnabledHack.NONE);
+        ImapFolder i4folder = new ImapFolder(new ImapPath("trash", creds), (byte) 0, null);
+        for (int i = 1; i <= 10; i++) {
+            i4folder.cache(new ImapMessage(i, Type.MESSAGE, i + 100, 0, null), false);
+        }
+        i4folder.markMessageExpunged(i4folder.getBySequence(2));
+        i4folder.markMessageExpunged(i4folder.getBySequence(3));
+        i4folder.markMessageExpunged(i4folder.getBySequence(10));
+
+        List<Integer> removed = i4folder.collapseExpunged(false);
+        Assert.assertEquals("[2, 2, 8]", removed.toString());
+        Assert.assertEquals(7, i4folder.getSize());
+        Assert.assertEquals(4, i4folder.getById(5).sequence);
+        Assert.assertEquals(105, i4folder.getBySequence(4).imapUid);
+        Assert.assertNull(i4folder.getById(3));
+    }
+
+    @Test
+    public void serialize() throws Exception {
+        ImapCredentials creds = new ImapCredentials(acct, ImapCredentials.EnabledHack.NONE);
+        ImapFolder i4folder = new ImapFolder(new ImapPath("trash", creds), (byte) 0, null);
+        i4folder.cache(new ImapMessage(1, Type.MESSAGE, 1, Flag.BITMASK_UNREAD, new String[] { "foo", "bar" }), false);
+        i4folder.cache(new ImapMessage(2, Type.CONTACT, 300, 0, new String[] { "bar" }), true);
+        i4folder.cache(new ImapMessage(500, Type.MESSAGE, 301, Flag.BITMASK_FLAGGED, null), false);
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bout);
+        out.writeObject(i4folder);
+        out.close();
+        ImapFolder copy = (ImapFolder) new ObjectInputStream(new ByteArrayInputStream(bout.toByteArray())).readObject();
+
+        Assert.assertEquals(3, copy.getSize());
+        ImapMessage i4msg = copy.getBySequence(1);
+        Assert.assertEquals(Flag.BITMASK_UNREAD, i4msg.flags);
+        Assert.assertEquals("foo", i4msg.tags[0]);
+        Assert.assertEquals("bar", i4msg.tags[1]);
+        i4msg = copy.getById(2);
+        Assert.assertEquals(300, i4msg.imapUid);
+        Assert.assertEquals(Type.CONTACT, i4msg.getType());
+        Assert.assertTrue((i4msg.sflags & ImapMessage.FLAG_RECENT) != 0);
+        Assert.assertEquals("bar", i4msg.tags[0]);
+        i4msg = copy.getById(500);
+        Assert.assertEquals(3, i4msg.sequence);
+        Assert.assertEquals(301, i4msg.imapUid);
+        Assert.assertNull(i4msg.tags);
+    }
+}
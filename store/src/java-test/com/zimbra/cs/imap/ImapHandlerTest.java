@@ -3,6 +3,7 @@ package com.zimbra.cs.imap;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
@@ -243,6 +244,103 @@ public class ImapHandlerTest {
         Assert.assertEquals("Output of SEARCH", "* SEARCH 2\r\nsearchtag OK SEARCH completed\r\n", baos.toString());
     }
 
+    private ImapHandler selectInbox(Account acct, Mailbox mbox) throws Exception {
+        ImapHandler handler = new MockImapHandler();
+        ImapCredentials creds = new ImapCredentials(acct, ImapCredentials.EnabledHack.NONE);
+        handler.setCredentials(creds);
+        handler.setSelectedFolder(new MockImapPath(null, mbox.getFolderById(null, Mailbox.ID_FOLDER_INBOX), creds),
+                (byte) 0);
+        ((ByteArrayOutputStream) handler.output).reset();
+        return handler;
+    }
+
+    private static String fetchLine(int seq, Message msg) {
+        return "* " + seq + " FETCH (UID " + msg.getImapUid() + " INTERNALDATE \"";
+    }
+
+    private static String stubLine(int seq, Message msg) {
+        return "* " + seq + " FETCH (UID " + msg.getImapUid() + " INTERNALDATE \"01-Jan-1970 00:00:00 +0000\")\r\n";
+    }
+
+    @Test
+    public void fetchChunkWithExpungedMessage() throws Exception {
+        Account acct = Provisioning.getInstance().getAccount("12aa345b-2b47-44e6-8cb8-7fdfa18c1a9f");
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(acct);
+        Message m1 = TestUtil.addMessage(mbox, "Message 1");
+        Message m2 = TestUtil.addMessage(mbox, "Message 2");
+        Message m3 = TestUtil.addMessage(mbox, "Message 3");
+        ImapHandler handler = selectInbox(acct, mbox);
+
+        mbox.delete(null, m2.getId(), MailItem.Type.MESSAGE);
+        ImapFolder i4folder = handler.getSelectedFolder();
+        i4folder.markMessageExpunged(i4folder.getBySequence(2, true));
+
+        Assert.assertTrue(handler.doFETCH("fetchtag", "1:3", ImapHandler.FETCH_UID | ImapHandler.FETCH_INTERNALDATE,
+                null, false, -1));
+        String out = handler.output.toString();
+        Assert.assertTrue(out, out.contains(fetchLine(1, m1)));
+        Assert.assertTrue(out, out.contains(stubLine(2, m2)));
+        Assert.assertTrue(out, out.contains(fetchLine(3, m3)));
+        Assert.assertFalse(out, out.contains(stubLine(1, m1)));
+        Assert.assertFalse(out, out.contains(stubLine(3, m3)));
+        Assert.assertTrue(out, out.endsWith("fetchtag OK FETCH completed\r\n"));
+    }
+
+    @Test
+    public void fetchChunkWithMissingMessage() throws Exception {
+        Account acct = Provisioning.getInstance().getAccount("12aa345b-2b47-44e6-8cb8-7fdfa18c1a9f");
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(acct);
+        Message m1 = TestUtil.addMessage(mbox, "Message 1");
+        Message m2 = TestUtil.addMessage(mbox, "Message 2");
+        Message m3 = TestUtil.addMessage(mbox, "Message 3");
+        ImapHandler handler = selectInbox(acct, mbox);
+
+        // the folder hasn't caught up with the delete, so the chunk lookup comes up one short
+        mbox.delete(null, m2.getId(), MailItem.Type.MESSAGE);
+        ImapFolder i4folder = handler.getSelectedFolder();
+        ImapMessage i4msg = i4folder.getBySequence(2, true);
+        i4msg.setExpunged(false);
+
+        Assert.assertTrue(handler.doFETCH("fetchtag", "1:3", ImapHandler.FETCH_UID | ImapHandler.FETCH_INTERNALDATE,
+                null, false, -1));
+        String out = handler.output.toString();
+        Assert.assertTrue(out, out.contains(fetchLine(1, m1)));
+        Assert.assertTrue(out, out.contains(stubLine(2, m2)));
+        Assert.assertTrue(out, out.contains(fetchLine(3, m3)));
+        Assert.assertFalse(out, out.contains(stubLine(1, m1)));
+        Assert.assertFalse(out, out.contains(stubLine(3, m3)));
+        Assert.assertTrue(out, out.endsWith("fetchtag OK FETCH completed\r\n"));
+        Assert.assertTrue("missing message is marked expunged", i4msg.isExpunged());
+    }
+
+    @Test
+    public void fetchMoreThanBatchSize() throws Exception {
+        Account acct = Provisioning.getInstance().getAccount("12aa345b-2b47-44e6-8cb8-7fdfa18c1a9f");
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(acct);
+        List<Message> msgs = new ArrayList<Message>();
+        for (int i = 1; i <= 7; i++) {
+            msgs.add(TestUtil.addMessage(mbox, "Message " + i));
+        }
+        ImapHandler handler = selectInbox(acct, mbox);
+
+        String batchSize = LC.imap_fetch_batch_size.value();
+        LC.imap_fetch_batch_size.setDefault(3);
+        try {
+            Assert.assertTrue(handler.doFETCH("fetchtag", "1:7",
+                    ImapHandler.FETCH_UID | ImapHandler.FETCH_INTERNALDATE, null, false, -1));
+        } finally {
+            LC.imap_fetch_batch_size.setDefault(batchSize);
+        }
+        String out = handler.output.toString();
+        int last = -1;
+        for (int i = 0; i < msgs.size(); i++) {
+            int pos = out.indexOf(fetchLine(i + 1, msgs.get(i)));
+            Assert.assertTrue(out, pos > last);
+            last = pos;
+        }
+        Assert.assertFalse(out, out.contains("01-Jan-1970"));
+        Assert.assertTrue(out, out.endsWith("fetchtag OK FETCH completed\r\n"));
+    }
 
     class MockImapPath extends ImapPath {
 
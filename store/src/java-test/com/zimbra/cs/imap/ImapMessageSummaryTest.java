@@ -0,0 +1,169 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import javax.mail.internet.MimeMessage;
+import javax.mail.util.SharedByteArrayInputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.zimbra.common.util.ByteUtil;
+import com.zimbra.common.util.InputStreamWithSize;
+import com.zimbra.common.zmime.ZMimeMessage;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.cs.mailbox.Metadata;
+import com.zimbra.cs.mime.ParsedMessage;
+import com.zimbra.cs.util.JMSession;
+import com.zimbra.qa.unittest.TestUtil;
+
+public class ImapMessageSummaryTest {
+
+    private static final String RAW =
+        "From: Sender <sender@example.com>\r\n" +
+        "To: rcpt@example.com, \"Other, Rcpt\" <other@example.com>\r\n" +
+        "Subject: =?utf-8?B?w6lsw6h2ZQ==?= \"quoted\"\r\n" +
+        "Date: Mon, 3 Oct 2016 10:00:00 +0000\r\n" +
+        "Message-ID: <summary@example.com>\r\n" +
+        "X-Custom: kept\r\n" +
+        "Content-Type: multipart/mixed; boundary=\"outer\"\r\n" +
+        "\r\n" +
+        "--outer\r\n" +
+        "Content-Type: text/plain; charset=utf-8\r\n" +
+        "\r\n" +
+        "first line\r\n" +
+        "second line\r\n" +
+        "--outer\r\n" +
+        "Content-Type: message/rfc822\r\n" +
+        "Content-Disposition: attachment\r\n" +
+        "\r\n" +
+        "From: inner@example.com\r\n" +
+        "Subject: inner\r\n" +
+        "\r\n" +
+        "inner body\r\n" +
+        "--outer--\r\n";
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        Provisioning.getInstance().createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    private static String render(MimeMessage mm, int what) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        PrintStream ps = new PrintStream(baos, false, Charsets.UTF_8.name());
+        if (what == 0) {
+            ImapMessage.serializeEnvelope(ps, mm);
+        } else {
+            ImapMessage.serializeStructure(ps, mm, what == 2);
+        }
+        ps.flush();
+        return new String(baos.toByteArray(), Charsets.UTF_8);
+    }
+
+    @Test
+    public void matchesParsedRendering() throws Exception {
+        byte[] raw = RAW.getBytes(Charsets.UTF_8);
+        ImapMessageSummary summary = new ParsedMessage(raw, false).getImapSummary();
+        Assert.assertNotNull(summary);
+
+        MimeMessage mm = new ZMimeMessage(JMSession.getSession(), new SharedByteArrayInputStream(raw));
+        Assert.assertEquals(render(mm, 0), summary.getEnvelope());
+        Assert.assertEquals(render(mm, 1), summary.getBody());
+        Assert.assertEquals(render(mm, 2), summary.getBodyStructure());
+    }
+
+    @Test
+    public void notFromRawContent() throws Exception {
+        MimeMessage mm = new ZMimeMessage(JMSession.getSession(),
+                new SharedByteArrayInputStream(RAW.getBytes(Charsets.UTF_8)));
+        Assert.assertNull(new ParsedMessage(mm, false).getImapSummary());
+    }
+
+    @Test
+    public void headerLength() throws Exception {
+        Assert.assertEquals(8, ImapMessageSummary.headerLength(new ByteArrayInputStream("A: b\r\n\r\nbody".getBytes())));
+        Assert.assertEquals(6, ImapMessageSummary.headerLength(new ByteArrayInputStream("A: b\n\nbody".getBytes())));
+        Assert.assertEquals(18, ImapMessageSummary.headerLength(new ByteArrayInputStream("A: b\r\n c\r\nD: e\r\n\r\n".getBytes())));
+        Assert.assertEquals(10, ImapMessageSummary.headerLength(new ByteArrayInputStream("A: b\r\nC: d".getBytes())));
+    }
+
+    @Test
+    public void metadata() throws Exception {
+        ImapMessageSummary summary = new ParsedMessage(RAW.getBytes(Charsets.UTF_8), false).getImapSummary();
+        Metadata meta = new Metadata(summary.encodeMetadata().toString());
+        ImapMessageSummary decoded = ImapMessageSummary.decodeMetadata(meta);
+        Assert.assertEquals(summary.getEnvelope(), decoded.getEnvelope());
+        Assert.assertEquals(summary.getBody(), decoded.getBody());
+        Assert.assertEquals(summary.getBodyStructure(), decoded.getBodyStructure());
+
+        meta.put("v", ImapMessageSummary.VERSION + 1);
+        Assert.assertNull("other versions are ignored", ImapMessageSummary.decodeMetadata(meta));
+        Assert.assertNull(ImapMessageSummary.decodeMetadata(null));
+    }
+
+    @Test
+    public void storedAtDelivery() throws Exception {
+        Account acct = Provisioning.getInstance().getAccountByName("test@zimbra.com");
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(acct);
+        Message msg = TestUtil.addMessage(mbox, new ParsedMessage(RAW.getBytes(Charsets.UTF_8), false));
+
+        // reload from the database to make sure the summary was persisted
+        mbox.purge(MailItem.Type.MESSAGE);
+        msg = mbox.getMessageById(null, msg.getId());
+        ImapMessageSummary summary = msg.getImapSummary();
+        Assert.assertNotNull(summary);
+        Assert.assertEquals(render(msg.getMimeMessage(false), 2), summary.getBodyStructure());
+
+        MimeMessage headers = summary.parseHeaders(msg);
+        Assert.assertEquals("kept", headers.getHeader("X-Custom", null));
+        Assert.assertEquals("<summary@example.com>", headers.getMessageID());
+
+        ImapPartSpecifier pspec = new ImapPartSpecifier("BODY", "", "HEADER.FIELDS");
+        pspec.setHeaders(Arrays.asList("SUBJECT", "X-CUSTOM"));
+        Assert.assertTrue(pspec.isMessageHeader());
+        InputStreamWithSize fromHeaders = pspec.getContentOctetRange(headers);
+        InputStreamWithSize fromMessage = pspec.getContentOctetRange(msg.getMimeMessage(false));
+        Assert.assertArrayEquals(ByteUtil.getContent(fromMessage.stream, 0), ByteUtil.getContent(fromHeaders.stream, 0));
+    }
+}
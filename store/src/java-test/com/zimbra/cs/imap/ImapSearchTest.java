@@ -0,0 +1,129 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.imap.ImapMessage.ImapMessageSet;
+import com.zimbra.cs.imap.ImapSearch.AllSearch;
+import com.zimbra.cs.imap.ImapSearch.AndOperation;
+import com.zimbra.cs.imap.ImapSearch.ContentSearch;
+import com.zimbra.cs.imap.ImapSearch.FlagSearch;
+import com.zimbra.cs.imap.ImapSearch.MessageSetSearch;
+import com.zimbra.cs.imap.ImapSearch.NoneSearch;
+import com.zimbra.cs.imap.ImapSearch.NotOperation;
+import com.zimbra.cs.imap.ImapSearch.OrOperation;
+import com.zimbra.cs.imap.ImapSearch.SequenceSearch;
+import com.zimbra.cs.imap.ImapSearch.SizeSearch;
+import com.zimbra.cs.mailbox.Flag;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Unit test for the in-memory evaluation of {@link ImapSearch}.
+ */
+public final class ImapSearchTest {
+    private ImapFolder i4folder;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        HashMap<String, Object> attrs = new HashMap<String, Object>();
+        attrs.put(Provisioning.A_zimbraId, "0d6e1b24-8d0f-4f41-a4e1-3b3a1c9c6b2e");
+        Account acct = Provisioning.getInstance().createAccount("imapsearch@zimbra.com", "secret", attrs);
+        MailboxManager.getInstance().getMailboxByAccount(acct);
+
+        i4folder = new ImapFolder(new ImapPath("INBOX", new ImapCredentials(acct)), (byte) 0, null);
+        for (int i = 1; i <= 200; i++) {
+            int flags = (i % 2 == 0 ? Flag.BITMASK_UNREAD : 0) | (i % 3 == 0 ? Flag.BITMASK_FLAGGED : 0) |
+                    (i % 7 == 0 ? Flag.BITMASK_REPLIED : 0);
+            i4folder.cache(new ImapMessage(i + 100, MailItem.Type.MESSAGE, i * 2, flags, null), i % 10 == 0);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    private void assertSameMatches(ImapSearch i4search) throws Exception {
+        ImapMessageSet expected = i4search.evaluate(i4folder);
+        expected.remove(null);
+        Assert.assertEquals(expected, i4folder.fromBits(i4search.evaluateBits(i4folder)));
+    }
+
+    @Test
+    public void flags() throws Exception {
+        assertSameMatches(new FlagSearch("\\Flagged"));
+        assertSameMatches(new FlagSearch("\\Seen"));
+        assertSameMatches(new FlagSearch("\\Recent"));
+        assertSameMatches(new FlagSearch("$NoSuchKeyword"));
+        Assert.assertEquals(66, new FlagSearch("\\Flagged").evaluateBits(i4folder).cardinality());
+    }
+
+    @Test
+    public void logicalOperations() throws Exception {
+        assertSameMatches(new AllSearch());
+        assertSameMatches(new NoneSearch());
+        assertSameMatches(new NotOperation(new FlagSearch("\\Answered")));
+        assertSameMatches(new AndOperation(new FlagSearch("\\Flagged"), new NotOperation(new FlagSearch("\\Seen"))));
+        assertSameMatches(new OrOperation(new SequenceSearch(null, "5:20,150:*", false), new FlagSearch("\\Answered")));
+        assertSameMatches(new AndOperation(new SequenceSearch(null, "300:400", true),
+                new OrOperation(new FlagSearch("\\Flagged"), new FlagSearch("\\Recent"))));
+        assertSameMatches(new AndOperation());
+        Assert.assertTrue(new AndOperation(new FlagSearch("\\Seen"), new NotOperation(new FlagSearch("\\Seen")))
+                .evaluateBits(i4folder).isEmpty());
+    }
+
+    @Test
+    public void messageSet() throws Exception {
+        ImapMessageSet i4set = new FlagSearch("\\Answered").evaluate(i4folder);
+        MessageSetSearch i4search = new MessageSetSearch(i4set);
+        assertSameMatches(i4search);
+        Assert.assertEquals(i4set, i4search.evaluate(i4folder));
+        Assert.assertEquals(new MessageSetSearch(new ImapMessageSet(i4set)), i4search);
+    }
+
+    @Test
+    public void partition() throws Exception {
+        AndOperation i4search = new AndOperation(new FlagSearch("\\Flagged"), new SizeSearch(SizeSearch.Relation.larger, 100),
+                new SequenceSearch(null, "1:50", false), new ContentSearch("foo"));
+        AndOperation local = new AndOperation();
+        AndOperation indexed = new AndOperation();
+        i4search.partition(local, indexed);
+        Assert.assertTrue(local.canBeRunLocally());
+        Assert.assertFalse(indexed.canBeRunLocally());
+        Assert.assertEquals(new AndOperation(new FlagSearch("\\Flagged"), new SequenceSearch(null, "1:50", false)), local);
+        Assert.assertEquals(new AndOperation(new SizeSearch(SizeSearch.Relation.larger, 100), new ContentSearch("foo")),
+                indexed);
+        Assert.assertEquals(16, local.evaluateBits(i4folder).cardinality());
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.cs.mailbox.MailItem;
+
+/**
+ * Unit test for {@link ImapSequence}.
+ */
+public final class ImapSequenceTest {
+
+    private static ImapMessage message(int uid) {
+        return new ImapMessage(uid, MailItem.Type.MESSAGE, uid, 0, null);
+    }
+
+    @Test
+    public void insertAndRemove() {
+        ImapSequence seq = new ImapSequence();
+        for (int uid = 2; uid <= 200; uid += 2) {
+            seq.add(message(uid));
+        }
+        Assert.assertEquals(100, seq.size());
+        Assert.assertEquals(49, seq.uidSearch(100));
+        Assert.assertEquals(-1, seq.uidSearch(1));
+        Assert.assertEquals(-101, seq.uidSearch(201));
+
+        seq.insert(1, message(3));
+        Assert.assertEquals(101, seq.size());
+        Assert.assertEquals(3, seq.uidAt(1));
+        Assert.assertEquals(4, seq.uidAt(2));
+        Assert.assertEquals(1, seq.uidSearch(3));
+
+        seq.remove(0);
+        Assert.assertEquals(3, seq.uidAt(0));
+        Assert.assertEquals(200, seq.last().imapUid);
+
+        for (Iterator<ImapMessage> it = seq.iterator(); it.hasNext();) {
+            if (it.next().imapUid % 4 == 0) {
+                it.remove();
+            }
+        }
+        Assert.assertEquals(51, seq.size());
+        seq.truncate(1);
+        Assert.assertEquals(1, seq.size());
+        Assert.assertEquals(3, seq.last().imapUid);
+    }
+
+    @Test
+    public void idIndex() {
+        ImapSequence.IdIndex index = new ImapSequence.IdIndex();
+        Map<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            int id = random.nextInt(5000) + 1;
+            if (random.nextInt(3) == 0) {
+                index.remove(id);
+                expected.remove(id);
+            } else {
+                index.put(id, i + 1);
+                expected.put(id, i + 1);
+            }
+        }
+        Assert.assertEquals(expected.size(), index.size());
+        for (int id = 1; id <= 5000; id++) {
+            Integer uid = expected.get(id);
+            Assert.assertEquals(uid == null ? 0 : uid.intValue(), index.get(id));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.index;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.soap.SoapProtocol;
+import com.zimbra.common.util.Constants;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.db.Db;
+import com.zimbra.cs.mailbox.DeliveryOptions;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.OperationContext;
+import com.zimbra.cs.mime.ParsedMessage;
+import com.zimbra.cs.util.IOUtil;
+
+/**
+ * Unit test for {@link DBQueryOperation}.
+ */
+public final class DBQueryOperationTest {
+
+    private static final String[] QUERIES = {
+        "in:inbox budget", "in:sent release", "after:1/1/2010 budget", "in:inbox after:1/1/2008 release"
+    };
+    private static final SortBy[] SORTS = { SortBy.DATE_DESC, SortBy.DATE_ASC, SortBy.SUBJ_ASC };
+    private static final int PAGE = 70;
+    private static final long JAN_1_2004 = 1072915200000L;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning.getInstance().createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    @After
+    public void tearDown() {
+        LC.search_bitmap_intersection_enabled.setDefault(true);
+    }
+
+    private static List<Integer> search(Mailbox mbox, String query, SortBy sort, int offset, int limit)
+            throws Exception {
+        SearchParams params = new SearchParams();
+        params.setQueryString(query);
+        params.setSortBy(sort);
+        params.setTypes(EnumSet.of(MailItem.Type.MESSAGE));
+        params.setOffset(offset);
+        params.setLimit(limit);
+        ZimbraQuery zq = new ZimbraQuery(new OperationContext(mbox), SoapProtocol.Soap12, mbox, params);
+        ZimbraQueryResults results = zq.execute();
+        List<Integer> ids = new ArrayList<Integer>();
+        try {
+            ResultsPager pager = ResultsPager.create(results, params);
+            while (ids.size() < limit && pager.hasNext()) {
+                ids.add(pager.getNextHit().getItemId());
+            }
+        } finally {
+            IOUtil.closeQuietly(results);
+        }
+        return ids;
+    }
+
+    /**
+     * The text term matches more items than fit in one IN clause, so with bitmap intersection enabled the DB and
+     * Lucene hits are intersected in memory, and with it disabled they go through LUCENE_FIRST.  Both must return
+     * the same hits in the same order, whole or a page at a time.
+     */
+    @Test
+    public void bitmapIntersection() throws Exception {
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        int count = Db.getINClauseBatchSize() * 3 / 2;
+        for (int i = 0; i < count; i++) {
+            DeliveryOptions dopt = new DeliveryOptions();
+            dopt.setFolderId(i % 3 == 0 ? Mailbox.ID_FOLDER_SENT : Mailbox.ID_FOLDER_INBOX);
+            // every message says "budget", three in four say "release"
+            String body = i % 4 == 0 ? "budget" : "budget release";
+            // distinct dates and subjects, so that the order of the hits doesn't depend on how ties are broken
+            String msg = String.format("From: sender%d@example.com\r\nTo: test@zimbra.com\r\n" +
+                    "Subject: message %04d\r\n\r\n%s\r\n", i % 7, (i * 53) % count, body);
+            long date = JAN_1_2004 + (i * 37) % count * 10 * Constants.MILLIS_PER_DAY;
+            mbox.addMessage(null, new ParsedMessage(msg.getBytes(), date, false), dopt, null);
+        }
+        MailboxTestUtil.index(mbox);
+
+        for (String query : QUERIES) {
+            for (SortBy sort : SORTS) {
+                String label = query + " " + sort;
+                LC.search_bitmap_intersection_enabled.setDefault(false);
+                List<Integer> joined = search(mbox, query, sort, 0, count);
+                LC.search_bitmap_intersection_enabled.setDefault(true);
+                List<Integer> intersected = search(mbox, query, sort, 0, count);
+                Assert.assertFalse(label, joined.isEmpty());
+                Assert.assertEquals(label, joined, intersected);
+
+                for (int offset = 0; offset < joined.size(); offset += PAGE) {
+                    List<Integer> expected = joined.subList(offset, Math.min(offset + PAGE, joined.size()));
+                    LC.search_bitmap_intersection_enabled.setDefault(false);
+                    Assert.assertEquals(label + " @" + offset, expected, search(mbox, query, sort, offset, PAGE));
+                    LC.search_bitmap_intersection_enabled.setDefault(true);
+                    Assert.assertEquals(label + " @" + offset, expected, search(mbox, query, sort, offset, PAGE));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.index;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public final class IntBitmapTest {
+
+    @Test
+    public void sparse() {
+        IntBitmap bitmap = new IntBitmap();
+        Assert.assertTrue(bitmap.isEmpty());
+        Assert.assertTrue(bitmap.add(257));
+        Assert.assertTrue(bitmap.add(0));
+        Assert.assertTrue(bitmap.add(70000));
+        Assert.assertTrue(bitmap.add(Integer.MAX_VALUE));
+        Assert.assertFalse(bitmap.add(257));
+        Assert.assertEquals(4, bitmap.cardinality());
+        Assert.assertTrue(bitmap.contains(0));
+        Assert.assertTrue(bitmap.contains(257));
+        Assert.assertTrue(bitmap.contains(70000));
+        Assert.assertTrue(bitmap.contains(Integer.MAX_VALUE));
+        Assert.assertFalse(bitmap.contains(256));
+        Assert.assertFalse(bitmap.contains(70001));
+        Assert.assertFalse(bitmap.contains(-1));
+        Assert.assertFalse(bitmap.contains(65536 + 257));
+    }
+
+    @Test
+    public void dense() {
+        // enough values in one group to switch it from an array to a bitmap
+        IntBitmap bitmap = new IntBitmap();
+        for (int i = 131072; i < 131072 + 10000; i += 2) {
+            Assert.assertTrue(bitmap.add(i));
+        }
+        Assert.assertEquals(5000, bitmap.cardinality());
+        for (int i = 131072; i < 131072 + 10000; i += 2) {
+            Assert.assertFalse(bitmap.add(i));
+            Assert.assertTrue(bitmap.contains(i));
+            Assert.assertFalse(bitmap.contains(i + 1));
+        }
+        Assert.assertEquals(5000, bitmap.cardinality());
+    }
+
+    @Test
+    public void random() {
+        Random random = new Random(42);
+        IntBitmap bitmap = new IntBitmap();
+        Set<Integer> expected = new HashSet<Integer>();
+        for (int i = 0; i < 200000; i++) {
+            // mostly clustered low ids, like a mailbox, with a few outliers
+            int value = random.nextInt(10) == 0 ? random.nextInt(Integer.MAX_VALUE) : random.nextInt(300000);
+            Assert.assertEquals(expected.add(value), bitmap.add(value));
+        }
+        Assert.assertEquals(expected.size(), bitmap.cardinality());
+        for (int i = 0; i < 400000; i++) {
+            Assert.assertEquals(String.valueOf(i), expected.contains(i), bitmap.contains(i));
+        }
+        for (int value : expected) {
+            Assert.assertTrue(bitmap.contains(value));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void negative() {
+        new IntBitmap().add(-5);
+    }
+}
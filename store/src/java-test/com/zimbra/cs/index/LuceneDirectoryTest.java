@@ -64,6 +64,40 @@ public final class LuceneDirectoryTest {
         Assert.assertEquals(5, ZimbraPerf.COUNTER_IDX_BYTES_READ.getTotal() - total);
     }
 
+    @Test
+    public void threadBytesRead() throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(tmpDir, "thread"));
+        out.write(new byte[] { 0, 1, 2, 3, 4, 5, 6 });
+        out.close();
+
+        long before = LuceneDirectory.getThreadBytesRead();
+        LuceneDirectory dir = LuceneDirectory.open(tmpDir);
+        IndexInput in = dir.openInput("thread");
+        in.readByte();
+        in.readBytes(new byte[6], 0, 6);
+        in.close();
+        // only bulk reads count toward the thread
+        Assert.assertEquals(6, LuceneDirectory.getThreadBytesRead() - before);
+    }
+
+    @Test
+    public void auto() throws IOException {
+        String impl = LC.zimbra_index_lucene_io_impl.value();
+        String minSize = LC.zimbra_index_lucene_mmap_min_size.value();
+        LC.zimbra_index_lucene_io_impl.setDefault("auto");
+        try {
+            LC.zimbra_index_lucene_mmap_min_size.setDefault(Long.MAX_VALUE);
+            Assert.assertTrue(LuceneDirectory.open(tmpDir).toString().contains("NIOFSDirectory"));
+            if ("64".equals(System.getProperty("sun.arch.data.model"))) {
+                LC.zimbra_index_lucene_mmap_min_size.setDefault(0L);
+                Assert.assertTrue(LuceneDirectory.open(tmpDir).toString().contains("MMapDirectory"));
+            }
+        } finally {
+            LC.zimbra_index_lucene_io_impl.setDefault(impl);
+            LC.zimbra_index_lucene_mmap_min_size.setDefault(minSize);
+        }
+    }
+
     @Test
     public void write() throws IOException {
         long count = ZimbraPerf.COUNTER_IDX_BYTES_WRITTEN.getCount();
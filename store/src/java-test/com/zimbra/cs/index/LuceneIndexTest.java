@@ -16,6 +16,17 @@
  */
 package com.zimbra.cs.index;
 
+import java.util.HashMap;
+import java.util.concurrent.Semaphore;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.stats.ZimbraPerf;
+
 /**
  * Unit test for {@link LuceneIndex}.
  */
@@ -27,4 +38,48 @@ public final class LuceneIndexTest extends AbstractIndexStoreTest {
         // Default for LC.zimbra_class_index_store_factory.value() is USUALLY this
         return "com.zimbra.cs.index.LuceneIndex$Factory";
     }
+
+    private static ZimbraIndexSearcher openSearcher(Mailbox mbox) throws Exception {
+        return mbox.index.getIndexStore().openSearcher();
+    }
+
+    @Test
+    public void evictIdleSearcherAtReaderCap() throws Exception {
+        Mailbox[] mboxes = new Mailbox[3];
+        for (int i = 0; i < mboxes.length; i++) {
+            Account acct = prov.createAccount("reader" + i + "@zimbra.com", "secret", new HashMap<String, Object>());
+            mboxes[i] = MailboxManager.getInstance().getMailboxByAccount(acct);
+        }
+
+        // the first two end up idle in the cache, each holding on to a permit
+        ZimbraIndexSearcher first = openSearcher(mboxes[0]);
+        first.close();
+        ZimbraIndexSearcher second = openSearcher(mboxes[1]);
+        second.close();
+
+        // use up the rest of zimbra_index_max_readers
+        Semaphore throttle = LuceneIndex.getReaderThrottle();
+        int drained = throttle.drainPermits();
+        try {
+            long evictions = ZimbraPerf.COUNTER_IDX_SEARCHER_EVICTIONS.getCount();
+            ZimbraIndexSearcher third = openSearcher(mboxes[2]);
+            Assert.assertEquals(1, ZimbraPerf.COUNTER_IDX_SEARCHER_EVICTIONS.getCount() - evictions);
+            Assert.assertEquals(0, throttle.availablePermits());
+
+            // the least recently used one went; the other is still cached and needs no permit
+            ZimbraIndexSearcher again = openSearcher(mboxes[1]);
+            Assert.assertSame(second, again);
+            again.close();
+
+            // a searcher in use is never evicted, so reopening the first one closes the second
+            ZimbraIndexSearcher reopened = openSearcher(mboxes[0]);
+            Assert.assertNotSame(first, reopened);
+            Assert.assertEquals(2, ZimbraPerf.COUNTER_IDX_SEARCHER_EVICTIONS.getCount() - evictions);
+            Assert.assertEquals(0, throttle.availablePermits());
+            reopened.close();
+            third.close();
+        } finally {
+            throttle.release(drained);
+        }
+    }
 }
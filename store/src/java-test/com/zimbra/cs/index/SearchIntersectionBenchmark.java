@@ -0,0 +1,142 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.index;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.soap.SoapProtocol;
+import com.zimbra.cs.account.MockProvisioning;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.DeliveryOptions;
+import com.zimbra.cs.mailbox.Flag;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.mailbox.OperationContext;
+import com.zimbra.cs.mime.ParsedMessage;
+import com.zimbra.cs.util.IOUtil;
+
+/**
+ * Times searches that combine a full-text term with DB-only constraints,
+ * first with the text and DB results joined through IN-clause batches and
+ * then with them intersected in memory by {@link DBQueryOperation}, and
+ * checks that both return the same hits in the same order:
+ * <pre>
+ *   SearchIntersectionBenchmark [messages]
+ * </pre>
+ */
+public class SearchIntersectionBenchmark {
+
+    private static final String[] WORDS = {
+        "budget", "meeting", "release", "invoice", "travel", "report", "lunch", "review"
+    };
+    private static final String[] QUERIES = {
+        "in:inbox budget", "in:sent meeting", "is:unread release", "in:inbox is:unread invoice",
+        "after:1/1/2010 travel", "before:1/1/2005 in:inbox report"
+    };
+    private static final int RUNS = 5;
+
+    private static byte[] generateMessage(Random rnd, int i) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("From: sender").append(rnd.nextInt(50)).append("@example.com\r\n");
+        sb.append("To: test@zimbra.com\r\n");
+        sb.append("Subject: message ").append(i).append("\r\n");
+        sb.append("Date: ").append(String.format("Mon, 1 Jan %d 12:00:00 +0000", 2000 + rnd.nextInt(16))).append("\r\n");
+        sb.append("\r\n");
+        for (int w = 0; w < 40; w++) {
+            // "budget" shows up in nearly every message, the others progressively less often
+            String word = WORDS[Math.min(rnd.nextInt(WORDS.length * 2), rnd.nextInt(WORDS.length))];
+            sb.append(word).append(w % 10 == 9 ? "\r\n" : " ");
+        }
+        return sb.toString().getBytes();
+    }
+
+    private static List<Integer> search(Mailbox mbox, String query) throws Exception {
+        SearchParams params = new SearchParams();
+        params.setQueryString(query);
+        params.setSortBy(SortBy.DATE_DESC);
+        params.setTypes(EnumSet.of(MailItem.Type.MESSAGE));
+        params.setLimit(Integer.MAX_VALUE);
+        ZimbraQuery zq = new ZimbraQuery(new OperationContext(mbox), SoapProtocol.Soap12, mbox, params);
+        ZimbraQueryResults results = zq.execute();
+        List<Integer> ids = new ArrayList<Integer>();
+        try {
+            while (results.hasNext()) {
+                ids.add(results.getNext().getItemId());
+            }
+        } finally {
+            IOUtil.closeQuietly(results);
+        }
+        return ids;
+    }
+
+    private static long time(Mailbox mbox, String query, boolean intersect, List<Integer> out) throws Exception {
+        LC.search_bitmap_intersection_enabled.setDefault(intersect);
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long t0 = System.nanoTime();
+            List<Integer> ids = search(mbox, query);
+            best = Math.min(best, System.nanoTime() - t0);
+            if (run == 0) {
+                out.addAll(ids);
+            }
+        }
+        return best;
+    }
+
+    public void run(int count) throws Exception {
+        MailboxTestUtil.clearData();
+        Provisioning.getInstance().createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccountId(MockProvisioning.DEFAULT_ACCOUNT_ID);
+        Random rnd = new Random(17);
+        for (int i = 0; i < count; i++) {
+            DeliveryOptions dopt = new DeliveryOptions();
+            dopt.setFolderId(rnd.nextInt(3) == 0 ? Mailbox.ID_FOLDER_SENT : Mailbox.ID_FOLDER_INBOX);
+            dopt.setFlags(rnd.nextBoolean() ? Flag.BITMASK_UNREAD : 0);
+            mbox.addMessage(null, new ParsedMessage(generateMessage(rnd, i), false), dopt, null);
+        }
+        MailboxTestUtil.index(mbox);
+
+        p("%-36s %8s %12s %12s", "query (" + count + " msgs)", "hits", "join ms", "bitmap ms");
+        for (String query : QUERIES) {
+            List<Integer> joined = new ArrayList<Integer>();
+            List<Integer> intersected = new ArrayList<Integer>();
+            long join = time(mbox, query, false, joined);
+            long bitmap = time(mbox, query, true, intersected);
+            if (!joined.equals(intersected)) {
+                throw new AssertionError(query + ": results differ (" + joined.size() + " vs " +
+                        intersected.size() + " hits)");
+            }
+            p("%-36s %8d %12.1f %12.1f", query, joined.size(), join / 1e6, bitmap / 1e6);
+        }
+    }
+
+    private static void p(String fmt, Object... args) {
+        System.out.println(String.format(fmt, args));
+    }
+
+    public static void main(String[] args) throws Exception {
+        MailboxTestUtil.initServer();
+        new SearchIntersectionBenchmark().run(args.length > 0 ? Integer.parseInt(args[0]) : 5000);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.lmtpserver;
+
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.zimbra.common.util.ByteUtil;
+
+/**
+ * Unit test for {@link LmtpDataBuffer}.
+ */
+public final class LmtpDataBufferTest {
+
+    /**
+     * Feeds {@code input} in chunks of {@code chunk} bytes and returns the delivered message, checking that the
+     * buffer stops right after the terminator.
+     */
+    private static String receive(String input, int chunk) throws IOException {
+        byte[] bytes = input.getBytes(Charsets.ISO_8859_1);
+        int end = input.indexOf("\r\n.\r\n");
+        end = input.startsWith(".\r\n") ? 3 : end + 5;
+        LmtpDataBuffer buffer = new LmtpDataBuffer(0, 1024);
+        try {
+            for (int off = 0; off < bytes.length && !buffer.isComplete(); off += chunk) {
+                byte[] part = new byte[Math.min(chunk, bytes.length - off)];
+                System.arraycopy(bytes, off, part, 0, part.length);
+                int pos = buffer.write(part, 0);
+                if (buffer.isComplete()) {
+                    Assert.assertEquals("consumed up to the terminator", end, off + pos);
+                } else {
+                    Assert.assertEquals(part.length, pos);
+                }
+            }
+            Assert.assertTrue("terminator not found", buffer.isComplete());
+            return new String(ByteUtil.getContent(new LmtpMessageInputStream(buffer.getInputStream(), null), -1),
+                    Charsets.ISO_8859_1);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private static void check(String expected, String input) throws IOException {
+        for (int chunk = 1; chunk <= input.length(); chunk++) {
+            Assert.assertEquals("chunk size " + chunk, expected, receive(input, chunk));
+        }
+    }
+
+    @Test
+    public void terminator() throws Exception {
+        check("Subject: test\r\n\r\nbody\r\n", "Subject: test\r\n\r\nbody\r\n.\r\n");
+    }
+
+    @Test
+    public void emptyMessage() throws Exception {
+        // the CRLF ending the DATA command counts towards the terminator
+        check("", ".\r\n");
+    }
+
+    @Test
+    public void pipelinedCommand() throws Exception {
+        check("Subject: test\r\n\r\nbody\r\n", "Subject: test\r\n\r\nbody\r\n.\r\nRSET\r\nQUIT\r\n");
+    }
+
+    @Test
+    public void dotUnstuffing() throws Exception {
+        check("Subject: dots\r\n\r\n.leading dot\r\n.\r\n..two\r\nend.\r\n",
+                "Subject: dots\r\n\r\n..leading dot\r\n..\r\n...two\r\nend.\r\n.\r\n");
+    }
+
+    @Test
+    public void notTerminators() throws Exception {
+        // a dot line must be preceded by CRLF and followed by CRLF to end the data
+        LmtpDataBuffer buffer = new LmtpDataBuffer(0, 1024);
+        try {
+            byte[] bytes = "a.\r\n\n.\r\n\r.\r\n\r\n.x\r\n\r\n.\r\r\n".getBytes(Charsets.ISO_8859_1);
+            Assert.assertEquals(bytes.length, buffer.write(bytes, 0));
+            Assert.assertFalse(buffer.isComplete());
+            byte[] end = "\r\n.\r\n".getBytes(Charsets.ISO_8859_1);
+            Assert.assertEquals(end.length, buffer.write(end, 0));
+            Assert.assertTrue(buffer.isComplete());
+        } finally {
+            buffer.release();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.lmtpserver;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Times LMTP delivery of one message to 1, 100 and 1000 local recipients,
+ * followed by indexing it in every recipient mailbox, first with each
+ * mailbox analyzing the message on its own and then with the analysis
+ * shared through {@link com.zimbra.cs.mailbox.IndexDataCache}:
+ * <pre>
+ *   LmtpFanoutBenchmark [recipients ...]
+ * </pre>
+ */
+public class LmtpFanoutBenchmark {
+
+    private static final String BODY_LINE = "The quick brown fox jumps over the lazy dog; pack my box with five dozen liquor jugs.\r\n";
+
+    private static byte[] generateMessage() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("From: Fanout Sender <sender@example.com>\r\n");
+        sb.append("To: all-staff@zimbra.com\r\n");
+        sb.append("Subject: quarterly update\r\n");
+        sb.append("Message-ID: <fanout-").append(System.nanoTime()).append("@example.com>\r\n");
+        sb.append("MIME-Version: 1.0\r\n");
+        sb.append("Content-Type: multipart/mixed; boundary=\"BOUNDARY\"\r\n\r\n");
+        sb.append("--BOUNDARY\r\nContent-Type: text/plain; charset=us-ascii\r\n\r\n");
+        for (int i = 0; i < 200; i++) {
+            sb.append(BODY_LINE);
+        }
+        sb.append("--BOUNDARY\r\nContent-Type: text/html; charset=us-ascii\r\n\r\n<html><body>");
+        for (int i = 0; i < 200; i++) {
+            sb.append("<p>").append(BODY_LINE).append("</p>");
+        }
+        sb.append("</body></html>\r\n");
+        sb.append("--BOUNDARY\r\nContent-Type: text/plain; name=\"notes.txt\"\r\n");
+        sb.append("Content-Disposition: attachment; filename=\"notes.txt\"\r\n\r\n");
+        for (int i = 0; i < 500; i++) {
+            sb.append(BODY_LINE);
+        }
+        sb.append("--BOUNDARY--\r\n");
+        return sb.toString().getBytes();
+    }
+
+    private void run(int count, boolean shared) throws Exception {
+        LC.zimbra_index_shared_data_cache_size.setDefault(shared ? 100 : 0);
+        MailboxTestUtil.clearData();
+        Provisioning prov = Provisioning.getInstance();
+        LmtpEnvelope env = new LmtpEnvelope();
+        env.setSender(new LmtpAddress("<sender@example.com>", new String[] { "BODY", "SIZE" }, null));
+        List<Mailbox> mailboxes = new ArrayList<Mailbox>(count);
+        for (int i = 0; i < count; i++) {
+            String name = "fanout" + i + "@zimbra.com";
+            Account acct = prov.createAccount(name, "secret", new HashMap<String, Object>());
+            mailboxes.add(MailboxManager.getInstance().getMailboxByAccount(acct));
+            LmtpAddress rcpt = new LmtpAddress("<" + name + ">", null, null);
+            rcpt.setOnLocalServer(true);
+            env.addLocalRecipient(rcpt);
+        }
+
+        byte[] msg = generateMessage();
+        ZimbraLmtpBackend backend = new ZimbraLmtpBackend(LmtpConfig.getInstance());
+        long t0 = System.nanoTime();
+        backend.deliver(env, new ByteArrayInputStream(msg), msg.length);
+        long t1 = System.nanoTime();
+        for (Mailbox mbox : mailboxes) {
+            mbox.index.indexDeferredItems();
+        }
+        long t2 = System.nanoTime();
+
+        int ok = 0;
+        for (LmtpAddress rcpt : env.getLocalRecipients()) {
+            if (rcpt.getDeliveryStatus() == LmtpReply.DELIVERY_OK) {
+                ok++;
+            }
+        }
+        p("%6d %7s %6d %12.1f %12.1f %12.3f", count, shared ? "on" : "off", ok, (t1 - t0) / 1e6, (t2 - t1) / 1e6,
+                (t2 - t0) / 1e6 / count);
+    }
+
+    public void run(int[] counts) throws Exception {
+        p("%6s %7s %6s %12s %12s %12s", "rcpts", "shared", "ok", "deliver ms", "index ms", "ms/rcpt");
+        for (int count : counts) {
+            run(count, false);
+            run(count, true);
+        }
+    }
+
+    private static void p(String fmt, Object... args) {
+        System.out.println(String.format(fmt, args));
+    }
+
+    public static void main(String[] args) throws Exception {
+        MailboxTestUtil.initServer();
+        int[] counts = new int[] { 1, 100, 1000 };
+        if (args.length > 0) {
+            counts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                counts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        new LmtpFanoutBenchmark().run(counts);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.lmtpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.zimbra.common.lmtp.LmtpClient;
+
+/**
+ * Replays a spool of messages against a running LMTP server and reports the
+ * delivery rate and latency.  Compare runs with <tt>nio_lmtp_enabled</tt> off
+ * and on:
+ * <pre>
+ *   LmtpLoadTest host port spool-dir connections recipients-per-message rcpt1[,rcpt2...] [passes]
+ * </pre>
+ * Every file in the spool directory is sent as-is.  Each message goes to the
+ * given number of recipients, picked round-robin from the comma-separated
+ * address list, so that shared multi-recipient delivery can be compared
+ * against single-recipient delivery.
+ */
+public class LmtpLoadTest {
+
+    private final String host;
+    private final int port;
+    private final List<byte[]> messages = new ArrayList<byte[]>();
+    private final String[] addresses;
+    private final int rcptsPerMessage;
+
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicInteger delivered = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong totalLatency = new AtomicLong();
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    public LmtpLoadTest(String host, int port, File spool, String[] addresses, int rcptsPerMessage) throws IOException {
+        this.host = host;
+        this.port = port;
+        this.addresses = addresses;
+        this.rcptsPerMessage = Math.max(rcptsPerMessage, 1);
+        File[] files = spool.listFiles();
+        if (files == null) {
+            throw new IOException("not a directory: " + spool);
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isFile()) {
+                messages.add(Files.readAllBytes(file.toPath()));
+            }
+        }
+        if (messages.isEmpty()) {
+            throw new IOException("no messages in " + spool);
+        }
+    }
+
+    private List<String> recipientsFor(int n) {
+        List<String> rcpts = new ArrayList<String>(rcptsPerMessage);
+        for (int i = 0; i < rcptsPerMessage; i++) {
+            rcpts.add(addresses[(n * rcptsPerMessage + i) % addresses.length]);
+        }
+        return rcpts;
+    }
+
+    private void send(int total) {
+        LmtpClient client = null;
+        try {
+            int n;
+            while ((n = next.getAndIncrement()) < total) {
+                if (client == null) {
+                    client = new LmtpClient(host, port, true);
+                    client.quiet(true);
+                }
+                byte[] msg = messages.get(n % messages.size());
+                long start = System.nanoTime();
+                boolean ok;
+                try {
+                    ok = client.sendMessage(new ByteArrayInputStream(msg), recipientsFor(n),
+                            "loadtest@example.com", "LmtpLoadTest", (long) msg.length);
+                } catch (Exception e) {
+                    System.err.println("message " + n + ": " + e);
+                    client.abruptClose();
+                    client = null;
+                    ok = false;
+                }
+                long latency = System.nanoTime() - start;
+                totalLatency.addAndGet(latency);
+                long max;
+                while (latency > (max = maxLatency.get()) && !maxLatency.compareAndSet(max, latency)) {
+                }
+                (ok ? delivered : failed).incrementAndGet();
+            }
+        } catch (IOException e) {
+            System.err.println("unable to connect: " + e);
+        } finally {
+            if (client != null) {
+                client.close();
+            }
+        }
+    }
+
+    public void run(int connections, int total) throws InterruptedException {
+        next.set(0);
+        delivered.set(0);
+        failed.set(0);
+        totalLatency.set(0);
+        maxLatency.set(0);
+
+        final int count = total;
+        ExecutorService pool = Executors.newFixedThreadPool(connections);
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            pool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    send(count);
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(1, TimeUnit.DAYS);
+        double secs = (System.nanoTime() - start) / 1e9;
+
+        int sent = delivered.get() + failed.get();
+        System.out.println(String.format("%6d conns %4d rcpts: %7d ok %5d failed  %9.1f msgs/s  %9.1f rcpts/s  avg %7.1f ms  max %7.1f ms",
+                connections, rcptsPerMessage, delivered.get(), failed.get(), delivered.get() / secs,
+                delivered.get() * rcptsPerMessage / secs, sent == 0 ? 0 : totalLatency.get() / 1e6 / sent,
+                maxLatency.get() / 1e6));
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 6) {
+            System.err.println("usage: LmtpLoadTest host port spool-dir connections recipients-per-message rcpt1[,rcpt2...] [passes]");
+            System.exit(1);
+        }
+        int connections = Integer.parseInt(args[3]);
+        int passes = args.length > 6 ? Integer.parseInt(args[6]) : 1;
+        LmtpLoadTest test = new LmtpLoadTest(args[0], Integer.parseInt(args[1]), new File(args[2]), args[5].split(","),
+                Integer.parseInt(args[4]));
+        // one pass to warm up the server, then the timed passes
+        test.run(connections, test.messages.size());
+        for (int i = 0; i < passes; i++) {
+            test.run(connections, test.messages.size());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.lmtpserver;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.mailbox.MailItem;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.MailboxManager;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+
+/**
+ * Unit test for {@link ZimbraLmtpBackend}.
+ */
+public final class ZimbraLmtpBackendTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    private String parallelism;
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        parallelism = LC.zimbra_lmtp_delivery_parallelism.value();
+    }
+
+    @After
+    public void tearDown() {
+        LC.zimbra_lmtp_delivery_parallelism.setDefault(parallelism);
+    }
+
+    /**
+     * Delivers to more recipients than there are delivery threads, with unknown addresses mixed in, and checks that
+     * every recipient ends up with its own status, in RCPT order, regardless of which thread delivered it.
+     */
+    @Test
+    public void concurrentDeliveryStatus() throws Exception {
+        LC.zimbra_lmtp_delivery_parallelism.setDefault(3);
+        Provisioning prov = Provisioning.getInstance();
+        LmtpEnvelope env = new LmtpEnvelope();
+        env.setSender(new LmtpAddress("<sender@example.com>", new String[] { "BODY", "SIZE" }, null));
+        List<Mailbox> mailboxes = new ArrayList<Mailbox>();
+        List<Boolean> known = new ArrayList<Boolean>();
+        for (int i = 0; i < 20; i++) {
+            String name = "rcpt" + i + "@zimbra.com";
+            boolean exists = i % 4 != 3;
+            if (exists) {
+                Account acct = prov.createAccount(name, "secret", new HashMap<String, Object>());
+                mailboxes.add(MailboxManager.getInstance().getMailboxByAccount(acct));
+            }
+            known.add(exists);
+            LmtpAddress rcpt = new LmtpAddress("<" + name + ">", null, null);
+            rcpt.setOnLocalServer(true);
+            env.addLocalRecipient(rcpt);
+        }
+
+        byte[] msg = "From: sender@example.com\r\nTo: staff@zimbra.com\r\nSubject: fan-out\r\n\r\nhello\r\n".getBytes();
+        new ZimbraLmtpBackend(LmtpConfig.getInstance()).deliver(env, new ByteArrayInputStream(msg), msg.length);
+
+        List<LmtpAddress> rcpts = env.getLocalRecipients();
+        Assert.assertEquals(known.size(), rcpts.size());
+        for (int i = 0; i < rcpts.size(); i++) {
+            LmtpReply expected = known.get(i) ? LmtpReply.DELIVERY_OK : LmtpReply.PERMANENT_FAILURE;
+            Assert.assertEquals(rcpts.get(i).getEmailAddress(), expected, rcpts.get(i).getDeliveryStatus());
+        }
+        for (Mailbox mbox : mailboxes) {
+            Assert.assertEquals(mbox.getAccount().getName(), 1,
+                    mbox.getItemIds(null, Mailbox.ID_FOLDER_INBOX).getIds(MailItem.Type.MESSAGE).size());
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.analysis.TokenStream;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.cs.index.IndexDocument;
+import com.zimbra.cs.index.LuceneFields;
+import com.zimbra.cs.index.ZimbraAnalyzerTest;
+import com.zimbra.cs.index.analysis.FieldTokenStream;
+import com.zimbra.cs.index.analysis.MimeTypeTokenStream;
+import com.zimbra.cs.index.analysis.RFC822AddressTokenStream;
+import com.zimbra.cs.mailbox.MailItem.TemporaryIndexingException;
+
+/**
+ * Unit test for {@link IndexDataCache}.
+ */
+public final class IndexDataCacheTest {
+
+    private static final String DIGEST = "shared-digest";
+
+    @After
+    public void tearDown() {
+        IndexDataCache.clear();
+    }
+
+    private static IndexDocument newDocument() {
+        IndexDocument doc = new IndexDocument();
+        doc.addFrom(new RFC822AddressTokenStream("user@zimbra.com"));
+        doc.addMimeType(new MimeTypeTokenStream("text/plain"));
+        doc.addField(new FieldTokenStream("x-test", "value"));
+        doc.addContent("some content");
+        return doc;
+    }
+
+    private static final class CountingAnalyzer implements Callable<List<IndexDocument>> {
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public List<IndexDocument> call() {
+            calls.incrementAndGet();
+            return Collections.singletonList(newDocument());
+        }
+    }
+
+    @Test
+    public void copy() throws Exception {
+        IndexDocument doc = newDocument();
+        IndexDocument copy = doc.copy();
+
+        // indexing the original consumes and closes its token streams
+        TokenStream from = doc.toDocument().getFieldable(LuceneFields.L_H_FROM).tokenStreamValue();
+        List<String> tokens = ZimbraAnalyzerTest.toTokens(from);
+        from.close();
+        Assert.assertFalse(tokens.isEmpty());
+
+        TokenStream copied = copy.toDocument().getFieldable(LuceneFields.L_H_FROM).tokenStreamValue();
+        Assert.assertNotSame(from, copied);
+        Assert.assertEquals(tokens, ZimbraAnalyzerTest.toTokens(copied));
+        Assert.assertEquals(ZimbraAnalyzerTest.toTokens(doc.toDocument().getFieldable(LuceneFields.L_MIMETYPE).tokenStreamValue()),
+                ZimbraAnalyzerTest.toTokens(copy.toDocument().getFieldable(LuceneFields.L_MIMETYPE).tokenStreamValue()));
+        Assert.assertEquals("some content", copy.toDocument().get(LuceneFields.L_CONTENT));
+
+        // item-specific fields set on the copy don't leak into the original
+        copy.addMailboxBlobId(42);
+        Assert.assertNull(doc.toDocument().get(LuceneFields.L_MAILBOX_BLOB_ID));
+    }
+
+    @Test
+    public void notShared() throws Exception {
+        CountingAnalyzer analyzer = new CountingAnalyzer();
+        IndexDataCache.get(DIGEST, true, null, analyzer);
+        IndexDataCache.get(DIGEST, true, null, analyzer);
+        Assert.assertEquals(2, analyzer.calls.get());
+    }
+
+    @Test
+    public void shared() throws Exception {
+        IndexDataCache.share(DIGEST);
+        CountingAnalyzer analyzer = new CountingAnalyzer();
+        List<IndexDocument> first = IndexDataCache.get(DIGEST, true, null, analyzer);
+        List<IndexDocument> second = IndexDataCache.get(DIGEST, true, null, analyzer);
+        Assert.assertEquals(1, analyzer.calls.get());
+        Assert.assertEquals(1, second.size());
+        Assert.assertNotSame(first.get(0), second.get(0));
+
+        // a different charset or attachment setting is analyzed separately
+        IndexDataCache.get(DIGEST, false, null, analyzer);
+        IndexDataCache.get(DIGEST, true, "iso-2022-jp", analyzer);
+        Assert.assertEquals(3, analyzer.calls.get());
+    }
+
+    @Test
+    public void temporaryFailure() throws Exception {
+        IndexDataCache.share(DIGEST);
+        final AtomicInteger calls = new AtomicInteger();
+        Callable<List<IndexDocument>> failing = new Callable<List<IndexDocument>>() {
+            @Override
+            public List<IndexDocument> call() throws Exception {
+                calls.incrementAndGet();
+                throw new TemporaryIndexingException();
+            }
+        };
+        for (int i = 0; i < 2; i++) {
+            try {
+                IndexDataCache.get(DIGEST, true, null, failing);
+                Assert.fail();
+            } catch (TemporaryIndexingException expected) {
+            }
+        }
+        // failures aren't cached
+        Assert.assertEquals(2, calls.get());
+    }
+}
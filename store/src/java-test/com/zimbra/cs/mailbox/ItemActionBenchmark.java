@@ -0,0 +1,104 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.HashMap;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+
+/**
+ * Times the bulk item operations behind ItemAction (move, flag, mark read,
+ * delete) on N messages, first with per-item writes and then with the
+ * writes coalesced by {@link com.zimbra.cs.db.DbItemBatch}:
+ * <pre>
+ *   ItemActionBenchmark [messages ...] [batch size]
+ * </pre>
+ * The test harness runs against the embedded database; to measure MariaDB or
+ * SQLite, point the <tt>zimbra_class_database</tt> and connection localconfig
+ * keys at a real instance before running.
+ */
+public class ItemActionBenchmark {
+
+    private final int batchSize;
+
+    public ItemActionBenchmark(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    private void run(int count, int writeBatch) throws Exception {
+        LC.zimbra_mailbox_write_batch_size.setDefault(writeBatch);
+        MailboxTestUtil.clearData();
+        Provisioning prov = Provisioning.getInstance();
+        Account acct = prov.createAccount("bench" + count + "-" + writeBatch + "@zimbra.com", "secret",
+                new HashMap<String, Object>());
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(acct);
+
+        int[] ids = new int[count];
+        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX).setFlags(Flag.BITMASK_UNREAD);
+        for (int i = 0; i < count; i++) {
+            ids[i] = mbox.addMessage(null, MailboxTestUtil.generateMessage("bench " + i), dopt, null).getId();
+        }
+        Folder folder = mbox.createFolder(null, "/bench", new Folder.FolderOptions());
+
+        long t0 = System.nanoTime();
+        mbox.alterTag(null, ids, MailItem.Type.MESSAGE, Flag.FlagInfo.FLAGGED, true, null);
+        long t1 = System.nanoTime();
+        mbox.alterTag(null, ids, MailItem.Type.MESSAGE, Flag.FlagInfo.UNREAD, false, null);
+        long t2 = System.nanoTime();
+        mbox.move(null, ids, MailItem.Type.MESSAGE, folder.getId(), null);
+        long t3 = System.nanoTime();
+        mbox.delete(null, ids, MailItem.Type.MESSAGE, null);
+        long t4 = System.nanoTime();
+
+        p("%8d %6s %10.0f %10.0f %10.0f %10.0f", count, writeBatch <= 1 ? "off" : String.valueOf(writeBatch),
+                rate(count, t0, t1), rate(count, t1, t2), rate(count, t2, t3), rate(count, t3, t4));
+    }
+
+    private static double rate(int count, long start, long end) {
+        return count / ((end - start) / 1e9);
+    }
+
+    public void run(int[] counts) throws Exception {
+        p("%8s %6s %10s %10s %10s %10s   (items/s)", "items", "batch", "flag", "read", "move", "delete");
+        for (int count : counts) {
+            run(count, 1);
+            run(count, batchSize);
+        }
+    }
+
+    private static void p(String fmt, Object... args) {
+        System.out.println(String.format(fmt, args));
+    }
+
+    public static void main(String[] args) throws Exception {
+        MailboxTestUtil.initServer();
+        int[] counts = new int[] { 10000, 100000 };
+        int batchSize = 1000;
+        if (args.length > 0) {
+            counts = new int[Math.max(args.length - 1, 1)];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = Integer.parseInt(args[i]);
+            }
+            if (args.length > 1) {
+                batchSize = Integer.parseInt(args[args.length - 1]);
+            }
+        }
+        new ItemActionBenchmark(batchSize).run(counts);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.HashMap;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+
+/**
+ * Unit test for {@link ItemCacheBudget}.
+ */
+public final class ItemCacheBudgetTest {
+
+    private static final String[] ACCOUNTS = { "hot@zimbra.com", "cold@zimbra.com", "new@zimbra.com" };
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning prov = Provisioning.getInstance();
+        for (String name : ACCOUNTS) {
+            prov.createAccount(name, "secret", new HashMap<String, Object>());
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    private static Mailbox getMailbox(String name) throws Exception {
+        Account acct = Provisioning.getInstance().getAccountByName(name);
+        return MailboxManager.getInstance().getMailboxByAccount(acct);
+    }
+
+    @Test
+    public void shedColdestFirst() throws Exception {
+        Mailbox hot = getMailbox(ACCOUNTS[0]);
+        Mailbox cold = getMailbox(ACCOUNTS[1]);
+        Mailbox latest = getMailbox(ACCOUNTS[2]);
+
+        ItemCacheBudget budget = new ItemCacheBudget(10);
+        for (int i = 0; i < 5; i++) {
+            budget.record(hot, 4);
+        }
+        budget.record(cold, 4);
+        Assert.assertEquals(8, budget.getSize());
+
+        // going over budget drops the cache of the least used mailbox, never the caller's
+        budget.record(latest, 4);
+        Assert.assertEquals(8, budget.getSize());
+
+        // the cold mailbox comes back with an empty cache
+        budget.record(cold, 1);
+        Assert.assertEquals(9, budget.getSize());
+    }
+
+    @Test
+    public void release() throws Exception {
+        Mailbox mbox = getMailbox(ACCOUNTS[0]);
+        ItemCacheBudget budget = new ItemCacheBudget(100);
+        budget.record(mbox, 7);
+        budget.record(mbox, 5);
+        Assert.assertEquals(5, budget.getSize());
+        budget.release(mbox);
+        Assert.assertEquals(0, budget.getSize());
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+
+/**
+ * Measures lookup throughput of already-loaded mailboxes through
+ * {@link MailboxManager} with 1, 2, 4, ... threads up to the given maximum,
+ * to show whether lookups scale with the number of cores:
+ * <pre>
+ *   MailboxManagerBenchmark [max threads] [mailboxes] [seconds per run]
+ * </pre>
+ */
+public class MailboxManagerBenchmark {
+
+    private final int maxThreads;
+    private final int seconds;
+    private final String[] accountIds;
+
+    public MailboxManagerBenchmark(int maxThreads, int mailboxes, int seconds) throws Exception {
+        this.maxThreads = maxThreads;
+        this.seconds = seconds;
+        this.accountIds = new String[mailboxes];
+        Provisioning prov = Provisioning.getInstance();
+        MailboxManager mgr = MailboxManager.getInstance();
+        for (int i = 0; i < mailboxes; i++) {
+            Account acct = prov.createAccount("bench" + i + "@zimbra.com", "secret", new HashMap<String, Object>());
+            accountIds[i] = acct.getId();
+            mgr.getMailboxByAccount(acct);
+        }
+    }
+
+    private double run(int threads) throws Exception {
+        final MailboxManager mgr = MailboxManager.getInstance();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] counts = new long[threads];
+        final long[] deadline = new long[1];
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final int idx = i;
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        long n = 0;
+                        int next = idx;
+                        while ((n & 0xff) != 0 || System.nanoTime() < deadline[0]) {
+                            mgr.getMailboxByAccountId(accountIds[next]);
+                            next = next + 1 == accountIds.length ? 0 : next + 1;
+                            n++;
+                        }
+                        counts[idx] = n;
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        long t0 = System.nanoTime();
+        deadline[0] = t0 + seconds * 1000000000L;
+        start.countDown();
+        long total = 0;
+        for (int i = 0; i < threads; i++) {
+            workers[i].join();
+            total += counts[i];
+        }
+        return total / ((System.nanoTime() - t0) / 1e9);
+    }
+
+    public void run() throws Exception {
+        p("%d mailboxes, %d cores, %ds per run", accountIds.length, Runtime.getRuntime().availableProcessors(), seconds);
+        run(1);  // warm up
+        double single = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double rate = run(threads);
+            if (threads == 1) {
+                single = rate;
+            }
+            p("%4d threads %14.0f lookups/s   %5.2fx", threads, rate, rate / single);
+        }
+    }
+
+    private static void p(String fmt, Object... args) {
+        System.out.println(String.format(fmt, args));
+    }
+
+    public static void main(String[] args) throws Exception {
+        MailboxTestUtil.initServer();
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int mailboxes = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        new MailboxManagerBenchmark(threads, mailboxes, seconds).run();
+    }
+}
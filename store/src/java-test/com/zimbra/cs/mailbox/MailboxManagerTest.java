@@ -0,0 +1,109 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+
+/**
+ * Unit test for {@link MailboxManager}.
+ */
+public final class MailboxManagerTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning.getInstance().createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+    }
+
+    @Test
+    public void concurrentLoad() throws Exception {
+        final MailboxManager mgr = MailboxManager.getInstance();
+        Account acct = Provisioning.getInstance().getAccountByName("test@zimbra.com");
+        final int mailboxId = mgr.getMailboxByAccount(acct).getId();
+        mgr.clearCache();
+        mgr.cacheAccount(acct.getId(), mailboxId);
+        Assert.assertFalse(mgr.isMailboxLoadedAndAvailable(mailboxId));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Mailbox>> results = new ArrayList<Future<Mailbox>>();
+            for (int i = 0; i < 32; i++) {
+                results.add(executor.submit(new Callable<Mailbox>() {
+                    @Override
+                    public Mailbox call() throws Exception {
+                        return mgr.getMailboxById(mailboxId);
+                    }
+                }));
+            }
+            Mailbox first = results.get(0).get();
+            for (Future<Mailbox> result : results) {
+                Assert.assertSame(first, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertTrue(mgr.isMailboxLoadedAndAvailable(mailboxId));
+        Assert.assertEquals(1, mgr.getCacheSize());
+    }
+
+    @Test
+    public void demoteToSoftReferences() throws Exception {
+        MailboxManager.MailboxMap map = new MailboxManager.MailboxMap(10);
+        Object[] values = new Object[20];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new Object();
+            map.put(i, values[i]);
+            if (i > 0) {
+                // keep the first entry hot
+                map.get(0);
+            }
+        }
+        Assert.assertEquals(20, map.size());
+        for (int i = 0; i < values.length; i++) {
+            Assert.assertSame(values[i], map.get(i));
+        }
+        Assert.assertTrue(map.getHardCount() <= 10);
+        Assert.assertTrue(map.isHard(0));
+        Assert.assertTrue(map.isHard(19));
+        Assert.assertFalse(map.isHard(1));
+
+        Assert.assertSame(values[5], map.remove(5));
+        Assert.assertNull(map.get(5));
+        Assert.assertEquals(19, map.size());
+        map.clear();
+        Assert.assertTrue(map.isEmpty());
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.cs.account.Account;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.account.Server;
+import com.zimbra.cs.mime.ParsedMessage;
+
+/**
+ * Unit test for {@link MessageCache}.
+ */
+public final class MessageCacheTest {
+
+    private static final DeliveryOptions DOPT = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+
+    private int cacheSize;
+    private String maxBytes;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+        Provisioning.getInstance().createAccount("test@zimbra.com", "secret", new HashMap<String, Object>());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        MailboxTestUtil.clearData();
+        cacheSize = getServer().getMessageCacheSize();
+        maxBytes = LC.message_cache_max_bytes.value();
+        clearCache();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        getServer().setMessageCacheSize(cacheSize);
+        LC.message_cache_max_bytes.setDefault(maxBytes);
+        MessageCache.loadSettings();
+    }
+
+    private static Server getServer() throws Exception {
+        return Provisioning.getInstance().getLocalServer();
+    }
+
+    private static Mailbox getMailbox() throws Exception {
+        Account acct = Provisioning.getInstance().getAccountByName("test@zimbra.com");
+        return MailboxManager.getInstance().getMailboxByAccount(acct);
+    }
+
+    private static void setCacheSize(int size) throws Exception {
+        getServer().setMessageCacheSize(size);
+        MessageCache.loadSettings();
+    }
+
+    /** Empties the cache and puts the size limit back. */
+    private void clearCache() throws Exception {
+        setCacheSize(0);
+        Assert.assertEquals(0, MessageCache.getSize());
+        setCacheSize(cacheSize);
+    }
+
+    private static List<Message> addMessages(Mailbox mbox, int count) throws Exception {
+        List<Message> msgs = new ArrayList<Message>(count);
+        for (int i = 0; i < count; i++) {
+            msgs.add(mbox.addMessage(null, MailboxTestUtil.generateMessage("message " + i), DOPT, null));
+        }
+        return msgs;
+    }
+
+    @Test
+    public void hitMiss() throws Exception {
+        Message msg = addMessages(getMailbox(), 1).get(0);
+        MessageCache.purge(msg.getDigest());
+        Assert.assertFalse(MessageCache.contains(msg.getDigest()));
+        Assert.assertNull(MessageCache.getCachedMimeMessage(msg));
+
+        // a miss parses the blob and caches it
+        MimeMessage mm = MessageCache.getMimeMessage(msg, false);
+        Assert.assertEquals("message 0", mm.getSubject());
+        Assert.assertTrue(MessageCache.contains(msg.getDigest()));
+        Assert.assertEquals(1, MessageCache.getSize());
+        Assert.assertTrue(MessageCache.getWeight() >= msg.getSize());
+
+        // a hit hands back the same instance
+        Assert.assertSame(mm, MessageCache.getMimeMessage(msg, false));
+        Assert.assertSame(mm, MessageCache.getCachedMimeMessage(msg));
+
+        MessageCache.purge(msg.getDigest());
+        Assert.assertNull(MessageCache.getCachedMimeMessage(msg));
+        Assert.assertEquals(0, MessageCache.getWeight());
+        Assert.assertEquals(0, MessageCache.getDataSize());
+    }
+
+    @Test
+    public void sizeEviction() throws Exception {
+        List<Message> msgs = addMessages(getMailbox(), 5);
+        clearCache();
+        setCacheSize(3);
+
+        for (Message msg : msgs) {
+            MessageCache.getMimeMessage(msg, false);
+            Assert.assertTrue(MessageCache.getSize() <= 3);
+        }
+        // new entries each get one pass of the clock, after which the oldest go first
+        Assert.assertFalse(MessageCache.contains(msgs.get(0).getDigest()));
+        Assert.assertFalse(MessageCache.contains(msgs.get(1).getDigest()));
+        for (Message msg : msgs.subList(2, 5)) {
+            Assert.assertTrue(MessageCache.contains(msg.getDigest()));
+        }
+
+        // a hit earns a second chance over the older entries
+        MessageCache.getMimeMessage(msgs.get(2), false);
+        MessageCache.getMimeMessage(msgs.get(0), false);
+        Assert.assertTrue(MessageCache.contains(msgs.get(2).getDigest()));
+        Assert.assertFalse(MessageCache.contains(msgs.get(3).getDigest()));
+        Assert.assertEquals(3, MessageCache.getSize());
+    }
+
+    @Test
+    public void weightEviction() throws Exception {
+        List<Message> msgs = addMessages(getMailbox(), 5);
+        clearCache();
+
+        MessageCache.getMimeMessage(msgs.get(0), false);
+        long weight = MessageCache.getWeight();
+        Assert.assertTrue(weight > 0);
+
+        // room for two messages of this size and a bit
+        LC.message_cache_max_bytes.setDefault(weight * 2 + weight / 2);
+        MessageCache.loadSettings();
+        for (Message msg : msgs) {
+            MessageCache.getMimeMessage(msg, false);
+            Assert.assertTrue(MessageCache.getWeight() <= LC.message_cache_max_bytes.longValue());
+        }
+        Assert.assertEquals(2, MessageCache.getSize());
+        Assert.assertTrue(MessageCache.contains(msgs.get(4).getDigest()));
+    }
+
+    @Test
+    public void contentChange() throws Exception {
+        Mailbox mbox = getMailbox();
+        Message draft = mbox.saveDraft(null, MailboxTestUtil.generateMessage("before"), Mailbox.ID_AUTO_INCREMENT);
+        String oldDigest = draft.getDigest();
+        Assert.assertEquals("before", MessageCache.getMimeMessage(draft, false).getSubject());
+        Assert.assertTrue(MessageCache.contains(oldDigest));
+
+        ParsedMessage pm = MailboxTestUtil.generateMessage("after");
+        draft = mbox.saveDraft(null, pm, draft.getId());
+        Assert.assertFalse(oldDigest.equals(draft.getDigest()));
+        Assert.assertFalse(MessageCache.contains(oldDigest));
+        Assert.assertEquals("after", draft.getMimeMessage().getSubject());
+        Assert.assertEquals("after", mbox.getMessageById(null, draft.getId()).getMimeMessage().getSubject());
+    }
+
+    @Test
+    public void concurrentGetPut() throws Exception {
+        final List<Message> msgs = addMessages(getMailbox(), 20);
+        clearCache();
+        setCacheSize(10);
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        for (int t = 0; t < 8; t++) {
+            final Random random = new Random(t);
+            results.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = 0; i < 2000; i++) {
+                        int n = random.nextInt(msgs.size());
+                        Message msg = msgs.get(n);
+                        if (random.nextInt(10) == 0) {
+                            MessageCache.purge(msg.getDigest());
+                        } else {
+                            Assert.assertEquals("message " + n, MessageCache.getMimeMessage(msg, false).getSubject());
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        pool.shutdown();
+        for (Future<Void> result : results) {
+            result.get();
+        }
+
+        // another thread may have been evicting while a put went over, but never for long
+        MessageCache.loadSettings();
+        Assert.assertTrue(MessageCache.getSize() <= 10);
+
+        // the accounting adds back up to nothing once everything is gone
+        for (Message msg : msgs) {
+            MessageCache.purge(msg.getDigest());
+        }
+        Assert.assertEquals(0, MessageCache.getSize());
+        Assert.assertEquals(0, MessageCache.getWeight());
+        Assert.assertEquals(0, MessageCache.getDataSize());
+    }
+}
@@ -23,10 +23,13 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -847,4 +850,31 @@ public class PurgeTest {
         mbox.purgeMessages(null);
         assertTrue("kept was purged", messageExists(kept.getId()));
     }
+
+    @Test
+    public void purgeOrder() throws Exception {
+        List<Integer> ids = new ArrayList<Integer>(Arrays.asList(1, 2, 3, 4, 5, 6));
+        Map<Integer, Long> lastPurgeTimes = new HashMap<Integer, Long>();
+        lastPurgeTimes.put(1, 5000L);
+        lastPurgeTimes.put(2, 1000L);
+        lastPurgeTimes.put(3, 3000L);
+        lastPurgeTimes.put(4, 9000L);
+        lastPurgeTimes.put(6, 1000L);
+        Set<Integer> incomplete = Collections.singleton(4);
+
+        // incomplete mailboxes first, then never purged, then least recently purged
+        PurgeThread.prioritize(ids, lastPurgeTimes, incomplete);
+        assertEquals(Arrays.asList(4, 5, 2, 6, 3, 1), ids);
+    }
+
+    @Test
+    public void lastPurgeTimes() throws Exception {
+        Account account = Provisioning.getInstance().getAccount("test@zimbra.com");
+        Mailbox mbox = MailboxManager.getInstance().getMailboxByAccount(account);
+        long before = System.currentTimeMillis() / 1000 * 1000;
+        assertTrue(mbox.purgeMessages(null));
+
+        Long lastPurge = MailboxManager.getInstance().getLastPurgeTimes().get(mbox.getId());
+        assertTrue("last purge time " + lastPurge, lastPurge != null && lastPurge >= before);
+    }
 }
@@ -0,0 +1,140 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox.calendar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.common.calendar.ICalTimeZone;
+import com.zimbra.common.calendar.ParsedDateTime;
+import com.zimbra.common.calendar.ParsedDuration;
+import com.zimbra.common.calendar.TimeZoneMap;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.cs.mailbox.CalendarItem.Instance;
+import com.zimbra.cs.mailbox.calendar.Recurrence.IRecurrence;
+
+/**
+ * Unit test for {@link InstanceIndex}.
+ */
+public final class InstanceIndexTest {
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final long WEEK = 7 * DAY;
+
+    private final TimeZoneMap tzmap = new TimeZoneMap(ICalTimeZone.getUTC());
+
+    /**
+     * Ten years of a daily 9am meeting, one day cancelled and one day moved to the afternoon.
+     */
+    static Recurrence.RecurrenceRule dailyWithExceptions(TimeZoneMap tzmap, String duration)
+            throws ServiceException {
+        ParsedDateTime dtStart = ParsedDateTime.parse("20160104T090000Z", tzmap);
+        ParsedDuration dur = ParsedDuration.parse(duration);
+        List<IRecurrence> add = new ArrayList<IRecurrence>();
+        add.add(new Recurrence.SimpleRepeatingRule(dtStart, dur, new ZRecur("FREQ=DAILY;COUNT=3653", tzmap), null));
+        Recurrence.RecurrenceRule rule = new Recurrence.RecurrenceRule(dtStart, dur, null, add,
+                new ArrayList<IRecurrence>());
+        rule.addException(new Recurrence.CancellationRule(
+                new RecurId(ParsedDateTime.parse("20160120T090000Z", tzmap), RecurId.RANGE_NONE)));
+        rule.addException(new Recurrence.ExceptionRule(
+                new RecurId(ParsedDateTime.parse("20160203T090000Z", tzmap), RecurId.RANGE_NONE),
+                ParsedDateTime.parse("20160203T150000Z", tzmap), dur, null));
+        return rule;
+    }
+
+    private static List<Instance> direct(IRecurrence recur, long start, long end) throws ServiceException {
+        List<Instance> list = Recurrence.expandInstances(recur, 1, start, end);
+        for (Iterator<Instance> iter = list.iterator(); iter.hasNext(); ) {
+            Instance inst = iter.next();
+            if (inst.getEnd() <= start || inst.getStart() >= end) {
+                iter.remove();
+            }
+        }
+        Collections.sort(list);
+        return list;
+    }
+
+    private static void assertSame(IRecurrence recur, InstanceIndex index, long start, long end)
+            throws ServiceException {
+        List<Instance> cached = index.expand(start, end);
+        Collections.sort(cached);
+        Assert.assertEquals(direct(recur, start, end), cached);
+    }
+
+    @Test
+    public void slidingWindow() throws Exception {
+        Recurrence.RecurrenceRule rule = dailyWithExceptions(tzmap, "PT1H");
+        InstanceIndex index = new InstanceIndex(rule, 1);
+        long origin = ParsedDateTime.parse("20160101T000000Z", tzmap).getUtcTime();
+        for (int week = 0; week < 12; week++) {
+            assertSame(rule, index, origin + week * WEEK, origin + (week + 1) * WEEK);
+        }
+        for (int week = 11; week >= 0; week--) {
+            assertSame(rule, index, origin + week * WEEK - DAY / 2, origin + (week + 1) * WEEK - DAY / 2);
+        }
+        Assert.assertEquals(7, index.expand(origin + 3 * WEEK, origin + 4 * WEEK).size());
+    }
+
+    @Test
+    public void exceptionAddedToCopy() throws Exception {
+        // what CalendarItem does when a reply to one instance needs a pseudo exception
+        Recurrence.RecurrenceRule rule = dailyWithExceptions(tzmap, "PT1H");
+        InstanceIndex index = new InstanceIndex(rule, 1);
+        long origin = ParsedDateTime.parse("20160101T000000Z", tzmap).getUtcTime();
+        assertSame(rule, index, origin, origin + 4 * WEEK);
+
+        Recurrence.RecurrenceRule changed = (Recurrence.RecurrenceRule) rule.clone();
+        changed.addException(new Recurrence.CancellationRule(
+                new RecurId(ParsedDateTime.parse("20160110T090000Z", tzmap), RecurId.RANGE_NONE)));
+        Assert.assertTrue(index.isFor(rule));
+        Assert.assertFalse(index.isFor(changed));
+        // the old index still answers for the recurrence it was built from
+        assertSame(rule, index, origin, origin + 4 * WEEK);
+        Assert.assertEquals(24, index.expand(origin, origin + 4 * WEEK).size());
+
+        InstanceIndex rebuilt = new InstanceIndex(changed, 1);
+        assertSame(changed, rebuilt, origin, origin + 4 * WEEK);
+        Assert.assertEquals(23, rebuilt.expand(origin, origin + 4 * WEEK).size());
+    }
+
+    @Test
+    public void disjointWindows() throws Exception {
+        Recurrence.RecurrenceRule rule = dailyWithExceptions(tzmap, "PT1H");
+        InstanceIndex index = new InstanceIndex(rule, 1);
+        long origin = ParsedDateTime.parse("20160101T000000Z", tzmap).getUtcTime();
+        assertSame(rule, index, origin + 100 * WEEK, origin + 101 * WEEK);
+        assertSame(rule, index, origin, origin + 6 * WEEK);
+        assertSame(rule, index, origin + 2 * WEEK, origin + 3 * WEEK);
+        assertSame(rule, index, origin + 600 * WEEK, origin + 700 * WEEK);
+    }
+
+    @Test
+    public void windowEdgesOnInstances() throws Exception {
+        // zero-length instances that sit exactly on the edges of what has been expanded so far
+        Recurrence.RecurrenceRule rule = dailyWithExceptions(tzmap, "PT0S");
+        InstanceIndex index = new InstanceIndex(rule, 1);
+        long first = ParsedDateTime.parse("20160110T090000Z", tzmap).getUtcTime();
+        assertSame(rule, index, first, first + 3 * DAY);
+        assertSame(rule, index, first - 2 * DAY, first + 3 * DAY);
+        assertSame(rule, index, first - 3 * DAY + 1, first + 5 * DAY + 1);
+        assertSame(rule, index, first + 5 * DAY, first + 8 * DAY);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox.calendar;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.zimbra.common.calendar.ICalTimeZone;
+import com.zimbra.common.calendar.ParsedDateTime;
+import com.zimbra.common.calendar.ParsedDuration;
+import com.zimbra.common.calendar.TimeZoneMap;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.cs.mailbox.calendar.Recurrence.IRecurrence;
+
+/**
+ * Times week-by-week expansion of a ten-year daily series with cancelled and moved instances, once re-expanding the
+ * recurrence for every week the way {@code CalendarItem} used to and once through {@link InstanceIndex}:
+ * <pre>
+ *   RecurrenceExpansionBenchmark [exceptions]
+ * </pre>
+ */
+public class RecurrenceExpansionBenchmark {
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final int YEARS = 10;
+    private static final int RUNS = 5;
+
+    private static Recurrence.RecurrenceRule series(TimeZoneMap tzmap, int exceptions) throws Exception {
+        ParsedDateTime dtStart = ParsedDateTime.parse("20160104T090000Z", tzmap);
+        ParsedDuration dur = ParsedDuration.parse("PT30M");
+        List<IRecurrence> add = new ArrayList<IRecurrence>();
+        add.add(new Recurrence.SimpleRepeatingRule(dtStart, dur,
+                new ZRecur("FREQ=DAILY;COUNT=" + (YEARS * 365), tzmap), null));
+        Recurrence.RecurrenceRule rule = new Recurrence.RecurrenceRule(dtStart, dur, null, add,
+                new ArrayList<IRecurrence>());
+        long first = dtStart.getUtcTime();
+        long step = YEARS * 365L / Math.max(exceptions, 1);
+        for (int i = 0; i < exceptions; i++) {
+            long instStart = first + (i * step + 1) * DAY;
+            RecurId rid = new RecurId(ParsedDateTime.fromUTCTime(instStart), RecurId.RANGE_NONE);
+            if (i % 2 == 0) {
+                rule.addException(new Recurrence.CancellationRule(rid));
+            } else {
+                rule.addException(new Recurrence.ExceptionRule(rid,
+                        ParsedDateTime.fromUTCTime(instStart + 6 * 60 * 60 * 1000), dur, null));
+            }
+        }
+        return rule;
+    }
+
+    private static long slide(Recurrence.RecurrenceRule rule, long first, boolean indexed) throws Exception {
+        InstanceIndex index = new InstanceIndex(rule, 1);
+        long count = 0;
+        for (long start = first - DAY; start < first + YEARS * 365 * DAY; start += DAY) {
+            // a week view that moves a day at a time, as when paging through a calendar
+            long end = start + 7 * DAY;
+            count += indexed ? index.expand(start, end).size() :
+                Recurrence.expandInstances(rule, 1, start, end).size();
+        }
+        return count;
+    }
+
+    public void run(int exceptions) throws Exception {
+        TimeZoneMap tzmap = new TimeZoneMap(ICalTimeZone.getUTC());
+        Recurrence.RecurrenceRule rule = series(tzmap, exceptions);
+        long first = rule.getStartTime().getUtcTime();
+        p("%10s %8s %12s %12s", "exceptions", "mode", "instances", "best ms");
+        for (boolean indexed : new boolean[] { false, true }) {
+            long best = Long.MAX_VALUE;
+            long count = 0;
+            for (int run = 0; run < RUNS; run++) {
+                long t0 = System.nanoTime();
+                count = slide(rule, first, indexed);
+                best = Math.min(best, System.nanoTime() - t0);
+            }
+            p("%10d %8s %12d %12.1f", exceptions, indexed ? "index" : "direct", count, best / 1e6);
+        }
+    }
+
+    private static void p(String fmt, Object... args) {
+        System.out.println(String.format(fmt, args));
+    }
+
+    public static void main(String[] args) throws Exception {
+        LC.calendar_recurrence_cache_max_instances.setDefault(YEARS * 366);
+        new RecurrenceExpansionBenchmark().run(args.length > 0 ? Integer.parseInt(args[0]) : 50);
+    }
+}
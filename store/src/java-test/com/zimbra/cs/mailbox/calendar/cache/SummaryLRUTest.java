@@ -0,0 +1,113 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox.calendar.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Unit test for {@link CalSummaryCache.SummaryLRU}.
+ */
+public final class SummaryLRUTest {
+
+    private static CalendarData data(int folderId) {
+        return new CalendarData(folderId, 1, 0L, 1000L);
+    }
+
+    @Test
+    public void putRemove() {
+        CalSummaryCache.SummaryLRU lru = new CalSummaryCache.SummaryLRU(10);
+        CalSummaryKey key = new CalSummaryKey("a", 10);
+        Assert.assertNull(lru.put(key, data(10)));
+        lru.put(new CalSummaryKey("a", 11), data(11));
+        Assert.assertNotNull(lru.put(key, data(10)));
+        Assert.assertEquals(ImmutableSet.of(10, 11), lru.getFolders("a"));
+
+        Assert.assertNotNull(lru.remove(key));
+        Assert.assertNull(lru.remove(key));
+        Assert.assertEquals(ImmutableSet.of(11), lru.getFolders("a"));
+        lru.removeAccount("a");
+        Assert.assertEquals(0, lru.size());
+        Assert.assertTrue(lru.getFolders("a").isEmpty());
+    }
+
+    @Test
+    public void eviction() {
+        CalSummaryCache.SummaryLRU lru = new CalSummaryCache.SummaryLRU(3);
+        for (int folderId = 1; folderId <= 5; folderId++) {
+            lru.put(new CalSummaryKey("a", folderId), data(folderId));
+        }
+        Assert.assertEquals(3, lru.size());
+        Assert.assertEquals(ImmutableSet.of(3, 4, 5), lru.getFolders("a"));
+    }
+
+    /**
+     * Threads putting and removing the same folders must leave every cached folder registered with its account, or
+     * removeAccount() leaves stale summaries behind.
+     */
+    @Test
+    public void concurrentPutRemove() throws Exception {
+        final CalSummaryCache.SummaryLRU lru = new CalSummaryCache.SummaryLRU(8);
+        final String[] accounts = { "a", "b" };
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int t = 0; t < 4; t++) {
+                final long seed = t;
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        Random random = new Random(seed);
+                        for (int i = 0; i < 100000; i++) {
+                            CalSummaryKey key = new CalSummaryKey(accounts[random.nextInt(2)], random.nextInt(6));
+                            if (random.nextBoolean()) {
+                                lru.put(key, data(key.getFolderId()));
+                            } else {
+                                lru.remove(key);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        for (String account : accounts) {
+            for (int folderId = 0; folderId < 6; folderId++) {
+                if (lru.get(new CalSummaryKey(account, folderId)) != null) {
+                    Assert.assertTrue(account + ":" + folderId, lru.getFolders(account).contains(folderId));
+                }
+            }
+            lru.removeAccount(account);
+        }
+        Assert.assertEquals(0, lru.size());
+    }
+}
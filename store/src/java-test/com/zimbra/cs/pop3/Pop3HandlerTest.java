@@ -0,0 +1,105 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.pop3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link Pop3Handler}.
+ */
+public final class Pop3HandlerTest {
+
+    private static boolean isWireForm(String content) {
+        return Pop3Handler.isWireForm(ByteBuffer.wrap(content.getBytes()));
+    }
+
+    @Test
+    public void wireForm() {
+        Assert.assertTrue(isWireForm("Subject: test\r\n\r\nbody\r\n"));
+        Assert.assertTrue(isWireForm("Subject: test\r\n\r\nnot.a terminator\r\n"));
+        Assert.assertFalse("bare LF", isWireForm("Subject: test\n\nbody\n"));
+        Assert.assertFalse("bare CR", isWireForm("Subject: test\r\rbody\r\n"));
+        Assert.assertFalse("no trailing CRLF", isWireForm("Subject: test\r\n\r\nbody"));
+        Assert.assertFalse("needs dot-stuffing", isWireForm("Subject: test\r\n\r\n.\r\n"));
+        Assert.assertFalse("needs dot-stuffing", isWireForm(".Subject: test\r\n"));
+        Assert.assertFalse(isWireForm(""));
+    }
+
+    /** A message of about <tt>size</tt> bytes with CRLF line endings and no line starting with a dot. */
+    private static byte[] wireMessage(int size) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size + 100);
+        byte[] header = "Subject: large\r\n\r\n".getBytes();
+        out.write(header, 0, header.length);
+        // odd line length, so CRLFs land on every offset within the scan buffer
+        byte[] line = "line of the body that is not dot-stuffed. x\r\n".getBytes();
+        while (out.size() < size) {
+            out.write(line, 0, line.length);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void wireFormLargeFile() throws Exception {
+        byte[] msg = wireMessage(4 * 1024 * 1024);
+        File file = File.createTempFile(Pop3HandlerTest.class.getSimpleName(), ".msg");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write("junk before the message".getBytes());
+            out.write(msg);
+            out.write("x\n".getBytes());
+        }
+        int start = "junk before the message".length();
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            // as many scans as a busy server does RETRs; nothing is mapped, so nothing piles up
+            for (int i = 0; i < 500; i++) {
+                Assert.assertTrue(Pop3Handler.isWireForm(channel, start, msg.length, buffer));
+            }
+            Assert.assertFalse("no trailing CRLF", Pop3Handler.isWireForm(channel, start, msg.length - 1, buffer));
+            Assert.assertFalse("bare LF at the end", Pop3Handler.isWireForm(channel, start, msg.length + 2, buffer));
+        }
+    }
+
+    @Test
+    public void wireFormAcrossChunks() throws Exception {
+        File file = File.createTempFile(Pop3HandlerTest.class.getSimpleName(), ".msg");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write("abc\r\n.de\r\n".getBytes());
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            // a 4-byte buffer splits the first CRLF
+            ByteBuffer buffer = ByteBuffer.allocate(4);
+            Assert.assertTrue(Pop3Handler.isWireForm(channel, 0, 5, buffer));
+            Assert.assertTrue(Pop3Handler.isWireForm(channel, 6, 4, buffer));
+            Assert.assertFalse("past the end of file", Pop3Handler.isWireForm(channel, 6, 10, buffer));
+            // a 5-byte one puts the dot at the start of the second chunk
+            buffer = ByteBuffer.allocate(5);
+            Assert.assertFalse("needs dot-stuffing", Pop3Handler.isWireForm(channel, 0, 10, buffer));
+        }
+    }
+}
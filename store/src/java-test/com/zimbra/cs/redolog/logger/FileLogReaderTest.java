@@ -108,6 +108,25 @@ public class FileLogReaderTest {
         Assert.assertNull("More ops in file.", logReader.getNextOp());
     }
 
+    @Test
+    public void stopsAtZeroFilledTail() throws Exception {
+        writeOp(new TransactionId(7, 3));
+        long end = logfile.length();
+
+        // pre-allocated space as left by GroupCommitLogWriter
+        RandomAccessFile raf = new RandomAccessFile(logfile, "rw");
+        raf.setLength(end + 64 * 1024);
+        raf.close();
+
+        logReader.open();
+        RedoableOp op = logReader.getNextOp();
+        Assert.assertEquals("TransactionId mismatch",
+                            op.getTransactionId(), new TransactionId(7, 3));
+        Assert.assertNull("More ops in file.", logReader.getNextOp());
+        Assert.assertEquals(end, logReader.position());
+        logReader.close();
+    }
+
     @Test(expected = IOException.class)
     public void readBeforeOpen() throws Exception {
         logReader.getNextOp();
@@ -0,0 +1,201 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.redolog.logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.zimbra.cs.mailbox.MailboxOperation;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.redolog.RedoLogManager;
+import com.zimbra.cs.redolog.TransactionId;
+import com.zimbra.cs.redolog.op.CopyItem;
+import com.zimbra.cs.redolog.op.RedoableOp;
+
+public class GroupCommitLogWriterTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final long SEGMENT_SIZE = 64 * 1024;
+
+    private RedoLogManager mockRedoLogManager;
+    private File logfile;
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mockRedoLogManager = EasyMock.createNiceMock(RedoLogManager.class);
+        logfile = folder.newFile("logfile");
+    }
+
+    private RedoableOp newOp() {
+        return EasyMock.createMockBuilder(RedoableOp.class).withConstructor(MailboxOperation.Preview).createMock();
+    }
+
+    private void openLogClose(boolean mmap) throws Exception {
+        GroupCommitLogWriter logWriter = new GroupCommitLogWriter(mockRedoLogManager, logfile, 10, SEGMENT_SIZE, 16, mmap);
+        Assert.assertTrue("file starts empty", logWriter.isEmpty());
+        logWriter.open();
+        Assert.assertTrue("file empty after open", logWriter.isEmpty());
+
+        logWriter.log(newOp(), new ByteArrayInputStream("some bytes".getBytes()), false /* asynchronous */);
+        // The size includes the queued entry right away.
+        Assert.assertEquals("file size incorrect.", FileHeader.HEADER_LEN + 10, logWriter.getSize());
+        logWriter.log(newOp(), new ByteArrayInputStream("more bytes".getBytes()), true /* synchronous */);
+        // The segment is pre-allocated while the log is open...
+        Assert.assertEquals("file not pre-allocated", FileHeader.HEADER_LEN + SEGMENT_SIZE, logfile.length());
+        logWriter.close();
+        // ...and trimmed on close.
+        Assert.assertEquals("file not trimmed", FileHeader.HEADER_LEN + 20, logfile.length());
+        final long createTime = logWriter.getCreateTime();
+        final long sequence = logWriter.getSequence();
+
+        logWriter = new GroupCommitLogWriter(mockRedoLogManager, logfile, 10, SEGMENT_SIZE, 16, mmap);
+        Assert.assertEquals("file size incorrect.", FileHeader.HEADER_LEN + 20, logWriter.getSize());
+        logWriter.open();
+        Assert.assertEquals(createTime, logWriter.getCreateTime());
+        Assert.assertEquals(sequence, logWriter.getSequence());
+        logWriter.close();
+
+        FileLogReader reader = new FileLogReader(logfile);
+        Assert.assertEquals("header file size", FileHeader.HEADER_LEN + 20, reader.getHeader().getFileSize());
+    }
+
+    @Test
+    public void openLogClose() throws Exception {
+        openLogClose(false);
+    }
+
+    @Test
+    public void openLogCloseMmap() throws Exception {
+        openLogClose(true);
+    }
+
+    @Test
+    public void concurrentLog() throws Exception {
+        final GroupCommitLogWriter logWriter = new GroupCommitLogWriter(mockRedoLogManager, logfile, 10, SEGMENT_SIZE, 16, true);
+        logWriter.open();
+        final byte[] record = new byte[1000];
+        final int perThread = 200;
+        List<Thread> threads = new ArrayList<Thread>();
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        for (int i = 0; i < 8; i++) {
+            final boolean sync = i % 2 == 0;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < perThread; j++) {
+                            logWriter.log(newOp(), new ByteArrayInputStream(record), sync);
+                        }
+                    } catch (Throwable t) {
+                        synchronized (errors) {
+                            errors.add(t);
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        Assert.assertTrue(errors.toString(), errors.isEmpty());
+        long expected = FileHeader.HEADER_LEN + 8L * perThread * record.length;
+        Assert.assertEquals(expected, logWriter.getSize());
+        logWriter.close();
+        Assert.assertEquals("all entries crossed segment boundaries intact", expected, logfile.length());
+    }
+
+    private static RedoableOp copyItem(TransactionId id) {
+        RedoableOp op = EasyMock.createMockBuilder(CopyItem.class).withConstructor()
+                .addMockedMethod("getTransactionId").createMock();
+        EasyMock.expect(op.getTransactionId()).andStubReturn(id);
+        EasyMock.replay(op);
+        return op;
+    }
+
+    @Test
+    public void readWhileOpen() throws Exception {
+        GroupCommitLogWriter logWriter = new GroupCommitLogWriter(mockRedoLogManager, logfile, 10, SEGMENT_SIZE, 16, true);
+        logWriter.open();
+        RedoableOp op = copyItem(new TransactionId(7, 3));
+        logWriter.log(op, op.getInputStream(), true /* synchronous */);
+        Assert.assertEquals("file not pre-allocated", FileHeader.HEADER_LEN + SEGMENT_SIZE, logfile.length());
+
+        // A reader of the live log stops at the end of the written data rather than
+        // reporting the pre-allocated space as junk.
+        FileLogReader reader = new FileLogReader(logfile);
+        reader.open();
+        Assert.assertEquals(new TransactionId(7, 3), reader.getNextOp().getTransactionId());
+        Assert.assertNull("read past the written data", reader.getNextOp());
+        reader.close();
+        logWriter.close();
+    }
+
+    @Test
+    public void logAfterClose() throws Exception {
+        GroupCommitLogWriter logWriter = new GroupCommitLogWriter(mockRedoLogManager, logfile, 10, SEGMENT_SIZE, 16, false);
+        logWriter.open();
+        logWriter.log(newOp(), new ByteArrayInputStream("some bytes".getBytes()), false);
+        logWriter.close();
+        try {
+            logWriter.log(newOp(), new ByteArrayInputStream("more bytes".getBytes()), false);
+            Assert.fail("asynchronous entry accepted after close");
+        } catch (IOException expected) {
+        }
+        Assert.assertEquals(FileHeader.HEADER_LEN + 10, logWriter.getSize());
+        Assert.assertEquals(FileHeader.HEADER_LEN + 10, logfile.length());
+    }
+
+    @Test
+    public void reopen() throws Exception {
+        // The second open starts the ring over; entries from the first must not be taken as published.
+        GroupCommitLogWriter logWriter = new GroupCommitLogWriter(mockRedoLogManager, logfile, 10, SEGMENT_SIZE, 4, false);
+        for (int pass = 1; pass <= 2; pass++) {
+            logWriter.open();
+            for (int i = 0; i < 10; i++) {
+                logWriter.log(newOp(), new ByteArrayInputStream("0123456789".getBytes()), i % 3 == 0);
+            }
+            logWriter.flush();
+            logWriter.close();
+            Assert.assertEquals(FileHeader.HEADER_LEN + pass * 100, logfile.length());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void logBeforeOpen() throws Exception {
+        new GroupCommitLogWriter(mockRedoLogManager, logfile, 10, SEGMENT_SIZE, 16, false).log(null, null, false);
+    }
+}
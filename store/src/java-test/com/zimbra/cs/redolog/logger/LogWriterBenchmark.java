@@ -0,0 +1,120 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.redolog.logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import org.easymock.EasyMock;
+
+import com.zimbra.cs.mailbox.MailboxOperation;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.redolog.RedoLogManager;
+import com.zimbra.cs.redolog.op.RedoableOp;
+
+/**
+ * Compares throughput and latency of {@link FileLogWriter} and
+ * {@link GroupCommitLogWriter} with many threads doing synchronous logging,
+ * which is what LMTP delivery does:
+ * <pre>
+ *   LogWriterBenchmark [threads] [ops per thread] [record size] [dir]
+ * </pre>
+ */
+public class LogWriterBenchmark {
+
+    private final int threads;
+    private final int opsPerThread;
+    private final byte[] record;
+    private final File dir;
+    private final RedoLogManager redoLogMgr = EasyMock.createNiceMock(RedoLogManager.class);
+    private final RedoableOp op =
+        EasyMock.createMockBuilder(RedoableOp.class).withConstructor(MailboxOperation.Preview).createMock();
+
+    public LogWriterBenchmark(int threads, int opsPerThread, int recordSize, File dir) {
+        this.threads = threads;
+        this.opsPerThread = opsPerThread;
+        this.record = new byte[recordSize];
+        this.dir = dir;
+    }
+
+    private void run(String name, final LogWriter writer, File logfile) throws Exception {
+        writer.open();
+        final long[][] latencies = new long[threads][opsPerThread];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final long[] mine = latencies[i];
+            workers[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < opsPerThread; j++) {
+                            long t0 = System.nanoTime();
+                            writer.log(op, new ByteArrayInputStream(record), true);
+                            mine[j] = System.nanoTime() - t0;
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+            workers[i].start();
+        }
+        long t0 = System.nanoTime();
+        start.countDown();
+        for (Thread t : workers) {
+            t.join();
+        }
+        long elapsed = System.nanoTime() - t0;
+        writer.close();
+        logfile.delete();
+
+        long[] all = new long[threads * opsPerThread];
+        for (int i = 0; i < threads; i++) {
+            System.arraycopy(latencies[i], 0, all, i * opsPerThread, opsPerThread);
+        }
+        Arrays.sort(all);
+        p("%-24s %10.0f ops/s   p50 %7.3fms   p99 %7.3fms   max %7.3fms", name,
+            all.length / (elapsed / 1e9), all[all.length / 2] / 1e6, all[(int) (all.length * 0.99)] / 1e6,
+            all[all.length - 1] / 1e6);
+    }
+
+    public void run() throws Exception {
+        p("%d threads x %d synchronous ops, %d bytes each", threads, opsPerThread, record.length);
+        File logfile = new File(dir, "bench-redo.log");
+        run("FileLogWriter(10ms)", new FileLogWriter(redoLogMgr, logfile, 10), logfile);
+        run("FileLogWriter(0ms)", new FileLogWriter(redoLogMgr, logfile, 0), logfile);
+        run("GroupCommitLogWriter", new GroupCommitLogWriter(redoLogMgr, logfile, 10, 16 * 1024 * 1024, 4096, false), logfile);
+        run("GroupCommitLogWriter(mmap)", new GroupCommitLogWriter(redoLogMgr, logfile, 10, 16 * 1024 * 1024, 4096, true), logfile);
+    }
+
+    private static void p(String fmt, Object... args) {
+        System.out.println(String.format(fmt, args));
+    }
+
+    public static void main(String[] args) throws Exception {
+        MailboxTestUtil.initServer();
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int ops = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int size = args.length > 2 ? Integer.parseInt(args[2]) : 512;
+        File dir = new File(args.length > 3 ? args[3] : System.getProperty("java.io.tmpdir"));
+        new LogWriterBenchmark(threads, ops, size, dir).run();
+    }
+}
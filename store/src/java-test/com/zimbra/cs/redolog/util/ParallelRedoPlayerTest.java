@@ -0,0 +1,110 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.redolog.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.zimbra.cs.mailbox.MailboxOperation;
+import com.zimbra.cs.mailbox.MailboxTestUtil;
+import com.zimbra.cs.redolog.RedoLogInput;
+import com.zimbra.cs.redolog.RedoLogOutput;
+import com.zimbra.cs.redolog.op.RedoableOp;
+
+public class ParallelRedoPlayerTest {
+
+    @BeforeClass
+    public static void init() throws Exception {
+        MailboxTestUtil.initServer();
+    }
+
+    private static class RecordingOp extends RedoableOp {
+        private final int seq;
+        private final List<Integer> played;
+
+        RecordingOp(int mboxId, int seq, List<Integer> played) {
+            super(MailboxOperation.Preview);
+            setMailboxId(mboxId);
+            this.seq = seq;
+            this.played = played;
+        }
+
+        @Override
+        public void redo() throws Exception {
+            if (seq % 7 == 0) {
+                Thread.sleep(1);
+            }
+            synchronized (played) {
+                played.add(seq);
+            }
+        }
+
+        @Override
+        protected String getPrintableData() {
+            return "seq=" + seq;
+        }
+
+        @Override
+        protected void serializeData(RedoLogOutput out) throws IOException {
+        }
+
+        @Override
+        protected void deserializeData(RedoLogInput in) throws IOException {
+        }
+    }
+
+    @Test
+    public void perMailboxOrder() throws Exception {
+        ParallelRedoPlayer player = new ParallelRedoPlayer(false, true, false, false, 4, 2, 3, false);
+        Map<Integer, List<Integer>> played = new HashMap<Integer, List<Integer>>();
+        int[] nextSeq = new int[11];
+        int numOps = 0;
+        for (int i = 0; i < 50; i++) {
+            for (int mboxId = 1; mboxId <= 10; mboxId++) {
+                List<Integer> list = played.get(mboxId);
+                if (list == null) {
+                    list = Collections.synchronizedList(new ArrayList<Integer>());
+                    played.put(mboxId, list);
+                }
+                // skew the load towards a few mailboxes
+                int repeat = mboxId <= 2 ? 5 : 1;
+                for (int r = 0; r < repeat; r++) {
+                    player.playOp(new RecordingOp(mboxId, nextSeq[mboxId]++, list));
+                    numOps++;
+                }
+            }
+        }
+        player.shutdown();
+
+        Assert.assertEquals(numOps, player.getOpsPlayed());
+        Assert.assertEquals(0, player.getOpsFailed());
+        Assert.assertEquals(10, player.getMailboxCount());
+        for (List<Integer> list : played.values()) {
+            List<Integer> sorted = new ArrayList<Integer>(list);
+            Collections.sort(sorted);
+            Assert.assertEquals("ops of a mailbox played in order", sorted, list);
+        }
+    }
+}
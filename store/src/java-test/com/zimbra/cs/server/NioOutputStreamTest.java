@@ -16,14 +16,22 @@
  */
 package com.zimbra.cs.server;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
 import junit.framework.Assert;
 
 import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.file.FilenameFileRegion;
 import org.apache.mina.core.service.IoHandlerAdapter;
 import org.apache.mina.core.session.DummySession;
 import org.apache.mina.core.session.IoSession;
 import org.junit.Test;
 
+import com.zimbra.cs.store.BlobInputStream;
+import com.zimbra.cs.store.FileDescriptorCache;
+
 /**
  * Unit test for {@link NioOutputStream}.
  *
@@ -82,6 +90,50 @@ public final class NioOutputStreamTest {
         out.close();
     }
 
+    @Test
+    public void transferFrom() throws Exception {
+        File file = File.createTempFile(NioOutputStreamTest.class.getSimpleName(), ".msg");
+        file.deleteOnExit();
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write("0123456789abcdefghijklmnopqrstuvwxyz".getBytes());
+        }
+        DummySession session = new DummySession();
+        TestIoHandler handler = new TestIoHandler();
+        session.setHandler(handler);
+        NioOutputStream out = new NioOutputStream(session, 10, Integer.MAX_VALUE, Integer.MAX_VALUE);
+        out.write("* ");
+        // fits the write buffer, so it is not worth a file transfer
+        Assert.assertFalse(out.transferFrom(file, 0, 10));
+        Assert.assertTrue(out.transferFrom(file, 10, 26));
+        out.write(")");
+        out.close();
+        Assert.assertEquals(3, handler.getWriteCount());
+        Assert.assertEquals("* abcdefghijklmnopqrstuvwxyz)", handler.toString());
+    }
+
+    @Test
+    public void transferFromBlob() throws Exception {
+        File file = File.createTempFile(NioOutputStreamTest.class.getSimpleName(), ".msg");
+        file.deleteOnExit();
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write("0123456789abcdefghijklmnopqrstuvwxyz".getBytes());
+        }
+        BlobInputStream.setFileDescriptorCache(new FileDescriptorCache(null));
+        try {
+            DummySession session = new DummySession();
+            TestIoHandler handler = new TestIoHandler();
+            session.setHandler(handler);
+            NioOutputStream out = new NioOutputStream(session, 10, Integer.MAX_VALUE, Integer.MAX_VALUE);
+            BlobInputStream bis = new BlobInputStream(file, file.length());
+            Assert.assertTrue(out.transferFrom(bis.newStream(5, 30)));
+            Assert.assertFalse(out.transferFrom(bis.newStream(30, 36)));
+            out.close();
+            Assert.assertEquals("56789abcdefghijklmnopqrst", handler.toString());
+        } finally {
+            BlobInputStream.setFileDescriptorCache(null);
+        }
+    }
+
     private static final class TestIoHandler extends IoHandlerAdapter {
         private int writes = 0;
         private StringBuilder out = new StringBuilder();
@@ -89,6 +141,18 @@ public final class NioOutputStreamTest {
         @Override
         public void messageSent(IoSession session, Object message) {
             writes++;
+            if (message instanceof FilenameFileRegion) {
+                FilenameFileRegion region = (FilenameFileRegion) message;
+                byte[] content = new byte[(int) region.getWrittenBytes()];
+                try (RandomAccessFile raf = new RandomAccessFile(region.getFile(), "r")) {
+                    raf.seek(region.getPosition() - region.getWrittenBytes());
+                    raf.readFully(content);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                out.append(new String(content));
+                return;
+            }
             IoBuffer buf = (IoBuffer) message;
             while (buf.hasRemaining()) {
                 out.append((char) buf.get());
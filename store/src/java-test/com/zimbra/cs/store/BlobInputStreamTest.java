@@ -20,12 +20,16 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
 
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import com.zimbra.cs.store.codec.BlobCodec;
+
 public class BlobInputStreamTest {
     @Before
     public void startUp() {
@@ -90,4 +94,51 @@ public class BlobInputStreamTest {
         Assert.assertFalse("file is gone", file.exists());
         Assert.assertNull("can't create substream after delete", bis.newStream(0, CONTENT.length));
     }
+
+    @Test
+    public void uncompressedFile() throws Exception {
+        File file = createTempFile();
+        BlobInputStream bis = new BlobInputStream(file, file.length());
+        Assert.assertEquals(file, bis.getUncompressedFile());
+        BlobInputStream substream = (BlobInputStream) bis.newStream(2, 8);
+        Assert.assertEquals(2, substream.getFilePosition());
+        Assert.assertEquals(6, substream.getRemaining());
+        Assert.assertEquals(CONTENT[2], substream.read());
+        Assert.assertEquals(3, substream.getFilePosition());
+        Assert.assertEquals(5, substream.getRemaining());
+
+        File gzipped = File.createTempFile(BlobInputStreamTest.class.getSimpleName(), ".msg");
+        gzipped.deleteOnExit();
+        try (GZIPOutputStream gzos = new GZIPOutputStream(new FileOutputStream(gzipped))) {
+            gzos.write(CONTENT);
+        }
+        bis = new BlobInputStream(gzipped, CONTENT.length);
+        Assert.assertNull("compressed blob", bis.getUncompressedFile());
+    }
+
+    @Test
+    public void lz4() throws Exception {
+        byte[] content = new byte[200 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = CONTENT[(i * 7 + i / 1000) % CONTENT.length];
+        }
+        File file = File.createTempFile(BlobInputStreamTest.class.getSimpleName(), ".msg");
+        file.deleteOnExit();
+        try (OutputStream out = BlobCodec.LZ4.compress(new FileOutputStream(file))) {
+            out.write(content);
+        }
+        Assert.assertTrue("compressed", file.length() < content.length);
+
+        BlobInputStream bis = new BlobInputStream(file, content.length);
+        Assert.assertNull("compressed blob", bis.getUncompressedFile());
+        // a substream in the middle of the third block is served without inflating the whole file
+        InputStream substream = bis.newStream(150000, 150100);
+        byte[] buf = new byte[100];
+        Assert.assertEquals(100, substream.read(buf));
+        for (int i = 0; i < buf.length; i++) {
+            Assert.assertEquals(content[150000 + i], buf[i]);
+        }
+        Assert.assertEquals(content[0], bis.read());
+        bis.close();
+    }
 }
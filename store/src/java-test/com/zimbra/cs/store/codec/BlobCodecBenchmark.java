@@ -0,0 +1,136 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.store.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.zimbra.common.util.ByteUtil;
+
+/**
+ * Compares compression ratio and throughput of the {@link BlobCodec}s over a
+ * corpus of MIME messages, plus random access read latency for codecs that
+ * support {@link BlobCodec#openSeekable}:
+ * <pre>
+ *   BlobCodecBenchmark [iterations] [corpus directory]
+ * </pre>
+ * The corpus defaults to {@code data/unittest/email}.  Every regular file in
+ * the directory (recursively) is treated as one blob.
+ */
+public class BlobCodecBenchmark {
+
+    private static void collect(File dir, List<byte[]> blobs) throws Exception {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collect(file, blobs);
+            } else if (file.length() > 0) {
+                blobs.add(ByteUtil.getContent(file));
+            }
+        }
+    }
+
+    private static void run(BlobCodec codec, List<byte[]> blobs, int iterations) throws Exception {
+        long raw = 0, compressed = 0;
+        long encode = Long.MAX_VALUE, decode = Long.MAX_VALUE;
+        byte[] buf = new byte[64 * 1024];
+        List<byte[]> results = new ArrayList<byte[]>(blobs.size());
+        for (int i = 0; i < iterations; i++) {
+            results.clear();
+            long start = System.nanoTime();
+            for (byte[] blob : blobs) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream(blob.length / 2);
+                try (OutputStream out = codec.compress(baos)) {
+                    out.write(blob);
+                }
+                results.add(baos.toByteArray());
+            }
+            encode = Math.min(encode, System.nanoTime() - start);
+
+            start = System.nanoTime();
+            for (byte[] data : results) {
+                try (InputStream in = codec.decompress(new ByteArrayInputStream(data))) {
+                    while (in.read(buf) >= 0) {
+                    }
+                }
+            }
+            decode = Math.min(decode, System.nanoTime() - start);
+        }
+        for (int i = 0; i < blobs.size(); i++) {
+            raw += blobs.get(i).length;
+            compressed += results.get(i).length;
+        }
+        System.out.printf("%-6s %4d blobs %12d -> %12d bytes  ratio %5.3f  encode %8.1f MB/s  decode %8.1f MB/s%n",
+                codec, blobs.size(), raw, compressed, (double) compressed / raw,
+                raw / (encode / 1e3), raw / (decode / 1e3));
+    }
+
+    private static void seek(BlobCodec codec, List<byte[]> blobs, int reads) throws Exception {
+        List<File> files = new ArrayList<File>();
+        for (byte[] blob : blobs) {
+            File file = File.createTempFile(BlobCodecBenchmark.class.getSimpleName(), ".blob");
+            file.deleteOnExit();
+            try (OutputStream out = codec.compress(new FileOutputStream(file))) {
+                out.write(blob);
+            }
+            files.add(file);
+        }
+        if (codec.openSeekable(files.get(0)) == null) {
+            System.out.printf("%-6s random 4KB read: not seekable, must decompress from the start%n", codec);
+            return;
+        }
+        Random rand = new Random(0);
+        byte[] buf = new byte[4096];
+        long elapsed = 0;
+        for (int i = 0; i < reads; i++) {
+            int index = rand.nextInt(files.size());
+            long start = System.nanoTime();
+            try (SeekableBlob blob = codec.openSeekable(files.get(index))) {
+                blob.read(rand.nextInt(blobs.get(index).length), buf, 0, buf.length);
+            }
+            elapsed += System.nanoTime() - start;
+        }
+        System.out.printf("%-6s random 4KB read: %8.1f us (open + read)%n", codec, elapsed / 1e3 / reads);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        File corpus = new File(args.length > 1 ? args[1] : "data/unittest/email");
+        List<byte[]> blobs = new ArrayList<byte[]>();
+        collect(corpus, blobs);
+        if (blobs.isEmpty()) {
+            System.err.println("no blobs found in " + corpus.getAbsolutePath());
+            System.exit(1);
+        }
+        for (BlobCodec codec : new BlobCodec[] { BlobCodec.GZIP, BlobCodec.LZ4 }) {
+            run(codec, blobs, iterations);
+        }
+        for (BlobCodec codec : new BlobCodec[] { BlobCodec.GZIP, BlobCodec.LZ4 }) {
+            seek(codec, blobs, 10000);
+        }
+    }
+}
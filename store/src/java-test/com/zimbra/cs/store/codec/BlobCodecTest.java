@@ -0,0 +1,206 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.store.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.zimbra.common.util.ByteUtil;
+
+public final class BlobCodecTest {
+
+    private static final int[] SIZES = { 0, 1, 12, 13, 100, 65535, 65536, 65537, 300000 };
+
+    private static byte[] text(int size) {
+        byte[] data = new byte[size];
+        String line = "Received: from mta.example.com by mailbox.example.com with LMTP; ";
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) line.charAt((i + i / 4096) % line.length());
+        }
+        return data;
+    }
+
+    private static byte[] random(int size) {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] compress(BlobCodec codec, byte[] data) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (OutputStream out = codec.compress(baos)) {
+            out.write(data);
+        }
+        return baos.toByteArray();
+    }
+
+    private static File write(byte[] data) throws IOException {
+        File file = File.createTempFile(BlobCodecTest.class.getSimpleName(), ".blob");
+        file.deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        return file;
+    }
+
+    @Test
+    public void lz4Block() throws Exception {
+        int[] table = Lz4.newTable();
+        for (int size : SIZES) {
+            for (byte[] data : new byte[][] { text(size), random(size), new byte[size] }) {
+                byte[] compressed = new byte[Lz4.maxCompressedLength(size)];
+                int len = Lz4.compress(data, 0, size, compressed, 0, table);
+                byte[] result = new byte[size];
+                Assert.assertEquals(size, Lz4.decompress(compressed, 0, len, result, 0, size));
+                Assert.assertArrayEquals("size " + size, data, result);
+            }
+        }
+    }
+
+    @Test
+    public void lz4CorruptBlock() throws Exception {
+        byte[] data = text(1000);
+        byte[] compressed = new byte[Lz4.maxCompressedLength(data.length)];
+        int len = Lz4.compress(data, 0, data.length, compressed, 0, Lz4.newTable());
+        try {
+            Lz4.decompress(compressed, 0, len - 1, new byte[data.length], 0, data.length);
+            Assert.fail("truncated block");
+        } catch (IOException expected) {
+        }
+        try {
+            Lz4.decompress(compressed, 0, len, new byte[data.length - 1], 0, data.length - 1);
+            Assert.fail("output overflow");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        for (BlobCodec codec : new BlobCodec[] { BlobCodec.GZIP, BlobCodec.LZ4 }) {
+            for (int size : SIZES) {
+                for (byte[] data : new byte[][] { text(size), random(size) }) {
+                    byte[] compressed = compress(codec, data);
+                    InputStream in = codec.decompress(new ByteArrayInputStream(compressed));
+                    Assert.assertArrayEquals(codec + " size " + size, data, ByteUtil.getContent(in, -1));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void detect() throws Exception {
+        byte[] data = text(10000);
+        Assert.assertSame(BlobCodec.GZIP, BlobCodec.detect(write(compress(BlobCodec.GZIP, data))));
+        Assert.assertSame(BlobCodec.LZ4, BlobCodec.detect(write(compress(BlobCodec.LZ4, data))));
+        Assert.assertNull(BlobCodec.detect(write(data)));
+        Assert.assertNull(BlobCodec.detect(write(new byte[0])));
+
+        for (BlobCodec codec : new BlobCodec[] { BlobCodec.GZIP, BlobCodec.LZ4 }) {
+            InputStream in = BlobCodec.decompressIfNeeded(new ByteArrayInputStream(compress(codec, data)));
+            Assert.assertArrayEquals(codec.getName(), data, ByteUtil.getContent(in, -1));
+        }
+        InputStream in = BlobCodec.decompressIfNeeded(new ByteArrayInputStream(data));
+        Assert.assertArrayEquals(data, ByteUtil.getContent(in, -1));
+    }
+
+    @Test
+    public void forName() {
+        Assert.assertSame(BlobCodec.GZIP, BlobCodec.forName("gzip"));
+        Assert.assertSame(BlobCodec.LZ4, BlobCodec.forName("LZ4"));
+        Assert.assertNull(BlobCodec.forName("zstd"));
+        Assert.assertNull(BlobCodec.forName(null));
+    }
+
+    @Test
+    public void seekable() throws Exception {
+        Assert.assertNull(BlobCodec.GZIP.openSeekable(write(compress(BlobCodec.GZIP, text(100)))));
+
+        // mix compressible and incompressible blocks
+        byte[] data = text(400000);
+        System.arraycopy(random(70000), 0, data, 100000, 70000);
+        try (SeekableBlob blob = BlobCodec.LZ4.openSeekable(write(compress(BlobCodec.LZ4, data)))) {
+            Assert.assertEquals(data.length, blob.getRawSize());
+            Random rand = new Random(0);
+            for (int i = 0; i < 200; i++) {
+                int pos = rand.nextInt(data.length);
+                byte[] buf = new byte[1 + rand.nextInt(100000)];
+                int len = blob.read(pos, buf, 0, buf.length);
+                Assert.assertTrue(len > 0 && len <= buf.length);
+                Assert.assertArrayEquals("pos " + pos, Arrays.copyOfRange(data, pos, pos + len),
+                        Arrays.copyOf(buf, len));
+            }
+            Assert.assertEquals(-1, blob.read(data.length, new byte[1], 0, 1));
+        }
+
+        try (SeekableBlob blob = BlobCodec.LZ4.openSeekable(write(compress(BlobCodec.LZ4, new byte[0])))) {
+            Assert.assertEquals(0, blob.getRawSize());
+            Assert.assertEquals(-1, blob.read(0, new byte[1], 0, 1));
+        }
+    }
+
+    @Test
+    public void truncatedFrame() throws Exception {
+        byte[] compressed = compress(BlobCodec.LZ4, text(100000));
+        try {
+            BlobCodec.LZ4.openSeekable(write(Arrays.copyOf(compressed, compressed.length - 1))).close();
+            Assert.fail("missing trailer");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void writeAfterFinish() throws Exception {
+        OutputStream out = BlobCodec.LZ4.compress(new ByteArrayOutputStream());
+        out.write(text(100));
+        BlobCodec.LZ4.finish(out);
+        try {
+            out.write('x');
+            Assert.fail("single byte written after finish");
+        } catch (IOException expected) {
+        }
+        try {
+            out.write(text(10));
+            Assert.fail("bytes written after finish");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void fileCopy() throws Exception {
+        byte[] data = text(100000);
+        File src = write(data);
+        File compressed = File.createTempFile(BlobCodecTest.class.getSimpleName(), ".blob");
+        File uncompressed = File.createTempFile(BlobCodecTest.class.getSimpleName(), ".blob");
+        compressed.deleteOnExit();
+        uncompressed.deleteOnExit();
+
+        BlobCodec.LZ4.compress(src, compressed, false);
+        Assert.assertSame(BlobCodec.LZ4, BlobCodec.detect(compressed));
+        BlobCodec.LZ4.uncompress(compressed, uncompressed, false);
+        Assert.assertArrayEquals(data, ByteUtil.getContent(uncompressed));
+    }
+}
@@ -28,6 +28,9 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.dom4j.Attribute;
 import org.dom4j.Document;
@@ -136,6 +139,11 @@ public class AttributeManager {
     private final Set<String> mEphemeralAttrsSet = new HashSet<String>(); // not lowercased
     private final Map<EntryType, Map<String, AttributeInfo>> mNonDynamicEphemeralAttrs = new HashMap<EntryType, Map<String, AttributeInfo>>(); // ephemeral attributes that can be retrieved as part of Entry.getAttrs()
 
+    // dense ids handed out to attributes as Entry caches their parsed values, see getSlot()
+    private final ConcurrentMap<String, Integer> mAttrSlots = new ConcurrentHashMap<String, Integer>(); // as asked for
+    private final ConcurrentMap<String, Integer> mLowerCaseAttrSlots = new ConcurrentHashMap<String, Integer>(); // lowercased
+    private final AtomicInteger mNextAttrSlot = new AtomicInteger();
+
     /*
      * Notes on certificate attributes
      *
@@ -1384,6 +1392,36 @@ public class AttributeManager {
             return mAttrs.get(name.toLowerCase());
     }
 
+    /**
+     * Returns a small non-negative id for the attribute, the same for every
+     * spelling of its name, or -1 if the attribute isn't defined in the
+     * attrs xml files.  Ids are assigned on first use; {@link Entry} uses them
+     * to index its cache of parsed attribute values.
+     */
+    int getSlot(String name) {
+        if (name == null) {
+            return -1;
+        }
+        Integer slot = mAttrSlots.get(name);
+        if (slot != null) {
+            return slot;
+        }
+        String lcName = name.toLowerCase();
+        if (!mAttrs.containsKey(lcName)) {
+            return -1;
+        }
+        slot = mLowerCaseAttrSlots.get(lcName);
+        if (slot == null) {
+            Integer newSlot = mNextAttrSlot.getAndIncrement();
+            slot = mLowerCaseAttrSlots.putIfAbsent(lcName, newSlot);
+            if (slot == null) {
+                slot = newSlot;
+            }
+        }
+        mAttrSlots.put(name, slot);
+        return slot;
+    }
+
     public static void loadLdapSchemaExtensionAttrs(LdapProv prov) {
         synchronized(AttributeManager.class) {
             try {
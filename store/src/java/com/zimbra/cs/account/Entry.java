@@ -22,19 +22,24 @@ import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.json.JSONException;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
@@ -101,6 +106,14 @@ public abstract class Entry implements ToZJSONObject {
     private Locale mLocale;
     private final Provisioning mProvisioning;
     private AttributeManager mAttrMgr;
+    // parsed values of the typed getters; see getParsedAttr()
+    private volatile TypedAttrSlots mTypedAttrs;
+    private volatile int mModCount;
+
+    // bumped whenever a cos, domain, config, ... changes the defaults map it shares with other entries
+    private static final AtomicLong sDefaultsGeneration = new AtomicLong();
+    // defaults maps this entry has filled at least once; see getDefaults()
+    private Set<Map<String,Object>> mFilledDefaults;
 
     protected static String[] sEmptyMulti = new String[0];
     protected static List<byte[]> sEmptyListMulti = new ArrayList<byte[]>();
@@ -200,6 +213,17 @@ public abstract class Entry implements ToZJSONObject {
         if (mData != null)
             mData.clear();
         mLocale = null;
+        attrsModified();
+    }
+
+    /**
+     * Drops the parsed attribute values cached on this entry.  Must be called
+     * by anything that changes the attribute map in place rather than through
+     * {@link #setAttrs(Map)}.
+     */
+    void attrsModified() {
+        mModCount++;
+        mTypedAttrs = null;
     }
 
     /**
@@ -335,8 +359,13 @@ public abstract class Entry implements ToZJSONObject {
         return v == null ? defaultValue : v;
     }
 
-    protected Map<String, Object> getRawAttrs() {
-        return mAttrs;
+    /**
+     * Sets an attribute on this cached copy of the entry only; nothing is
+     * written to the directory.
+     */
+    protected synchronized void setRawAttr(String name, Object value) {
+        mAttrs.put(name, value);
+        attrsModified();
     }
 
     public Map<String, Object> getAttrs() {
@@ -448,8 +477,8 @@ public abstract class Entry implements ToZJSONObject {
     }
 
     protected boolean getBooleanAttr(String name, boolean defaultValue, boolean skipEphemeralCheck) {
-        String v = getAttr(name, true, skipEphemeralCheck);
-        return v == null ? defaultValue : ProvisioningConstants.TRUE.equals(v);
+        Object v = getParsedAttr(name, TypedAttrSlots.BOOLEAN, skipEphemeralCheck);
+        return v == TypedAttrSlots.ABSENT ? defaultValue : (Boolean) v;
     }
 
     public byte[] getBinaryAttr(String name) {
@@ -490,12 +519,8 @@ public abstract class Entry implements ToZJSONObject {
     }
 
     protected int getIntAttr(String name, int defaultValue, boolean skipEphemeralCheck) {
-        String v = getAttr(name, true, skipEphemeralCheck);
-        try {
-            return v == null ? defaultValue : Integer.parseInt(v);
-        } catch (NumberFormatException e) {
-            return defaultValue;
-        }
+        Object v = getParsedAttr(name, TypedAttrSlots.INT, skipEphemeralCheck);
+        return v == TypedAttrSlots.ABSENT ? defaultValue : (Integer) v;
     }
 
     public Locale getLocale() throws ServiceException {
@@ -525,14 +550,67 @@ public abstract class Entry implements ToZJSONObject {
     }
 
     protected long getLongAttr(String name, long defaultValue, boolean skipEphemeralCheck) {
-        String v = getAttr(name, true, skipEphemeralCheck);
+        Object v = getParsedAttr(name, TypedAttrSlots.LONG, skipEphemeralCheck);
+        return v == TypedAttrSlots.ABSENT ? defaultValue : (Long) v;
+    }
+
+    /**
+     * Returns the value of the attribute parsed as the given
+     * {@link TypedAttrSlots} type, or {@link TypedAttrSlots#ABSENT} if it isn't
+     * set or doesn't parse.  Values of attributes known to the
+     * {@link AttributeManager} are parsed once and kept until the entry or its
+     * defaults change; ephemeral attributes are always read through.
+     */
+    private Object getParsedAttr(String name, int type, boolean skipEphemeralCheck) {
+        AttributeManager attrMgr = mAttrMgr;
+        int slot = attrMgr == null || (!skipEphemeralCheck && attrMgr.isEphemeral(name)) ? -1 : attrMgr.getSlot(name);
+        if (slot < 0) {
+            return parseAttr(getAttr(name, true, skipEphemeralCheck), type);
+        }
+        int key = TypedAttrSlots.key(slot, type);
+        // read the counters before the attributes, so that a value read
+        // across a modification is tagged as stale
+        int modCount = mModCount;
+        long generation = sDefaultsGeneration.get();
+        TypedAttrSlots slots = mTypedAttrs;
+        if (slots == null || slots.modCount != modCount || slots.generation != generation) {
+            slots = new TypedAttrSlots(modCount, generation);
+        } else {
+            Object v = slots.get(key);
+            if (v != null) {
+                return v;
+            }
+        }
+        Object v = parseAttr(getAttr(name, true, true), type);
+        // concurrent readers may each publish a table and lose the other's
+        // value; that only costs a second parse
+        mTypedAttrs = slots.with(key, v);
+        return v;
+    }
+
+    private static Object parseAttr(String v, int type) {
+        if (v == null) {
+            return TypedAttrSlots.ABSENT;
+        }
         try {
-            if (MemoryUnitUtil.isMemoryUnit(v))
-                return new MemoryUnitUtil(1024).convertToBytes(v);
-            else
-                return v == null ? defaultValue : Long.parseLong(v);
+            switch (type) {
+            case TypedAttrSlots.INT:
+                return Integer.parseInt(v);
+            case TypedAttrSlots.LONG:
+                if (MemoryUnitUtil.isMemoryUnit(v))
+                    return new MemoryUnitUtil(1024).convertToBytes(v);
+                else
+                    return Long.parseLong(v);
+            case TypedAttrSlots.BOOLEAN:
+                return ProvisioningConstants.TRUE.equals(v);
+            case TypedAttrSlots.TIME_INTERVAL:
+                long interval = DateUtil.getTimeInterval(v, Long.MIN_VALUE);
+                return interval == Long.MIN_VALUE ? TypedAttrSlots.ABSENT : interval;
+            default:
+                throw new IllegalArgumentException("unknown type " + type);
+            }
         } catch (NumberFormatException e) {
-            return defaultValue;
+            return TypedAttrSlots.ABSENT;
         }
     }
 
@@ -686,8 +764,8 @@ public abstract class Entry implements ToZJSONObject {
     }
 
     protected long getTimeInterval(String name, long defaultValue, boolean skipEphemeralCheck) {
-        String v = getAttr(name, true, skipEphemeralCheck);
-        return DateUtil.getTimeInterval(v, defaultValue);
+        Object v = getParsedAttr(name, TypedAttrSlots.TIME_INTERVAL, skipEphemeralCheck);
+        return v == TypedAttrSlots.ABSENT ? defaultValue : (Long) v;
     }
 
     /**
@@ -764,17 +842,50 @@ public abstract class Entry implements ToZJSONObject {
         mData.remove(key.getKeyName());
     }
 
-    protected void getDefaults(AttributeFlag flag, Map<String,Object> defaults)
+    protected synchronized void getDefaults(AttributeFlag flag, Map<String,Object> defaults)
     throws ServiceException {
-        defaults.clear();
+        Map<String,Object> loaded = new HashMap<String,Object>();
         Set<String> attrs = AttributeManager.getInstance().getAttrsWithFlag(flag);
         for (String a : attrs) {
             Object obj = getObject(a, true);
-            if (obj != null) defaults.put(a, obj);
+            if (obj != null) loaded.put(a, obj);
+        }
+        // the first fill happens while this entry is being loaded, before any
+        // other entry can read through the map
+        if (mFilledDefaults == null) {
+            mFilledDefaults = Collections.newSetFromMap(new IdentityHashMap<Map<String,Object>, Boolean>());
+        }
+        boolean firstFill = mFilledDefaults.add(defaults);
+        if (sameValues(defaults, loaded)) {
+            return;
+        }
+        defaults.clear();
+        defaults.putAll(loaded);
+        // other entries read through this map, so their parsed values have
+        // to be dropped when its contents change
+        if (!firstFill) {
+            sDefaultsGeneration.incrementAndGet();
         }
         //return Collections.unmodifiableMap(defaults);
     }
 
+    @VisibleForTesting
+    static long getDefaultsGeneration() {
+        return sDefaultsGeneration.get();
+    }
+
+    private static boolean sameValues(Map<String,Object> a, Map<String,Object> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (Map.Entry<String,Object> e : a.entrySet()) {
+            if (!Objects.deepEquals(e.getValue(), b.get(e.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     @Override
     public synchronized String toString() {
         return String.format("[%s]", getClass().getName());
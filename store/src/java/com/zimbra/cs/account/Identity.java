@@ -46,7 +46,7 @@ public class Identity extends AccountProperty implements Comparable {
      */
     public void setId(String id) {
         mId = id;
-        getRawAttrs().put(Provisioning.A_zimbraPrefIdentityId, id);
+        setRawAttr(Provisioning.A_zimbraPrefIdentityId, id);
     }
 
     public InternetAddress getFriendlyEmailAddress() {
@@ -48,7 +48,7 @@ public class Signature extends AccountProperty implements Comparable {
      */
     public void setId(String id) {
         mId = id;
-        getRawAttrs().put(Provisioning.A_zimbraSignatureId, id);
+        setRawAttr(Provisioning.A_zimbraSignatureId, id);
     }
 
     public static class SignatureContent {
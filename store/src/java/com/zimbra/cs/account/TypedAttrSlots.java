@@ -0,0 +1,126 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account;
+
+import java.util.Arrays;
+
+/**
+ * Immutable table of attribute values that have already been parsed into
+ * their typed form, keyed by attribute slot (see
+ * {@link AttributeManager#getSlot(String)}) and the type the value was read
+ * as.  An {@link Entry} publishes a new table each time it parses a value it
+ * hadn't seen yet, so lookups never lock; the table is thrown away whenever
+ * the entry or anything it inherits from is modified.
+ * <p>
+ * Open addressing with linear probing; tables are copied on every insert and
+ * grow once they're half full.  Entries typically read a few dozen distinct
+ * attributes, so the tables stay small.
+ */
+final class TypedAttrSlots {
+
+    static final int INT = 0;
+    static final int LONG = 1;
+    static final int BOOLEAN = 2;
+    static final int TIME_INTERVAL = 3;
+    private static final int TYPE_BITS = 2;
+
+    /** Stored for values that are missing or don't parse; callers then fall back to their own default. */
+    static final Object ABSENT = new Object();
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** {@link Entry} modification count the values were read under */
+    final int modCount;
+    /** defaults generation the values were read under */
+    final long generation;
+
+    private final int[] keys; // key + 1, so that 0 marks an empty slot
+    private final Object[] values;
+    private final int size;
+
+    TypedAttrSlots(int modCount, long generation) {
+        this(modCount, generation, new int[INITIAL_CAPACITY], new Object[INITIAL_CAPACITY], 0);
+    }
+
+    private TypedAttrSlots(int modCount, long generation, int[] keys, Object[] values, int size) {
+        this.modCount = modCount;
+        this.generation = generation;
+        this.keys = keys;
+        this.values = values;
+        this.size = size;
+    }
+
+    static int key(int slot, int type) {
+        return (slot << TYPE_BITS) | type;
+    }
+
+    private static int indexFor(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /** Returns the parsed value, {@link #ABSENT}, or {@code null} if the attribute hasn't been parsed yet. */
+    Object get(int key) {
+        int mask = keys.length - 1;
+        for (int i = indexFor(key, mask); ; i = (i + 1) & mask) {
+            int k = keys[i];
+            if (k == key + 1) {
+                return values[i];
+            } else if (k == 0) {
+                return null;
+            }
+        }
+    }
+
+    /** Returns a copy of this table with {@code value} added under {@code key}. */
+    TypedAttrSlots with(int key, Object value) {
+        int capacity = keys.length;
+        if ((size + 1) * 2 > capacity) {
+            capacity *= 2;
+        }
+        int[] newKeys = new int[capacity];
+        Object[] newValues = new Object[capacity];
+        int mask = capacity - 1;
+        int newSize = 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0 && keys[i] != key + 1) {
+                put(newKeys, newValues, mask, keys[i], values[i]);
+                newSize++;
+            }
+        }
+        put(newKeys, newValues, mask, key + 1, value);
+        return new TypedAttrSlots(modCount, generation, newKeys, newValues, newSize);
+    }
+
+    private static void put(int[] keys, Object[] values, int mask, int storedKey, Object value) {
+        int i = indexFor(storedKey - 1, mask);
+        while (keys[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        keys[i] = storedKey;
+        values[i] = value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "TypedAttrSlots[size=" + size + ",keys=" + Arrays.toString(keys) + "]";
+    }
+}
@@ -23,38 +23,52 @@
  */
 package com.zimbra.cs.account.cache;
 
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.StringUtils;
 
-import com.zimbra.common.util.MapUtil;
-import com.zimbra.common.stats.Counter;
-import com.zimbra.common.stats.HitRateCounter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 import com.zimbra.cs.account.Account;
 import com.zimbra.cs.account.Provisioning;
 
+/**
+ * Accounts by id, name, alias, foreign principal and old mail address.
+ * <p>
+ * Entries are owned by a size- and age-bounded cache keyed by id; the other
+ * keys are secondary indexes pointing at the same {@link CacheEntry}.  A
+ * secondary hit only counts while its entry is still the one cached under the
+ * account's id, so readers never see an account that has been evicted or
+ * replaced, and an update becomes visible through every key at once when the
+ * new entry is put under the id.  Lookups take no locks; updates are
+ * serialized among themselves.
+ */
 public class AccountCache implements IAccountCache {
 
-    private Map<String, CacheEntry> mNameCache;
-    private Map<String, CacheEntry> mIdCache;
-    private Map<String, CacheEntry> mAliasCache;
-    private Map<String, CacheEntry> mForeignPrincipalCache;
-    private Map<String, CacheEntry> mOldNameCache;
-    private Counter mHitRate = new HitRateCounter();
-
-    private long mRefreshTTL;
+    private final Cache<String, CacheEntry> mIdCache;
+    private final ConcurrentMap<String, CacheEntry> mNameCache = new ConcurrentHashMap<String, CacheEntry>();
+    private final ConcurrentMap<String, CacheEntry> mAliasCache = new ConcurrentHashMap<String, CacheEntry>();
+    private final ConcurrentMap<String, CacheEntry> mForeignPrincipalCache = new ConcurrentHashMap<String, CacheEntry>();
+    private final ConcurrentMap<String, CacheEntry> mOldNameCache = new ConcurrentHashMap<String, CacheEntry>();
+    private final HitRate mHitRate = new HitRate();
 
     static class CacheEntry {
-        long mLifetime;
-        Account mEntry;
+        final Account mEntry;
+        final String mName;
+        final String[] mAliases;
+        final String[] mForeignPrincipals;
+        final String mOldName;
 
-        CacheEntry(Account entry, long expires) {
+        CacheEntry(Account entry) {
             mEntry = entry;
-            mLifetime = System.currentTimeMillis() + expires;
-        }
-
-        boolean isStale() {
-            return mLifetime < System.currentTimeMillis();
+            mName = entry.getName();
+            mAliases = entry.getMultiAttr(Provisioning.A_zimbraMailAlias);
+            mForeignPrincipals = entry.getMultiAttr(Provisioning.A_zimbraForeignPrincipal);
+            mOldName = StringUtils.isNotEmpty(entry.getOldMailAddress()) ? entry.getOldMailAddress() : null;
         }
     }
 
@@ -63,18 +77,57 @@ public class AccountCache implements IAccountCache {
      * @param refreshTTL
      */
     public AccountCache(int maxItems, long refreshTTL) {
-        mNameCache = MapUtil.newLruMap(maxItems);
-        mIdCache = MapUtil.newLruMap(maxItems);
-        mAliasCache = MapUtil.newLruMap(maxItems);
-        mForeignPrincipalCache = MapUtil.newLruMap(maxItems);
-        mOldNameCache = MapUtil.newLruMap(maxItems);
-        mRefreshTTL = refreshTTL;
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .maximumSize(maxItems)
+                .concurrencyLevel(16);
+        if (refreshTTL != 0) {
+            builder.expireAfterWrite(refreshTTL, TimeUnit.MILLISECONDS);
+        }
+        mIdCache = builder.removalListener(new RemovalListener<String, CacheEntry>() {
+            @Override
+            public void onRemoval(RemovalNotification<String, CacheEntry> notification) {
+                unindex(notification.getValue());
+            }
+        }).build();
+    }
+
+    // drops the secondary keys that still point at an entry that is no longer cached
+    private void unindex(CacheEntry ce) {
+        if (ce == null) {
+            return;
+        }
+        remove(mNameCache, ce.mName, ce);
+        for (String alias : ce.mAliases) {
+            remove(mAliasCache, alias, ce);
+        }
+        for (String fp : ce.mForeignPrincipals) {
+            remove(mForeignPrincipalCache, fp, ce);
+        }
+        remove(mOldNameCache, ce.mOldName, ce);
+    }
+
+    private static void remove(ConcurrentMap<String, CacheEntry> index, String key, CacheEntry ce) {
+        if (key != null) {
+            index.remove(key, ce);
+        }
+    }
+
+    private static void remove(ConcurrentMap<String, CacheEntry> index, String key) {
+        if (key != null) {
+            index.remove(key);
+        }
+    }
+
+    private static void put(ConcurrentMap<String, CacheEntry> index, String key, CacheEntry ce) {
+        if (key != null) {
+            index.put(key, ce);
+        }
     }
 
     @Override
     public synchronized void clear() {
+        mIdCache.invalidateAll();
         mNameCache.clear();
-        mIdCache.clear();
         mAliasCache.clear();
         mForeignPrincipalCache.clear();
         mOldNameCache.clear();
@@ -83,41 +136,34 @@ public class AccountCache implements IAccountCache {
     @Override
     public synchronized void remove(Account entry) {
         if (entry != null) {
-            mNameCache.remove(entry.getName());
-            mIdCache.remove(entry.getId());
-
-            String aliases[] = entry.getMultiAttr(Provisioning.A_zimbraMailAlias);
-            for (String alias : aliases) {
-                mAliasCache.remove(alias);
+            remove(mNameCache, entry.getName());
+            for (String alias : entry.getMultiAttr(Provisioning.A_zimbraMailAlias)) {
+                remove(mAliasCache, alias);
             }
-
-            String fps[] = entry.getMultiAttr(Provisioning.A_zimbraForeignPrincipal);
-            for (String fp : fps) {
-                mForeignPrincipalCache.remove(fp);
+            for (String fp : entry.getMultiAttr(Provisioning.A_zimbraForeignPrincipal)) {
+                remove(mForeignPrincipalCache, fp);
+            }
+            remove(mOldNameCache, entry.getOldMailAddress());
+            if (entry.getId() != null) {
+                mIdCache.invalidate(entry.getId());
             }
-            mOldNameCache.remove(entry.getOldMailAddress());
         }
     }
 
     @Override
     public synchronized void put(Account entry) {
-        if (entry != null) {
-            CacheEntry cacheEntry = new CacheEntry(entry, mRefreshTTL);
-            mNameCache.put(entry.getName(), cacheEntry);
-            mIdCache.put(entry.getId(), cacheEntry);
-
-            String aliases[] = entry.getMultiAttr(Provisioning.A_zimbraMailAlias);
-            for (String alias : aliases) {
-                mAliasCache.put(alias, cacheEntry);
-            }
-
-            String fps[] = entry.getMultiAttr(Provisioning.A_zimbraForeignPrincipal);
-            for (String fp : fps) {
-                mForeignPrincipalCache.put(fp, cacheEntry);
+        if (entry != null && entry.getId() != null) {
+            CacheEntry cacheEntry = new CacheEntry(entry);
+            // index first; the entry becomes visible when it is cached under its id
+            put(mNameCache, cacheEntry.mName, cacheEntry);
+            for (String alias : cacheEntry.mAliases) {
+                put(mAliasCache, alias, cacheEntry);
             }
-            if (StringUtils.isNotEmpty(entry.getOldMailAddress())) {
-                mOldNameCache.put(entry.getOldMailAddress(), cacheEntry);
+            for (String fp : cacheEntry.mForeignPrincipals) {
+                put(mForeignPrincipalCache, fp, cacheEntry);
             }
+            put(mOldNameCache, cacheEntry.mOldName, cacheEntry);
+            mIdCache.put(entry.getId(), cacheEntry);
         }
     }
 
@@ -127,51 +173,59 @@ public class AccountCache implements IAccountCache {
         put(entry);
     }
 
-    private Account get(String key, Map cache) {
-        CacheEntry ce = (CacheEntry) cache.get(key);
+    private CacheEntry lookup(String key, ConcurrentMap<String, CacheEntry> index) {
+        CacheEntry ce = key == null ? null : index.get(key);
+        if (ce != null && mIdCache.asMap().get(ce.mEntry.getId()) != ce) {
+            // evicted, expired or replaced since it was indexed under this key
+            index.remove(key, ce);
+            return null;
+        }
+        return ce;
+    }
+
+    private Account hit(CacheEntry ce) {
         if (ce != null) {
-            if (mRefreshTTL != 0 && ce.isStale()) {
-                remove(ce.mEntry);
-                mHitRate.increment(0);
-                return null;
-            } else {
-                mHitRate.increment(100);
-                return ce.mEntry;
-            }
+            mHitRate.hit();
+            return ce.mEntry;
         } else {
-            mHitRate.increment(0);
+            mHitRate.miss();
             return null;
         }
     }
 
     @Override
-    public synchronized Account getById(String key) {
-        return get(key, mIdCache);
+    public Account getById(String key) {
+        return hit(key == null ? null : mIdCache.asMap().get(key));
     }
 
     @Override
-    public synchronized Account getByName(String key) {
-        Account acct = get(key.toLowerCase(), mNameCache) != null ? get(key.toLowerCase(), mNameCache)
-                : get(key.toLowerCase(), mAliasCache) != null ? get(key.toLowerCase(), mAliasCache)
-                        : get(key.toLowerCase(), mOldNameCache);
-        return acct;
+    public Account getByName(String key) {
+        key = key.toLowerCase();
+        CacheEntry ce = lookup(key, mNameCache);
+        if (ce == null) {
+            ce = lookup(key, mAliasCache);
+            if (ce == null) {
+                ce = lookup(key, mOldNameCache);
+            }
+        }
+        return hit(ce);
     }
 
     @Override
-    public synchronized Account getByForeignPrincipal(String key) {
-        return get(key, mForeignPrincipalCache);
+    public Account getByForeignPrincipal(String key) {
+        return hit(lookup(key, mForeignPrincipalCache));
     }
 
     @Override
-    public synchronized int getSize() {
-        return mIdCache.size();
+    public int getSize() {
+        return (int) mIdCache.size();
     }
 
     /**
      * Returns the cache hit rate as a value between 0 and 100.
      */
     @Override
-    public synchronized double getHitRate() {
+    public double getHitRate() {
         return mHitRate.getAverage();
     }
 }
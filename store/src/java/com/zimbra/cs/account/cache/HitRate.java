@@ -0,0 +1,58 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.account.cache;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hit rate of a cache that's read from many threads at once.  Unlike
+ * {@link com.zimbra.common.stats.HitRateCounter}, recording a lookup doesn't
+ * make every reader update the same two counters.
+ */
+final class HitRate {
+
+    private final LongAdder mHits = new LongAdder();
+    private final LongAdder mMisses = new LongAdder();
+    private long mLastHits;
+    private long mLastMisses;
+
+    void hit() {
+        mHits.increment();
+    }
+
+    void miss() {
+        mMisses.increment();
+    }
+
+    /**
+     * Returns the hit rate, between 0 and 100, of the lookups since the last
+     * call.
+     */
+    synchronized double getAverage() {
+        long hits = mHits.sum();
+        long misses = mMisses.sum();
+        long deltaHits = hits - mLastHits;
+        long deltaMisses = misses - mLastMisses;
+        mLastHits = hits;
+        mLastMisses = misses;
+        if (deltaHits + deltaMisses == 0) {
+            return 0.0;
+        } else {
+            return 100.0 * deltaHits / (deltaHits + deltaMisses);
+        }
+    }
+}
@@ -24,77 +24,95 @@
 package com.zimbra.cs.account.cache;
 
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
-import com.zimbra.common.util.MapUtil;
-import com.zimbra.common.stats.Counter;
-import com.zimbra.common.stats.HitRateCounter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 import com.zimbra.cs.account.NamedEntry;
 
 /**
+ * Entries by id and name.  Entries are owned by a size- and age-bounded cache
+ * keyed by id, with the names as a secondary index; see {@link AccountCache}.
+ *
  * @author schemers
  **/
 public class NamedEntryCache<E extends NamedEntry> implements INamedEntryCache<E> {
-    
-    private Map mNameCache;
-    private Map mIdCache;
-    
-    private long mRefreshTTL;
-    private Counter mHitRate = new HitRateCounter();
-   
+
+    private final Cache<String, CacheEntry<E>> mIdCache;
+    private final ConcurrentMap<String, CacheEntry<E>> mNameCache = new ConcurrentHashMap<String, CacheEntry<E>>();
+    private final HitRate mHitRate = new HitRate();
 
     static class CacheEntry<E extends NamedEntry> {
-        long mLifetime;
-        E mEntry;
-        CacheEntry(E entry, long expires) {
+        final E mEntry;
+        final String mName;
+
+        CacheEntry(E entry) {
             mEntry = entry;
-            mLifetime = System.currentTimeMillis() + expires;
-        }
-        
-        boolean isStale() {
-            return mLifetime < System.currentTimeMillis();
+            mName = entry.getName();
         }
     }
-    
+
 /**
  * @param maxItems
  * @param refreshTTL
  */
     public NamedEntryCache(int maxItems, long refreshTTL) {
-        mNameCache = MapUtil.newLruMap(maxItems);
-        mIdCache = MapUtil.newLruMap(maxItems);
-        mRefreshTTL = refreshTTL;
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .maximumSize(maxItems)
+                .concurrencyLevel(16);
+        if (refreshTTL != 0) {
+            builder.expireAfterWrite(refreshTTL, TimeUnit.MILLISECONDS);
+        }
+        mIdCache = builder.removalListener(new RemovalListener<String, CacheEntry<E>>() {
+            @Override
+            public void onRemoval(RemovalNotification<String, CacheEntry<E>> notification) {
+                CacheEntry<E> ce = notification.getValue();
+                if (ce != null && ce.mName != null) {
+                    mNameCache.remove(ce.mName, ce);
+                }
+            }
+        }).build();
     }
 
     @Override
     public synchronized void clear() {
+        mIdCache.invalidateAll();
         mNameCache.clear();
-        mIdCache.clear();
     }
 
     @Override
     public synchronized void remove(String name, String id) {
-        mNameCache.remove(name);
-        mIdCache.remove(id);
+        if (name != null) {
+            mNameCache.remove(name);
+        }
+        if (id != null) {
+            mIdCache.invalidate(id);
+        }
     }
-    
+
     @Override
     public synchronized void remove(E entry) {
         if (entry != null) {
-            mNameCache.remove(entry.getName());
-            mIdCache.remove(entry.getId());
+            remove(entry.getName(), entry.getId());
         }
     }
-    
+
     @Override
     public synchronized void put(E entry) {
-        if (entry != null) {
-            CacheEntry<E> cacheEntry = new CacheEntry<E>(entry, mRefreshTTL);
-            mNameCache.put(entry.getName(), cacheEntry);
+        if (entry != null && entry.getId() != null) {
+            CacheEntry<E> cacheEntry = new CacheEntry<E>(entry);
+            // index first; the entry becomes visible when it is cached under its id
+            if (cacheEntry.mName != null) {
+                mNameCache.put(cacheEntry.mName, cacheEntry);
+            }
             mIdCache.put(entry.getId(), cacheEntry);
         }
     }
-    
+
     @Override
     public synchronized void replace(E entry) {
         remove(entry);
@@ -110,45 +128,43 @@ public class NamedEntryCache<E extends NamedEntry> implements INamedEntryCache<E
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private E get(String key, Map cache) {
-        CacheEntry<E> ce = (CacheEntry<E>) cache.get(key);
+    private E hit(CacheEntry<E> ce) {
         if (ce != null) {
-            if (mRefreshTTL != 0 && ce.isStale()) {
-                remove(ce.mEntry);
-                mHitRate.increment(0);
-                return null;
-            } else {
-                mHitRate.increment(100);
-                return ce.mEntry;
-            }
+            mHitRate.hit();
+            return ce.mEntry;
         } else {
-            mHitRate.increment(0);
+            mHitRate.miss();
             return null;
         }
     }
-    
+
     @Override
-    public synchronized E getById(String key) {
-        return get(key, mIdCache);
+    public E getById(String key) {
+        return hit(key == null ? null : mIdCache.asMap().get(key));
     }
-    
+
     @Override
-    public synchronized E getByName(String key) {
-        return get(key.toLowerCase(), mNameCache);
+    public E getByName(String key) {
+        key = key.toLowerCase();
+        CacheEntry<E> ce = mNameCache.get(key);
+        if (ce != null && mIdCache.asMap().get(ce.mEntry.getId()) != ce) {
+            // evicted, expired or replaced since it was indexed under this name
+            mNameCache.remove(key, ce);
+            ce = null;
+        }
+        return hit(ce);
     }
-    
+
     @Override
-    public synchronized int getSize() {
-        return mIdCache.size();
+    public int getSize() {
+        return (int) mIdCache.size();
     }
-    
-  
+
     /**
      * Returns the cache hit rate as a value between 0 and 100.
      */
     @Override
-    public synchronized double getHitRate() {
+    public double getHitRate() {
         return mHitRate.getAverage();
     }
 }
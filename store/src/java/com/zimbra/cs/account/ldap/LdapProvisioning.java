@@ -216,6 +216,7 @@ import com.zimbra.cs.mime.MimeTypeInfo;
 import com.zimbra.cs.service.util.JWEUtil;
 import com.zimbra.cs.service.util.ResetPasswordUtil;
 import com.zimbra.cs.service.util.SortBySeniorityIndexThenName;
+import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.util.Zimbra;
 import com.zimbra.cs.zimlet.ZimletException;
 import com.zimbra.cs.zimlet.ZimletUtil;
@@ -935,6 +936,7 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
     private Account getAccountByQuery(String base, ZLdapFilter filter, ZLdapContext initZlc,
             boolean loadFromMaster)
     throws ServiceException {
+        long start = ZimbraPerf.STOPWATCH_LDAP_ACCOUNT_LOAD.start();
         try {
             ZSearchResultEntry sr = getSearchResultForAccountByQuery(base, filter, initZlc, loadFromMaster, null);
             if (sr != null) {
@@ -943,6 +945,8 @@ public class LdapProvisioning extends LdapProv implements CacheAwareProvisioning
         } catch (ServiceException e) {
             throw ServiceException.FAILURE("unable to lookup account via query: " +
                     filter.toFilterString() + " message: "+e.getMessage(), e);
+        } finally {
+            ZimbraPerf.STOPWATCH_LDAP_ACCOUNT_LOAD.stop(start);
         }
         return null;
     }
@@ -52,14 +52,14 @@ class SoapDistributionList extends DistributionList implements SoapEntry {
         super(dlInfo.getName(), dlInfo.getId(),
                 new HashMap<String,Object>(), prov);
         // DistributionListMembershipInfo does not supply membership info
-        addDlm(new ArrayList<String>(), getRawAttrs());
+        setDlm(new ArrayList<String>());
     }
 
     SoapDistributionList(DistributionListInfo dlInfo, Provisioning prov)
     throws ServiceException {
         super(dlInfo.getName(), dlInfo.getId(), 
                 Attr.collectionToMap(dlInfo.getAttrList()), prov);
-        addDlm(dlInfo.getMembers(), getRawAttrs());
+        setDlm(dlInfo.getMembers());
     }
 
     SoapDistributionList(DLInfo dlInfo, Provisioning prov)
@@ -68,18 +68,22 @@ class SoapDistributionList extends DistributionList implements SoapEntry {
                 Attr.collectionToMap(dlInfo.getAttrList()), prov);
         
         // DLInfo does not supply zimbraId
-        Map<String, Object> attrs = getRawAttrs();
-        attrs.put(Provisioning.A_zimbraId, dlInfo.getId());
+        setRawAttr(Provisioning.A_zimbraId, dlInfo.getId());
         
         // DLInfo does not supply membership info
-        addDlm(new ArrayList<String>(), getRawAttrs());
+        setDlm(new ArrayList<String>());
     }
 
     SoapDistributionList(Element e, Provisioning prov) throws ServiceException {
         super(e.getAttribute(AdminConstants.A_NAME), 
                 e.getAttribute(AdminConstants.A_ID), 
                 SoapProvisioning.getAttrs(e), prov);
-        addDlm(e, getRawAttrs());
+        setDlm(getDlm(e));
+    }
+
+    private void setDlm(List <String> members) {
+        setRawAttr(Provisioning.A_zimbraMailForwardingAddress,
+                members.toArray(new String[members.size()]));
     }
 
     private void addDlm(List <String> members, Map<String, Object> attrs) {
@@ -87,12 +91,16 @@ class SoapDistributionList extends DistributionList implements SoapEntry {
                 members.toArray(new String[members.size()]));
     }
 
-    private void addDlm(Element e, Map<String, Object> attrs) {
+    private static List<String> getDlm(Element e) {
         ArrayList<String> list = new ArrayList<String>();
         for (Element dlm : e.listElements(AdminConstants.E_DLM)) {
             list.add(dlm.getText());
         }
-        addDlm(list, attrs);
+        return list;
+    }
+
+    private void addDlm(Element e, Map<String, Object> attrs) {
+        addDlm(getDlm(e), attrs);
     }
 
     public void modifyAttrs(SoapProvisioning prov, Map<String, ? extends Object> attrs, 
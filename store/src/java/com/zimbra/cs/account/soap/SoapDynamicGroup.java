@@ -55,14 +55,14 @@ public class SoapDynamicGroup extends DynamicGroup implements SoapEntry {
         super(dlInfo.getName(), dlInfo.getId(),
                 new HashMap<String,Object>(), prov);
         // DistributionListMembershipInfo does not supply membership info
-        addDlm(new ArrayList<String>(), getRawAttrs());
+        setMembers(new ArrayList<String>());
     }
 
     SoapDynamicGroup(DistributionListInfo dlInfo, Provisioning prov)
     throws ServiceException {
         super(dlInfo.getName(), dlInfo.getId(), 
                 Attr.collectionToMap(dlInfo.getAttrList()), prov);
-        addDlm(dlInfo.getMembers(), getRawAttrs());
+        setMembers(dlInfo.getMembers());
     }
 
     SoapDynamicGroup(DLInfo dlInfo, Provisioning prov)
@@ -70,12 +70,12 @@ public class SoapDynamicGroup extends DynamicGroup implements SoapEntry {
         super(dlInfo.getName(), dlInfo.getId(), 
                 Attr.collectionToMap(dlInfo.getAttrList()), prov);
         // DLInfo does not supply membership info
-        addDlm(new ArrayList<String>(), getRawAttrs());
+        setMembers(new ArrayList<String>());
     }
 
     SoapDynamicGroup(Element e, Provisioning prov) throws ServiceException {
         super(e.getAttribute(AdminConstants.A_NAME), e.getAttribute(AdminConstants.A_ID), SoapProvisioning.getAttrs(e), prov);
-        addDlm(e, getRawAttrs());
+        setMembers(getDlm(e));
     }
 
     @Override
@@ -108,12 +108,16 @@ public class SoapDynamicGroup extends DynamicGroup implements SoapEntry {
         membersList = members;
     }
     
-    private void addDlm(Element e, Map<String, Object> attrs) {
+    private static List<String> getDlm(Element e) {
         ArrayList<String> list = new ArrayList<String>();
         for (Element dlm : e.listElements(AdminConstants.E_DLM)) {
             list.add(dlm.getText());
         }
-        addDlm(list, attrs);
+        return list;
+    }
+
+    private void addDlm(Element e, Map<String, Object> attrs) {
+        addDlm(getDlm(e), attrs);
     }
 
     public void modifyAttrs(SoapProvisioning prov, Map<String, ? extends Object> attrs, boolean checkImmutable) throws ServiceException {
@@ -0,0 +1,209 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.db;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.Tag;
+
+/**
+ * Collects the per-item unread, tag, folder and delete writes issued while a
+ * bulk item operation walks its targets, and writes them out as a handful of
+ * {@code IN (...)} and JDBC-batched statements instead of one round trip per
+ * item.
+ * <p>
+ * A batch is only ever attached to the current {@link Mailbox} transaction
+ * (see {@link Mailbox#getOperationBatch()}), so everything it holds is written
+ * on the operation connection before the transaction commits.  Writes are
+ * flushed in the order unread, tags, folders, deletes; callers that need to
+ * read back or otherwise depend on the rows being current must call
+ * {@link #flush()} first.
+ */
+public final class DbItemBatch {
+
+    /** A single queued folder change, captured when the item was moved. */
+    static final class Move {
+        final int id;
+        final int folderId;
+        final String prevFolders;
+        final Integer indexId;
+
+        Move(int id, int folderId, String prevFolders, Integer indexId) {
+            this.id = id;
+            this.folderId = folderId;
+            this.prevFolders = prevFolders;
+            this.indexId = indexId;
+        }
+    }
+
+    private static final class TagChange {
+        final Tag tag;
+        final boolean add;
+        final Set<Integer> ids = new LinkedHashSet<Integer>();
+
+        TagChange(Tag tag, boolean add) {
+            this.tag = tag;
+            this.add = add;
+        }
+    }
+
+    private final Mailbox mbox;
+    private final int chunkSize;
+    private final Set<Integer> markRead = new LinkedHashSet<Integer>();
+    private final Set<Integer> markUnread = new LinkedHashSet<Integer>();
+    private final Map<Integer, TagChange> tagChanges = new LinkedHashMap<Integer, TagChange>();
+    private final List<Move> moves = new ArrayList<Move>();
+    private final Set<Integer> movedIds = new HashSet<Integer>();
+    // keyed by (fromDumpster ? 2 : 0) | (unsetDeletedFlag ? 1 : 0)
+    private final Map<Integer, Set<Integer>> deletes = new LinkedHashMap<Integer, Set<Integer>>();
+    private int pending;
+
+    public DbItemBatch(Mailbox mbox, int chunkSize) {
+        this.mbox = mbox;
+        this.chunkSize = Math.max(chunkSize, 1);
+    }
+
+    /** Returns the configured number of queued writes after which a batch
+     *  flushes itself.  Values of 1 or less turn batching off. */
+    public static int getBatchSize() {
+        return LC.zimbra_mailbox_write_batch_size.intValue();
+    }
+
+    /** Flushes the batch attached to the mailbox's current transaction, if
+     *  any.  Called before any write or read that isn't safe to reorder with
+     *  the queued writes. */
+    static void flush(Mailbox mbox) throws ServiceException {
+        DbItemBatch batch = mbox.getOperationBatch();
+        if (batch != null) {
+            batch.flush();
+        }
+    }
+
+    public boolean isEmpty() {
+        return pending == 0;
+    }
+
+    void alterUnread(Collection<Integer> ids, boolean unread) throws ServiceException {
+        if (!(unread ? markRead : markUnread).isEmpty()) {
+            flush();
+        }
+        Set<Integer> target = unread ? markUnread : markRead;
+        for (Integer id : ids) {
+            if (target.add(id)) {
+                pending++;
+            }
+        }
+        checkSize();
+    }
+
+    void alterTag(Tag tag, Collection<Integer> ids, boolean add) throws ServiceException {
+        TagChange change = tagChanges.get(tag.getId());
+        if (change != null && change.add != add) {
+            flush();
+            change = null;
+        }
+        if (change == null) {
+            tagChanges.put(tag.getId(), change = new TagChange(tag, add));
+        }
+        for (Integer id : ids) {
+            if (change.ids.add(id)) {
+                pending++;
+            }
+        }
+        checkSize();
+    }
+
+    void setFolder(int id, int folderId, String prevFolders, Integer indexId) throws ServiceException {
+        if (movedIds.contains(id)) {
+            flush();
+        }
+        moves.add(new Move(id, folderId, prevFolders, indexId));
+        movedIds.add(id);
+        pending++;
+        checkSize();
+    }
+
+    void delete(int id, boolean fromDumpster, boolean unsetDeletedFlag) throws ServiceException {
+        int key = (fromDumpster ? 2 : 0) | (unsetDeletedFlag ? 1 : 0);
+        Set<Integer> ids = deletes.get(key);
+        if (ids == null) {
+            deletes.put(key, ids = new LinkedHashSet<Integer>());
+        }
+        if (ids.add(id)) {
+            pending++;
+        }
+        checkSize();
+    }
+
+    private void checkSize() throws ServiceException {
+        if (pending >= chunkSize) {
+            flush();
+        }
+    }
+
+    /** Writes out everything queued so far.  The batch stays usable. */
+    public void flush() throws ServiceException {
+        if (pending == 0) {
+            return;
+        }
+        ZimbraLog.mailbox.debug("flushing %d batched item writes", pending);
+        pending = 0;
+
+        if (!markRead.isEmpty()) {
+            List<Integer> ids = new ArrayList<Integer>(markRead);
+            markRead.clear();
+            DbMailItem.writeUnread(mbox, ids, false);
+        }
+        if (!markUnread.isEmpty()) {
+            List<Integer> ids = new ArrayList<Integer>(markUnread);
+            markUnread.clear();
+            DbMailItem.writeUnread(mbox, ids, true);
+        }
+        if (!tagChanges.isEmpty()) {
+            List<TagChange> changes = new ArrayList<TagChange>(tagChanges.values());
+            tagChanges.clear();
+            for (TagChange change : changes) {
+                DbTag.writeTag(change.tag, new ArrayList<Integer>(change.ids), change.add);
+            }
+        }
+        if (!moves.isEmpty()) {
+            List<Move> queued = new ArrayList<Move>(moves);
+            moves.clear();
+            movedIds.clear();
+            DbMailItem.writeFolders(mbox, queued);
+        }
+        if (!deletes.isEmpty()) {
+            List<Map.Entry<Integer, Set<Integer>>> queued = new ArrayList<Map.Entry<Integer, Set<Integer>>>(deletes.entrySet());
+            deletes.clear();
+            for (Map.Entry<Integer, Set<Integer>> entry : queued) {
+                int key = entry.getKey();
+                DbMailItem.writeDelete(mbox, new ArrayList<Integer>(entry.getValue()), (key & 2) != 0, (key & 1) != 0);
+            }
+        }
+    }
+}
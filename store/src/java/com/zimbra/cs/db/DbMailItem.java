@@ -569,6 +569,19 @@ public class DbMailItem {
         }
         checkNamingConstraint(mbox, folder.getId(), item.getName(), item.getId());
 
+        DbItemBatch batch = mbox.getOperationBatch();
+        if (batch != null) {
+            // unnamed leaf items touch only their own row, so their moves can be coalesced
+            if (!(item instanceof Folder) && !(item instanceof Conversation) && StringUtil.isNullOrEmpty(item.getName())) {
+                String prevFolders = findPrevFolders(item, mbox.getOperationChangeID());
+                item.getUnderlyingData().setPrevFolders(prevFolders);
+                Integer indexId = item.getIndexStatus() == MailItem.IndexStatus.NO ? null : item.getIndexId();
+                batch.setFolder(item.getId(), folder.getId(), prevFolders, indexId);
+                return;
+            }
+            batch.flush();
+        }
+
         DbConnection conn = mbox.getOperationConnection();
         PreparedStatement stmt = null;
         try {
@@ -620,6 +633,53 @@ public class DbMailItem {
         }
     }
 
+    /**
+     * Writes the folder changes queued by a {@link DbItemBatch} as a single
+     * JDBC batch.  Each entry already carries its new <code>prev_folders</code>
+     * and index id, computed when the item was moved.
+     */
+    static void writeFolders(Mailbox mbox, List<DbItemBatch.Move> moves) throws ServiceException {
+        if (moves.isEmpty()) {
+            return;
+        }
+        DbConnection conn = mbox.getOperationConnection();
+        PreparedStatement stmt = null;
+        try {
+            String imapRenumber = mbox.isTrackingImap() ? ", imap_id = CASE WHEN imap_id IS NULL THEN NULL ELSE 0 END" : "";
+            stmt = conn.prepareStatement("UPDATE " + getMailItemTableName(mbox) +
+                        " SET folder_id = ?, prev_folders = ?, index_id = ?, mod_metadata = ?, change_date = ? " + imapRenumber +
+                        " WHERE " + IN_THIS_MAILBOX_AND + "id = ?");
+            int modseq = mbox.getOperationChangeID();
+            int timestamp = mbox.getOperationTimestamp();
+            int count = 0;
+            for (DbItemBatch.Move move : moves) {
+                int pos = 1;
+                stmt.setInt(pos++, move.folderId);
+                stmt.setString(pos++, move.prevFolders);
+                if (move.indexId == null) {
+                    stmt.setNull(pos++, Types.INTEGER);
+                } else {
+                    stmt.setInt(pos++, move.indexId);
+                }
+                stmt.setInt(pos++, modseq);
+                stmt.setInt(pos++, timestamp);
+                pos = setMailboxId(stmt, mbox, pos);
+                stmt.setInt(pos++, move.id);
+                stmt.addBatch();
+                if (++count % Db.getINClauseBatchSize() == 0) {
+                    stmt.executeBatch();
+                }
+            }
+            if (count % Db.getINClauseBatchSize() != 0) {
+                stmt.executeBatch();
+            }
+        } catch (SQLException e) {
+            throw ServiceException.FAILURE("writing new folder data for " + moves.size() + " items", e);
+        } finally {
+            DbPool.closeStatement(stmt);
+        }
+    }
+
     private static String findPrevFolders(MailItem item, int modseq) throws ServiceException {
         //prev folders ordered by modseq ascending, e.g. 100:2;200:101;300:5
         //only store the latest zimbraPrevFoldersToTrackMax folders
@@ -648,6 +708,7 @@ public class DbMailItem {
             return;
         }
         Mailbox mbox = folder.getMailbox();
+        DbItemBatch.flush(mbox);
         DbConnection conn = mbox.getOperationConnection();
         PreparedStatement stmt = null;
         try {
@@ -993,6 +1054,30 @@ public class DbMailItem {
         }
     }
 
+    /**
+     * Rewrites the item's metadata without updating its change number or change date.  Only for data derived from
+     * the item's content that clients never see, so that storing it doesn't show up as a modification.
+     */
+    public static void saveDerivedMetadata(MailItem item, String metadata) throws ServiceException {
+        Mailbox mbox = item.getMailbox();
+        DbConnection conn = mbox.getOperationConnection();
+        PreparedStatement stmt = null;
+        try {
+            stmt = conn.prepareStatement("UPDATE " + getMailItemTableName(item) +
+                        " SET metadata = ?" +
+                        " WHERE " + IN_THIS_MAILBOX_AND + "id = ?");
+            int pos = 1;
+            stmt.setString(pos++, checkMetadataLength(metadata));
+            pos = setMailboxId(stmt, mbox, pos);
+            stmt.setInt(pos++, item.getId());
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw ServiceException.FAILURE("writing metadata for mailbox " + item.getMailboxId() + ", item " + item.getId(), e);
+        } finally {
+            DbPool.closeStatement(stmt);
+        }
+    }
+
     public static void persistCounts(MailItem item, Metadata metadata) throws ServiceException {
         Mailbox mbox = item.getMailbox();
         DbConnection conn = mbox.getOperationConnection();
@@ -1361,7 +1446,16 @@ public class DbMailItem {
         if (itemIDs == null || itemIDs.isEmpty()) {
             return;
         }
+        DbItemBatch batch = mbox.getOperationBatch();
+        if (batch != null) {
+            batch.alterUnread(itemIDs, unread);
+        } else {
+            writeUnread(mbox, itemIDs, unread);
+        }
+    }
 
+    static void writeUnread(Mailbox mbox, List<Integer> itemIDs, boolean unread)
+    throws ServiceException {
         DbConnection conn = mbox.getOperationConnection();
         PreparedStatement stmt = null;
         try {
@@ -1410,6 +1504,7 @@ public class DbMailItem {
      */
     public static List<Integer> markDeletionTargets(Folder folder, Set<Integer> candidates) throws ServiceException {
         Mailbox mbox = folder.getMailbox();
+        DbItemBatch.flush(mbox);
         DbConnection conn = mbox.getOperationConnection();
         PreparedStatement stmt = null;
         ResultSet rs = null;
@@ -1493,6 +1588,7 @@ public class DbMailItem {
         if (ids == null) {
             return null;
         }
+        DbItemBatch.flush(mbox);
 
         DbConnection conn = mbox.getOperationConnection();
         PreparedStatement stmt = null;
@@ -1624,6 +1720,13 @@ public class DbMailItem {
             unsetDeletedFlag = item.getUnderlyingData().isSet(FlagInfo.DELETED);
             allIds.remove(Integer.valueOf(item.getId()));
         }
+        // a lone leaf item has nothing hanging off it, so its row can be deleted along with its siblings'
+        DbItemBatch batch = mbox.getOperationBatch();
+        if (batch != null && item != null && allIds.isEmpty() && item.getId() > 0 &&
+                !(item instanceof Folder) && !(item instanceof Conversation)) {
+            batch.delete(item.getId(), fromDumpster, unsetDeletedFlag);
+            return;
+        }
         // first delete the Comments
         List<Integer> allComments = info.itemIds.getIds(MailItem.Type.COMMENT);
         if (allComments != null && allComments.size() != 0) {
@@ -1672,7 +1775,12 @@ public class DbMailItem {
         if (targets.isEmpty()) {
             return;
         }
+        DbItemBatch.flush(mbox);
+        writeDelete(mbox, targets, fromDumpster, unsetDeletedFlag);
+    }
 
+    static void writeDelete(Mailbox mbox, List<Integer> targets, boolean fromDumpster, boolean unsetDeletedFlag)
+    throws ServiceException {
         DbConnection conn = mbox.getOperationConnection();
         for (int offset = 0; offset < targets.size(); offset += Db.getINClauseBatchSize()) {
             PreparedStatement stmt = null;
@@ -1690,7 +1798,7 @@ public class DbMailItem {
                 }
                 stmt.executeUpdate();
             } catch (SQLException e) {
-                throw ServiceException.FAILURE("deleting " + ids.size() + " item(s): " + getIdListForLogging(ids), e);
+                throw ServiceException.FAILURE("deleting " + targets.size() + " item(s): " + getIdListForLogging(targets), e);
             } finally {
                 DbPool.closeStatement(stmt);
             }
@@ -2320,6 +2428,7 @@ public class DbMailItem {
     public static List<UnderlyingData> getByParent(MailItem parent, SortBy sort, int limit, boolean fromDumpster)
             throws ServiceException {
         Mailbox mbox = parent.getMailbox();
+        DbItemBatch.flush(mbox);
 
         List<UnderlyingData> result = new ArrayList<UnderlyingData>();
 
@@ -2936,6 +3045,8 @@ public class DbMailItem {
         if (convData == null || convData.isEmpty()) {
             return;
         }
+        // the conversation's flags and tags are recomputed from its children's rows
+        DbItemBatch.flush(mbox);
 
         for (UnderlyingData data : convData) {
             if (data.type != MailItem.Type.CONVERSATION.toByte()) {
@@ -865,6 +865,33 @@ public final class DbMailbox {
         }
     }
 
+    /**
+     * Returns the time (in milliseconds) of the last complete purge of each mailbox on this host, keyed by
+     * mailbox id.  Mailboxes that have never been purged map to <tt>0</tt>.
+     */
+    public static Map<Integer, Long> listLastPurgeTimes(DbConnection conn) throws ServiceException {
+        Map<Integer, Long> result = new HashMap<Integer, Long>();
+        if (DebugConfig.externalMailboxDirectory) {
+            return result;
+        }
+
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement("SELECT id, last_purge_at FROM mailbox");
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                result.put(rs.getInt(1), rs.getInt(2) * 1000L);
+            }
+            return result;
+        } catch (SQLException e) {
+            throw ServiceException.FAILURE("fetching mailbox purge times", e);
+        } finally {
+            DbPool.closeResults(rs);
+            DbPool.closeStatement(stmt);
+        }
+    }
+
     public static final int CHANGE_CHECKPOINT_INCREMENT = Zimbra.isAlwaysOn() ? 1 : Math.max(1, LC.zimbra_mailbox_change_checkpoint_frequency.intValue());
     public static final int ITEM_CHECKPOINT_INCREMENT   = Zimbra.isAlwaysOn() ? 1 : 20;
 
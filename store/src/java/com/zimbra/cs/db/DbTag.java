@@ -394,7 +394,15 @@ public final class DbTag {
         if (itemIds == null || itemIds.isEmpty()) {
             return;
         }
+        DbItemBatch batch = tag.getMailbox().getOperationBatch();
+        if (batch != null) {
+            batch.alterTag(tag, itemIds, add);
+        } else {
+            writeTag(tag, itemIds, add);
+        }
+    }
 
+    static void writeTag(Tag tag, List<Integer> itemIds, boolean add) throws ServiceException {
         Mailbox mbox = tag.getMailbox();
 
         DbConnection conn = mbox.getOperationConnection();
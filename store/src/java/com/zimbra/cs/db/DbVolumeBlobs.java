@@ -130,6 +130,31 @@ public final class DbVolumeBlobs {
         }
     }
 
+    /**
+     * Returns at most <tt>limit</tt> references to blobs with the given digest on the given volume, newest first.
+     * Newer rows are the likeliest to still have their file, and a blob linked by the online deduper is in the same
+     * link group as the older ones anyway.
+     */
+    public static List<BlobReference> getBlobReferences(DbConnection conn, String digest, short volumeId, int limit)
+    throws ServiceException {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement(SELECT_BLOB_REFS + CN_DIGEST + " = ? AND " + CN_VOLUME_ID + " = ? ORDER BY " + CN_ID + " DESC");
+            stmt.setMaxRows(limit);
+            int pos = 1;
+            stmt.setString(pos++, digest);
+            stmt.setShort(pos++, volumeId);
+            rs = stmt.executeQuery();
+            return fillBlobReferences(rs);
+        } catch (SQLException e) {
+            throw ServiceException.FAILURE("unable to query blob references", e);
+        } finally {
+            DbPool.closeResults(rs);
+            DbPool.closeStatement(stmt);
+        }
+    }
+
     private static List<BlobReference> fillBlobReferences(ResultSet rs) throws SQLException {
         List<BlobReference> blobs = new ArrayList<BlobReference>();
         while (rs.next()) {
@@ -206,6 +231,24 @@ public final class DbVolumeBlobs {
         }
     }
 
+    public static void deleteBlobRef(DbConnection conn, MailboxBlobInfo info) throws ServiceException {
+        PreparedStatement stmt = null;
+        try {
+            stmt = conn.prepareStatement(DELETE_BLOB_REFS + CN_VOLUME_ID + " = ? AND " + CN_MAILBOX_ID + " = ? AND " +
+                    CN_ITEM_ID + " = ? AND " + CN_REVISION + " = ?");
+            int pos = 1;
+            stmt.setShort(pos++, Short.valueOf(info.locator));
+            stmt.setInt(pos++, info.mailboxId);
+            stmt.setInt(pos++, info.itemId);
+            stmt.setInt(pos++, info.revision);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw ServiceException.FAILURE("unable to delete blob reference for item " + info.itemId, e);
+        } finally {
+            DbPool.closeStatement(stmt);
+        }
+    }
+
     public static void deleteBlobRef(DbConnection conn, Mailbox mbox) throws ServiceException {
         PreparedStatement stmt = null;
         ResultSet rs = null;
@@ -17,17 +17,13 @@
 package com.zimbra.cs.imap;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.Arrays;
 import java.util.Comparator;
 
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.util.ByteUtil;
-import com.zimbra.cs.io.SecureObjectInputStream;
 
 /**
  * IMAP cache using local disk.
@@ -91,18 +87,14 @@ final class DiskImapCache implements ImapSessionManager.Cache<String, ImapFolder
             return;
         }
         FileOutputStream fos = null;
-        ObjectOutputStream oos = null;
         try {
-            oos = new ObjectOutputStream(fos = new FileOutputStream(pagefile));
-            synchronized (folder) {
-                oos.writeObject(folder);
-            }
+            byte[] data = ImapFolderCodec.encode(folder);
+            fos = new FileOutputStream(pagefile);
+            fos.write(data);
         } catch (IOException e) {
-            ByteUtil.closeStream(oos);
             ByteUtil.closeStream(fos);
             pagefile.delete();
         } finally {
-            ByteUtil.closeStream(oos);
             ByteUtil.closeStream(fos);
         }
     }
@@ -113,20 +105,12 @@ final class DiskImapCache implements ImapSessionManager.Cache<String, ImapFolder
         if (!pagefile.exists()) {
             return null;
         }
-        FileInputStream fis = null;
-        ObjectInputStream ois = null;
         try {
-            // read serialized ImapFolder from cache
-            ois = new SecureObjectInputStream(fis = new FileInputStream(pagefile), ImapFolder.class.getName());
-            return (ImapFolder) ois.readObject();
+            // read the encoded ImapFolder from cache; entries written by older servers are Java-serialized
+            return ImapFolderCodec.decode(ByteUtil.getContent(pagefile));
         } catch (Exception e) {
-            ByteUtil.closeStream(ois);
-            ByteUtil.closeStream(fis);
             pagefile.delete();
             return null;
-        } finally {
-            ByteUtil.closeStream(ois);
-            ByteUtil.closeStream(fis);
         }
     }
 
@@ -16,16 +16,17 @@
  */
 package com.zimbra.cs.imap;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListMap;
@@ -59,7 +60,7 @@ import com.zimbra.cs.session.PendingModifications.Change;
  */
 public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Serializable {
     // Update serialVersionUID when changing any instance members. Otherwise serialization won't work correctly.
-    private static final long serialVersionUID = 3845968507901145794L;
+    private static final long serialVersionUID = 3845968507901145795L;
     public static final byte SELECT_READONLY  = 0x01;
     public static final byte SELECT_CONDSTORE = 0x02;
 
@@ -68,13 +69,14 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
     private transient ImapListener session;
     private transient ImapPath path;
     private transient SessionData sessionData;
-    private transient Map<Integer, ImapMessage> messageIds;
+    /** Maps item ID to IMAP UID for messages whose UID isn't their item ID; built on first miss. */
+    private transient ImapSequence.IdIndex messageIds;
 
     private final ItemIdentifier folderIdentifier;
     private final int uidValidity;
     private String query;
     private Set<MailItem.Type> typeConstraint = ImapHandler.ITEM_TYPES;
-    private final List<ImapMessage> sequence = new ArrayList<ImapMessage>();
+    private transient ImapSequence sequence = new ImapSequence();
     private final ImapFlagCache tags;   // operationally could be "transient", but that makes deserialization replay depend on magic
 
     // below this point are session-specific attributes of the folder SELECT state
@@ -123,6 +125,18 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
         this.tags = new ImapFlagCache();
     }
 
+    /** Rebuilds a cached folder decoded by {@link ImapFolderCodec}; the session state is attached later by
+     *  {@link #restore}. */
+    ImapFolder(ItemIdentifier folderIdentifier, int uidValidity, String query, Set<MailItem.Type> typeConstraint,
+            ImapFlagCache tags, ImapSequence sequence) {
+        this.folderIdentifier = folderIdentifier;
+        this.uidValidity = uidValidity;
+        this.query = query;
+        this.typeConstraint = typeConstraint;
+        this.tags = tags;
+        this.sequence = sequence;
+    }
+
     protected void setInitialSize() {
         SessionData sdata = sessionData;
         if (sdata != null) {
@@ -334,22 +348,9 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
      *         elements in the list are less than the specified key.  Note
      *         that this guarantees that the return value will be &gt;= 0 if
      *         and only if the key is found.
-     * @see Collections#binarySearch(List, Object) */
+     * @see ImapSequence#uidSearch(int) */
     private int uidSearch(int uid) {
-        int low = 0;
-        int high = getSize() - 1;
-        while (low <= high) {
-            int mid = (low + high) >> 1;
-            int targetUid = sequence.get(mid).imapUid;
-            if (targetUid < uid) {
-                low = mid + 1;
-            } else if (targetUid > uid) {
-                high = mid - 1;
-            } else {
-                return mid;  // key found
-            }
-        }
-        return -(low + 1);  // key not found
+        return sequence.uidSearch(uid);
     }
 
     /** Returns the ImapMessage with the given Zimbra item ID from the
@@ -370,17 +371,23 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
             }
         }
 
-        // if item id and IMAP uid differ, the message goes in the "mMessageIds" map
+        // if item id and IMAP uid differ, the message goes in the "messageIds" index
         if (messageIds == null) {
-            // lookup miss means we need to generate the item-id-to-imap-message mapping
-            messageIds = new HashMap<Integer, ImapMessage>();
+            // lookup miss means we need to generate the item-id-to-imap-uid mapping
+            messageIds = new ImapSequence.IdIndex();
             for (ImapMessage i4msg : sequence) {
                 if (i4msg != null && i4msg.msgId != i4msg.imapUid) {
-                    messageIds.put(i4msg.msgId, i4msg);
+                    messageIds.put(i4msg.msgId, i4msg.imapUid);
                 }
             }
         }
-        return checkRemoved(messageIds.get(Integer.valueOf(id)));
+        int uid = messageIds.get(id);
+        if (uid <= 0) {
+            return null;
+        }
+        seq = uidSearch(uid);
+        ImapMessage i4msg = seq >= 0 ? sequence.get(seq) : null;
+        return i4msg != null && i4msg.msgId == id ? checkRemoved(i4msg) : null;
     }
 
     /** Returns the ImapMessage with the given IMAP UID from the folder's
@@ -417,7 +424,7 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
     /** Adds the message to the folder.  Messages <b>must</b> be added in
      *  increasing IMAP UID order.  Added messages are appended to the end of
      *  the folder's {@link #sequence} message list and inserted into the
-     *  {@link #mMessageIds} hash (if the latter hash has been instantiated).
+     *  {@link #messageIds} index (if the latter index has been instantiated).
      * @return true if message cached successfully without modification false if a renumber was required. */
     protected synchronized boolean cache(ImapMessage i4msg, boolean recent) {
         // provide the information missing from the DB search
@@ -432,8 +439,8 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
             }
         }
         // update the folder information
-        ImapMessage last = null;
-        if (sequence.size() > 0 && (last = sequence.get(sequence.size() - 1)).imapUid > i4msg.imapUid) {
+        ImapMessage last = sequence.last();
+        if (last != null && last.imapUid > i4msg.imapUid) {
             ZimbraLog.imap.debug("adding out of order UID. prev: %s current: %s", last, i4msg);
             if (!insertOutOfOrder(i4msg)) {
                 return false;
@@ -454,16 +461,12 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
     }
 
     private boolean insertOutOfOrder(ImapMessage i4msg) {
-        LinkedList<ImapMessage> shifted = new LinkedList<ImapMessage>();
-        int idx  = sequence.size() - 1;
+        int idx = sequence.size() - 1;
         while (idx > -1) {
             ImapMessage prev = sequence.get(idx);
             if (prev.imapUid <= i4msg.imapUid) {
                 break;
             } else if (prev.isAdded()) {
-                shifted.addFirst(prev);
-                //add to beginning so iteration below starts with lowest UID
-                //this is necessary to ensure that messageIds map holds the highest UID for a given msgId
                 idx--;
             } else {
                 ZimbraLog.imap.warn("message added out of order occurs before message which is already visible to client. Must renumber %s", i4msg);
@@ -477,10 +480,12 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
             }
         }
         idx++;
-        sequence.add(idx, i4msg);
+        sequence.insert(idx, i4msg);
         setIndex(i4msg, idx + 1);
-        for (ImapMessage shiftedMsg : shifted) {
-            setIndex(shiftedMsg, shiftedMsg.sequence + 1);
+        //renumber the shifted messages starting with the lowest UID
+        //this is necessary to ensure that messageIds index holds the highest UID for a given msgId
+        for (int i = idx + 1; i < sequence.size(); i++) {
+            setIndex(sequence.get(i), i + 1);
         }
         return true;
     }
@@ -508,9 +513,9 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
         i4msg.sequence = position;
         if (messageIds != null) {
             if (i4msg.msgId != i4msg.imapUid) {
-                messageIds.put(Integer.valueOf(i4msg.msgId), i4msg);
+                messageIds.put(i4msg.msgId, i4msg.imapUid);
             } else {
-                messageIds.remove(Integer.valueOf(i4msg.msgId));
+                messageIds.remove(i4msg.msgId);
             }
         }
     }
@@ -594,6 +599,10 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
         return names;
     }
 
+    ImapSequence getSequence() {
+        return sequence;
+    }
+
     protected ImapFlagCache getTagset() {
         return tags;
     }
@@ -713,9 +722,10 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
 
     protected synchronized ImapMessageSet getAllMessages() {
         ImapMessageSet result = new ImapMessageSet();
-        if (getSize() > 0) {
-            result.addAll(sequence);
-            result.remove(null);
+        for (ImapMessage i4msg : sequence) {
+            if (i4msg != null) {
+                result.add(i4msg);
+            }
         }
         return result;
     }
@@ -732,6 +742,59 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
         return result;
     }
 
+    /** Returns the same messages as {@link #getAllMessages()}, with bit
+     *  <tt>n - 1</tt> set for the message with sequence number <tt>n</tt>. */
+    protected synchronized BitSet getAllMessageBits() {
+        BitSet result = new BitSet(getSize());
+        for (int i = 0, size = getSize(); i < size; i++) {
+            if (sequence.get(i) != null) {
+                result.set(i);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the same messages as {@link #getFlaggedMessages(ImapFlag)},
+     *  with bit <tt>n - 1</tt> set for the message with sequence number
+     *  <tt>n</tt>. */
+    protected synchronized BitSet getFlaggedMessageBits(ImapFlag i4flag) {
+        BitSet result = new BitSet(getSize());
+        if (i4flag != null) {
+            for (int i = 0, size = getSize(); i < size; i++) {
+                ImapMessage i4msg = sequence.get(i);
+                if (i4msg != null && i4flag.matches(i4msg)) {
+                    result.set(i);
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Converts a set of this folder's messages to the bitset form used by
+     *  {@link #getAllMessageBits()}. */
+    protected static BitSet toBits(Collection<ImapMessage> i4set) {
+        BitSet result = new BitSet();
+        for (ImapMessage i4msg : i4set) {
+            if (i4msg != null) {
+                result.set(i4msg.sequence - 1);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the messages whose bits are set in <tt>bits</tt>, as produced
+     *  by {@link #getAllMessageBits()}. */
+    protected synchronized ImapMessageSet fromBits(BitSet bits) {
+        ImapMessageSet result = new ImapMessageSet();
+        for (int i = bits.nextSetBit(0), size = getSize(); i >= 0 && i < size; i = bits.nextSetBit(i + 1)) {
+            ImapMessage i4msg = sequence.get(i);
+            if (i4msg != null) {
+                result.add(i4msg);
+            }
+        }
+        return result;
+    }
+
     private static int parseId(String id) {
         // valid values will always be positive ints, so force it there...
         try {
@@ -1079,31 +1142,44 @@ public final class ImapFolder implements ImapListener.ImapFolderData, java.io.Se
         }
         ZimbraLog.imap.debug("  ** iterating (collapseExpunged)");
 
-        boolean trimmed = false;
-        int seq = 1;
+        // compact the sequence in place in a single pass
+        int size = sequence.size();
+        int kept = 0;
         List<Integer> removed = new ArrayList<Integer>();
-        for (ListIterator<ImapMessage> lit = sequence.listIterator(); lit.hasNext(); seq++) {
-            ImapMessage i4msg = lit.next();
+        for (int i = 0; i < size; i++) {
+            ImapMessage i4msg = sequence.get(i);
             if (i4msg.isExpunged()) {
                 ZimbraLog.imap.debug("  ** removing: %s", i4msg);
-                // uncache() removes pointers to the message from mMessageIds;
+                // uncache() removes pointers to the message from messageIds;
                 //   if the message appears again in sequence, it *must* be later and the
-                //   subsequent call to setIndex() will correctly update the mMessageIds mapping
+                //   subsequent call to setIndex() will correctly update the messageIds mapping
                 uncache(i4msg);
-                lit.remove();
                 // note that we can't send expunge notifications for messages the client doesn't know about yet...
                 if (!i4msg.isAdded()) {
-                    removed.add(byUID ? i4msg.imapUid : seq);
+                    removed.add(byUID ? i4msg.imapUid : kept + 1);
+                }
+            } else {
+                if (kept != i) {
+                    sequence.set(kept, i4msg);
+                    setIndex(i4msg, kept + 1);
                 }
-                seq--;
-                trimmed = true;
-            } else if (trimmed) {
-                setIndex(i4msg, seq);
+                kept++;
             }
         }
+        sequence.truncate(kept);
         return removed;
     }
 
+    private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        ImapFolderCodec.writeMessages(out, sequence);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        sequence = ImapFolderCodec.readMessages(in);
+    }
+
     protected synchronized void restore(ImapListener sess, SessionData sdata)
             throws ImapSessionClosedException, ServiceException {
         session = sess;
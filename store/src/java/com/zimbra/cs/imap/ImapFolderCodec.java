@@ -0,0 +1,441 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import org.ehcache.core.spi.service.FileBasedPersistenceContext;
+import org.ehcache.spi.serialization.Serializer;
+import org.ehcache.spi.serialization.SerializerException;
+
+import com.google.common.collect.ImmutableSet;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.mailbox.ItemIdentifier;
+import com.zimbra.cs.imap.ImapFlagCache.ImapFlag;
+import com.zimbra.cs.io.SecureObjectInputStream;
+import com.zimbra.cs.mailbox.MailItem;
+
+/**
+ * Binary format for the {@link ImapFolder} state kept in the IMAP session caches.
+ * <p>
+ * An encoded folder starts with a 4-byte magic number, a format version and an options byte, followed by the folder
+ * attributes, its tag cache and the message sequence. Messages are written column by column (see
+ * {@link #writeMessages}) so that UIDs delta-encode into one or two bytes each. Bodies larger than
+ * {@link LC#imap_session_cache_compress_threshold} are deflated at {@link Deflater#BEST_SPEED}.
+ * <p>
+ * Entries written by older servers with plain Java serialization are still readable; {@link #decode} falls back to
+ * {@link ObjectInputStream} when the magic number is missing.
+ */
+public final class ImapFolderCodec {
+
+    static final int MAGIC = 0x49344643; // "I4FC"
+    static final byte VERSION = 1;
+
+    private static final int OPT_DEFLATED = 0x01;
+
+    private static final int FLAG_POSITIVE = 0x01;
+    private static final int FLAG_PERMANENT = 0x02;
+    private static final int FLAG_LISTED = 0x04;
+
+    /** serialVersionUID of {@link ImapFolder} before its message list was replaced by {@link ImapSequence}. */
+    static final long LEGACY_SERIAL_VERSION = 3845968507901145794L;
+
+    /** Classes that may appear in a Java-serialized {@link ImapFolder}. */
+    private static final Set<String> LEGACY_CLASSES = ImmutableSet.of(
+            ImapFolder.class.getName(), LegacyImapFolder.class.getName(), ImapMessage.class.getName(),
+            ItemIdentifier.class.getName(), ImapFlagCache.class.getName(), ImapFlag.class.getName(),
+            MailItem.Type.class.getName(), Enum.class.getName(), "[Ljava.lang.Enum;", "[Ljava.lang.String;",
+            "java.util.EnumSet$SerializationProxy", "java.util.ArrayList", "java.util.HashMap",
+            "java.util.LinkedHashMap");
+
+    private ImapFolderCodec() {
+    }
+
+    /** Encodes the folder, deflating it if it is larger than the configured threshold. */
+    public static byte[] encode(ImapFolder i4folder) throws IOException {
+        return encode(i4folder, LC.imap_session_cache_compress_threshold.intValue());
+    }
+
+    static byte[] encode(ImapFolder i4folder, int compressThreshold) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(body);
+        synchronized (i4folder) {
+            writeFolder(out, i4folder);
+        }
+        out.flush();
+
+        boolean deflate = compressThreshold > 0 && body.size() > compressThreshold;
+        ByteArrayOutputStream result = new ByteArrayOutputStream(deflate ? body.size() / 4 + 16 : body.size() + 16);
+        DataOutputStream header = new DataOutputStream(result);
+        header.writeInt(MAGIC);
+        header.writeByte(VERSION);
+        header.writeByte(deflate ? OPT_DEFLATED : 0);
+        if (deflate) {
+            header.writeInt(body.size());
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try (DeflaterOutputStream dout = new DeflaterOutputStream(result, deflater, 8192)) {
+                body.writeTo(dout);
+            } finally {
+                deflater.end();
+            }
+        } else {
+            body.writeTo(result);
+        }
+        return result.toByteArray();
+    }
+
+    /** Decodes a folder written by {@link #encode}, or by Java serialization on an older server. */
+    public static ImapFolder decode(byte[] data) throws IOException {
+        if (!isEncoded(data)) {
+            return decodeLegacy(data);
+        }
+        byte version = data[4];
+        if (version > VERSION || version < 1) {
+            throw new StreamCorruptedException("unsupported ImapFolder encoding version " + version);
+        }
+        int options = data[5];
+        InputStream is = new ByteArrayInputStream(data, 6, data.length - 6);
+        Inflater inflater = null;
+        try {
+            if ((options & OPT_DEFLATED) != 0) {
+                is.skip(4); // uncompressed length, informational
+                inflater = new Inflater();
+                is = new InflaterInputStream(is, inflater, 8192);
+            }
+            return readFolder(new DataInputStream(is));
+        } finally {
+            if (inflater != null) {
+                inflater.end();
+            }
+        }
+    }
+
+    static boolean isEncoded(byte[] data) {
+        return data.length >= 6 && ByteBuffer.wrap(data).getInt() == MAGIC;
+    }
+
+    private static ImapFolder decodeLegacy(byte[] data) throws IOException {
+        try (ObjectInputStream in = new LegacyInputStream(new ByteArrayInputStream(data))) {
+            return (ImapFolder) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new InvalidObjectException("cannot read serialized ImapFolder: " + e);
+        }
+    }
+
+    /**
+     * Reads {@link ImapFolder}s serialized by older servers, which stored the message list as a plain
+     * {@code List<ImapMessage>} under a different serialVersionUID. Those entries are read into a
+     * {@link LegacyImapFolder} that has the same field layout and converted on {@code readResolve}.
+     */
+    private static final class LegacyInputStream extends SecureObjectInputStream {
+        LegacyInputStream(InputStream in) throws IOException {
+            super(in, LEGACY_CLASSES);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            ObjectStreamClass desc = super.readClassDescriptor();
+            if (desc.getName().equals(ImapFolder.class.getName())
+                    && desc.getSerialVersionUID() == LEGACY_SERIAL_VERSION) {
+                return ObjectStreamClass.lookup(LegacyImapFolder.class);
+            }
+            return desc;
+        }
+    }
+
+    /** Serialized form of {@link ImapFolder} as written by older servers; field names and types must not change. */
+    private static final class LegacyImapFolder implements Serializable {
+        private static final long serialVersionUID = LEGACY_SERIAL_VERSION;
+
+        private ItemIdentifier folderIdentifier;
+        private int uidValidity;
+        private String query;
+        private Set<MailItem.Type> typeConstraint;
+        private List<ImapMessage> sequence;
+        private ImapFlagCache tags;
+
+        private Object readResolve() throws ObjectStreamException {
+            if (folderIdentifier == null || tags == null) {
+                throw new InvalidObjectException("incomplete serialized ImapFolder");
+            }
+            ImapSequence messages = new ImapSequence();
+            if (sequence != null) {
+                for (ImapMessage i4msg : sequence) {
+                    i4msg.sequence = messages.size() + 1;
+                    messages.add(i4msg);
+                }
+            }
+            return new ImapFolder(folderIdentifier, uidValidity, query,
+                    typeConstraint == null ? ImapHandler.ITEM_TYPES : typeConstraint, tags, messages);
+        }
+    }
+
+    private static void writeFolder(DataOutput out, ImapFolder i4folder) throws IOException {
+        ItemIdentifier iid = i4folder.getItemIdentifier();
+        writeString(out, iid.accountId);
+        out.writeInt(iid.id);
+        out.writeInt(iid.subPartId);
+        out.writeInt(i4folder.getUIDValidity());
+        writeString(out, i4folder.isVirtual() ? i4folder.getQuery() : null);
+
+        Set<MailItem.Type> types = i4folder.getTypeConstraint();
+        writeVarint(out, types.size());
+        for (MailItem.Type type : types) {
+            out.writeByte(type.toByte());
+        }
+
+        List<ImapFlag> flags = new ArrayList<ImapFlag>();
+        for (ImapFlag i4flag : i4folder.getTagset()) {
+            flags.add(i4flag);
+        }
+        writeVarint(out, flags.size());
+        for (ImapFlag i4flag : flags) {
+            out.writeUTF(i4flag.mName);
+            out.writeUTF(i4flag.mImapName);
+            out.writeInt(i4flag.mId);
+            out.writeLong(i4flag.mBitmask);
+            out.writeByte((i4flag.mPositive ? FLAG_POSITIVE : 0) | (i4flag.mPermanent ? FLAG_PERMANENT : 0) |
+                    (i4flag.mListed ? FLAG_LISTED : 0));
+        }
+
+        writeMessages(out, i4folder.getSequence());
+    }
+
+    private static ImapFolder readFolder(DataInput in) throws IOException {
+        String accountId = readString(in);
+        int id = in.readInt();
+        int subPartId = in.readInt();
+        ItemIdentifier iid = new ItemIdentifier(accountId, id, subPartId);
+        int uidValidity = in.readInt();
+        String query = readString(in);
+
+        int count = readVarint(in);
+        Set<MailItem.Type> types = EnumSet.noneOf(MailItem.Type.class);
+        for (int i = 0; i < count; i++) {
+            MailItem.Type type = MailItem.Type.of(in.readByte());
+            if (type == MailItem.Type.UNKNOWN) {
+                throw new InvalidObjectException("unknown item type in type constraint");
+            }
+            types.add(type);
+        }
+        if (types.equals(ImapHandler.ITEM_TYPES)) {
+            types = ImapHandler.ITEM_TYPES;
+        }
+
+        ImapFlagCache tags = new ImapFlagCache();
+        count = readVarint(in);
+        for (int i = 0; i < count; i++) {
+            String name = in.readUTF();
+            String imapName = in.readUTF();
+            int tagId = in.readInt();
+            long bitmask = in.readLong();
+            int bits = in.readByte();
+            tags.cache(new ImapFlag(name, imapName, tagId, bitmask, (bits & FLAG_POSITIVE) != 0,
+                    (bits & FLAG_PERMANENT) != 0, (bits & FLAG_LISTED) != 0));
+        }
+
+        return new ImapFolder(iid, uidValidity, query, types, tags, readMessages(in));
+    }
+
+    /**
+     * Writes the message sequence column by column rather than as a list of {@link ImapMessage} objects: UIDs as
+     * deltas from the previous UID, item IDs as the difference from the UID (usually 0), flags as variable-length
+     * ints, and tag names through a table so that each distinct name is written once.
+     */
+    static void writeMessages(DataOutput out, ImapSequence sequence) throws IOException {
+        int size = sequence.size();
+        out.writeInt(size);
+        int prevUid = 0;
+        for (int i = 0; i < size; i++) {
+            int uid = sequence.uidAt(i);
+            writeVarint(out, uid - prevUid);
+            prevUid = uid;
+        }
+        for (ImapMessage i4msg : sequence) {
+            writeVarint(out, zigzag(i4msg.msgId - i4msg.imapUid));
+        }
+        for (ImapMessage i4msg : sequence) {
+            writeVarint(out, i4msg.flags);
+        }
+        for (ImapMessage i4msg : sequence) {
+            writeVarint(out, i4msg.sflags & 0xffff);
+        }
+        Map<String, Integer> tagTable = new HashMap<String, Integer>();
+        for (ImapMessage i4msg : sequence) {
+            String[] msgTags = i4msg.tags;
+            int count = msgTags == null ? 0 : msgTags.length;
+            writeVarint(out, count);
+            for (int t = 0; t < count; t++) {
+                Integer ref = tagTable.get(msgTags[t]);
+                if (ref != null) {
+                    writeVarint(out, ref);
+                } else {
+                    writeVarint(out, tagTable.size());
+                    out.writeUTF(msgTags[t]);
+                    tagTable.put(msgTags[t], tagTable.size());
+                }
+            }
+        }
+    }
+
+    /** Reads a message sequence written by {@link #writeMessages}, renumbering the messages from 1. */
+    static ImapSequence readMessages(DataInput in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            throw new InvalidObjectException("invalid message count " + size);
+        }
+        int[] uids = new int[size];
+        int uid = 0;
+        for (int i = 0; i < size; i++) {
+            uids[i] = uid += readVarint(in);
+        }
+        int[] ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = uids[i] + unzigzag(readVarint(in));
+        }
+        int[] flags = new int[size];
+        for (int i = 0; i < size; i++) {
+            flags[i] = readVarint(in);
+        }
+        short[] sflags = new short[size];
+        for (int i = 0; i < size; i++) {
+            sflags[i] = (short) readVarint(in);
+        }
+        ImapSequence sequence = new ImapSequence();
+        List<String> tagTable = new ArrayList<String>();
+        for (int i = 0; i < size; i++) {
+            String[] msgTags = null;
+            int count = readVarint(in);
+            if (count > 0) {
+                msgTags = new String[count];
+                for (int t = 0; t < count; t++) {
+                    int ref = readVarint(in);
+                    if (ref == tagTable.size()) {
+                        tagTable.add(in.readUTF());
+                    } else if (ref > tagTable.size()) {
+                        throw new InvalidObjectException("invalid tag reference " + ref);
+                    }
+                    msgTags[t] = tagTable.get(ref);
+                }
+            }
+            ImapMessage i4msg = new ImapMessage(ids[i], MailItem.Type.MESSAGE, uids[i], flags[i], msgTags);
+            i4msg.sflags = sflags[i];
+            i4msg.sequence = i + 1;
+            sequence.add(i4msg);
+        }
+        return sequence;
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static int zigzag(int n) {
+        return (n << 1) ^ (n >> 31);
+    }
+
+    private static int unzigzag(int n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    private static void writeVarint(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarint(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidObjectException("malformed varint");
+    }
+
+    /** Lets Ehcache store {@link ImapFolder} values in the compact format instead of Java serialization. */
+    public static final class EhcacheSerializer implements Serializer<ImapFolder> {
+
+        public EhcacheSerializer(ClassLoader loader) {
+        }
+
+        /** Ehcache requires this constructor for serializers of persistent disk tiers; the format is stateless. */
+        public EhcacheSerializer(ClassLoader loader, FileBasedPersistenceContext persistence) {
+        }
+
+        @Override
+        public ByteBuffer serialize(ImapFolder i4folder) throws SerializerException {
+            try {
+                return ByteBuffer.wrap(encode(i4folder));
+            } catch (IOException e) {
+                throw new SerializerException(e);
+            }
+        }
+
+        @Override
+        public ImapFolder read(ByteBuffer binary) throws SerializerException {
+            byte[] data = new byte[binary.remaining()];
+            binary.get(data);
+            try {
+                return decode(data);
+            } catch (IOException e) {
+                throw new SerializerException(e);
+            }
+        }
+
+        @Override
+        public boolean equals(ImapFolder i4folder, ByteBuffer binary) throws SerializerException {
+            return serialize(i4folder).equals(binary);
+        }
+    }
+}
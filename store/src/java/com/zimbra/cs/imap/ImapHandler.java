@@ -24,6 +24,7 @@ import java.net.URLEncoder;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -96,6 +97,7 @@ import com.zimbra.cs.imap.ImapCredentials.EnabledHack;
 import com.zimbra.cs.imap.ImapFlagCache.ImapFlag;
 import com.zimbra.cs.imap.ImapMessage.ImapMessageSet;
 import com.zimbra.cs.imap.ImapParseException.ImapMaximumSizeExceededException;
+import com.zimbra.cs.imap.ImapSearch.AndOperation;
 import com.zimbra.cs.imap.ImapSessionManager.FolderDetails;
 import com.zimbra.cs.imap.ImapSessionManager.InitialFolderValues;
 import com.zimbra.cs.index.SearchParams;
@@ -106,6 +108,7 @@ import com.zimbra.cs.mailbox.MailItem;
 import com.zimbra.cs.mailbox.MailServiceException;
 import com.zimbra.cs.mailbox.MailServiceException.NoSuchItemException;
 import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.mailbox.Message;
 import com.zimbra.cs.mailbox.OperationContext;
 import com.zimbra.cs.mailbox.Tag;
 import com.zimbra.cs.mailclient.imap.IDInfo;
@@ -119,6 +122,7 @@ import com.zimbra.cs.service.admin.AdminAccessControl;
 import com.zimbra.cs.service.admin.FlushCache;
 import com.zimbra.cs.service.mail.FolderAction;
 import com.zimbra.cs.service.util.ItemId;
+import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.util.AccountUtil;
 import com.zimbra.cs.util.BuildInfo;
 import com.zimbra.soap.admin.type.CacheEntrySelector;
@@ -3522,23 +3526,58 @@ public abstract class ImapHandler {
             if (unsorted && (mboxStore instanceof Mailbox) && i4search.canBeRunLocally()) {
                 mboxStore.lock(false);
                 try {
-                    hits = i4search.evaluate(i4folder);
-                    hits.remove(null);
+                    hits = i4folder.fromBits(i4search.evaluateBits(i4folder));
                 } finally {
                     mboxStore.unlock();
                 }
+                ZimbraPerf.COUNTER_IMAP_SEARCH_LOCAL.increment();
             } else {
+                // for a top-level AND, evaluate the terms answerable from folder state in memory, then use the
+                //   matches both to narrow the index query and to filter its hits
+                ImapSearch indexed = i4search;
+                BitSet localMatches = null;
+                if ((mboxStore instanceof Mailbox) && (i4search instanceof AndOperation)) {
+                    AndOperation local = new AndOperation();
+                    AndOperation remote = new AndOperation();
+                    ((AndOperation) i4search).partition(local, remote);
+                    if (!local.isEmpty()) {
+                        mboxStore.lock(false);
+                        try {
+                            localMatches = local.evaluateBits(i4folder);
+                            if (!localMatches.isEmpty() && localMatches.cardinality() <= LARGEST_FOLDER_BATCH) {
+                                remote.addChild(new ImapSearch.MessageSetSearch(i4folder.fromBits(localMatches)));
+                            }
+                        } finally {
+                            mboxStore.unlock();
+                        }
+                        if (remote.isEmpty()) {
+                            remote.addChild(new ImapSearch.AllSearch());
+                        }
+                        indexed = remote;
+                    }
+                }
+
                 hits = unsorted ? new ImapMessageSet() : new ArrayList<ImapMessage>();
-                try (ZimbraQueryHitResults zqr = runSearch(i4search, i4folder, sort,
-                    requiresMODSEQ ? SearchParams.Fetch.MODSEQ : SearchParams.Fetch.IDS)) {
-                    for (ZimbraQueryHit hit = zqr.getNext(); hit != null; hit = zqr.getNext()) {
-                        ImapMessage i4msg = i4folder.getById(hit.getItemId());
-                        if (i4msg == null || i4msg.isExpunged()) {
-                            continue;
+                if (localMatches == null) {
+                    ZimbraPerf.COUNTER_IMAP_SEARCH_INDEX.increment();
+                } else {
+                    ZimbraPerf.COUNTER_IMAP_SEARCH_HYBRID.increment();
+                }
+                if (localMatches == null || !localMatches.isEmpty()) {
+                    try (ZimbraQueryHitResults zqr = runSearch(indexed, i4folder, sort,
+                        requiresMODSEQ ? SearchParams.Fetch.MODSEQ : SearchParams.Fetch.IDS)) {
+                        for (ZimbraQueryHit hit = zqr.getNext(); hit != null; hit = zqr.getNext()) {
+                            ImapMessage i4msg = i4folder.getById(hit.getItemId());
+                            if (i4msg == null || i4msg.isExpunged()) {
+                                continue;
+                            }
+                            if (localMatches != null && (i4msg.sequence < 1 || !localMatches.get(i4msg.sequence - 1))) {
+                                continue;
+                            }
+                            hits.add(i4msg);
+                            if (requiresMODSEQ)
+                                modseq = Math.max(modseq, hit.getModifiedSequence());
                         }
-                        hits.add(i4msg);
-                        if (requiresMODSEQ)
-                            modseq = Math.max(modseq, hit.getModifiedSequence());
                     }
                 }
             }
@@ -3884,144 +3923,191 @@ public abstract class ImapHandler {
         } finally {
             mbox.unlock();
         }
+        boolean needItem = !fullMessage.isEmpty() || (parts != null && !parts.isEmpty()) ||
+                (attributes & ~FETCH_FROM_CACHE) != 0;
+        int batchSize = Math.max(LC.imap_fetch_batch_size.intValue(), 1);
+        List<ImapMessage> messages = new ArrayList<ImapMessage>(i4set);
+        PrintStream stream = new PrintStream(output, false, Charsets.UTF_8.name());
         ReentrantLock lock = null;
         try {
-            for (ImapMessage i4msg : i4set) {
-                PrintStream result = new PrintStream(output, false, Charsets.UTF_8.name());
-                try {
-                    result.print("* " + i4msg.sequence + " FETCH (");
-
-                    if (i4msg.isExpunged()) {
-                        fetchStub(i4msg, i4folder, attributes, parts, fullMessage, result);
-                        continue;
+            for (int from = 0; from < messages.size(); from += batchSize) {
+                List<ImapMessage> chunk = messages.subList(from, Math.min(from + batchSize, messages.size()));
+                Map<ImapMessage, ZimbraMailItem> prefetched = Collections.emptyMap();
+                if (needItem) {
+                    if (lock == null && LC.imap_throttle_fetch.booleanValue()) {
+                        lock = commandThrottle.lock(credentials.getAccountId());
                     }
+                    prefetched = prefetchItems(mbox, i4folder, chunk);
+                }
+                for (ImapMessage i4msg : chunk) {
+                    PrintStream result = stream;
+                    try {
+                        result.print("* ");
+                        result.print(i4msg.sequence);
+                        result.print(" FETCH (");
 
-                    boolean markMessage = markRead && (i4msg.flags & Flag.BITMASK_UNREAD) != 0;
-                    boolean empty = true;
-                    ZimbraMailItem item = null;
-                    MimeMessage mm;
-                    if (!fullMessage.isEmpty() || (parts != null && !parts.isEmpty()) || (attributes & ~FETCH_FROM_CACHE) != 0) {
-                        if (lock == null && LC.imap_throttle_fetch.booleanValue()) {
-                            lock = commandThrottle.lock(credentials.getAccountId());
-                        }
-                        try {
-                            String folderOwner = i4folder.getFolder().getFolderItemIdentifier().accountId;
-                            ItemIdentifier iid = ItemIdentifier.fromAccountIdAndItemId(
-                                    (folderOwner != null) ? folderOwner : mbox.getAccountId(), i4msg.msgId);
-                            item = mbox.getItemById(getContext(), iid, i4msg.getType().toCommon());
-                        } catch (NoSuchItemException nsie) {
-                            // just in case we're out of sync, force this message back into sync
-                            i4folder.markMessageExpunged(i4msg);
+                        if (i4msg.isExpunged()) {
                             fetchStub(i4msg, i4folder, attributes, parts, fullMessage, result);
                             continue;
                         }
-                    }
 
-                    if ((attributes & FETCH_UID) != 0) {
-                        result.print((empty ? "" : " ") + "UID " + i4msg.imapUid);
-                        empty = false;
-                    }
-                    if ((attributes & FETCH_INTERNALDATE) != 0) {
-                        result.print((empty ? "" : " ") + "INTERNALDATE \"" +
-                                DateUtil.toImapDateTime(new Date(item.getDate())) + '"');
-                        empty = false;
-                    }
-                    if ((attributes & FETCH_RFC822_SIZE) != 0) {
-                        result.print((empty ? "" : " ") + "RFC822.SIZE " + i4msg.getSize(item));
-                        empty = false;
-                    }
-                    if ((attributes & FETCH_BINARY_SIZE) != 0) {
-                        result.print((empty ? "" : " ") + "BINARY.SIZE[] " + i4msg.getSize(item));
-                        empty = false;
-                    }
+                        boolean markMessage = markRead && (i4msg.flags & Flag.BITMASK_UNREAD) != 0;
+                        boolean empty = true;
+                        ZimbraMailItem item = null;
+                        MimeMessage mm = null;
+                        if (needItem && (item = prefetched.get(i4msg)) == null) {
+                            try {
+                                String folderOwner = i4folder.getFolder().getFolderItemIdentifier().accountId;
+                                ItemIdentifier iid = ItemIdentifier.fromAccountIdAndItemId(
+                                        (folderOwner != null) ? folderOwner : mbox.getAccountId(), i4msg.msgId);
+                                item = mbox.getItemById(getContext(), iid, i4msg.getType().toCommon());
+                            } catch (NoSuchItemException nsie) {
+                                // just in case we're out of sync, force this message back into sync
+                                i4folder.markMessageExpunged(i4msg);
+                                fetchStub(i4msg, i4folder, attributes, parts, fullMessage, result);
+                                continue;
+                            }
+                        }
 
-                    if (!fullMessage.isEmpty()) {
-                        for (ImapPartSpecifier pspec : fullMessage) {
-                            result.print(empty ? "" : " ");
-                            pspec.write(result, output, item);
+                        if ((attributes & FETCH_UID) != 0) {
+                            result.print((empty ? "" : " ") + "UID " + i4msg.imapUid);
                             empty = false;
                         }
-                    }
-
-                    if ((parts != null && !parts.isEmpty()) || (attributes & FETCH_FROM_MIME) != 0) {
-                        mm = ImapMessage.getMimeMessage(item);
-                        if ((attributes & FETCH_BODY) != 0) {
-                            result.print(empty ? "" : " ");
-                            result.print("BODY ");
-                            ImapMessage.serializeStructure(result, mm, false);
+                        if ((attributes & FETCH_INTERNALDATE) != 0) {
+                            result.print((empty ? "" : " ") + "INTERNALDATE \"" +
+                                    DateUtil.toImapDateTime(new Date(item.getDate())) + '"');
                             empty = false;
                         }
-                        if ((attributes & FETCH_BODYSTRUCTURE) != 0) {
-                            result.print(empty ? "" : " ");
-                            result.print("BODYSTRUCTURE ");
-                            ImapMessage.serializeStructure(result, mm, true);
+                        if ((attributes & FETCH_RFC822_SIZE) != 0) {
+                            result.print((empty ? "" : " ") + "RFC822.SIZE " + i4msg.getSize(item));
                             empty = false;
                         }
-                        if ((attributes & FETCH_ENVELOPE) != 0) {
-                            result.print(empty ? "" : " ");
-                            result.print("ENVELOPE ");
-                            ImapMessage.serializeEnvelope(result, mm);
+                        if ((attributes & FETCH_BINARY_SIZE) != 0) {
+                            result.print((empty ? "" : " ") + "BINARY.SIZE[] " + i4msg.getSize(item));
                             empty = false;
                         }
-                        if (parts != null) {
-                            for (ImapPartSpecifier pspec : parts) {
+
+                        if (!fullMessage.isEmpty()) {
+                            for (ImapPartSpecifier pspec : fullMessage) {
                                 result.print(empty ? "" : " ");
-                                pspec.write(result, output, mm);
+                                pspec.write(result, output, item);
                                 empty = false;
                             }
                         }
-                    }
 
-                    // 6.4.5: "The \Seen flag is implicitly set; if this causes the flags to
-                    //         change, they SHOULD be included as part of the FETCH responses."
-                    // FIXME: optimize by doing a single mark-read op on multiple messages
-                    if (markMessage) {
-                        String folderOwner = i4folder.getFolder().getFolderItemIdentifier().accountId;
-                        ItemIdentifier iid = ItemIdentifier.fromAccountIdAndItemId(
-                                (folderOwner != null) ? folderOwner : mbox.getAccountId(), i4msg.msgId);
-                        mbox.flagItemAsRead(getContext(), iid, i4msg.getMailItemType());
-                    }
-                    ImapFolder.DirtyMessage unsolicited = i4folder.undirtyMessage(i4msg);
-                    if ((attributes & FETCH_FLAGS) != 0 || unsolicited != null) {
-                        result.print(empty ? "" : " ");
-                        result.print(i4msg.getFlags(i4folder));
-                        empty = false;
-                    }
+                        if ((parts != null && !parts.isEmpty()) || (attributes & FETCH_FROM_MIME) != 0) {
+                            // ENVELOPE, BODY and BODYSTRUCTURE were rendered at delivery if we have a summary
+                            ImapMessageSummary summary = item instanceof Message ? ((Message) item).getImapSummary() : null;
+                            if (summary == null) {
+                                mm = ImapMessage.getMimeMessage(item);
+                            }
+                            if ((attributes & FETCH_BODY) != 0) {
+                                result.print(empty ? "" : " ");
+                                result.print("BODY ");
+                                if (summary != null) {
+                                    result.print(summary.getBody());
+                                } else {
+                                    ImapMessage.serializeStructure(result, mm, false);
+                                }
+                                empty = false;
+                            }
+                            if ((attributes & FETCH_BODYSTRUCTURE) != 0) {
+                                result.print(empty ? "" : " ");
+                                result.print("BODYSTRUCTURE ");
+                                if (summary != null) {
+                                    result.print(summary.getBodyStructure());
+                                } else {
+                                    ImapMessage.serializeStructure(result, mm, true);
+                                }
+                                empty = false;
+                            }
+                            if ((attributes & FETCH_ENVELOPE) != 0) {
+                                result.print(empty ? "" : " ");
+                                result.print("ENVELOPE ");
+                                if (summary != null) {
+                                    result.print(summary.getEnvelope());
+                                } else {
+                                    ImapMessage.serializeEnvelope(result, mm);
+                                }
+                                empty = false;
+                            }
+                            if (parts != null) {
+                                MimeMessage headers = null;
+                                for (ImapPartSpecifier pspec : parts) {
+                                    result.print(empty ? "" : " ");
+                                    if (mm == null && pspec.isMessageHeader()) {
+                                        // header-only requests just need the top-level header block parsed,
+                                        // unless the whole message is already in the MessageCache
+                                        if (headers == null) {
+                                            headers = ((Message) item).getCachedMimeMessage();
+                                            if (headers == null) {
+                                                headers = summary.parseHeaders((Message) item);
+                                            }
+                                        }
+                                        pspec.write(result, output, headers);
+                                    } else {
+                                        if (mm == null) {
+                                            mm = ImapMessage.getMimeMessage(item);
+                                        }
+                                        pspec.write(result, output, mm);
+                                    }
+                                    empty = false;
+                                }
+                            }
+                        }
 
-                    // RFC 4551 3.2: "Once the client specified the MODSEQ message data item in a
-                    //                FETCH request, the server MUST include the MODSEQ fetch response
-                    //                data items in all subsequent unsolicited FETCH responses."
-                    if ((attributes & FETCH_MODSEQ) != 0 || (modseqEnabled && unsolicited != null)) {
-                        int modseq = unsolicited == null ? item.getModifiedSequence() : unsolicited.modseq;
-                        result.print((empty ? "" : " ") + "MODSEQ (" + modseq + ')');  empty = false;
-                    }
-                } catch (ImapPartSpecifier.BinaryDecodingException e) {
-                    // don't write this response line if we're returning NO
-                    result = null;
-                    throw new ImapParseException(tag, "UNKNOWN-CTE", command + "failed: unknown content-type-encoding", false);
-                } catch (SoapFaultException e) {
-                    fetchException(e);
-                } catch (ServiceException e) {
-                    Throwable cause = e.getCause();
-                    if (cause instanceof IOException) {
-                        fetchException(cause);
-                    } else {
+                        // 6.4.5: "The \Seen flag is implicitly set; if this causes the flags to
+                        //         change, they SHOULD be included as part of the FETCH responses."
+                        // FIXME: optimize by doing a single mark-read op on multiple messages
+                        if (markMessage) {
+                            String folderOwner = i4folder.getFolder().getFolderItemIdentifier().accountId;
+                            ItemIdentifier iid = ItemIdentifier.fromAccountIdAndItemId(
+                                    (folderOwner != null) ? folderOwner : mbox.getAccountId(), i4msg.msgId);
+                            mbox.flagItemAsRead(getContext(), iid, i4msg.getMailItemType());
+                        }
+                        ImapFolder.DirtyMessage unsolicited = i4folder.undirtyMessage(i4msg);
+                        if ((attributes & FETCH_FLAGS) != 0 || unsolicited != null) {
+                            result.print(empty ? "" : " ");
+                            result.print(i4msg.getFlags(i4folder));
+                            empty = false;
+                        }
+
+                        // RFC 4551 3.2: "Once the client specified the MODSEQ message data item in a
+                        //                FETCH request, the server MUST include the MODSEQ fetch response
+                        //                data items in all subsequent unsolicited FETCH responses."
+                        if ((attributes & FETCH_MODSEQ) != 0 || (modseqEnabled && unsolicited != null)) {
+                            int modseq = unsolicited == null ? item.getModifiedSequence() : unsolicited.modseq;
+                            result.print((empty ? "" : " ") + "MODSEQ (" + modseq + ')');  empty = false;
+                        }
+                    } catch (ImapPartSpecifier.BinaryDecodingException e) {
+                        // don't write this response line if we're returning NO
+                        result = null;
+                        throw new ImapParseException(tag, "UNKNOWN-CTE", command + "failed: unknown content-type-encoding", false);
+                    } catch (SoapFaultException e) {
+                        fetchException(e);
+                    } catch (ServiceException e) {
+                        Throwable cause = e.getCause();
+                        if (cause instanceof IOException) {
+                            fetchException(cause);
+                        } else {
+                            ZimbraLog.imap.warn("ignoring error during " + command + ": ", e);
+                            continue;
+                        }
+                    } catch (MessagingException e) {
                         ZimbraLog.imap.warn("ignoring error during " + command + ": ", e);
                         continue;
+                    } catch (IOException ioe) {
+                        fetchException(ioe);
                     }
-                } catch (MessagingException e) {
-                    ZimbraLog.imap.warn("ignoring error during " + command + ": ", e);
-                    continue;
-                } catch (IOException ioe) {
-                    fetchException(ioe);
-                }
-                finally {
-                    if (result != null) {
-                        result.write(')');
-                        output.write(LINE_SEPARATOR_BYTES, 0, LINE_SEPARATOR_BYTES.length);
-                        output.flush();
+                    finally {
+                        if (result != null) {
+                            result.write(')');
+                            output.write(LINE_SEPARATOR_BYTES, 0, LINE_SEPARATOR_BYTES.length);
+                        }
                     }
                 }
+                // the output stream buffers a bounded amount on its own, so responses still stream out mid-chunk
+                output.flush();
             }
         } finally {
             if (lock != null) {
@@ -4035,6 +4121,50 @@ public abstract class ImapHandler {
         return true;
     }
 
+    /**
+     * Looks up the items behind a chunk of FETCHed messages at once, so that messages missing from the item cache
+     * cost one database query per chunk instead of one each. Messages left out of the returned map, all of them if
+     * any one item is gone, are looked up one at a time by the caller, which also deals with the missing ones.
+     */
+    private Map<ImapMessage, ZimbraMailItem> prefetchItems(MailboxStore mbox, ImapFolder i4folder,
+            List<ImapMessage> chunk) {
+        List<ImapMessage> present = new ArrayList<ImapMessage>(chunk.size());
+        for (ImapMessage i4msg : chunk) {
+            if (!i4msg.isExpunged()) {
+                present.add(i4msg);
+            }
+        }
+        // a remote mailbox fetches items one by one either way
+        if (present.size() < 2 || !(mbox instanceof Mailbox)) {
+            return Collections.emptyMap();
+        }
+        try {
+            String folderOwner = i4folder.getFolder().getFolderItemIdentifier().accountId;
+            String accountId = folderOwner != null ? folderOwner : mbox.getAccountId();
+            List<ItemIdentifier> iids = new ArrayList<ItemIdentifier>(present.size());
+            for (ImapMessage i4msg : present) {
+                iids.add(ItemIdentifier.fromAccountIdAndItemId(accountId, i4msg.msgId));
+            }
+            List<ZimbraMailItem> items = mbox.getItemsById(getContext(), iids);
+            if (items.size() != present.size()) {
+                return Collections.emptyMap();
+            }
+            Map<ImapMessage, ZimbraMailItem> prefetched = new HashMap<ImapMessage, ZimbraMailItem>(present.size() * 2);
+            for (int i = 0; i < items.size(); i++) {
+                ZimbraMailItem item = items.get(i);
+                ImapMessage i4msg = present.get(i);
+                // getItemsById() doesn't check the type the way getItemById() does; leave mismatches to the caller
+                if (item instanceof MailItem && ((MailItem) item).isAcceptableType(i4msg.getType())) {
+                    prefetched.put(i4msg, item);
+                }
+            }
+            return prefetched;
+        } catch (ServiceException e) {
+            ZimbraLog.imap.debug("FETCH prefetch of %d items failed, looking them up one by one", present.size(), e);
+            return Collections.emptyMap();
+        }
+    }
+
     private void fetchException(Throwable cause) throws ImapIOException {
         final String msg = "IOException fetching IMAP message (" +
                 (cause != null ? cause.getMessage() : "null") + "), closing connection";
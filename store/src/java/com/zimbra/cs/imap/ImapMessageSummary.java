@@ -0,0 +1,165 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import com.google.common.base.Charsets;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ByteUtil;
+import com.zimbra.cs.mailbox.Message;
+import com.zimbra.cs.mailbox.Metadata;
+import com.zimbra.cs.mime.Mime;
+import com.zimbra.cs.util.JMSession;
+
+/**
+ * The IMAP {@code ENVELOPE}, {@code BODY} and {@code BODYSTRUCTURE} of a message, rendered once at delivery and
+ * stored in the {@link Message}'s metadata, along with the length of the message's top-level header block.  Lets
+ * FETCH answer those items, and {@code BODY[HEADER.FIELDS (...)]}, without reparsing the whole blob.
+ */
+public final class ImapMessageSummary {
+
+    /** Bump whenever {@link ImapMessage}'s serialization changes; summaries of other versions are ignored. */
+    static final int VERSION = 1;
+
+    private static final String FN_VERSION = "v";
+    private static final String FN_ENVELOPE = "e";
+    private static final String FN_BODY = "b";
+    private static final String FN_BODYSTRUCTURE = "bs";
+    private static final String FN_HEADER_LENGTH = "hl";
+
+    private final String envelope;
+    private final String body;
+    private final String bodyStructure;
+    private final long headerLength;
+
+    private ImapMessageSummary(String envelope, String body, String bodyStructure, long headerLength) {
+        this.envelope = envelope;
+        this.body = body;
+        this.bodyStructure = bodyStructure;
+        this.headerLength = headerLength;
+    }
+
+    /**
+     * Renders the summary of a message.  {@code mm} must have been parsed from exactly the bytes in {@code raw},
+     * which are the bytes that get stored as the message blob.  Returns {@code null} if the rendered summary is
+     * longer than {@code imap_message_summary_max_length}.
+     */
+    public static ImapMessageSummary compute(MimeMessage mm, InputStream raw) throws IOException, MessagingException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(256);
+        PrintStream ps = new PrintStream(baos, false, Charsets.UTF_8.name());
+        ImapMessage.serializeEnvelope(ps, mm);
+        String envelope = drain(ps, baos);
+        ImapMessage.serializeStructure(ps, mm, false);
+        String body = drain(ps, baos);
+        ImapMessage.serializeStructure(ps, mm, true);
+        String bodyStructure = drain(ps, baos);
+        if (envelope.length() + body.length() + bodyStructure.length() > LC.imap_message_summary_max_length.intValue()) {
+            return null;
+        }
+        return new ImapMessageSummary(envelope, body, bodyStructure, headerLength(raw));
+    }
+
+    private static String drain(PrintStream ps, ByteArrayOutputStream baos) {
+        ps.flush();
+        String rendered = new String(baos.toByteArray(), Charsets.UTF_8);
+        baos.reset();
+        return rendered;
+    }
+
+    /** Returns the number of bytes up to and including the blank line that ends the top-level header block. */
+    static long headerLength(InputStream raw) throws IOException {
+        InputStream is = new BufferedInputStream(raw, 8192);
+        try {
+            long position = 0;
+            boolean lineStart = true;
+            for (int c; (c = is.read()) != -1; ) {
+                position++;
+                if (c == '\n') {
+                    if (lineStart) {
+                        return position;
+                    }
+                    lineStart = true;
+                } else if (c != '\r') {
+                    lineStart = false;
+                }
+            }
+            return position;
+        } finally {
+            ByteUtil.closeStream(is);
+        }
+    }
+
+    public Metadata encodeMetadata() {
+        Metadata meta = new Metadata();
+        meta.put(FN_VERSION, VERSION);
+        meta.put(FN_ENVELOPE, envelope);
+        meta.put(FN_BODY, body);
+        meta.put(FN_BODYSTRUCTURE, bodyStructure);
+        meta.put(FN_HEADER_LENGTH, headerLength);
+        return meta;
+    }
+
+    /** Returns the decoded summary, or {@code null} if it was rendered by a different version of this class. */
+    public static ImapMessageSummary decodeMetadata(Metadata meta) throws ServiceException {
+        if (meta == null || meta.getLong(FN_VERSION, 0) != VERSION) {
+            return null;
+        }
+        return new ImapMessageSummary(meta.get(FN_ENVELOPE), meta.get(FN_BODY), meta.get(FN_BODYSTRUCTURE),
+                meta.getLong(FN_HEADER_LENGTH));
+    }
+
+    String getEnvelope() {
+        return envelope;
+    }
+
+    String getBody() {
+        return body;
+    }
+
+    String getBodyStructure() {
+        return bodyStructure;
+    }
+
+    /**
+     * Parses just the top-level header block of {@code msg}.  The result answers {@code HEADER},
+     * {@code HEADER.FIELDS} and {@code HEADER.FIELDS.NOT} requests on the message itself, and nothing else.
+     */
+    MimeMessage parseHeaders(Message msg) throws ServiceException {
+        InputStream is = null;
+        try {
+            is = new ByteUtil.SegmentInputStream(msg.getContentStream(), headerLength);
+            Mime.FixedMimeMessage mm = new Mime.FixedMimeMessage(JMSession.getSession(), is);
+            mm.setProperty("mail.mime.charset", msg.getAccount().getPrefMailDefaultCharset());
+            return mm;
+        } catch (IOException e) {
+            throw ServiceException.FAILURE("error reading headers of message " + msg.getId(), e);
+        } catch (MessagingException e) {
+            throw ServiceException.FAILURE("error parsing headers of message " + msg.getId(), e);
+        } finally {
+            ByteUtil.closeStream(is);
+        }
+    }
+}
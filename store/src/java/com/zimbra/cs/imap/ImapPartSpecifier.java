@@ -38,6 +38,9 @@ import com.zimbra.common.util.StartOutOfBoundsException;
 import com.zimbra.common.util.StringUtil;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.mime.Mime;
+import com.zimbra.cs.server.NioOutputStream;
+import com.zimbra.cs.stats.ZimbraPerf;
+import com.zimbra.cs.store.BlobInputStream;
 
 class ImapPartSpecifier {
     static class BinaryDecodingException extends Exception {
@@ -78,6 +81,11 @@ class ImapPartSpecifier {
         return part.equals("") && modifier.equals("");
     }
 
+    /** Returns whether this is a HEADER, HEADER.FIELDS or HEADER.FIELDS.NOT request on the message itself. */
+    boolean isMessageHeader() {
+        return part.equals("") && modifier.startsWith("HEADER");
+    }
+
     ImapPartSpecifier setHeaders(List<String> headers) {
         this.requestedHeaders = headers;
         return this;
@@ -171,8 +179,12 @@ class ImapPartSpecifier {
                 ps.write('}');   /* } added to fix vim buggy brace matching code */
                 if (os != null) {
                     os.write(ImapHandler.LINE_SEPARATOR_BYTES);
-                    long written = ByteUtil.copy(is, false, os, false);
-                    assert written == length;
+                    // uncompressed blobs go straight from the file to the socket when the connection allows it
+                    if (binary || !(os instanceof NioOutputStream) || !((NioOutputStream) os).transferFrom(is)) {
+                        long written = ByteUtil.copy(is, false, os, false);
+                        assert written == length;
+                        ZimbraPerf.COUNTER_BLOB_COPIED_BYTES.increment(written);
+                    }
                 }
             }
         } finally {
@@ -255,7 +267,16 @@ class ImapPartSpecifier {
                     ByteUtil.skip(is, start);
                     start = 0;
                 }
-                is = ByteUtil.SegmentInputStream.create(is, start, start + realLength);
+                if (is instanceof BlobInputStream && statedLength >= 0 && start <= statedLength) {
+                    // keep it a BlobInputStream so that the range can still be sent with zero-copy
+                    InputStream range = ((BlobInputStream) is).newStream(start, start + realLength);
+                    if (range == null) {
+                        throw new IOException("unable to read range of blob");
+                    }
+                    is = range;
+                } else {
+                    is = ByteUtil.SegmentInputStream.create(is, start, start + realLength);
+                }
             } catch (StartOutOfBoundsException e) {
                 //return empty string {0} when start is out of range
                 ZimbraLog.imap.warn("IMAP part requested start out of range", e);
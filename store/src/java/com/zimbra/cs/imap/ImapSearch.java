@@ -18,6 +18,7 @@ package com.zimbra.cs.imap;
 
 import java.text.DateFormat;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
@@ -34,6 +35,16 @@ abstract class ImapSearch {
     protected abstract ImapMessageSet evaluate(ImapFolder i4folder) throws ImapParseException;
     protected boolean requiresMODSEQ()  { return false; }
 
+    /**
+     * Evaluates a search that {@link #canBeRunLocally()} against the folder's in-memory state.  Bit {@code n - 1}
+     * of the result is set for each matching message with sequence number {@code n}, as in
+     * {@link ImapFolder#getAllMessageBits()}.  Logical operations combine their children's bitsets directly
+     * instead of building and merging sorted message sets.
+     */
+    protected BitSet evaluateBits(ImapFolder i4folder) throws ImapParseException {
+        return ImapFolder.toBits(evaluate(i4folder));
+    }
+
     protected static boolean isAllMessages(ImapFolder i4folder, Set<ImapMessage> i4set) {
         int size = i4set.size() - (i4set.contains(null) ? 1 : 0);
         return size == i4folder.getSize();
@@ -188,6 +199,36 @@ abstract class ImapSearch {
             }
             return matched;
         }
+
+        @Override
+        protected BitSet evaluateBits(ImapFolder i4folder) throws ImapParseException {
+            BitSet matched = null;
+            for (ImapSearch i4search : mChildren) {
+                if (matched == null) {
+                    matched = i4search.evaluateBits(i4folder);
+                } else {
+                    matched.and(i4search.evaluateBits(i4folder));
+                }
+
+                if (matched.isEmpty())
+                    break;
+            }
+            return matched == null ? new BitSet() : matched;
+        }
+
+        /**
+         * Moves the children that {@link #canBeRunLocally()} into {@code local} and the rest into {@code indexed},
+         * so that an AND which is only partly answerable from folder state can still evaluate that part in memory.
+         */
+        void partition(AndOperation local, AndOperation indexed) {
+            for (ImapSearch i4search : mChildren) {
+                (i4search.canBeRunLocally() ? local : indexed).addChild(i4search);
+            }
+        }
+
+        boolean isEmpty() {
+            return mChildren.isEmpty();
+        }
     }
 
     static class OrOperation extends LogicalOperation {
@@ -217,6 +258,15 @@ abstract class ImapSearch {
             }
             return matched;
         }
+
+        @Override
+        protected BitSet evaluateBits(ImapFolder i4folder) throws ImapParseException {
+            BitSet matched = new BitSet();
+            for (ImapSearch i4search : mChildren) {
+                matched.or(i4search.evaluateBits(i4folder));
+            }
+            return matched;
+        }
     }
 
     static class NotOperation extends LogicalOperation {
@@ -234,6 +284,13 @@ abstract class ImapSearch {
             matches.removeAll(mChildren.get(0).evaluate(i4folder));
             return matches;
         }
+
+        @Override
+        protected BitSet evaluateBits(ImapFolder i4folder) throws ImapParseException {
+            BitSet matches = i4folder.getAllMessageBits();
+            matches.andNot(mChildren.get(0).evaluateBits(i4folder));
+            return matches;
+        }
     }
 
     static class AllSearch extends ImapSearch {
@@ -243,6 +300,8 @@ abstract class ImapSearch {
         protected String toZimbraSearch(ImapFolder i4folder)    { return "item:all"; }
         @Override
         protected ImapMessageSet evaluate(ImapFolder i4folder)  { return i4folder.getAllMessages(); }
+        @Override
+        protected BitSet evaluateBits(ImapFolder i4folder)      { return i4folder.getAllMessageBits(); }
 
         @Override
         public boolean equals(Object obj) {
@@ -262,6 +321,8 @@ abstract class ImapSearch {
         protected String toZimbraSearch(ImapFolder i4folder)    { return "item:none"; }
         @Override
         protected ImapMessageSet evaluate(ImapFolder i4folder)  { return new ImapMessageSet(); }
+        @Override
+        protected BitSet evaluateBits(ImapFolder i4folder)      { return new BitSet(); }
 
         @Override
         public boolean equals(Object obj) {
@@ -328,6 +389,41 @@ abstract class ImapSearch {
         }
     }
 
+    /** Matches a fixed set of messages already resolved against the selected folder. */
+    static class MessageSetSearch extends ImapSearch {
+        private final ImapMessageSet mMessages;
+        MessageSetSearch(ImapMessageSet messages)  { mMessages = messages; }
+
+        @Override
+        protected boolean canBeRunLocally()  { return true; }
+
+        @Override
+        protected String toZimbraSearch(ImapFolder i4folder) {
+            return sequenceAsSearchTerm(i4folder, new ImapMessageSet(mMessages), true);
+        }
+
+        @Override
+        protected ImapMessageSet evaluate(ImapFolder i4folder) {
+            return new ImapMessageSet(mMessages);
+        }
+
+        @Override
+        public int hashCode() {
+            return mMessages.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            return mMessages.equals(((MessageSetSearch) obj).mMessages);
+        }
+    }
+
     static class FlagSearch extends ImapSearch {
         private String mFlagName;
         FlagSearch(String flagName)  { mFlagName = flagName; }
@@ -363,6 +459,20 @@ abstract class ImapSearch {
             }
         }
 
+        @Override
+        protected BitSet evaluateBits(ImapFolder i4folder) {
+            ImapFlag i4flag = i4folder.getFlagByName(mFlagName);
+            if (i4flag == null) {
+                return new BitSet();
+            } else if (i4flag.mPositive) {
+                return i4folder.getFlaggedMessageBits(i4flag);
+            } else {
+                BitSet matched = i4folder.getAllMessageBits();
+                matched.andNot(i4folder.getFlaggedMessageBits(i4flag));
+                return matched;
+            }
+        }
+
         @Override
         public int hashCode() {
             final int prime = 31;
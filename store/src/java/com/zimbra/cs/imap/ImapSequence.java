@@ -0,0 +1,276 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.imap;
+
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The messages of an {@link ImapFolder} in IMAP sequence order, with their
+ * UIDs kept alongside in a primitive array so that UID lookups are a binary
+ * search over an {@code int[]} instead of a walk through message objects.
+ * <p>
+ * Not thread-safe; {@link ImapFolder} synchronizes access.
+ */
+final class ImapSequence implements Iterable<ImapMessage> {
+    private static final ImapMessage[] NO_MESSAGES = new ImapMessage[0];
+    private static final int[] NO_UIDS = new int[0];
+
+    private ImapMessage[] messages = NO_MESSAGES;
+    private int[] uids = NO_UIDS;
+    private int size;
+    private int modCount;
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Returns the message at the given 0-based index. */
+    ImapMessage get(int index) {
+        checkIndex(index);
+        return messages[index];
+    }
+
+    /** Returns the IMAP UID of the message at the given 0-based index. */
+    int uidAt(int index) {
+        checkIndex(index);
+        return uids[index];
+    }
+
+    ImapMessage last() {
+        return size == 0 ? null : messages[size - 1];
+    }
+
+    void add(ImapMessage i4msg) {
+        ensureCapacity(size + 1);
+        messages[size] = i4msg;
+        uids[size] = i4msg.imapUid;
+        size++;
+        modCount++;
+    }
+
+    void set(int index, ImapMessage i4msg) {
+        checkIndex(index);
+        messages[index] = i4msg;
+        uids[index] = i4msg.imapUid;
+    }
+
+    /** Inserts a message at the given 0-based index, shifting later messages up by one. */
+    void insert(int index, ImapMessage i4msg) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        ensureCapacity(size + 1);
+        System.arraycopy(messages, index, messages, index + 1, size - index);
+        System.arraycopy(uids, index, uids, index + 1, size - index);
+        messages[index] = i4msg;
+        uids[index] = i4msg.imapUid;
+        size++;
+        modCount++;
+    }
+
+    void remove(int index) {
+        checkIndex(index);
+        int tail = size - index - 1;
+        if (tail > 0) {
+            System.arraycopy(messages, index + 1, messages, index, tail);
+            System.arraycopy(uids, index + 1, uids, index, tail);
+        }
+        messages[--size] = null;
+        modCount++;
+    }
+
+    /** Drops all messages at or after the given index.  Used after compacting the sequence in place. */
+    void truncate(int newSize) {
+        if (newSize < 0 || newSize > size) {
+            throw new IndexOutOfBoundsException("size " + newSize + ", current size " + size);
+        }
+        Arrays.fill(messages, newSize, size, null);
+        size = newSize;
+        modCount++;
+        // give back memory after a large expunge
+        if (messages.length > 64 && size < messages.length / 4) {
+            messages = Arrays.copyOf(messages, Math.max(size * 2, 16));
+            uids = Arrays.copyOf(uids, messages.length);
+        }
+    }
+
+    /**
+     * Binary search for the given IMAP UID.
+     * @return index of the UID, if present; otherwise,
+     *         <tt>(-(<i>insertion point</i>) - 1)</tt>
+     * @see Arrays#binarySearch(int[], int, int, int) */
+    int uidSearch(int uid) {
+        return Arrays.binarySearch(uids, 0, size, uid);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > messages.length) {
+            int newCapacity = Math.max(capacity, Math.max(16, messages.length + (messages.length >> 1)));
+            messages = Arrays.copyOf(messages, newCapacity);
+            uids = Arrays.copyOf(uids, newCapacity);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+    }
+
+    @Override
+    public Iterator<ImapMessage> iterator() {
+        return new Iterator<ImapMessage>() {
+            private int next = 0;
+            private int last = -1;
+            private int expectedModCount = modCount;
+
+            @Override
+            public boolean hasNext() {
+                return next < size;
+            }
+
+            @Override
+            public ImapMessage next() {
+                if (expectedModCount != modCount) {
+                    throw new ConcurrentModificationException();
+                }
+                if (next >= size) {
+                    throw new NoSuchElementException();
+                }
+                last = next++;
+                return messages[last];
+            }
+
+            @Override
+            public void remove() {
+                if (last < 0) {
+                    throw new IllegalStateException();
+                }
+                if (expectedModCount != modCount) {
+                    throw new ConcurrentModificationException();
+                }
+                ImapSequence.this.remove(last);
+                next = last;
+                last = -1;
+                expectedModCount = modCount;
+            }
+        };
+    }
+
+    /**
+     * Maps item IDs to IMAP UIDs for the messages whose UID differs from their
+     * item ID.  Open addressing over a single {@code int[]} of key/value pairs,
+     * so an entry costs 8 bytes (at 50% load, 16) instead of a boxed map entry.
+     */
+    static final class IdIndex {
+        private static final int FREE = 0;      // item IDs are always positive
+        private static final int REMOVED = -1;
+
+        private int[] table = new int[32];      // key at 2i, value at 2i+1
+        private int size;
+        private int used;                       // live plus removed slots
+
+        int size() {
+            return size;
+        }
+
+        /** Returns the UID mapped to the given item ID, or 0 if there is none. */
+        int get(int id) {
+            int mask = (table.length >> 1) - 1;
+            for (int slot = mix(id) & mask; ; slot = (slot + 1) & mask) {
+                int key = table[slot << 1];
+                if (key == id) {
+                    return table[(slot << 1) + 1];
+                } else if (key == FREE) {
+                    return 0;
+                }
+            }
+        }
+
+        void put(int id, int uid) {
+            if (id <= 0) {
+                throw new IllegalArgumentException("invalid item id " + id);
+            }
+            if ((used + 1) * 2 > (table.length >> 1)) {
+                rehash(size + 1 > (table.length >> 2) ? table.length : table.length >> 1);
+            }
+            int mask = (table.length >> 1) - 1;
+            int tombstone = -1;
+            for (int slot = mix(id) & mask; ; slot = (slot + 1) & mask) {
+                int key = table[slot << 1];
+                if (key == id) {
+                    table[(slot << 1) + 1] = uid;
+                    return;
+                } else if (key == REMOVED) {
+                    if (tombstone < 0) {
+                        tombstone = slot;
+                    }
+                } else if (key == FREE) {
+                    if (tombstone >= 0) {
+                        slot = tombstone;
+                    } else {
+                        used++;
+                    }
+                    table[slot << 1] = id;
+                    table[(slot << 1) + 1] = uid;
+                    size++;
+                    return;
+                }
+            }
+        }
+
+        void remove(int id) {
+            int mask = (table.length >> 1) - 1;
+            for (int slot = mix(id) & mask; ; slot = (slot + 1) & mask) {
+                int key = table[slot << 1];
+                if (key == id) {
+                    table[slot << 1] = REMOVED;
+                    table[(slot << 1) + 1] = 0;
+                    size--;
+                    return;
+                } else if (key == FREE) {
+                    return;
+                }
+            }
+        }
+
+        /** Rebuilds the table with twice as many slots as {@code halfLength} ints, dropping removed entries. */
+        private void rehash(int halfLength) {
+            int[] old = table;
+            table = new int[Math.max(32, halfLength << 1)];
+            size = 0;
+            used = 0;
+            for (int i = 0; i < old.length; i += 2) {
+                if (old[i] > 0) {
+                    put(old[i], old[i + 1]);
+                }
+            }
+        }
+
+        private static int mix(int id) {
+            int h = id * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
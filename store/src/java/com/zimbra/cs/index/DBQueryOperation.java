@@ -16,8 +16,10 @@
  */
 package com.zimbra.cs.index;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -32,6 +34,7 @@ import org.apache.lucene.document.Document;
 import org.apache.lucene.index.Term;
 
 import com.google.common.collect.ImmutableSet;
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.db.Db;
@@ -57,6 +60,8 @@ import com.zimbra.cs.util.IOUtil;
  */
 public class DBQueryOperation extends QueryOperation {
     private static final int MAX_HITS_PER_CHUNK = 2000;
+    /** rows per id-only DB query when intersecting with a Lucene bitmap */
+    private static final int BITMAP_DB_CHUNK = 50000;
 
     private DbSearchConstraints constraints = new DbSearchConstraints.Leaf();
     private int hitsOffset = 0; // this is the logical offset of the end of the mDBHits buffer
@@ -94,6 +99,15 @@ public class DBQueryOperation extends QueryOperation {
      */
     private LuceneQueryOperation.LuceneResultsChunk luceneChunk = null;
 
+    /**
+     * BITMAP_INTERSECT state: the index ids of every Lucene hit, the DB hits (in sort order, fetched as ids only)
+     * whose index id is among them and which haven't been returned yet, and whether the DB side has been read to the
+     * end.
+     */
+    private IntBitmap luceneIndexIds = null;
+    private Deque<DbSearch.Result> intersectedHits = null;
+    private boolean endOfDbIds = false;
+
     /**
      * If set, then this is the AccountId of the owner of a folder we are searching. We track it at the toplevel here
      * b/c we need to make sure that we handle unions (don't combine) and intersections (always empty set) correctly.
@@ -108,7 +122,8 @@ public class DBQueryOperation extends QueryOperation {
         NO_RESULTS,
         NO_LUCENE,
         DB_FIRST,
-        LUCENE_FIRST;
+        LUCENE_FIRST,
+        BITMAP_INTERSECT;
     }
 
     /**
@@ -460,6 +475,8 @@ public class DBQueryOperation extends QueryOperation {
             dbHitsIter = null;
             hitsOffset = 0;
             endOfHits = false;
+            endOfDbIds = false;
+            intersectedHits = null;
             atStart = true;
         } else {
             if (dbHits != null) {
@@ -517,6 +534,8 @@ public class DBQueryOperation extends QueryOperation {
                         } else if (shouldExecuteDbFirst()) {
                             luceneOp.clearFilterClause();
                             executeMode = QueryExecuteMode.DB_FIRST;
+                        } else if (shouldIntersectBitmaps()) {
+                            executeMode = QueryExecuteMode.BITMAP_INTERSECT;
                         } else {
                             executeMode = QueryExecuteMode.LUCENE_FIRST;
                         }
@@ -663,8 +682,13 @@ public class DBQueryOperation extends QueryOperation {
     }
 
     private void dbSearch(List<DbSearch.Result> results, SortBy sort, int offset, int size) throws ServiceException {
+        dbSearch(results, constraints, fetch, sort, offset, size);
+    }
+
+    private void dbSearch(List<DbSearch.Result> results, DbSearchConstraints dbc, DbSearch.FetchMode fetchMode,
+            SortBy sort, int offset, int size) throws ServiceException {
         long start = System.currentTimeMillis();
-        results.addAll(context.getMailbox().index.search(constraints, fetch, sort, offset, size,
+        results.addAll(context.getMailbox().index.search(dbc, fetchMode, sort, offset, size,
                 context.getParams().inDumpster()));
         ZimbraLog.search.debug("DBSearch elapsed=%d", System.currentTimeMillis() - start);
     }
@@ -683,6 +707,21 @@ public class DBQueryOperation extends QueryOperation {
         return constraints.tryDbFirst(context.getMailbox());
     }
 
+    /**
+     * LUCENE_FIRST pushes Lucene hits into SQL IN clauses a chunk at a time, which takes many round trips once the
+     * text part matches more than one IN clause worth of items, and even more when the DB constraints reject most of
+     * them. Past that point it is cheaper to collect all the Lucene hits up front and filter the DB side against
+     * them in memory, as long as there aren't too many to hold.
+     */
+    private boolean shouldIntersectBitmaps() {
+        if (!LC.search_bitmap_intersection_enabled.booleanValue()) {
+            return false;
+        }
+        long luceneHits = luceneOp.getHitCount(hitsPerChunk);
+        return luceneHits > Db.getINClauseBatchSize() &&
+                luceneHits <= LC.search_bitmap_intersection_max_hits.intValue();
+    }
+
     private void noLuceneGetNextChunk(SortBy sort) throws ServiceException {
         dbSearch(dbHits, sort, hitsOffset, hitsPerChunk);
 
@@ -795,6 +834,66 @@ public class DBQueryOperation extends QueryOperation {
         } while (dbHits.size() == 0 && !endOfHits);
     }
 
+    private void bitmapGetNextChunk(SortBy sort) throws ServiceException {
+        if (luceneIndexIds == null) {
+            luceneIndexIds = luceneOp.getIndexIdBitmap();
+        }
+        if (intersectedHits == null) {
+            intersectedHits = new ArrayDeque<DbSearch.Result>();
+        }
+        int chunkSize = Math.min(hitsPerChunk, Db.getINClauseBatchSize());
+
+        // (1) Read the DB side in sort order, ids only, keeping the rows Lucene also matched, until we have a chunk
+        if (luceneIndexIds.isEmpty()) {
+            endOfDbIds = true;
+        }
+        DbSearchConstraints.Leaf sc = getTopLeafConstraint();
+        sc.hasIndexId = Boolean.TRUE;
+        while (intersectedHits.size() < chunkSize && !endOfDbIds) {
+            List<DbSearch.Result> dbIds = new ArrayList<DbSearch.Result>();
+            dbSearch(dbIds, constraints, DbSearch.FetchMode.ID, sort, dbOffset, BITMAP_DB_CHUNK);
+            dbOffset += dbIds.size();
+            if (dbIds.size() < BITMAP_DB_CHUNK) {
+                endOfDbIds = true;
+            }
+            for (DbSearch.Result sr : dbIds) {
+                if (luceneIndexIds.contains(sr.getIndexId())) {
+                    intersectedHits.add(sr);
+                }
+            }
+        }
+        if (intersectedHits.isEmpty()) {
+            return;
+        }
+
+        // (2) Take the next chunk, get its Lucene documents, and its rows in the requested fetch mode
+        List<DbSearch.Result> chunk = new ArrayList<DbSearch.Result>(Math.min(chunkSize, intersectedHits.size()));
+        Set<Integer> indexIds = new HashSet<Integer>();
+        while (chunk.size() < chunkSize && !intersectedHits.isEmpty()) {
+            DbSearch.Result sr = intersectedHits.poll();
+            chunk.add(sr);
+            indexIds.add(sr.getIndexId());
+        }
+        luceneChunk = luceneOp.getResultsChunk(indexIds, MAX_HITS_PER_CHUNK * 3);
+        if (fetch == DbSearch.FetchMode.ID) {
+            dbHits.addAll(chunk);
+        } else {
+            DbSearchConstraints.Leaf chunkConstraints = new DbSearchConstraints.Leaf();
+            for (DbSearch.Result sr : chunk) {
+                chunkConstraints.itemIds.add(sr.getId());
+            }
+            dbSearch(dbHits, chunkConstraints, fetch, sort, -1, -1);
+        }
+        ZimbraLog.search.debug("BitmapIntersect lucene=%d,chunk=%d,dbOffset=%d",
+                luceneIndexIds.cardinality(), chunk.size(), dbOffset);
+
+        // exponentially expand the chunk size in case we have to come back
+        hitsPerChunk *= 2;
+        if (hitsPerChunk > MAX_HITS_PER_CHUNK) {
+            hitsPerChunk = MAX_HITS_PER_CHUNK;
+        }
+    }
+
     /**
      * Use all the search parameters (including the embedded {@link LuceneQueryOperation}) to get a chunk of search
      * results and put them into dbHits
@@ -838,6 +937,9 @@ public class DBQueryOperation extends QueryOperation {
                 case LUCENE_FIRST:
                     luceneFirstGetNextChunk(sort);
                     break;
+                case BITMAP_INTERSECT:
+                    bitmapGetNextChunk(sort);
+                    break;
             }
 
             if (dbHits.size() == 0) {
@@ -19,6 +19,7 @@ package com.zimbra.cs.index;
 import org.apache.lucene.document.DateTools;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.Fieldable;
 
 import com.google.common.base.Strings;
 import com.zimbra.cs.index.analysis.FieldTokenStream;
@@ -45,6 +46,29 @@ public final class IndexDocument {
         return document;
     }
 
+    /**
+     * Returns a copy of this document that can be indexed independently of it.  Lucene consumes and closes token
+     * streams as it indexes them, so fields backed by one of our token streams get a fresh stream over the same
+     * tokens; all other fields hold immutable values and are shared with the original.
+     */
+    public IndexDocument copy() {
+        Document copy = new Document();
+        copy.setBoost(document.getBoost());
+        for (Fieldable field : document.getFields()) {
+            Object stream = field.tokenStreamValue();
+            if (stream instanceof RFC822AddressTokenStream) {
+                copy.add(new Field(field.name(), new RFC822AddressTokenStream((RFC822AddressTokenStream) stream)));
+            } else if (stream instanceof MimeTypeTokenStream) {
+                copy.add(new Field(field.name(), new MimeTypeTokenStream((MimeTypeTokenStream) stream)));
+            } else if (stream instanceof FieldTokenStream) {
+                copy.add(new Field(field.name(), new FieldTokenStream((FieldTokenStream) stream)));
+            } else {
+                copy.add(field);
+            }
+        }
+        return new IndexDocument(copy);
+    }
+
     public void addMimeType(MimeTypeTokenStream stream) {
         document.add(new Field(LuceneFields.L_MIMETYPE, stream));
     }
@@ -0,0 +1,135 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.index;
+
+import java.util.Arrays;
+
+/**
+ * Compressed set of non-negative ints, laid out the way Roaring bitmaps are: values are grouped by their high 16 bits
+ * and each group is stored either as a sorted array of low halves (sparse groups) or as a 65536-bit bitmap (dense
+ * groups).  Item and index ids in a mailbox are small and clustered, so a few hundred thousand of them take a
+ * fraction of the memory of a {@code Set<Integer>} and lookups stay cheap.
+ * <p>
+ * Not thread-safe.
+ */
+final class IntBitmap {
+    /** A group switches from array to bitmap form once it holds more than this many values. */
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 65536 / 64;
+
+    private int[] keys = new int[4];
+    private Object[] containers = new Object[4]; // char[] (sorted) or long[BITMAP_WORDS]
+    private int[] sizes = new int[4];
+    private int groups = 0;
+    private int cardinality = 0;
+
+    /**
+     * @return true if the value was not already present
+     */
+    boolean add(int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("negative value: " + value);
+        }
+        int key = value >>> 16;
+        char low = (char) value;
+        int idx = Arrays.binarySearch(keys, 0, groups, key);
+        if (idx < 0) {
+            idx = -idx - 1;
+            insertGroup(idx, key);
+        }
+        Object container = containers[idx];
+        boolean added;
+        if (container instanceof long[]) {
+            long[] bits = (long[]) container;
+            long mask = 1L << low;
+            added = (bits[low >>> 6] & mask) == 0;
+            bits[low >>> 6] |= mask;
+        } else {
+            added = addToArray(idx, (char[]) container, low);
+        }
+        if (added) {
+            sizes[idx]++;
+            cardinality++;
+        }
+        return added;
+    }
+
+    boolean contains(int value) {
+        if (value < 0) {
+            return false;
+        }
+        int idx = Arrays.binarySearch(keys, 0, groups, value >>> 16);
+        if (idx < 0) {
+            return false;
+        }
+        char low = (char) value;
+        Object container = containers[idx];
+        if (container instanceof long[]) {
+            return (((long[]) container)[low >>> 6] & (1L << low)) != 0;
+        }
+        return Arrays.binarySearch((char[]) container, 0, sizes[idx], low) >= 0;
+    }
+
+    int cardinality() {
+        return cardinality;
+    }
+
+    boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    private void insertGroup(int idx, int key) {
+        if (groups == keys.length) {
+            int len = groups * 2;
+            keys = Arrays.copyOf(keys, len);
+            containers = Arrays.copyOf(containers, len);
+            sizes = Arrays.copyOf(sizes, len);
+        }
+        System.arraycopy(keys, idx, keys, idx + 1, groups - idx);
+        System.arraycopy(containers, idx, containers, idx + 1, groups - idx);
+        System.arraycopy(sizes, idx, sizes, idx + 1, groups - idx);
+        keys[idx] = key;
+        containers[idx] = new char[4];
+        sizes[idx] = 0;
+        groups++;
+    }
+
+    private boolean addToArray(int idx, char[] array, char low) {
+        int size = sizes[idx];
+        int pos = Arrays.binarySearch(array, 0, size, low);
+        if (pos >= 0) {
+            return false;
+        }
+        if (size >= ARRAY_MAX) {
+            long[] bits = new long[BITMAP_WORDS];
+            for (int i = 0; i < size; i++) {
+                bits[array[i] >>> 6] |= 1L << array[i];
+            }
+            bits[low >>> 6] |= 1L << low;
+            containers[idx] = bits;
+            return true;
+        }
+        pos = -pos - 1;
+        if (size == array.length) {
+            array = Arrays.copyOf(array, Math.min(size * 2, ARRAY_MAX));
+            containers[idx] = array;
+        }
+        System.arraycopy(array, pos, array, pos + 1, size - pos);
+        array[pos] = low;
+        return true;
+    }
+}
@@ -44,6 +44,17 @@ import com.zimbra.cs.stats.ZimbraPerf;
  * @author ysasaki
  */
 public final class LuceneDirectory extends Directory {
+    /**
+     * Bytes read through any {@link LuceneDirectory} by the current thread, so that a search can tell how much index
+     * I/O it caused. Only bulk reads are counted; {@code readByte()} is too hot to look up a thread local per byte.
+     */
+    private static final ThreadLocal<long[]> THREAD_BYTES_READ = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+
     private final FSDirectory directory;
 
     private LuceneDirectory(FSDirectory dir) {
@@ -77,17 +88,28 @@ public final class LuceneDirectory extends Directory {
      *      space, and you don't rely on overwriting files on Windows) but it's still an important limitation to be
      *      aware of. This class supplies a (possibly dangerous) workaround mentioned in the bug report, which may fail
      *      on non-Sun JVMs.
+     *  <li>{@code auto} - {@code mmap} for indexes of at least {@link LC#zimbra_index_lucene_mmap_min_size} bytes on a
+     *      64-bit JRE, {@code nio} otherwise. Large indexes are where repeated positional reads cost the most, while
+     *      mapping the many small ones would only eat address space and file handles.
      * </ul>
      *
      * @param path directory path
      */
     public static LuceneDirectory open(File path) throws IOException {
         String impl = LC.zimbra_index_lucene_io_impl.value();
+        if ("auto".equals(impl)) {
+            impl = is64bit() && sizeOf(path) >= LC.zimbra_index_lucene_mmap_min_size.longValue() ? "mmap" : "nio";
+        }
         FSDirectory dir;
         if ("nio".equals(impl)) {
             dir = new NIOFSDirectory(path, new SingleInstanceLockFactory());
         } else if ("mmap".equals(impl)) {
-            dir = new MMapDirectory(path, new SingleInstanceLockFactory());
+            MMapDirectory mmap = new MMapDirectory(path, new SingleInstanceLockFactory());
+            if (MMapDirectory.UNMAP_SUPPORTED) {
+                // release mappings on close rather than whenever GC gets to them
+                mmap.setUseUnmap(true);
+            }
+            dir = mmap;
         } else if ("simple".equals(impl)) {
             dir = new SimpleFSDirectory(path, new SingleInstanceLockFactory());
         } else {
@@ -97,6 +119,31 @@ public final class LuceneDirectory extends Directory {
         return new LuceneDirectory(dir);
     }
 
+    private static boolean is64bit() {
+        String model = System.getProperty("sun.arch.data.model");
+        return model != null ? "64".equals(model) : System.getProperty("os.arch", "").contains("64");
+    }
+
+    private static long sizeOf(File path) {
+        long size = 0;
+        File[] files = path.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes the current thread has read through any {@link LuceneDirectory} so far. Callers take
+     * the difference of two readings to measure a single operation. Single-byte reads are not included. Always 0 if
+     * perf counters are disabled.
+     */
+    public static long getThreadBytesRead() {
+        return THREAD_BYTES_READ.get()[0];
+    }
+
     public File getDirectory() {
         return directory.getDirectory();
     }
@@ -208,6 +255,7 @@ public final class LuceneDirectory extends Directory {
         public void readBytes(byte[] b, int offset, int len) throws IOException {
             if (!disableCounters) {
                 ZimbraPerf.COUNTER_IDX_BYTES_READ.increment(len);
+                THREAD_BYTES_READ.get()[0] += len;
             }
             input.readBytes(b, offset, len);
         }
@@ -217,6 +265,7 @@ public final class LuceneDirectory extends Directory {
             throws IOException {
             if (!disableCounters) {
                 ZimbraPerf.COUNTER_IDX_BYTES_READ.increment(len);
+                THREAD_BYTES_READ.get()[0] += len;
             }
             input.readBytes(b, offset, len, useBuffer);
         }
@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.RejectedExecutionException;
@@ -51,6 +52,7 @@ import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.store.NoSuchDirectoryException;
 import org.apache.lucene.util.Version;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.MoreObjects;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
@@ -66,6 +68,7 @@ import com.zimbra.cs.mailbox.Folder;
 import com.zimbra.cs.mailbox.MailItem;
 import com.zimbra.cs.mailbox.Mailbox;
 import com.zimbra.cs.mailbox.MailboxIndex;
+import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.util.IOUtil;
 import com.zimbra.cs.volume.Volume;
 import com.zimbra.cs.volume.VolumeManager;
@@ -291,6 +294,44 @@ public final class LuceneIndex extends IndexStore {
         }
     }
 
+    /**
+     * Takes one of the {@link LC#zimbra_index_max_readers} permits. Cached searchers hold on to their permits, so when
+     * none is left, idle searchers of other mailboxes are closed, least recently used first, before resorting to wait
+     * for a searcher in use to be released.
+     */
+    private static void acquireReaderPermit() {
+        while (!READER_THROTTLE.tryAcquire()) {
+            if (!evictLeastRecentlyUsedSearcher()) {
+                READER_THROTTLE.acquireUninterruptibly();
+                return;
+            }
+        }
+    }
+
+    @VisibleForTesting
+    static Semaphore getReaderThrottle() {
+        return READER_THROTTLE;
+    }
+
+    private static boolean evictLeastRecentlyUsedSearcher() {
+        Map.Entry<Integer, IndexSearcherImpl> lru = null;
+        for (Map.Entry<Integer, IndexSearcherImpl> entry : SEARCHER_CACHE.asMap().entrySet()) {
+            IndexSearcherImpl searcher = entry.getValue();
+            if (searcher.isIdle() && (lru == null || searcher.lastAccess < lru.getValue().lastAccess)) {
+                lru = entry;
+            }
+        }
+        if (lru == null) {
+            return false;
+        }
+        // the removal listener closes the searcher, which returns its permit
+        if (SEARCHER_CACHE.asMap().remove(lru.getKey(), lru.getValue())) {
+            ZimbraPerf.COUNTER_IDX_SEARCHER_EVICTIONS.increment();
+            ZimbraLog.search.debug("EvictLuceneSearcher mbox=%d", lru.getKey());
+        }
+        return true;
+    }
+
     private IndexReader openIndexReader(boolean tryRepair) throws IOException {
         try {
             return IndexReader.open(luceneDirectory, null, true, LC.zimbra_index_lucene_term_index_divisor.intValue());
@@ -386,7 +427,7 @@ public final class LuceneIndex extends IndexStore {
             return searcher;
         }
 
-        READER_THROTTLE.acquireUninterruptibly();
+        acquireReaderPermit();
         long start = System.currentTimeMillis();
         try {
             searcher = new IndexSearcherImpl(openIndexReader(true));
@@ -943,6 +984,7 @@ public final class LuceneIndex extends IndexStore {
         private final AtomicInteger count = new AtomicInteger(1);
         private final IndexSearcher luceneSearcher;
         private final ZimbraIndexReader luceneReader;
+        private volatile long lastAccess = System.nanoTime();
 
         IndexSearcherImpl(IndexReader reader) {
             luceneSearcher = new IndexSearcher(reader);
@@ -951,6 +993,14 @@ public final class LuceneIndex extends IndexStore {
 
         void inc() {
             count.incrementAndGet();
+            lastAccess = System.nanoTime();
+        }
+
+        /**
+         * Returns true if nobody but the cache holds a reference.
+         */
+        boolean isIdle() {
+            return count.get() <= 1;
         }
 
         @Override
@@ -47,6 +47,7 @@ import com.zimbra.cs.index.ZimbraIndexReader.TermFieldEnumeration;
 import com.zimbra.cs.mailbox.Folder;
 import com.zimbra.cs.mailbox.MailItem;
 import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.util.IOUtil;
 
 /**
@@ -90,6 +91,8 @@ public final class LuceneQueryOperation extends QueryOperation {
     private int topDocsChunkSize = 2000; // how many hits to fetch per step in Lucene
     private ZimbraIndexSearcher searcher;
     private Sort sort;
+    private Thread searchThread; // thread that opened the searcher, for index I/O accounting
+    private long bytesReadAtOpen;
 
     /**
      * Adds the specified text clause at the top level.
@@ -283,6 +286,13 @@ public final class LuceneQueryOperation extends QueryOperation {
 
     @Override
     public void close() {
+        if (searcher != null && searchThread == Thread.currentThread()) {
+            long bytesRead = LuceneDirectory.getThreadBytesRead() - bytesReadAtOpen;
+            if (bytesRead > 0) {
+                ZimbraPerf.COUNTER_IDX_SEARCH_BYTES_READ.increment(bytesRead);
+                ZimbraLog.search.debug("LuceneSearch bytesRead=%d,query=%s", bytesRead, luceneQuery);
+            }
+        }
         IOUtil.closeQuietly(searcher);
         searcher = null;
     }
@@ -344,6 +354,75 @@ public final class LuceneQueryOperation extends QueryOperation {
         return result;
     }
 
+    /**
+     * Returns the number of documents matching this query, running the search first if it has not been run yet.
+     */
+    long getHitCount(int initialChunkSize) {
+        fetchFirstResults(initialChunkSize);
+        return getTotalHitCount();
+    }
+
+    /**
+     * Collects the index ids of every document matching this query.
+     * <p>
+     * Called by a {@link DBQueryOperation} that intersects the text and DB parts of a query in memory rather than
+     * feeding chunks of ids into SQL.  Callers are expected to check {@link #getHitCount(int)} first.
+     */
+    IntBitmap getIndexIdBitmap() {
+        long start = System.currentTimeMillis();
+        IntBitmap result = new IntBitmap();
+        int luceneLen = (int) getHitCount(topDocsChunkSize);
+        if (luceneLen > topDocsLen) {
+            topDocsLen = luceneLen;
+            runSearch();
+        }
+        if (hits == null) {
+            return result;
+        }
+        luceneLen = Math.min(hits.getTotalHits(), hits.getScoreDocs().size());
+        for (int i = 0; i < luceneLen; i++) {
+            Document doc;
+            try {
+                doc = searcher.doc(hits.getScoreDoc(i).getDocumentID());
+            } catch (Exception e) {
+                ZimbraLog.search.error("Failed to retrieve Lucene document: %s",
+                        hits.getScoreDoc(i).getDocumentID().toString(), e);
+                continue;
+            }
+            String mbid = doc.get(LuceneFields.L_MAILBOX_BLOB_ID);
+            if (mbid != null) {
+                try {
+                    result.add(Integer.parseInt(mbid));
+                } catch (NumberFormatException e) {
+                    ZimbraLog.search.error("Invalid MAILBOX_BLOB_ID: " + mbid, e);
+                }
+            }
+        }
+        ZimbraLog.search.debug("LuceneIndexIds n=%d,ids=%d,elapsed=%d",
+                luceneLen, result.cardinality(), System.currentTimeMillis() - start);
+        return result;
+    }
+
+    /**
+     * Fetches all the documents matching this query whose index id is one of {@code indexIds}.
+     */
+    LuceneResultsChunk getResultsChunk(Collection<Integer> indexIds, int chunkSize) {
+        for (int indexId : indexIds) {
+            addFilterClause(new Term(LuceneFields.L_MAILBOX_BLOB_ID, String.valueOf(indexId)));
+        }
+        try {
+            LuceneResultsChunk result = new LuceneResultsChunk();
+            LuceneResultsChunk chunk;
+            do {
+                chunk = getNextResultsChunk(chunkSize);
+                result.addAll(chunk);
+            } while (chunk.size() >= chunkSize);
+            return result;
+        } finally {
+            clearFilterClause();
+        }
+    }
+
     /**
      * It is not possible to search for queries that only consist of a MUST_NOT clause. Combining with MatchAllDocsQuery
      * works in general, but we generate more than one documents per item for multipart messages. If we match including
@@ -759,6 +838,8 @@ public final class LuceneQueryOperation extends QueryOperation {
             dbOp.begin(ctx); // will call back into this method again!
         } else { // 2nd time called
             try {
+                searchThread = Thread.currentThread();
+                bytesReadAtOpen = LuceneDirectory.getThreadBytesRead();
                 searcher = ctx.getMailbox().index.getIndexStore().openSearcher();
             } catch (IOException e) {
                 throw ServiceException.FAILURE("Failed to open searcher", e);
@@ -823,6 +904,10 @@ public final class LuceneQueryOperation extends QueryOperation {
             hits.put(indexId, doc);
         }
 
+        void addAll(LuceneResultsChunk other) {
+            hits.putAll(other.hits);
+        }
+
         Collection<Document> getHit(int indexId) {
             return hits.get(indexId);
         }
@@ -58,6 +58,10 @@ public final class FieldTokenStream extends TokenStream {
         add(name, value);
     }
 
+    public FieldTokenStream(FieldTokenStream stream) {
+        tokens.addAll(stream.tokens);
+    }
+
     public void add(String name, String value) {
         if (Strings.isNullOrEmpty(name) || Strings.isNullOrEmpty(value)) {
             return;
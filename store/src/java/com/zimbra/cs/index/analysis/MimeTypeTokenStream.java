@@ -57,6 +57,10 @@ public final class MimeTypeTokenStream extends TokenStream {
         tokens.add(tokens.isEmpty() ? LuceneFields.L_ATTACHMENT_NONE : LuceneFields.L_ATTACHMENT_ANY);
     }
 
+    public MimeTypeTokenStream(MimeTypeTokenStream stream) {
+        tokens.addAll(stream.tokens);
+    }
+
     private void add(String src) {
         if (tokens.size() >= MAX_TOKEN_COUNT) {
             return;
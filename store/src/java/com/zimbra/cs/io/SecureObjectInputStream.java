@@ -21,6 +21,8 @@ import java.io.InputStream;
 import java.io.InvalidClassException;
 import java.io.ObjectInputStream;
 import java.io.ObjectStreamClass;
+import java.util.Collections;
+import java.util.Set;
 
 
 /**
@@ -36,7 +38,7 @@ public class SecureObjectInputStream extends ObjectInputStream {
      * @throws SecurityException
      */
 
-    private String acceptedClassname = null;
+    private Set<String> acceptedClassnames = Collections.emptySet();
     protected SecureObjectInputStream() throws IOException, SecurityException {
         super();
     }
@@ -47,7 +49,17 @@ public class SecureObjectInputStream extends ObjectInputStream {
      */
     public SecureObjectInputStream(InputStream in, String acceptedClassname) throws IOException {
         super(in);
-        this.acceptedClassname = acceptedClassname;
+        this.acceptedClassnames = Collections.singleton(acceptedClassname);
+    }
+
+    /**
+     * @param in
+     * @param acceptedClassnames every class that may appear in the serialized object graph
+     * @throws IOException
+     */
+    public SecureObjectInputStream(InputStream in, Set<String> acceptedClassnames) throws IOException {
+        super(in);
+        this.acceptedClassnames = acceptedClassnames;
     }
 
     /**
@@ -56,7 +68,7 @@ public class SecureObjectInputStream extends ObjectInputStream {
     @Override
     protected Class<?> resolveClass(ObjectStreamClass desc)
         throws IOException, ClassNotFoundException {
-        if (desc.getName().equals(this.acceptedClassname)) {
+        if (acceptedClassnames.contains(desc.getName())) {
             return super.resolveClass(desc);
         }
         throw new InvalidClassException("Unauthorized deserialization attempt", desc.getName());
@@ -0,0 +1,94 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.lmtpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.zimbra.common.util.BufferStream;
+
+/**
+ * Buffers the message data following a DATA command as it arrives in arbitrarily split chunks, up to and including
+ * the terminating <tt>&lt;CRLF&gt;.&lt;CRLF&gt;</tt>.  The data is kept as received; dot-unstuffing and removal of
+ * the terminator are left to {@link LmtpMessageInputStream} reading {@link #getInputStream}.
+ */
+final class LmtpDataBuffer {
+    // states of the scan for the terminator; these mirror LmtpMessageInputStream
+    private static final int NONE = 0;
+    private static final int CR = 1;
+    private static final int CRLF = 2;
+    private static final int CRLF_DOT = 3;
+    private static final int CRLF_DOT_CR = 4;
+
+    private final BufferStream data;
+    // the <CRLF> ending the DATA command counts towards the message terminator
+    private int state = CRLF;
+    private boolean complete;
+
+    LmtpDataBuffer(long sizeHint, int maxMem) {
+        data = new BufferStream(sizeHint, maxMem);
+    }
+
+    /**
+     * Buffers message data starting at {@code pos}, stopping after the terminator.
+     *
+     * @return the position of the first byte that was not consumed, which is {@code bytes.length} unless the
+     *         terminator was found and pipelined commands follow it
+     */
+    int write(byte[] bytes, int pos) throws IOException {
+        int start = pos;
+        while (pos < bytes.length && !complete) {
+            byte b = bytes[pos++];
+            switch (state) {
+            case CR:
+                state = b == '\n' ? CRLF : b == '\r' ? CR : NONE;
+                break;
+            case CRLF:
+                state = b == '.' ? CRLF_DOT : b == '\r' ? CR : NONE;
+                break;
+            case CRLF_DOT:
+                state = b == '\r' ? CRLF_DOT_CR : NONE;
+                break;
+            case CRLF_DOT_CR:
+                if (b == '\n') {
+                    complete = true;
+                } else {
+                    state = b == '\r' ? CR : NONE;
+                }
+                break;
+            default:
+                state = b == '\r' ? CR : NONE;
+                break;
+            }
+        }
+        data.write(bytes, start, pos - start);
+        return pos;
+    }
+
+    /** Returns true once the terminator has been buffered. */
+    boolean isComplete() {
+        return complete;
+    }
+
+    InputStream getInputStream() throws IOException {
+        return data.getInputStream();
+    }
+
+    void release() {
+        data.release();
+    }
+}
@@ -29,11 +29,15 @@ import com.zimbra.common.util.ByteUtil;
 import com.zimbra.common.util.StringUtil;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.account.Provisioning;
-import com.zimbra.cs.server.ProtocolHandler;
 import com.zimbra.cs.server.ServerThrottle;
 import com.zimbra.cs.stats.ZimbraPerf;
 
-public abstract class LmtpHandler extends ProtocolHandler {
+/**
+ * Transport-independent LMTP protocol state machine, shared by the
+ * thread-per-connection {@link TcpLmtpHandler} and the MINA-based
+ * {@link NioLmtpHandler}.
+ */
+public abstract class LmtpHandler {
     // Connection specific data
     final LmtpConfig config;
     protected LmtpWriter mWriter;
@@ -50,12 +54,17 @@ public abstract class LmtpHandler extends ProtocolHandler {
     protected boolean startedTLS;
     protected boolean lhloIssuedAfterStartTLS;
 
-    LmtpHandler(LmtpServer server) {
-        super(server instanceof TcpLmtpServer ? (TcpLmtpServer) server : null);
-        config = server.getConfig();
+    LmtpHandler(LmtpConfig config) {
+        this.config = config;
         throttle = ServerThrottle.getThrottle(config.getProtocol());
     }
 
+    /**
+     * Closes the connection with the client.  May get called multiple
+     * times, even after the connection was refused.
+     */
+    protected abstract void dropConnection();
+
     protected boolean setupConnection(InetAddress remoteAddr) {
         mRemoteAddress = remoteAddr.getHostAddress();
         if (StringUtil.isNullOrEmpty(mRemoteAddress)) {
@@ -77,17 +86,10 @@ public abstract class LmtpHandler extends ProtocolHandler {
         return true;
     }
 
-    @Override
     protected void notifyIdleConnection() {
         sendReply(LmtpReply.TIMEOUT);
     }
 
-    @Override
-    protected boolean authenticate() {
-        // LMTP doesn't need auth.
-        return true;
-    }
-
     protected boolean processCommand(String cmd) throws IOException {
         ZimbraLog.addIpToContext(mRemoteAddress);
         mCurrentCommandLine = cmd;
@@ -113,8 +115,6 @@ public abstract class LmtpHandler extends ProtocolHandler {
             return false;
         }
 
-        setIdle(false);
-
         int i = cmd.indexOf(' ');
         if (i > 0) {
             arg = cmd.substring(i + 1);
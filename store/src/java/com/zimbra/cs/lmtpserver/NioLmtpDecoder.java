@@ -0,0 +1,37 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.lmtpserver;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolDecoderAdapter;
+import org.apache.mina.filter.codec.ProtocolDecoderOutput;
+
+/**
+ * Hands the raw bytes received on an LMTP connection to {@link NioLmtpHandler}.  LMTP switches between
+ * command lines and dot-terminated message data depending on the replies the server has sent, so the
+ * framing is done by the handler, which knows which mode the session is in.
+ */
+final class NioLmtpDecoder extends ProtocolDecoderAdapter {
+
+    @Override
+    public void decode(IoSession session, IoBuffer in, ProtocolDecoderOutput out) {
+        byte[] bytes = new byte[in.remaining()];
+        in.get(bytes);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.lmtpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import com.google.common.base.Charsets;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.server.NioConnection;
+import com.zimbra.cs.server.NioHandler;
+
+final class NioLmtpHandler extends LmtpHandler implements NioHandler {
+    private static final int MAX_COMMAND_LENGTH = 4096;
+    private static final int DEFAULT_MAX_BUFFERED_MESSAGE = 1024 * 1024;
+
+    private final NioConnection connection;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+    private boolean lineTooLong;
+    private LmtpDataBuffer data; // non-null while message data is being received
+
+    NioLmtpHandler(NioLmtpServer server, NioConnection conn) {
+        super(server.getConfig());
+        connection = conn;
+        mWriter = new LmtpWriter(conn.getOutputStream());
+    }
+
+    @Override
+    public void connectionOpened() {
+        ZimbraLog.addConnectionIdToContext(String.valueOf(connection.getId()));
+        reset();
+        setupConnection(connection.getRemoteAddress().getAddress());
+    }
+
+    @Override
+    public void connectionClosed() {
+        releaseData();
+        connection.close();
+    }
+
+    @Override
+    public void connectionIdle() {
+        ZimbraLog.lmtp.debug("idle connection");
+        notifyIdleConnection();
+        dropConnection();
+    }
+
+    @Override
+    public void messageReceived(Object msg) throws IOException {
+        byte[] bytes = (byte[]) msg;
+        int pos = 0;
+        while (pos < bytes.length) {
+            if (data != null) {
+                pos = continueData(bytes, pos);
+                continue;
+            }
+            byte b = bytes[pos++];
+            if (b != '\n') {
+                if (line.size() < MAX_COMMAND_LENGTH) {
+                    line.write(b);
+                } else {
+                    lineTooLong = true;
+                }
+                continue;
+            }
+            int len = line.size();
+            byte[] raw = line.toByteArray();
+            if (len > 0 && raw[len - 1] == '\r') {
+                len--;
+            }
+            String cmd = new String(raw, 0, len, Charsets.ISO_8859_1);
+            line.reset();
+            if (lineTooLong) {
+                lineTooLong = false;
+                doSyntaxError();
+                continue;
+            }
+            boolean tls = startedTLS;
+            if (!processCommand(cmd) || !connection.isOpen()) {
+                return;
+            }
+            if (startedTLS && !tls) {
+                // Anything the client sent after STARTTLS arrived in plaintext and must not be
+                // processed as if it came over the encrypted channel.
+                if (pos < bytes.length) {
+                    ZimbraLog.lmtp.info("discarding %d bytes received after STARTTLS", bytes.length - pos);
+                }
+                line.reset();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Buffers message data starting at {@code pos}, and delivers the message once the terminating
+     * <tt>&lt;CRLF&gt;.&lt;CRLF&gt;</tt> has been received.
+     *
+     * @return the position of the first byte following the message data
+     */
+    private int continueData(byte[] bytes, int pos) throws IOException {
+        pos = data.write(bytes, pos);
+        if (data.isComplete()) {
+            LmtpDataBuffer buffer = data;
+            data = null;
+            try {
+                processMessageData(new LmtpMessageInputStream(buffer.getInputStream(), getAdditionalHeaders()));
+            } finally {
+                buffer.release();
+                ZimbraLog.removeAccountFromContext();
+            }
+        }
+        return pos;
+    }
+
+    @Override
+    protected void continueDATA() {
+        int maxMem = DEFAULT_MAX_BUFFERED_MESSAGE;
+        try {
+            maxMem = Provisioning.getInstance().getLocalServer().getMailDiskStreamingThreshold();
+        } catch (ServiceException e) {
+            ZimbraLog.lmtp.warn("Unable to determine disk streaming threshold; buffering up to %d bytes", maxMem, e);
+        }
+        data = new LmtpDataBuffer(mEnvelope.getSize(), maxMem);
+    }
+
+    private void releaseData() {
+        if (data != null) {
+            data.release();
+            data = null;
+        }
+    }
+
+    @Override
+    public void exceptionCaught(Throwable e) {
+        if (e instanceof javax.net.ssl.SSLException) {
+            ZimbraLog.lmtp.error("Error detected by SSL subsystem, dropping connection:" + e);
+            dropConnection();
+        } else if (!(e instanceof IOException)) {
+            ZimbraLog.lmtp.warn("Exception while handling connection", e);
+        }
+    }
+
+    @Override
+    public void dropConnection() {
+        releaseData();
+        if (!connection.isOpen()) {
+            return;
+        }
+        mWriter.close();
+        connection.close();
+    }
+
+    @Override
+    protected void doSTARTTLS(String arg) {
+        if (arg != null) {
+            sendReply(LmtpReply.STARTTLS_WITH_PARAMETER); // parameter supplied to STARTTLS
+            return;
+        }
+        connection.startTls();
+        sendReply(LmtpReply.READY_TO_START_TLS);
+        startedTLS = true;
+    }
+
+    @Override
+    public void setLoggingContext() {
+        ZimbraLog.addConnectionIdToContext(String.valueOf(connection.getId()));
+        ZimbraLog.addIpToContext(mRemoteAddress);
+    }
+}
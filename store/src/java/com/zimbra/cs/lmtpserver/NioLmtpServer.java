@@ -0,0 +1,85 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.lmtpserver;
+
+import java.util.Map;
+
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolCodecFactory;
+import org.apache.mina.filter.codec.ProtocolDecoder;
+import org.apache.mina.filter.codec.ProtocolEncoder;
+
+import com.google.common.collect.ImmutableMap;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.stats.RealtimeStatsCallback;
+import com.zimbra.cs.server.NioConnection;
+import com.zimbra.cs.server.NioHandler;
+import com.zimbra.cs.server.NioServer;
+import com.zimbra.cs.server.ServerThrottle;
+import com.zimbra.cs.stats.ZimbraPerf;
+
+/**
+ * MINA-based LMTP server.  Unlike {@link TcpLmtpServer}, idle MTA connections don't hold a thread; a handler
+ * thread is only used while a command or a delivery is being processed.
+ */
+public final class NioLmtpServer extends NioServer implements LmtpServer, RealtimeStatsCallback {
+    private static final ProtocolDecoder DECODER = new NioLmtpDecoder();
+
+    public NioLmtpServer(LmtpConfig config) throws ServiceException {
+        super(config);
+        registerMBean(getName());
+        ZimbraPerf.addStatsCallback(this);
+        ServerThrottle.configureThrottle(config.getProtocol(), LC.lmtp_throttle_ip_limit.intValue(), 0, getThrottleSafeHosts(), getThrottleWhitelist());
+    }
+
+    @Override
+    public String getName() {
+        return "LmtpServer";
+    }
+
+    @Override
+    public NioHandler createHandler(NioConnection conn) {
+        return new NioLmtpHandler(this, conn);
+    }
+
+    @Override
+    protected ProtocolCodecFactory getProtocolCodecFactory() {
+        return new ProtocolCodecFactory() {
+            @Override
+            public ProtocolEncoder getEncoder(IoSession session) {
+                return DEFAULT_ENCODER;
+            }
+
+            @Override
+            public ProtocolDecoder getDecoder(IoSession session) {
+                return DECODER;
+            }
+        };
+    }
+
+    @Override
+    public LmtpConfig getConfig() {
+        return (LmtpConfig) super.getConfig();
+    }
+
+    @Override
+    public Map<String, Object> getStatData() {
+        return ImmutableMap.of(ZimbraPerf.RTS_LMTP_CONN, (Object) getNumConnections(),
+                ZimbraPerf.RTS_LMTP_THREADS, getNumThreads());
+    }
+}
@@ -14,7 +14,6 @@
  * If not, see <https://www.gnu.org/licenses/>.
  * ***** END LICENSE BLOCK *****
  */
-
 package com.zimbra.cs.lmtpserver;
 
 import java.io.IOException;
@@ -26,33 +25,47 @@ import javax.net.ssl.SSLSocketFactory;
 import com.zimbra.common.io.TcpServerInputStream;
 import com.zimbra.common.util.NetUtil;
 import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.server.ProtocolHandler;
 
-public class TcpLmtpHandler extends LmtpHandler {
+public class TcpLmtpHandler extends ProtocolHandler {
     private TcpServerInputStream inputStream;
+    private final HandlerDelegate delegate;
 
-    TcpLmtpHandler(LmtpServer server) {
+    TcpLmtpHandler(TcpLmtpServer server) {
         super(server);
+        delegate = new HandlerDelegate(server.getConfig());
     }
 
     @Override
     protected boolean setupConnection(Socket connection) throws IOException {
-        reset();
+        delegate.reset();
         inputStream = new TcpServerInputStream(connection.getInputStream());
-        mWriter = new LmtpWriter(connection.getOutputStream());
-        return setupConnection(connection.getInetAddress());
+        delegate.mWriter = new LmtpWriter(connection.getOutputStream());
+        return delegate.setupConnection(connection.getInetAddress());
+    }
+
+    @Override
+    protected boolean authenticate() {
+        // LMTP doesn't need auth.
+        return true;
+    }
+
+    @Override
+    protected void notifyIdleConnection() {
+        delegate.notifyIdleConnection();
     }
 
     @Override
     protected synchronized void dropConnection() {
-        ZimbraLog.addIpToContext(mRemoteAddress);
+        ZimbraLog.addIpToContext(delegate.mRemoteAddress);
         try {
             if (inputStream != null) {
                 inputStream.close();
                 inputStream = null;
             }
-            if (mWriter != null) {
-                mWriter.close();
-                mWriter = null;
+            if (delegate.mWriter != null) {
+                delegate.mWriter.close();
+                delegate.mWriter = null;
             }
         } catch (IOException e) {
             if (ZimbraLog.lmtp.isDebugEnabled()) {
@@ -68,21 +81,35 @@ public class TcpLmtpHandler extends LmtpHandler {
     @Override
     protected boolean processCommand() throws IOException {
         // make sure that the connection wasn't dropped during a preceding command processing
-        if (inputStream != null)
-            return processCommand(inputStream.readLine());
-        return false;
+        if (inputStream == null) {
+            return false;
+        }
+        String line = inputStream.readLine();
+        setIdle(false);
+        return delegate.processCommand(line);
     }
 
-    @Override
-    protected void continueDATA() throws IOException {
-        LmtpMessageInputStream min = new LmtpMessageInputStream(inputStream, getAdditionalHeaders());
-        processMessageData(min);
-    }
-    
-    @Override
+    private class HandlerDelegate extends LmtpHandler {
+
+        HandlerDelegate(LmtpConfig config) {
+            super(config);
+        }
+
+        @Override
+        protected void dropConnection() {
+            TcpLmtpHandler.this.dropConnection();
+        }
+
+        @Override
+        protected void continueDATA() throws IOException {
+            LmtpMessageInputStream min = new LmtpMessageInputStream(inputStream, getAdditionalHeaders());
+            processMessageData(min);
+        }
+
+        @Override
         protected void doSTARTTLS(String arg) throws IOException {
             if (arg != null) {
-            	sendReply(LmtpReply.STARTTLS_WITH_PARAMETER); // parameter supplied to STARTTLS
+                sendReply(LmtpReply.STARTTLS_WITH_PARAMETER); // parameter supplied to STARTTLS
                 return;
             }
             sendReply(LmtpReply.READY_TO_START_TLS);
@@ -95,6 +122,6 @@ public class TcpLmtpHandler extends LmtpHandler {
             inputStream = new TcpServerInputStream(tlsconn.getInputStream());
             mWriter = new LmtpWriter(tlsconn.getOutputStream());
             startedTLS = true;
+        }
     }
-
 }
@@ -28,7 +28,12 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 import javax.mail.MessagingException;
@@ -41,6 +46,8 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.zimbra.common.account.Key.AccountBy;
 import com.zimbra.common.lmtp.LmtpClient;
 import com.zimbra.common.lmtp.LmtpProtocolException;
@@ -65,6 +72,7 @@ import com.zimbra.cs.mailbox.DeliveryContext;
 import com.zimbra.cs.mailbox.DeliveryOptions;
 import com.zimbra.cs.mailbox.Flag;
 import com.zimbra.cs.mailbox.Folder;
+import com.zimbra.cs.mailbox.IndexDataCache;
 import com.zimbra.cs.mailbox.MailItem;
 import com.zimbra.cs.mailbox.MailServiceException;
 import com.zimbra.cs.mailbox.Mailbox;
@@ -87,6 +95,7 @@ public class ZimbraLmtpBackend implements LmtpBackend {
     private static List<LmtpCallback> callbacks = new CopyOnWriteArrayList<LmtpCallback>();
     private static Map<String, Set<Integer>> receivedMessageIDs;
     private static final LoadingCache<Integer, ReentrantLock> mailboxDeliveryLocks = createMailboxDeliveryLocks();
+    private static ThreadPoolExecutor deliveryExecutor;
 
     private final LmtpConfig config;
 
@@ -318,6 +327,7 @@ public class ZimbraLmtpBackend implements LmtpBackend {
         public ParsedMessage pm;
         public boolean esd; // whether endSharedDelivery should be called
         public DeliveryAction action;
+        public boolean attachmentIndexing;
 
         public RecipientDetail(Account a, Mailbox m, ParsedMessage p, boolean endSharedDelivery, DeliveryAction da) {
             account = a;
@@ -498,7 +508,9 @@ public class ZimbraLmtpBackend implements LmtpBackend {
 
                     if (account.isPrefMailLocalDeliveryDisabled()) {
                         ZimbraLog.lmtp.debug("Local delivery disabled for account %s", rcptEmail);
-                        rcptMap.put(recipient, new RecipientDetail(account, mbox, pm, false, DeliveryAction.discard));
+                        RecipientDetail rd = new RecipientDetail(account, mbox, pm, false, DeliveryAction.discard);
+                        rd.attachmentIndexing = attachmentsIndexingEnabled;
+                        rcptMap.put(recipient, rd);
                         continue;
                     }
 
@@ -514,7 +526,9 @@ public class ZimbraLmtpBackend implements LmtpBackend {
                             da = DeliveryAction.defer;
                         }
                     }
-                    rcptMap.put(recipient, new RecipientDetail(account, mbox, pm, endSharedDelivery, da));
+                    RecipientDetail rd = new RecipientDetail(account, mbox, pm, endSharedDelivery, da);
+                    rd.attachmentIndexing = attachmentsIndexingEnabled;
+                    rcptMap.put(recipient, rd);
                     if (da == DeliveryAction.deliver) {
                         targetMailboxIds.add(mbox.getId());
                     }
@@ -532,179 +546,24 @@ public class ZimbraLmtpBackend implements LmtpBackend {
 
             DeliveryContext sharedDeliveryCtxt = new DeliveryContext(shared, targetMailboxIds);
             sharedDeliveryCtxt.setIncomingBlob(blob);
+            if (targetMailboxIds.size() > 1) {
+                // index the message once for all of its mailboxes
+                IndexDataCache.share(blob.getDigest());
+            }
 
             // We now know which addresses are valid and which ParsedMessage
-            // version each recipient needs.  Deliver!
-            for (LmtpAddress recipient : recipients) {
-                String rcptEmail = recipient.getEmailAddress();
-                LmtpReply reply = LmtpReply.TEMPORARY_FAILURE;
-                RecipientDetail rd = rcptMap.get(recipient);
-                if (rd == null) {
-                    // Account or mailbox not found.
-                    ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: account or mailbox not found",
-                            envSender, rcptEmail);
-                    recipient.setDeliveryStatus(LmtpReply.PERMANENT_FAILURE);
-                    continue;
-                }
-                if (rd.account != null) {
-                    ZimbraLog.addAccountNameToContext(rd.account.getName());
-                }
-                if (rd.mbox != null) {
-                    ZimbraLog.addMboxToContext(rd.mbox.getId());
-                }
-
-                boolean success = false;
-                try {
-                    switch (rd.action) {
-                    case discard:
-                        ZimbraLog.lmtp.info("accepted and discarded message from=%s,to=%s: local delivery is disabled",
-                                envSender, rcptEmail);
-                        if (rd.account.getPrefMailForwardingAddress() != null) {
-                            // mail forwarding is set up
-                            for (LmtpCallback callback : callbacks) {
-                                ZimbraLog.lmtp.debug("Executing callback %s", callback.getClass().getName());
-                                callback.forwardWithoutDelivery(rd.account, rd.mbox, envSender, rcptEmail, rd.pm);
-                            }
-                        }
-                        reply = LmtpReply.DELIVERY_OK;
-                        break;
-                    case deliver:
-                        Account account = rd.account;
-                        Mailbox mbox = rd.mbox;
-                        ParsedMessage pm = rd.pm;
-                        List<ItemId> addedMessageIds = null;
-                        ReentrantLock lock = mailboxDeliveryLocks.get(mbox.getId());
-                        boolean acquiredLock;
-                        try {
-                            // Wait for the lock, up to the timeout
-                            acquiredLock = lock.tryLock(LC.zimbra_mailbox_lock_timeout.intValue(), TimeUnit.SECONDS);
-                        } catch (InterruptedException e) {
-                            acquiredLock = false;
-                        }
-                        if (!acquiredLock) {
-                            ZimbraLog.lmtp.info("try again for message from=%s,to=%s: another mail delivery in progress.",
-                                    envSender, rcptEmail);
-                            reply = LmtpReply.TEMPORARY_FAILURE;
-                            break;
-                        }
-                        try {
-                            if (dedupe(pm, mbox)) {
-                                // message was already delivered to this mailbox
-                                ZimbraLog.lmtp.info("Not delivering message with duplicate Message-ID %s", pm.getMessageID());
-                            } else if (mbox.dedupeForSelfMsg(pm)) {
-                                ZimbraLog.mailbox.info("not delivering message, because it is a duplicate of sent message %s",
-                                        pm.getMessageID());
-
-                            } else if (recipient.getSkipFilters()) {
-                                msgId = pm.getMessageID();
-                                int folderId = Mailbox.ID_FOLDER_INBOX;
-                                if (recipient.getFolder() != null) {
-                                    try {
-                                        Folder folder = mbox.getFolderByPath(null, recipient.getFolder());
-                                        folderId = folder.getId();
-                                    } catch (ServiceException se) {
-                                        if (se.getCode().equals(MailServiceException.NO_SUCH_FOLDER)) {
-                                            Folder folder = mbox.createFolder(null, recipient.getFolder(),
-                                                    new Folder.FolderOptions().setDefaultView(MailItem.Type.MESSAGE));
-                                            folderId = folder.getId();
-                                        } else {
-                                            throw se;
-                                        }
-                                    }
-                                }
-                                int flags = Flag.BITMASK_UNREAD;
-                                if (recipient.getFlags() != null) {
-                                    flags = Flag.toBitmask(recipient.getFlags());
-                                }
-                                DeliveryOptions dopt = new DeliveryOptions().setFolderId(folderId);
-                                dopt.setFlags(flags).setTags(recipient.getTags()).setRecipientEmail(rcptEmail);
-                                Message msg = mbox.addMessage(null, pm, dopt, sharedDeliveryCtxt);
-                                addedMessageIds = Lists.newArrayList(new ItemId(msg));
-                            } else if (!DebugConfig.disableIncomingFilter) {
-                                // Get msgid first, to avoid having to reopen and reparse the blob
-                                // file if Mailbox.addMessageInternal() closes it.
-                                pm.getMessageID();
-                                addedMessageIds = RuleManager.applyRulesToIncomingMessage(
-                                        null, mbox, pm, (int) blob.getRawSize(), rcptEmail, env, sharedDeliveryCtxt,
-                                        Mailbox.ID_FOLDER_INBOX, false, true);
-                            } else {
-                                pm.getMessageID();
-                                DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
-                                dopt.setFlags(Flag.BITMASK_UNREAD).setRecipientEmail(rcptEmail);
-                                Message msg = mbox.addMessage(null, pm, dopt, sharedDeliveryCtxt);
-                                addedMessageIds = Lists.newArrayList(new ItemId(msg));
-                            }
-                            success = true;
-                            if (addedMessageIds != null && addedMessageIds.size() > 0) {
-                                addToDedupeCache(pm, mbox);
-                            }
-                        } finally {
-                            lock.unlock();
-                        }
-
-                        if (addedMessageIds != null && addedMessageIds.size() > 0) {
-                            // Execute callbacks
-                            for (LmtpCallback callback : callbacks) {
-                                for (ItemId id : addedMessageIds) {
-                                    if (id.belongsTo(mbox)) {
-                                        // Message was added to the local mailbox, as opposed to a mountpoint.
-                                        ZimbraLog.lmtp.debug("Executing callback %s", callback.getClass().getName());
-                                        try {
-                                            Message msg = mbox.getMessageById(null, id.getId());
-                                            callback.afterDelivery(account, mbox, envSender, rcptEmail, msg);
-                                        } catch (OutOfMemoryError oome) {
-                                            Zimbra.halt("LMTP callback failed", oome);
-                                        } catch (Throwable t) {
-                                            ZimbraLog.lmtp.warn("LMTP callback threw an exception", t);
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                        reply = LmtpReply.DELIVERY_OK;
-                        break;
-                    case defer:
-                        // Delivery to mailbox skipped.  Let MTA retry again later.
-                        // This case happens for shared delivery to a mailbox in
-                        // backup mode.
-                        ZimbraLog.lmtp.info("try again for message from=%s,to=%s: mailbox skipped",
-                                envSender, rcptEmail);
-                        reply = LmtpReply.TEMPORARY_FAILURE;
-                        break;
-                    }
-                } catch (DeliveryServiceException e) {
-                    ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: sieve filter rule", envSender, rcptEmail);
-                    reply = LmtpReply.PERMANENT_MESSAGE_REFUSED;
-                } catch (ServiceException e) {
-                    if (e.getCode().equals(MailServiceException.QUOTA_EXCEEDED)) {
-                        ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: overquota", envSender, rcptEmail);
-                        if (config.isPermanentFailureWhenOverQuota()) {
-                            reply = LmtpReply.PERMANENT_FAILURE_OVER_QUOTA;
-                        } else {
-                            reply = LmtpReply.TEMPORARY_FAILURE_OVER_QUOTA;
-                        }
-                    } else if (e.isReceiversFault()) {
-                        ZimbraLog.lmtp.info("try again for message from=%s,to=%s", envSender, rcptEmail, e);
-                        reply = LmtpReply.TEMPORARY_FAILURE;
-                    } else {
-                        ZimbraLog.lmtp.info("rejecting message from=%s,to=%s", envSender, rcptEmail, e);
-                        reply = LmtpReply.PERMANENT_FAILURE;
-                    }
-                } catch (Exception e) {
-                    reply = LmtpReply.TEMPORARY_FAILURE;
-                    ZimbraLog.lmtp.warn("try again for message from=%s,to=%s", envSender, rcptEmail, e);
-                } finally {
-                    if (rd.action == DeliveryAction.deliver && !success) {
-                        // Message was not delivered.  Remove it from the dedupe
-                        // cache so we don't dedupe it on LMTP retry.
-                        removeFromDedupeCache(msgId, rd.mbox);
-                    }
-                    recipient.setDeliveryStatus(reply);
-                    if (shared && rd != null && rd.esd) {
-                        rd.mbox.endSharedDelivery();
-                        rd.esd = false;
-                    }
-                }
+            // version each recipient needs.  Deliver to one recipient at a
+            // time until a delivery has stored the shared blob and logged it
+            // to the redolog; the remaining recipients only link to that blob
+            // and can be delivered to concurrently.
+            int next = 0;
+            while (next < recipients.size() && sharedDeliveryCtxt.isFirst()) {
+                LmtpAddress recipient = recipients.get(next++);
+                deliverToRecipient(recipient, rcptMap.get(recipient), envSender, blob, env, sharedDeliveryCtxt, shared);
+            }
+            if (next < recipients.size()) {
+                deliverConcurrently(recipients.subList(next, recipients.size()), rcptMap, envSender, blob, data, env,
+                        sharedDeliveryCtxt, shared);
             }
 
             // If this message is being streamed from disk, cache it
@@ -739,6 +598,281 @@ public class ZimbraLmtpBackend implements LmtpBackend {
         }
     }
 
+    /**
+     * Delivers the message to the given recipients, using up to
+     * {@code zimbra_lmtp_delivery_parallelism} threads from the shared
+     * delivery pool along with the calling thread.  Each pooled thread parses
+     * its own copy of the message once and reuses it for every recipient it
+     * handles, since {@link ParsedMessage} is not safe to share between
+     * threads.  Returns once every recipient has a delivery
+     * status.
+     */
+    private void deliverConcurrently(final List<LmtpAddress> recipients, final Map<LmtpAddress, RecipientDetail> rcptMap,
+            final String envSender, final Blob blob, final byte[] data, final LmtpEnvelope env,
+            final DeliveryContext sharedDeliveryCtxt, final boolean shared) {
+        int helpers = Math.min(LC.zimbra_lmtp_delivery_parallelism.intValue(), recipients.size()) - 1;
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(recipients.size());
+        for (int i = 0; i < helpers; i++) {
+            try {
+                getDeliveryExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        // this thread's own parse of the message, for recipients with and without attachment indexing
+                        ParsedMessage[] parsed = new ParsedMessage[2];
+                        try {
+                            int idx;
+                            while ((idx = next.getAndIncrement()) < recipients.size()) {
+                                try {
+                                    LmtpAddress recipient = recipients.get(idx);
+                                    RecipientDetail rd = rcptMap.get(recipient);
+                                    if (rd != null && rd.pm != null) {
+                                        rd = reparse(recipient, rd, blob, data, parsed);
+                                        if (rd == null) {
+                                            continue;
+                                        }
+                                    }
+                                    deliverToRecipient(recipient, rd, envSender, blob, env, sharedDeliveryCtxt, shared);
+                                } finally {
+                                    ZimbraLog.clearContext();
+                                    done.countDown();
+                                }
+                            }
+                        } catch (Throwable t) {
+                            ZimbraLog.lmtp.warn("unexpected error during concurrent delivery", t);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // every delivery thread is busy; the calling thread picks up the slack
+                break;
+            }
+        }
+
+        int idx;
+        while ((idx = next.getAndIncrement()) < recipients.size()) {
+            try {
+                LmtpAddress recipient = recipients.get(idx);
+                deliverToRecipient(recipient, rcptMap.get(recipient), envSender, blob, env, sharedDeliveryCtxt, shared);
+            } finally {
+                done.countDown();
+            }
+        }
+        Uninterruptibles.awaitUninterruptibly(done);
+    }
+
+    /**
+     * Returns a copy of the recipient detail that uses the calling thread's {@link ParsedMessage}, parsing the message
+     * first if this thread hasn't yet.  Returns {@code null} if the message could not be parsed, in which case the
+     * recipient's delivery status has been set.
+     */
+    private static RecipientDetail reparse(LmtpAddress recipient, RecipientDetail rd, Blob blob, byte[] data,
+            ParsedMessage[] parsed) {
+        try {
+            int slot = rd.attachmentIndexing ? 1 : 0;
+            if (parsed[slot] == null) {
+                parsed[slot] = new ParsedMessage(new ParsedMessageOptions(blob, data).setAttachmentIndexing(rd.attachmentIndexing));
+            }
+            RecipientDetail copy = new RecipientDetail(rd.account, rd.mbox, parsed[slot], rd.esd, rd.action);
+            copy.attachmentIndexing = rd.attachmentIndexing;
+            // the copy now owns the endSharedDelivery call
+            rd.esd = false;
+            return copy;
+        } catch (ServiceException e) {
+            ZimbraLog.lmtp.warn("try again for message to=%s: unable to parse message", recipient.getEmailAddress(), e);
+            recipient.setDeliveryStatus(LmtpReply.TEMPORARY_FAILURE);
+            if (rd.esd) {
+                rd.mbox.endSharedDelivery();
+                rd.esd = false;
+            }
+            return null;
+        }
+    }
+
+    private static ThreadPoolExecutor getDeliveryExecutor() {
+        synchronized (ZimbraLmtpBackend.class) {
+            if (deliveryExecutor == null) {
+                int threads = Math.max(LC.zimbra_lmtp_delivery_threads.intValue(), 1);
+                deliveryExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                        new SynchronousQueue<Runnable>(),
+                        new ThreadFactoryBuilder().setNameFormat("LmtpDelivery-%d").setDaemon(true).build());
+                deliveryExecutor.allowCoreThreadTimeOut(true);
+            }
+            return deliveryExecutor;
+        }
+    }
+
+    private void deliverToRecipient(LmtpAddress recipient, RecipientDetail rd, String envSender, Blob blob,
+            LmtpEnvelope env, DeliveryContext sharedDeliveryCtxt, boolean shared) {
+        String rcptEmail = recipient.getEmailAddress();
+        LmtpReply reply = LmtpReply.TEMPORARY_FAILURE;
+        if (rd == null) {
+            // Account or mailbox not found.
+            ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: account or mailbox not found",
+                    envSender, rcptEmail);
+            recipient.setDeliveryStatus(LmtpReply.PERMANENT_FAILURE);
+            return;
+        }
+        if (rd.account != null) {
+            ZimbraLog.addAccountNameToContext(rd.account.getName());
+        }
+        if (rd.mbox != null) {
+            ZimbraLog.addMboxToContext(rd.mbox.getId());
+        }
+
+        boolean success = false;
+        try {
+            switch (rd.action) {
+            case discard:
+                ZimbraLog.lmtp.info("accepted and discarded message from=%s,to=%s: local delivery is disabled",
+                        envSender, rcptEmail);
+                if (rd.account.getPrefMailForwardingAddress() != null) {
+                    // mail forwarding is set up
+                    for (LmtpCallback callback : callbacks) {
+                        ZimbraLog.lmtp.debug("Executing callback %s", callback.getClass().getName());
+                        callback.forwardWithoutDelivery(rd.account, rd.mbox, envSender, rcptEmail, rd.pm);
+                    }
+                }
+                reply = LmtpReply.DELIVERY_OK;
+                break;
+            case deliver:
+                Account account = rd.account;
+                Mailbox mbox = rd.mbox;
+                ParsedMessage pm = rd.pm;
+                List<ItemId> addedMessageIds = null;
+                ReentrantLock lock = mailboxDeliveryLocks.get(mbox.getId());
+                boolean acquiredLock;
+                try {
+                    // Wait for the lock, up to the timeout
+                    acquiredLock = lock.tryLock(LC.zimbra_mailbox_lock_timeout.intValue(), TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    acquiredLock = false;
+                }
+                if (!acquiredLock) {
+                    ZimbraLog.lmtp.info("try again for message from=%s,to=%s: another mail delivery in progress.",
+                            envSender, rcptEmail);
+                    reply = LmtpReply.TEMPORARY_FAILURE;
+                    break;
+                }
+                try {
+                    if (dedupe(pm, mbox)) {
+                        // message was already delivered to this mailbox
+                        ZimbraLog.lmtp.info("Not delivering message with duplicate Message-ID %s", pm.getMessageID());
+                    } else if (mbox.dedupeForSelfMsg(pm)) {
+                        ZimbraLog.mailbox.info("not delivering message, because it is a duplicate of sent message %s",
+                                pm.getMessageID());
+
+                    } else if (recipient.getSkipFilters()) {
+                        int folderId = Mailbox.ID_FOLDER_INBOX;
+                        if (recipient.getFolder() != null) {
+                            try {
+                                Folder folder = mbox.getFolderByPath(null, recipient.getFolder());
+                                folderId = folder.getId();
+                            } catch (ServiceException se) {
+                                if (se.getCode().equals(MailServiceException.NO_SUCH_FOLDER)) {
+                                    Folder folder = mbox.createFolder(null, recipient.getFolder(),
+                                            new Folder.FolderOptions().setDefaultView(MailItem.Type.MESSAGE));
+                                    folderId = folder.getId();
+                                } else {
+                                    throw se;
+                                }
+                            }
+                        }
+                        int flags = Flag.BITMASK_UNREAD;
+                        if (recipient.getFlags() != null) {
+                            flags = Flag.toBitmask(recipient.getFlags());
+                        }
+                        DeliveryOptions dopt = new DeliveryOptions().setFolderId(folderId);
+                        dopt.setFlags(flags).setTags(recipient.getTags()).setRecipientEmail(rcptEmail);
+                        Message msg = mbox.addMessage(null, pm, dopt, sharedDeliveryCtxt);
+                        addedMessageIds = Lists.newArrayList(new ItemId(msg));
+                    } else if (!DebugConfig.disableIncomingFilter) {
+                        // Get msgid first, to avoid having to reopen and reparse the blob
+                        // file if Mailbox.addMessageInternal() closes it.
+                        pm.getMessageID();
+                        addedMessageIds = RuleManager.applyRulesToIncomingMessage(
+                                null, mbox, pm, (int) blob.getRawSize(), rcptEmail, env, sharedDeliveryCtxt,
+                                Mailbox.ID_FOLDER_INBOX, false, true);
+                    } else {
+                        pm.getMessageID();
+                        DeliveryOptions dopt = new DeliveryOptions().setFolderId(Mailbox.ID_FOLDER_INBOX);
+                        dopt.setFlags(Flag.BITMASK_UNREAD).setRecipientEmail(rcptEmail);
+                        Message msg = mbox.addMessage(null, pm, dopt, sharedDeliveryCtxt);
+                        addedMessageIds = Lists.newArrayList(new ItemId(msg));
+                    }
+                    success = true;
+                    if (addedMessageIds != null && addedMessageIds.size() > 0) {
+                        addToDedupeCache(pm, mbox);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                if (addedMessageIds != null && addedMessageIds.size() > 0) {
+                    // Execute callbacks
+                    for (LmtpCallback callback : callbacks) {
+                        for (ItemId id : addedMessageIds) {
+                            if (id.belongsTo(mbox)) {
+                                // Message was added to the local mailbox, as opposed to a mountpoint.
+                                ZimbraLog.lmtp.debug("Executing callback %s", callback.getClass().getName());
+                                try {
+                                    Message msg = mbox.getMessageById(null, id.getId());
+                                    callback.afterDelivery(account, mbox, envSender, rcptEmail, msg);
+                                } catch (OutOfMemoryError oome) {
+                                    Zimbra.halt("LMTP callback failed", oome);
+                                } catch (Throwable t) {
+                                    ZimbraLog.lmtp.warn("LMTP callback threw an exception", t);
+                                }
+                            }
+                        }
+                    }
+                }
+                reply = LmtpReply.DELIVERY_OK;
+                break;
+            case defer:
+                // Delivery to mailbox skipped.  Let MTA retry again later.
+                // This case happens for shared delivery to a mailbox in
+                // backup mode.
+                ZimbraLog.lmtp.info("try again for message from=%s,to=%s: mailbox skipped",
+                        envSender, rcptEmail);
+                reply = LmtpReply.TEMPORARY_FAILURE;
+                break;
+            }
+        } catch (DeliveryServiceException e) {
+            ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: sieve filter rule", envSender, rcptEmail);
+            reply = LmtpReply.PERMANENT_MESSAGE_REFUSED;
+        } catch (ServiceException e) {
+            if (e.getCode().equals(MailServiceException.QUOTA_EXCEEDED)) {
+                ZimbraLog.lmtp.info("rejecting message from=%s,to=%s: overquota", envSender, rcptEmail);
+                if (config.isPermanentFailureWhenOverQuota()) {
+                    reply = LmtpReply.PERMANENT_FAILURE_OVER_QUOTA;
+                } else {
+                    reply = LmtpReply.TEMPORARY_FAILURE_OVER_QUOTA;
+                }
+            } else if (e.isReceiversFault()) {
+                ZimbraLog.lmtp.info("try again for message from=%s,to=%s", envSender, rcptEmail, e);
+                reply = LmtpReply.TEMPORARY_FAILURE;
+            } else {
+                ZimbraLog.lmtp.info("rejecting message from=%s,to=%s", envSender, rcptEmail, e);
+                reply = LmtpReply.PERMANENT_FAILURE;
+            }
+        } catch (Exception e) {
+            reply = LmtpReply.TEMPORARY_FAILURE;
+            ZimbraLog.lmtp.warn("try again for message from=%s,to=%s", envSender, rcptEmail, e);
+        } finally {
+            if (rd.action == DeliveryAction.deliver && !success) {
+                // Message was not delivered.  Remove it from the dedupe
+                // cache so we don't dedupe it on LMTP retry.
+                removeFromDedupeCache(rd.pm.getMessageID(), rd.mbox);
+            }
+            recipient.setDeliveryStatus(reply);
+            if (shared && rd.esd) {
+                rd.mbox.endSharedDelivery();
+                rd.esd = false;
+            }
+        }
+    }
+
     private void deliverMessageToRemoteMailboxes(Blob blob, byte[] data, LmtpEnvelope env) {
         Multimap<String, LmtpAddress> serverToRecipientsMap = env.getRemoteServerToRecipientsMap();
         for (String server : serverToRecipientsMap.keySet()) {
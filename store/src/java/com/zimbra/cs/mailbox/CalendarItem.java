@@ -81,6 +81,7 @@ import com.zimbra.cs.mailbox.calendar.Alarm;
 import com.zimbra.cs.mailbox.calendar.Alarm.Action;
 import com.zimbra.cs.mailbox.calendar.CalendarMailSender;
 import com.zimbra.cs.mailbox.calendar.IcalXmlStrMap;
+import com.zimbra.cs.mailbox.calendar.InstanceIndex;
 import com.zimbra.cs.mailbox.calendar.Invite;
 import com.zimbra.cs.mailbox.calendar.InviteChanges;
 import com.zimbra.cs.mailbox.calendar.InviteInfo;
@@ -143,6 +144,7 @@ public abstract class CalendarItem extends MailItem {
     private AlarmData mAlarmData;  // next/last DISPLAY alarm info
 
     private Recurrence.IRecurrence mRecurrence;
+    private volatile InstanceIndex mInstanceIndex; // expansions of mRecurrence, see getInstanceIndex()
     private TimeZoneMap mTzMap;
 
     private List<Invite> mInvites;
@@ -711,7 +713,8 @@ public abstract class CalendarItem extends MailItem {
 
         IRecurrence recur = firstInv.getRecurrence();
         if (recur instanceof Recurrence.RecurrenceRule) {
-            mRecurrence = (IRecurrence) recur.clone();
+            // fill in a copy and publish it when done, so that the instance index is never built from a half-made rule
+            Recurrence.RecurrenceRule rule = (Recurrence.RecurrenceRule) recur.clone();
 
             // now, go through the list of invites and find all the exceptions
             for (Invite cur : mInvites) {
@@ -723,7 +726,7 @@ public abstract class CalendarItem extends MailItem {
                             checkExdateIsSensible(cur.getRecurId());
                             Recurrence.CancellationRule cancelRule = new Recurrence.CancellationRule(cur.getRecurId());
 
-                            ((Recurrence.RecurrenceRule) mRecurrence).addException(cancelRule);
+                            rule.addException(cancelRule);
                         }
                     } else if (method.equals(ICalTok.REQUEST.toString()) ||
                         method.equals(ICalTok.PUBLISH.toString())) {
@@ -743,13 +746,15 @@ public abstract class CalendarItem extends MailItem {
                                         new InviteInfo(cur)
                                         );
                             }
-                            ((Recurrence.RecurrenceRule) mRecurrence).addException(exceptRule);
+                            rule.addException(exceptRule);
                         } else {
                             sLog.debug("Got second invite with no RecurID: " + cur.toString());
                         }
                     }
                 }
             }
+            mRecurrence = rule;
+
             // Find the earliest DTSTART and latest DTEND.  We're just looking for the bounds, so we won't worry
             // about cancelled instances.
             ParsedDateTime earliestStart = null;
@@ -974,7 +979,7 @@ public abstract class CalendarItem extends MailItem {
         List<Instance> instances = new ArrayList<Instance>();
         if (mRecurrence != null) {
             long startTime = System.currentTimeMillis();
-            instances = Recurrence.expandInstances(mRecurrence, getId(), start, endAdjusted);
+            instances = getInstanceIndex().expand(start, endAdjusted);
             if (ZimbraLog.calendar.isDebugEnabled()) {
                 long elapsed = System.currentTimeMillis() - startTime;
                 ZimbraLog.calendar.debug(
@@ -1024,6 +1029,20 @@ public abstract class CalendarItem extends MailItem {
         return instances;
     }
 
+    /**
+     * Returns the expansion index of the current recurrence. Invites and replies are never applied to the recurrence in
+     * place, a changed copy is published instead, so an index kept for an older recurrence object is simply replaced.
+     */
+    private InstanceIndex getInstanceIndex() {
+        IRecurrence recur = mRecurrence;
+        InstanceIndex index = mInstanceIndex;
+        if (index == null || !index.isFor(recur)) {
+            index = new InstanceIndex(recur, getId());
+            mInstanceIndex = index;
+        }
+        return index;
+    }
+
     public static class Instance implements Comparable<Instance> {
         private final boolean mHasStart;
         private final boolean mHasEnd;
@@ -3478,11 +3497,9 @@ public abstract class CalendarItem extends MailItem {
         if ((reply == null) || reply.getRecurId() == null) {
             return; // reply isn't to a single instance
         }
-        Recurrence.RecurrenceRule recurrenceRule = null;
         if ((mRecurrence == null)  || !(mRecurrence instanceof Recurrence.RecurrenceRule)) {
             return;
         }
-        recurrenceRule = (Recurrence.RecurrenceRule) mRecurrence;
         Collection<Instance> instancesNear = instancesNear(reply.getRecurId());
         if (!instancesNear.isEmpty()) {
             /* we need a new exception to handle the difference in attendee status */
@@ -3514,10 +3531,13 @@ public abstract class CalendarItem extends MailItem {
                             localException.setMailItemId(itemIdGetter.get());
                         }
                         mInvites.add(localException);
-                        // create a fake ExceptionRule wrapper around the single-instance
+                        // create a fake ExceptionRule wrapper around the single-instance.  It goes on a copy of the
+                        // recurrence, because the instance index instancesNear() just used belongs to the current one.
+                        Recurrence.RecurrenceRule recurrenceRule = (Recurrence.RecurrenceRule) mRecurrence.clone();
                         recurrenceRule.addException(
                                 new Recurrence.ExceptionRule(reply.getRecurId(), localException.getStartTime(),
                                         localException.getEffectiveDuration(), new InviteInfo(localException)));
+                        mRecurrence = recurrenceRule;
                     } catch (ParseException e) {
                         sLog.debug("Unexpected exception - not updating calendar invite with pseudo exception", e);
                     }
@@ -21,9 +21,9 @@
 package com.zimbra.cs.mailbox;
 
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.zimbra.cs.store.Blob;
 import com.zimbra.cs.store.MailboxBlob;
@@ -35,14 +35,18 @@ import com.zimbra.cs.store.MailboxBlob;
  * 
  * This class is used to carry information across multiple calls to
  * Mailbox.addMessage() for a single message being delivered.
+ *
+ * Once the first recipient's delivery has completed, LMTP may deliver to the
+ * remaining recipients of a shared delivery concurrently, so the context must
+ * be safe to read and update from several threads.
  */
 public class DeliveryContext {
 
     private boolean mShared;
-    private Blob mIncomingBlob;
-    private MailboxBlob mMailboxBlob;
+    private volatile Blob mIncomingBlob;
+    private volatile MailboxBlob mMailboxBlob;
     private List<Integer> mMailboxIdList;
-    private boolean mIsFirst = true;
+    private volatile boolean mIsFirst = true;
     private Map <Integer,Blob> mailBoxBlobMap;
 
     /**
@@ -64,7 +68,7 @@ public class DeliveryContext {
         mMailboxBlob = null;
         mMailboxIdList = mboxIdList;
         if (mShared) {
-            mailBoxBlobMap =  new HashMap<Integer,Blob>();
+            mailBoxBlobMap = new ConcurrentHashMap<Integer,Blob>();
         }
     }
 
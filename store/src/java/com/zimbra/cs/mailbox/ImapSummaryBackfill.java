@@ -0,0 +1,144 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.imap.ImapMessageSummary;
+import com.zimbra.cs.index.SortBy;
+import com.zimbra.cs.mime.ParsedMessage;
+
+/**
+ * Stores the IMAP ENVELOPE/BODYSTRUCTURE summary on messages delivered before it was computed at delivery time, so
+ * that header-only FETCHes of old mail stop parsing blobs too.
+ * <p>
+ * Runs in the background inside mailboxd when {@link LC#imap_summary_backfill_enabled} is set, one mailbox at a
+ * time, parsing at most {@link LC#imap_summary_backfill_messages_per_second} messages per second.  Summaries are
+ * stored with {@link Mailbox#setImapSummary}, which rewrites only the metadata and doesn't bump the message's
+ * modseq, so clients see no change.  Messages that already have a summary are skipped, so a restarted server
+ * resumes the pass at the cost of rereading the item rows it had already done.
+ */
+public final class ImapSummaryBackfill extends Thread {
+
+    private static ImapSummaryBackfill sInstance;
+
+    private volatile boolean mShutdownRequested = false;
+    private final RateLimiter mRateLimiter;
+    private int mUpdated;
+    private int mSkipped;
+
+    ImapSummaryBackfill(int messagesPerSecond) {
+        setName("ImapSummaryBackfill");
+        setDaemon(true);
+        mRateLimiter = messagesPerSecond > 0 ? RateLimiter.create(messagesPerSecond) : null;
+    }
+
+    public static synchronized void startup() {
+        if (!LC.imap_summary_backfill_enabled.booleanValue()) {
+            return;
+        }
+        if (sInstance != null) {
+            ZimbraLog.mailbox.warn("IMAP summary backfill is already running");
+            return;
+        }
+        sInstance = new ImapSummaryBackfill(LC.imap_summary_backfill_messages_per_second.intValue());
+        sInstance.start();
+    }
+
+    public static synchronized void shutdown() {
+        if (sInstance != null) {
+            // not interrupted: that would close the channel of a blob being read
+            sInstance.mShutdownRequested = true;
+            sInstance = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        ZimbraLog.mailbox.info("starting IMAP summary backfill");
+        for (int mboxId : MailboxManager.getInstance().getMailboxIds()) {
+            if (mShutdownRequested) {
+                ZimbraLog.mailbox.info("IMAP summary backfill stopped for shutdown");
+                return;
+            }
+            try {
+                handleMailbox(MailboxManager.getInstance().getMailboxById(mboxId));
+            } catch (ServiceException e) {
+                ZimbraLog.mailbox.warn("unable to backfill IMAP summaries in mailbox %d", mboxId, e);
+            }
+        }
+        ZimbraLog.mailbox.info("IMAP summary backfill done: %d updated, %d skipped", mUpdated, mSkipped);
+        synchronized (ImapSummaryBackfill.class) {
+            if (sInstance == this) {
+                sInstance = null;
+            }
+        }
+    }
+
+    void handleMailbox(Mailbox mbox) throws ServiceException {
+        int updated = mUpdated;
+        OperationContext octxt = new OperationContext(mbox);
+        for (Folder folder : mbox.getFolderList(octxt, SortBy.NONE)) {
+            for (int id : mbox.listItemIds(octxt, MailItem.Type.MESSAGE, folder.getId())) {
+                if (mShutdownRequested) {
+                    return;
+                }
+                try {
+                    backfill(mbox, mbox.getMessageById(octxt, id));
+                } catch (MailServiceException.NoSuchItemException e) {
+                    // deleted while we were working
+                } catch (Exception e) {
+                    ZimbraLog.mailbox.warn("unable to backfill IMAP summary for message %d in mailbox %d",
+                            id, mbox.getId(), e);
+                }
+            }
+        }
+        if (mUpdated > updated) {
+            ZimbraLog.mailbox.info("backfilled %d IMAP summaries in mailbox %d", mUpdated - updated, mbox.getId());
+        }
+    }
+
+    private void backfill(Mailbox mbox, Message msg) throws Exception {
+        if (msg.getImapSummary() != null) {
+            return;
+        }
+        if (mRateLimiter != null) {
+            mRateLimiter.acquire();
+        }
+        // read the blob directly instead of pulling every old message through the MessageCache
+        int modContent = msg.getSavedSequence();
+        ParsedMessage pm = new ParsedMessage(msg.getBlob().getLocalBlob(), msg.getDate(),
+                mbox.attachmentsIndexingEnabled());
+        pm.setDefaultCharset(mbox.getAccount().getPrefMailDefaultCharset());
+        ImapMessageSummary summary = pm.getImapSummary();
+        if (summary != null && mbox.setImapSummary(msg.getId(), modContent, summary)) {
+            mUpdated++;
+        } else {
+            mSkipped++;
+        }
+    }
+
+    int getUpdated() {
+        return mUpdated;
+    }
+
+    int getSkipped() {
+        return mSkipped;
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.index.IndexDocument;
+import com.zimbra.cs.mailbox.MailItem.TemporaryIndexingException;
+
+/**
+ * Shares the analyzed index data of a message delivered to many mailboxes.
+ * <p>
+ * Each mailbox indexes its copy of a delivered message on its own, which
+ * without this cache means extracting the text and building the Lucene
+ * documents once per recipient.  LMTP registers the digest of every blob it
+ * delivers to more than one local mailbox with {@link #share(String)}; the
+ * first mailbox to index such a message analyzes it and the rest get copies
+ * of the result.  Other messages bypass the cache entirely.
+ * <p>
+ * The analysis only depends on the message content, whether attachments are
+ * indexed and the default charset, so those make up the key.  Item-specific
+ * fields are set on each copy by the index store when it's added.
+ */
+public final class IndexDataCache {
+
+    private static final class Key {
+        final String digest;
+        final boolean attachmentIndexing;
+        final String charset;
+
+        Key(String digest, boolean attachmentIndexing, String charset) {
+            this.digest = digest;
+            this.attachmentIndexing = attachmentIndexing;
+            this.charset = charset;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return digest.equals(other.digest) && attachmentIndexing == other.attachmentIndexing &&
+                    Objects.equal(charset, other.charset);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(digest, attachmentIndexing, charset);
+        }
+    }
+
+    private static final Cache<String, Boolean> shared = CacheBuilder.newBuilder()
+            .maximumSize(LC.zimbra_index_shared_data_cache_size.intValue() * 10)
+            .expireAfterWrite(LC.zimbra_index_shared_data_cache_ttl.intValue(), TimeUnit.SECONDS)
+            .build();
+
+    private static final Cache<Key, List<IndexDocument>> documents = CacheBuilder.newBuilder()
+            .maximumSize(LC.zimbra_index_shared_data_cache_size.intValue())
+            .expireAfterAccess(LC.zimbra_index_shared_data_cache_ttl.intValue(), TimeUnit.SECONDS)
+            .build();
+
+    private IndexDataCache() {
+    }
+
+    /**
+     * Marks the blob with the given digest as being delivered to several mailboxes, so that its index data is
+     * analyzed once and shared.
+     */
+    public static void share(String digest) {
+        if (digest != null && LC.zimbra_index_shared_data_cache_size.intValue() > 0) {
+            shared.put(digest, Boolean.TRUE);
+        }
+    }
+
+    static boolean isShared(String digest) {
+        return digest != null && shared.getIfPresent(digest) != null;
+    }
+
+    /**
+     * Returns index documents for a message, running {@code analyzer} only if the message isn't shared or no other
+     * mailbox has analyzed it yet.  Concurrent callers for the same key wait for a single analysis.  The returned
+     * documents always belong to the caller.
+     */
+    static List<IndexDocument> get(String digest, boolean attachmentIndexing, String charset,
+            Callable<List<IndexDocument>> analyzer) throws TemporaryIndexingException, ServiceException {
+        if (!isShared(digest)) {
+            return call(analyzer);
+        }
+        List<IndexDocument> docs;
+        try {
+            docs = documents.get(new Key(digest, attachmentIndexing, charset), analyzer);
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            throw unwrap(e.getCause());
+        }
+        ZimbraLog.index.debug("using shared index data for %s", digest);
+        List<IndexDocument> copy = new ArrayList<IndexDocument>(docs.size());
+        for (IndexDocument doc : docs) {
+            copy.add(doc.copy());
+        }
+        return copy;
+    }
+
+    private static List<IndexDocument> call(Callable<List<IndexDocument>> analyzer)
+            throws TemporaryIndexingException, ServiceException {
+        try {
+            return analyzer.call();
+        } catch (Exception e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static ServiceException unwrap(Throwable t) throws TemporaryIndexingException {
+        if (t instanceof TemporaryIndexingException) {
+            throw (TemporaryIndexingException) t;
+        } else if (t instanceof ServiceException) {
+            return (ServiceException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return ServiceException.FAILURE("unable to analyze message", t);
+    }
+
+    static void clear() {
+        shared.invalidateAll();
+        documents.invalidateAll();
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.stats.ZimbraPerf;
+
+/**
+ * Server-wide limit on the number of {@link MailItem}s held in the item caches
+ * of all loaded mailboxes.
+ * <p>
+ * Each mailbox still trims its own cache in LRU order at the end of every
+ * transaction.  When the total across mailboxes goes over
+ * <tt>zimbra_mailbox_item_cache_budget</tt>, whole caches are dropped starting
+ * with the coldest mailboxes, until the total is back under 90% of the budget.
+ * Mailboxes are ranked TinyLFU-style by the number of transactions they have
+ * run, halved after each round of shedding so that past activity fades, with
+ * ties broken by the time of the last transaction.
+ */
+public final class ItemCacheBudget {
+
+    private static final ItemCacheBudget INSTANCE = new ItemCacheBudget(LC.zimbra_mailbox_item_cache_budget.intValue());
+
+    private static final class Usage {
+        Usage(Mailbox mbox) {
+            this.mbox = new WeakReference<Mailbox>(mbox);
+        }
+        /** Weak, so that the budget doesn't keep otherwise unreferenced mailboxes in memory. */
+        final WeakReference<Mailbox> mbox;
+        final AtomicInteger size = new AtomicInteger();
+        final AtomicInteger frequency = new AtomicInteger();
+        volatile long lastAccess;
+        // snapshot used for ranking, so that the sort order doesn't change under Collections.sort()
+        int rankFrequency;
+        long rankAccess;
+    }
+
+    private final ConcurrentHashMap<Integer, Usage> entries = new ConcurrentHashMap<Integer, Usage>();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicBoolean shedding = new AtomicBoolean();
+    private final long budget;
+
+    ItemCacheBudget(long budget) {
+        this.budget = budget;
+    }
+
+    public static ItemCacheBudget getInstance() {
+        return INSTANCE;
+    }
+
+    /** Returns the number of items cached across all mailboxes. */
+    public long getSize() {
+        return total.get();
+    }
+
+    /**
+     * Records the end of a transaction on the given mailbox, whose item cache
+     * now holds <tt>size</tt> items, and sheds other mailboxes' caches if the
+     * server is over budget.
+     */
+    void record(Mailbox mbox, int size) {
+        Usage usage = getUsage(mbox);
+        usage.frequency.incrementAndGet();
+        usage.lastAccess = System.currentTimeMillis();
+        total.addAndGet(size - usage.size.getAndSet(size));
+        if (total.get() > budget) {
+            shed(usage);
+        }
+    }
+
+    /** Forgets about the given mailbox's item cache after it has been cleared. */
+    void release(Mailbox mbox) {
+        Usage usage = entries.get(mbox.getId());
+        if (usage != null && usage.mbox.get() == mbox) {
+            total.addAndGet(-usage.size.getAndSet(0));
+        }
+    }
+
+    private Usage getUsage(Mailbox mbox) {
+        Integer id = mbox.getId();
+        Usage usage = entries.get(id);
+        while (usage == null || usage.mbox.get() != mbox) {
+            Usage created = new Usage(mbox);
+            if (usage == null) {
+                usage = entries.putIfAbsent(id, created);
+                if (usage == null) {
+                    usage = created;
+                }
+            } else if (entries.replace(id, usage, created)) {
+                // the mailbox has been reloaded; the old instance's cache is gone with it
+                total.addAndGet(-usage.size.getAndSet(0));
+                usage = created;
+            } else {
+                usage = entries.get(id);
+            }
+        }
+        return usage;
+    }
+
+    private void shed(Usage caller) {
+        if (!shedding.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            long target = budget * 9 / 10;
+            List<Usage> candidates = new ArrayList<Usage>(entries.size());
+            for (Map.Entry<Integer, Usage> e : entries.entrySet()) {
+                Usage usage = e.getValue();
+                if (usage.mbox.get() == null) {
+                    if (entries.remove(e.getKey(), usage)) {
+                        total.addAndGet(-usage.size.getAndSet(0));
+                    }
+                } else if (usage != caller && usage.size.get() > 0) {
+                    usage.rankFrequency = usage.frequency.get();
+                    usage.rankAccess = usage.lastAccess;
+                    candidates.add(usage);
+                }
+            }
+            Collections.sort(candidates, COLDEST_FIRST);
+
+            int mailboxes = 0;
+            long items = 0;
+            for (Usage usage : candidates) {
+                if (total.get() <= target) {
+                    break;
+                }
+                Mailbox mbox = usage.mbox.get();
+                if (mbox != null && mbox.shedItemCache()) {
+                    int size = usage.size.getAndSet(0);
+                    total.addAndGet(-size);
+                    items += size;
+                    mailboxes++;
+                    ZimbraPerf.COUNTER_MBOX_ITEM_CACHE_EVICTIONS.increment(size);
+                }
+            }
+
+            // age the access counts so that mailboxes that were busy a while ago don't stay hot forever
+            for (Usage usage : entries.values()) {
+                int freq;
+                do {
+                    freq = usage.frequency.get();
+                } while (!usage.frequency.compareAndSet(freq, freq / 2));
+            }
+            ZimbraLog.cache.info("item cache over budget (%d items); shed %d items from %d mailboxes, %d items now cached",
+                    budget, items, mailboxes, total.get());
+        } finally {
+            shedding.set(false);
+        }
+    }
+
+    private static final Comparator<Usage> COLDEST_FIRST = new Comparator<Usage>() {
+        @Override
+        public int compare(Usage u1, Usage u2) {
+            if (u1.rankFrequency != u2.rankFrequency) {
+                return u1.rankFrequency < u2.rankFrequency ? -1 : 1;
+            }
+            return Long.compare(u1.rankAccess, u2.rankAccess);
+        }
+    };
+}
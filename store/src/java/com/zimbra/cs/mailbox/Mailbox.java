@@ -21,7 +21,6 @@ import java.io.InputStream;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
-import java.lang.ref.SoftReference;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -111,6 +110,7 @@ import com.zimbra.cs.account.Server;
 import com.zimbra.cs.account.ShareLocator;
 import com.zimbra.cs.datasource.DataSourceManager;
 import com.zimbra.cs.db.DbDataSource;
+import com.zimbra.cs.db.DbItemBatch;
 import com.zimbra.cs.db.DbMailItem;
 import com.zimbra.cs.db.DbMailItem.QueryParams;
 import com.zimbra.cs.db.DbMailbox;
@@ -123,6 +123,7 @@ import com.zimbra.cs.fb.FreeBusy;
 import com.zimbra.cs.fb.FreeBusyQuery;
 import com.zimbra.cs.fb.LocalFreeBusyProvider;
 import com.zimbra.cs.imap.ImapMessage;
+import com.zimbra.cs.imap.ImapMessageSummary;
 import com.zimbra.cs.index.BrowseTerm;
 import com.zimbra.cs.index.DomainBrowseTerm;
 import com.zimbra.cs.index.IndexDocument;
@@ -391,6 +392,7 @@ public class Mailbox implements MailboxStore {
         PendingLocalModifications dirty = new PendingLocalModifications();
         final List<Object> otherDirtyStuff = new LinkedList<Object>();
         PendingDelete deletes = null;
+        DbItemBatch batch = null;
         private boolean writeChange;
 
         MailboxChange() {
@@ -501,6 +503,7 @@ public class Mailbox implements MailboxStore {
             this.sync = null;
             this.config = null;
             this.deletes = null;
+            this.batch = null;
             this.itemCache = null;
             this.indexItems.clear();
             this.dirty.clear();
@@ -743,7 +746,8 @@ public class Mailbox implements MailboxStore {
 
     private FolderCache mFolderCache;
     private Map<Object, Tag> mTagCache;
-    private SoftReference<ItemCache> mItemCache = new SoftReference<ItemCache>(null);
+    /** Strongly held; dropped only by {@link ItemCacheBudget} or when the cache is cleared. */
+    private volatile ItemCache mItemCache;
     private final Map<String, Integer> mConvHashes = new ConcurrentLinkedHashMap.Builder<String, Integer>()
                     .maximumWeightedCapacity(MAX_MSGID_CACHE).build();
     private final Map<String, Integer> mSentMessageIDs = new ConcurrentLinkedHashMap.Builder<String, Integer>()
@@ -1680,6 +1684,11 @@ public class Mailbox implements MailboxStore {
         }
     }
 
+    /** Returns true if the current thread has a transaction open on this mailbox. */
+    public boolean isInTransaction() {
+        return currentChange().isActive();
+    }
+
     public DbConnection getOperationConnection() throws ServiceException {
         if (!currentChange().isActive()) {
             throw ServiceException.FAILURE("cannot fetch Connection outside transaction", new Exception());
@@ -1687,6 +1696,39 @@ public class Mailbox implements MailboxStore {
         return currentChange().getConnection();
     }
 
+    /**
+     * Returns the batch collecting per-item DB writes for the bulk operation
+     * currently in progress, or {@code null} if writes should go straight to
+     * the database.
+     */
+    public DbItemBatch getOperationBatch() {
+        MailboxChange change = currentChange();
+        return change.isActive() ? change.batch : null;
+    }
+
+    /**
+     * Starts coalescing per-item DB writes for the current transaction.
+     *
+     * @return whether this call started the batch and so must end it via {@link #endWriteBatch}
+     */
+    private boolean beginWriteBatch() {
+        MailboxChange change = currentChange();
+        int size = DbItemBatch.getBatchSize();
+        if (change.batch != null || size <= 1) {
+            return false;
+        }
+        change.batch = new DbItemBatch(this, size);
+        return true;
+    }
+
+    private void endWriteBatch(boolean started) throws ServiceException {
+        if (started) {
+            DbItemBatch batch = currentChange().batch;
+            currentChange().batch = null;
+            batch.flush();
+        }
+    }
+
     private void setOperationConnection(DbConnection conn) throws ServiceException {
         if (!currentChange().isActive()) {
             throw ServiceException.FAILURE("cannot set Connection outside transaction", new Exception());
@@ -1829,14 +1871,16 @@ public class Mailbox implements MailboxStore {
             recorder.setChangeId(getOperationChangeID());
         }
 
-        // keep a hard reference to the item cache to avoid having it GCed during the op
-        ItemCache cache = mItemCache.get();
-        if (cache == null) {
-            cache = new ItemCache(this);
-            mItemCache = new SoftReference<ItemCache>(cache);
-            ZimbraLog.cache.debug("created a new MailItem cache for mailbox " + getId());
+        // keep using the same item cache for the whole op, even if the item cache budget sheds it meanwhile
+        if (currentChange().itemCache == null) {
+            ItemCache cache = mItemCache;
+            if (cache == null) {
+                cache = new ItemCache(this);
+                mItemCache = cache;
+                ZimbraLog.cache.debug("created a new MailItem cache for mailbox " + getId());
+            }
+            currentChange().itemCache = cache;
         }
-        currentChange().itemCache = cache;
 
         // don't permit mailbox access during maintenance
         if (maintenance != null && !maintenance.canAccess()) {
@@ -1999,7 +2043,8 @@ public class Mailbox implements MailboxStore {
         if (currentChange().isActive()) {
             currentChange().itemCache.clear();
         } else {
-            mItemCache.clear();
+            mItemCache = null;
+            ItemCacheBudget.getInstance().release(this);
         }
         try {
             if (Zimbra.isAlwaysOn()) {
@@ -2801,7 +2846,7 @@ public class Mailbox implements MailboxStore {
         }
         assert (currentChange().depth == 0);
 
-        ItemCache cache = mItemCache.get();
+        ItemCache cache = mItemCache;
         FolderCache folders = mFolderCache == null || Collections.disjoint(pms.changedTypes, FOLDER_TYPES) ? mFolderCache
                         : snapshotFolders();
 
@@ -3745,6 +3790,30 @@ public class Mailbox implements MailboxStore {
         }
     }
 
+    /**
+     * Stores the IMAP summary of a message delivered before summaries were computed at delivery time.  The write
+     * isn't a change to the message: its modseq stays the same, and it isn't redo-logged.  Does nothing and returns
+     * false if the message has a summary already, or if its content has changed since it was parsed.
+     *
+     * @param modContent the message's {@link MailItem#getSavedSequence()} when the summary was computed
+     */
+    boolean setImapSummary(int id, int modContent, ImapMessageSummary summary) throws ServiceException {
+        boolean success = false;
+        try {
+            beginTransaction("setImapSummary", null);
+            Message msg = getMessageById(id);
+            boolean stored = false;
+            if (msg.getImapSummary() == null && msg.getSavedSequence() == modContent) {
+                msg.setImapSummary(summary);
+                stored = true;
+            }
+            success = true;
+            return stored;
+        } finally {
+            endTransaction(success);
+        }
+    }
+
     /**
      * Record that an IMAP client has seen all the messages in this folder as they are at this time.
      * This is used to determine which messages are considered by IMAP to be RECENT
@@ -6900,6 +6969,7 @@ public class Mailbox implements MailboxStore {
             }
         }
 
+        boolean batching = beginWriteBatch();
         for (MailItem item : items) {
             if (item == null) {
                 continue;
@@ -6911,6 +6981,7 @@ public class Mailbox implements MailboxStore {
                 item.alterTag(tag, addTag);
             }
         }
+        endWriteBatch(batching);
     }
 
     public void setTags(OperationContext octxt, int itemId, MailItem.Type type, int flags, String[] tags)
@@ -6954,6 +7025,7 @@ public class Mailbox implements MailboxStore {
 
             Tag.NormalizedTags ntags = tags == MailItem.TAG_UNCHANGED ? null : new Tag.NormalizedTags(this, tags, true, true);
 
+            boolean batching = beginWriteBatch();
             for (MailItem item : items) {
                 if (item == null) {
                     continue;
@@ -6975,6 +7047,7 @@ public class Mailbox implements MailboxStore {
                     item.alterUnread(iunread);
                 }
             }
+            endWriteBatch(batching);
 
             success = true;
         } finally {
@@ -7335,6 +7408,7 @@ public class Mailbox implements MailboxStore {
             int oldUIDNEXT = target.getImapUIDNEXT();
             boolean resetUIDNEXT = false;
 
+            boolean batching = beginWriteBatch();
             for (MailItem item : items) {
 
                 // train the spam filter if necessary...
@@ -7349,6 +7423,7 @@ public class Mailbox implements MailboxStore {
                     resetUIDNEXT = true;
                 }
             }
+            endWriteBatch(batching);
 
             // if this operation should cause the target folder's UIDNEXT value to change but it hasn't yet, do it here
             if (resetUIDNEXT && oldUIDNEXT == target.getImapUIDNEXT()) {
@@ -7526,6 +7601,7 @@ public class Mailbox implements MailboxStore {
             beginTransaction("delete", octxt, redoRecorder);
             setOperationTargetConstraint(tcon);
 
+            boolean batching = beginWriteBatch();
             for (int id : itemIds) {
                 if (id == ID_AUTO_INCREMENT) {
                     continue;
@@ -7554,6 +7630,7 @@ public class Mailbox implements MailboxStore {
                     item.delete(false);
                 }
             }
+            endWriteBatch(batching);
 
             // deletes have already been collected, so fetch the tombstones and write once
             TypedIdList tombstones = collectPendingTombstones();
@@ -10045,6 +10122,9 @@ public class Mailbox implements MailboxStore {
 
             int excess = cache.size() - sizeTarget;
             if (excess <= 0) {
+                if (cache == mItemCache) {
+                    ItemCacheBudget.getInstance().record(this, cache.size());
+                }
                 return;
             }
 
@@ -10060,7 +10140,7 @@ public class Mailbox implements MailboxStore {
             // trim the excess; note that "uncache" can cascade and take out child items
             while (--i >= 0) {
                 if (cache.size() <= sizeTarget) {
-                    return;
+                    break;
                 }
 
                 try {
@@ -10068,11 +10148,30 @@ public class Mailbox implements MailboxStore {
                 } catch (ServiceException e) {
                 }
             }
+            if (cache == mItemCache) {
+                ItemCacheBudget.getInstance().record(this, cache.size());
+            }
         } catch (RuntimeException e) {
             ZimbraLog.mailbox.error("ignoring error during item cache trim", e);
         }
     }
 
+    /**
+     * Drops this mailbox's item cache to bring the server back under its
+     * item cache budget.  An operation in progress keeps using the cache it
+     * started with; the next one starts with an empty cache.
+     *
+     * @return whether the cache was dropped
+     */
+    boolean shedItemCache() {
+        if (lock.isLockedByAnyThread()) {
+            return false;
+        }
+        mItemCache = null;
+        ZimbraLog.cache.debug("shed MailItem cache for mailbox %d", getId());
+        return true;
+    }
+
     public boolean attachmentsIndexingEnabled() throws ServiceException {
         return getAccount().isAttachmentsIndexingEnabled();
     }
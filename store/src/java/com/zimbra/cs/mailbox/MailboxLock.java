@@ -92,6 +92,11 @@ public final class MailboxLock {
         return !isWriteLockedByCurrentThread() && zLock.getReadHoldCount() == 0;
     }
 
+    /** Returns whether any thread, not just the current one, holds the lock. */
+    boolean isLockedByAnyThread() {
+        return zLock.isWriteLocked() || zLock.getReadLockCount() > 0;
+    }
+
     /**
      * Acquires the lock.
      *
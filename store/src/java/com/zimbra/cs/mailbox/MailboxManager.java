@@ -17,16 +17,19 @@
 package com.zimbra.cs.mailbox;
 
 import java.lang.ref.SoftReference;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
@@ -139,12 +142,17 @@ public class MailboxManager {
             listener.mailboxDeleted(accountId);
     }
 
-    private static MailboxManager sInstance;
+    private static volatile MailboxManager sInstance;
 
     /** Maps account IDs (<code>String</code>s) to mailbox IDs
      *  (<code>Integer</code>s).  <i>Every</i> mailbox in existence on the
-     *  server appears in this mapping. */
-    private Map<String, Integer> mailboxIds;
+     *  server appears in this mapping.  Reads don't take the manager lock. */
+    private ConcurrentHashMap<String, Integer> mailboxIds;
+
+    /** Mailboxes being loaded from the database, so that concurrent requests for the same mailbox wait for a
+     *  single load instead of each instantiating their own {@link Mailbox}. */
+    private final ConcurrentHashMap<Integer, CompletableFuture<Mailbox>> loading =
+            new ConcurrentHashMap<Integer, CompletableFuture<Mailbox>>();
 
     /**
      * Maps mailbox IDs ({@link Integer}s) to either
@@ -156,6 +164,8 @@ public class MailboxManager {
      * Mailboxes are faulted into memory as needed, but may drop from memory when the SoftReference expires due to
      * memory pressure combined with a lack of outstanding references to the {@link Mailbox}.  Only one {@link Mailbox}
      * per user is cached, and only that {@link Mailbox} can process user requests.
+     * <p>
+     * Lookups are lock-free; changes are made while holding the manager lock.
      */
     private MailboxMap cache;
 
@@ -164,7 +174,7 @@ public class MailboxManager {
         synchronized (this) {
             try {
                 conn = DbPool.getConnection();
-                mailboxIds = DbMailbox.listMailboxes(conn, this);
+                mailboxIds = new ConcurrentHashMap<String, Integer>(DbMailbox.listMailboxes(conn, this));
                 cache = createCache();
             } finally {
                 DbPool.quietClose(conn);
@@ -186,7 +196,15 @@ public class MailboxManager {
     protected MailboxManager(boolean extend) {
     }
 
-    public synchronized static MailboxManager getInstance() throws ServiceException {
+    public static MailboxManager getInstance() throws ServiceException {
+        MailboxManager instance = sInstance;
+        if (instance != null) {
+            return instance;
+        }
+        return initInstance();
+    }
+
+    private synchronized static MailboxManager initInstance() throws ServiceException {
         if (sInstance == null) {
             String className = LC.zimbra_class_mboxmanager.value();
             if (className != null && !className.equals("")) {
@@ -208,7 +226,7 @@ public class MailboxManager {
     }
 
     @VisibleForTesting
-    public static void setInstance(MailboxManager mmgr) {
+    public synchronized static void setInstance(MailboxManager mmgr) {
         sInstance = mmgr;
     }
 
@@ -356,10 +374,7 @@ public class MailboxManager {
         if (accountId == null)
             throw new IllegalArgumentException();
 
-        Integer mailboxKey;
-        synchronized (this) {
-            mailboxKey = mailboxIds.get(accountId.toLowerCase());
-        }
+        Integer mailboxKey = mailboxIds.get(accountId.toLowerCase());
         if (mailboxKey != null) {
             if (DebugConfig.mockMultiserverInstall)
                 lookupAccountWithHostCheck(accountId, skipMailHostCheck);
@@ -370,9 +385,7 @@ public class MailboxManager {
 
         // auto-create the mailbox if this is the right host...
         Account account = lookupAccountWithHostCheck(accountId, skipMailHostCheck);
-        synchronized (this) {
-            mailboxKey = mailboxIds.get(accountId.toLowerCase());
-        }
+        mailboxKey = mailboxIds.get(accountId.toLowerCase());
         if (mailboxKey != null)
             return getMailboxById(mailboxKey, fetchMode, skipMailHostCheck);
         else
@@ -451,13 +464,11 @@ public class MailboxManager {
         long startTime = ZimbraPerf.STOPWATCH_MBOX_GET.start();
 
         Mailbox mbox = null;
-        synchronized (this) {
-            // check to see if the mailbox has already been cached
-            Object cached = retrieveFromCache(mailboxId, true);
-            if (cached instanceof Mailbox) {
-                ZimbraPerf.COUNTER_MBOX_CACHE.increment(100);
-                mbox = (Mailbox) cached;
-            }
+        // check to see if the mailbox has already been cached
+        Object cached = retrieveFromCache(mailboxId, true);
+        if (cached instanceof Mailbox) {
+            ZimbraPerf.COUNTER_MBOX_CACHE.increment(100);
+            mbox = (Mailbox) cached;
         }
 
         if (fetchMode == FetchMode.ONLY_IF_CACHED && (mbox == null || !mbox.isOpen())) {
@@ -467,48 +478,7 @@ public class MailboxManager {
 
         if (mbox == null) { // not found in cache
             ZimbraPerf.COUNTER_MBOX_CACHE.increment(0);
-            MailboxData data;
-            DbConnection conn = DbPool.getConnection();
-            try {
-                // fetch the Mailbox data from the database
-                data = DbMailbox.getMailboxStats(conn, mailboxId);
-                if (data == null) {
-                    throw MailServiceException.NO_SUCH_MBOX(mailboxId);
-                }
-            } finally {
-                conn.closeQuietly();
-            }
-
-            mbox = instantiateMailbox(data);
-            Account account = mbox.getAccount();
-            boolean isGalSyncAccount = AccountUtil.isGalSyncAccount(account);
-            mbox.setGalSyncMailbox(isGalSyncAccount);
-
-            if (!skipMailHostCheck) {
-                // The host check here makes sure that sessions that were
-                // already connected at the time of mailbox move are not
-                // allowed to continue working with this mailbox which is
-                // essentially a soft-deleted copy.  The WRONG_HOST
-                // exception forces the clients to reconnect to the new
-                // server.
-                if (!Provisioning.onLocalServer(account))
-                    throw ServiceException.WRONG_HOST(account.getMailHost(), null);
-            }
-
-            synchronized (this) {
-                // avoid the race condition by re-checking the cache and using that data (if any)
-                Object cached = retrieveFromCache(mailboxId, false);
-                if (cached instanceof Mailbox) {
-                    mbox = (Mailbox) cached;
-                } else {
-                    // cache the newly-created Mailbox object
-                    if (cached instanceof MailboxMaintenance) {
-                        ((MailboxMaintenance) cached).setMailbox(mbox);
-                    } else {
-                        cacheMailbox(mbox);
-                    }
-                }
-            }
+            mbox = loadMailbox(mailboxId, skipMailHostCheck);
         }
 
         // now, make sure the mailbox is opened -- we do this after releasing MailboxManager lock so that filesystem IO
@@ -540,10 +510,107 @@ public class MailboxManager {
         return mbox;
     }
 
+    /**
+     * Loads a mailbox that isn't in the cache.  If another thread is already loading the same mailbox, waits for it
+     * and returns the same {@link Mailbox} object.
+     */
+    private Mailbox loadMailbox(int mailboxId, boolean skipMailHostCheck) throws ServiceException {
+        while (true) {
+            CompletableFuture<Mailbox> load = new CompletableFuture<Mailbox>();
+            CompletableFuture<Mailbox> pending = loading.putIfAbsent(mailboxId, load);
+            if (pending != null) {
+                try {
+                    return pending.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw ServiceException.FAILURE("interrupted while waiting for mailbox " + mailboxId + " to load", e);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof ServiceException) {
+                        // the other thread's host check doesn't apply to us; load it ourselves
+                        if (skipMailHostCheck && ServiceException.WRONG_HOST.equals(((ServiceException) cause).getCode())) {
+                            continue;
+                        }
+                        throw (ServiceException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw ServiceException.FAILURE("error loading mailbox " + mailboxId, cause);
+                }
+            }
+
+            try {
+                Mailbox mbox = loadMailboxFromDb(mailboxId, skipMailHostCheck);
+                // unregister before completing, so that nobody retrying after a failure waits on this load again
+                loading.remove(mailboxId, load);
+                load.complete(mbox);
+                return mbox;
+            } catch (ServiceException | RuntimeException | Error e) {
+                loading.remove(mailboxId, load);
+                load.completeExceptionally(e);
+                throw e;
+            }
+        }
+    }
+
+    private Mailbox loadMailboxFromDb(int mailboxId, boolean skipMailHostCheck) throws ServiceException {
+        // the mailbox may have been cached since we last looked
+        Object cached = retrieveFromCache(mailboxId, false);
+        if (cached instanceof Mailbox) {
+            return (Mailbox) cached;
+        }
+
+        MailboxData data;
+        DbConnection conn = DbPool.getConnection();
+        try {
+            // fetch the Mailbox data from the database
+            data = DbMailbox.getMailboxStats(conn, mailboxId);
+            if (data == null) {
+                throw MailServiceException.NO_SUCH_MBOX(mailboxId);
+            }
+        } finally {
+            conn.closeQuietly();
+        }
+
+        Mailbox mbox = instantiateMailbox(data);
+        Account account = mbox.getAccount();
+        boolean isGalSyncAccount = AccountUtil.isGalSyncAccount(account);
+        mbox.setGalSyncMailbox(isGalSyncAccount);
+
+        if (!skipMailHostCheck) {
+            // The host check here makes sure that sessions that were
+            // already connected at the time of mailbox move are not
+            // allowed to continue working with this mailbox which is
+            // essentially a soft-deleted copy.  The WRONG_HOST
+            // exception forces the clients to reconnect to the new
+            // server.
+            if (!Provisioning.onLocalServer(account))
+                throw ServiceException.WRONG_HOST(account.getMailHost(), null);
+        }
+
+        synchronized (this) {
+            // avoid the race condition by re-checking the cache and using that data (if any)
+            cached = retrieveFromCache(mailboxId, false);
+            if (cached instanceof Mailbox) {
+                mbox = (Mailbox) cached;
+            } else {
+                // cache the newly-created Mailbox object
+                if (cached instanceof MailboxMaintenance) {
+                    ((MailboxMaintenance) cached).setMailbox(mbox);
+                } else {
+                    cacheMailbox(mbox);
+                }
+            }
+        }
+        return mbox;
+    }
+
     /** @return A list of *hard references* to all currently-loaded mailboxes which are not
      *     .   in MAINTENANCE mode.  Caller must be careful to not hang onto this list for
      *         very long or else mailboxes will not be purged. */
-    public synchronized List<Mailbox> getAllLoadedMailboxes() {
+    public List<Mailbox> getAllLoadedMailboxes() {
         List<Mailbox> mboxes = new ArrayList<Mailbox>(cache.size());
         for (Object o : cache.values()) {
             if (o instanceof Mailbox) {
@@ -561,7 +628,7 @@ public class MailboxManager {
     /**
      * Returns the number of hard references to currently-loaded mailboxes, either in MAINTENANCE mode or not.
      */
-    public synchronized int getCacheSize() {
+    public int getCacheSize() {
         int count = 0;
         for (Object o : cache.values()) {
             if (o instanceof Mailbox || o instanceof MailboxMaintenance) {
@@ -576,7 +643,7 @@ public class MailboxManager {
      * that one of the {@link Listener} APIs be called for this mailbox at some point in the future, if this mailbox is
      * ever accessed.
      */
-    public synchronized boolean isMailboxLoadedAndAvailable(int mailboxId) {
+    public boolean isMailboxLoadedAndAvailable(int mailboxId) {
         Object cached = cache.get(mailboxId);
         if (cached == null) {
             return false;
@@ -589,24 +656,22 @@ public class MailboxManager {
     }
 
     private Object retrieveFromCache(int mailboxId, boolean trackGC) throws MailServiceException {
-        synchronized (this) {
-            Object cached = cache.get(mailboxId, trackGC);
-            if (cached instanceof MailboxMaintenance) {
-                MailboxMaintenance maintenance = (MailboxMaintenance) cached;
-                if (!maintenance.canAccess()) {
-                    if (isMailboxLockedOut(maintenance.getAccountId())) {
-                        throw MailServiceException.MAINTENANCE(mailboxId, "mailbox locked out for maintenance");
-                    } else {
-                        throw MailServiceException.MAINTENANCE(mailboxId);
-                    }
-                }
-                if (maintenance.getMailbox() != null) {
-                    return maintenance.getMailbox();
+        Object cached = cache.get(mailboxId, trackGC);
+        if (cached instanceof MailboxMaintenance) {
+            MailboxMaintenance maintenance = (MailboxMaintenance) cached;
+            if (!maintenance.canAccess()) {
+                if (isMailboxLockedOut(maintenance.getAccountId())) {
+                    throw MailServiceException.MAINTENANCE(mailboxId, "mailbox locked out for maintenance");
+                } else {
+                    throw MailServiceException.MAINTENANCE(mailboxId);
                 }
             }
-            // if we've retrieved NULL or a Mailbox or an accessible lock, return it
-            return cached;
+            if (maintenance.getMailbox() != null) {
+                return maintenance.getMailbox();
+            }
         }
+        // if we've retrieved NULL or a Mailbox or an accessible lock, return it
+        return cached;
     }
 
     /**
@@ -620,7 +685,7 @@ public class MailboxManager {
         return new ExternalVirtualMailbox(data);
     }
 
-    protected synchronized void cacheAccount(String accountId, int mailboxId) {
+    protected void cacheAccount(String accountId, int mailboxId) {
         mailboxIds.put(accountId.toLowerCase(), Integer.valueOf(mailboxId));
     }
 
@@ -717,9 +782,7 @@ public class MailboxManager {
      * @return
      */
     public int getMailboxCount() {
-        synchronized (this) {
-            return mailboxIds.size();
-        }
+        return mailboxIds.size();
     }
 
 
@@ -728,14 +791,12 @@ public class MailboxManager {
      *  not the same as the set of mailboxes for accounts whose
      *  <code>zimbraMailHost</code> LDAP attribute points to this server. */
     public int[] getMailboxIds() {
+        List<Integer> col = new ArrayList<Integer>(mailboxIds.values());
+        int[] ids = new int[col.size()];
         int i = 0;
-        synchronized (this) {
-            Collection<Integer> col = mailboxIds.values();
-            int[] mailboxIds = new int[col.size()];
-            for (int id : col)
-                mailboxIds[i++] = id;
-            return mailboxIds;
-        }
+        for (int id : col)
+            ids[i++] = id;
+        return ids;
     }
 
     public Set<Integer> getPurgePendingMailboxes(long time) throws ServiceException {
@@ -749,19 +810,24 @@ public class MailboxManager {
 
     }
 
+    /** Returns the time of the last complete purge of each mailbox on this
+     *  host, keyed by mailbox id. */
+    public Map<Integer, Long> getLastPurgeTimes() throws ServiceException {
+        DbConnection conn = null;
+        try {
+            conn = DbPool.getConnection();
+            return DbMailbox.listLastPurgeTimes(conn);
+        } finally {
+            DbPool.quietClose(conn);
+        }
+    }
+
     /** Returns an array of the account IDs of all the mailboxes on this host.
      *  Note that <code>Mailbox</code>es are lazily created, so this is not
      *  the same as the set of accounts whose <code>zimbraMailHost</code> LDAP
      *  attribute points to this server.*/
     public String[] getAccountIds() {
-        int i = 0;
-        synchronized (this) {
-            Set<String> set = mailboxIds.keySet();
-            String[] accountIds = new String[set.size()];
-            for (String o : set)
-                accountIds[i++] = o;
-            return accountIds;
-        }
+        return mailboxIds.keySet().toArray(new String[0]);
     }
 
 
@@ -771,10 +837,7 @@ public class MailboxManager {
      * @return
      */
     public int lookupMailboxId(String accountId) {
-        Integer v;
-        synchronized (this) {
-            v = mailboxIds.get(accountId);
-        }
+        Integer v = mailboxIds.get(accountId);
         return v != null ? v.intValue() : -1;
     }
 
@@ -789,16 +852,14 @@ public class MailboxManager {
      *        the database; a SQLException is encapsulated</ul> */
     public Map<String, Long> getMailboxSizes(List<NamedEntry> accounts) throws ServiceException {
         List<Integer> requested;
-        synchronized (this) {
-            if (accounts == null) {
-                requested = new ArrayList<Integer>(mailboxIds.values());
-            } else {
-                requested = new ArrayList<Integer>(accounts.size());
-                for (NamedEntry account : accounts) {
-                    Integer mailboxId = mailboxIds.get(account.getId());
-                    if (mailboxId != null)
-                        requested.add(mailboxId);
-                }
+        if (accounts == null) {
+            requested = new ArrayList<Integer>(mailboxIds.values());
+        } else {
+            requested = new ArrayList<Integer>(accounts.size());
+            for (NamedEntry account : accounts) {
+                Integer mailboxId = mailboxIds.get(account.getId());
+                if (mailboxId != null)
+                    requested.add(mailboxId);
             }
         }
 
@@ -1020,53 +1081,112 @@ public class MailboxManager {
         }
     }
 
+    /**
+     * Mailbox cache that keeps the most recently loaded {@code hardSize} entries as hard references and the rest as
+     * {@link SoftReference}s.  Reads are lock-free.  Writes are serialized on the map, and an entry moves between the
+     * hard and soft sets with a single atomic replace, so a reader never misses an entry that is being demoted.
+     */
     protected static class MailboxMap implements Map<Integer, Object> {
+        private static final class Slot {
+            Slot(Object value, boolean hard) {
+                this.value = value;
+                this.hard = hard;
+                this.lastAccess = System.nanoTime();
+            }
+            /** A {@link Mailbox} or {@link MailboxMaintenance}, or a {@link SoftReference} to one if not hard. */
+            final Object value;
+            final boolean hard;
+            volatile long lastAccess;
+
+            Object get() {
+                return value instanceof SoftReference ? ((SoftReference<?>) value).get() : value;
+            }
+        }
+
+        /** A hard slot considered for demotion, with its access time frozen so that the sort order is stable. */
+        private static final class Candidate {
+            Candidate(Integer key, Slot slot) {
+                this.key = key;
+                this.slot = slot;
+                this.lastAccess = slot.lastAccess;
+            }
+            final Integer key;
+            final Slot slot;
+            final long lastAccess;
+        }
+
+        private static final Comparator<Candidate> LEAST_RECENTLY_USED = new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate c1, Candidate c2) {
+                return Long.compare(c1.lastAccess, c2.lastAccess);
+            }
+        };
+
         final int mHardSize;
-        final LinkedHashMap<Integer, Object> mHardMap;
-        final HashMap<Integer, Object> mSoftMap;
-
-        @SuppressWarnings("serial") MailboxMap(int hardSize) {
-            hardSize = Math.max(hardSize, 0);
-            mHardSize = hardSize;
-            mSoftMap = new HashMap<Integer, Object>();
-            mHardMap = new LinkedHashMap<Integer, Object>(mHardSize / 4, (float) .75, true) {
-                @Override protected boolean removeEldestEntry(Entry<Integer, Object> eldest) {
-                    if (size() <= mHardSize)
-                        return false;
-
-                    Object obj = eldest.getValue();
-                    if (obj instanceof Mailbox)
-                        obj = new SoftReference<Mailbox>((Mailbox) obj);
-                    mSoftMap.put(eldest.getKey(), obj);
-                    return true;
-                }
-            };
+        private final ConcurrentHashMap<Integer, Slot> mSlots;
+        /** Number of hard slots in {@link #mSlots}; only changed while holding the map's monitor. */
+        private int mHardCount;
+
+        MailboxMap(int hardSize) {
+            mHardSize = Math.max(hardSize, 0);
+            mSlots = new ConcurrentHashMap<Integer, Slot>(Math.max(16, mHardSize / 4));
         }
 
         protected MailboxMap() {
             mHardSize = 0;
-            mHardMap = null;
-            mSoftMap = null;
+            mSlots = null;
+        }
+
+        /** Turns the least recently used hard references into soft ones, leaving some headroom so that we don't
+         *  need to sort on every put. */
+        private void demote() {
+            if (mHardCount <= mHardSize) {
+                return;
+            }
+            List<Candidate> hard = new ArrayList<Candidate>(mHardCount);
+            for (Map.Entry<Integer, Slot> entry : mSlots.entrySet()) {
+                if (entry.getValue().hard) {
+                    hard.add(new Candidate(entry.getKey(), entry.getValue()));
+                }
+            }
+            Collections.sort(hard, LEAST_RECENTLY_USED);
+            int target = mHardSize - mHardSize / 10;
+            for (Candidate candidate : hard) {
+                if (mHardCount <= target) {
+                    break;
+                }
+                Object obj = candidate.slot.value;
+                if (obj instanceof Mailbox) {
+                    obj = new SoftReference<Mailbox>((Mailbox) obj);
+                }
+                if (mSlots.replace(candidate.key, candidate.slot, new Slot(obj, false))) {
+                    mHardCount--;
+                }
+            }
         }
 
-        @Override public void clear() {
-            mHardMap.clear();
-            mSoftMap.clear();
+        @Override public synchronized void clear() {
+            mSlots.clear();
+            mHardCount = 0;
         }
 
         @Override public boolean containsKey(Object key) {
-            return mHardMap.containsKey(key) || mSoftMap.containsKey(key);
+            return mSlots.containsKey(key);
         }
 
         @Override public boolean containsValue(Object value) {
-            return mHardMap.containsValue(value) || mSoftMap.containsValue(value);
+            for (Slot slot : mSlots.values()) {
+                if (slot.get() == value || (value != null && value.equals(slot.get())))
+                    return true;
+            }
+            return false;
         }
 
         @Override public Set<Entry<Integer, Object>> entrySet() {
             Set<Entry<Integer, Object>> entries = new HashSet<Entry<Integer, Object>>(size());
-            if (mHardSize > 0)
-                entries.addAll(mHardMap.entrySet());
-            entries.addAll(mSoftMap.entrySet());
+            for (Map.Entry<Integer, Slot> entry : mSlots.entrySet()) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<Integer, Object>(entry.getKey(), entry.getValue().value));
+            }
             return entries;
         }
 
@@ -1075,44 +1195,37 @@ public class MailboxManager {
         }
 
         public Object get(Object key, boolean trackGC) {
-            Object obj = mHardSize > 0 ? mHardMap.get(key) : null;
-            if (obj == null) {
-                obj = mSoftMap.get(key);
-                if (obj instanceof SoftReference) {
-                    obj = ((SoftReference<?>) obj).get();
-                    if (trackGC && obj == null)
-                        ZimbraLog.mailbox.debug("mailbox " + key + " has been GCed; reloading");
-                }
+            Slot slot = mSlots.get(key);
+            if (slot == null)
+                return null;
+            Object obj = slot.get();
+            if (slot.hard) {
+                slot.lastAccess = System.nanoTime();
+            } else if (obj == null && trackGC) {
+                ZimbraLog.mailbox.debug("mailbox " + key + " has been GCed; reloading");
             }
             return obj;
         }
 
         @Override public boolean isEmpty() {
-            return mHardMap.isEmpty() && mSoftMap.isEmpty();
+            return mSlots.isEmpty();
         }
 
         @Override public Set<Integer> keySet() {
-            Set<Integer> keys = new HashSet<Integer>(size());
-            if (mHardSize > 0)
-                keys.addAll(mHardMap.keySet());
-            keys.addAll(mSoftMap.keySet());
-            return keys;
+            return new HashSet<Integer>(mSlots.keySet());
         }
 
-        @Override public Object put(Integer key, Object value) {
-            Object removed;
-            if (mHardSize > 0) {
-                removed = mHardMap.put(key, value);
-                if (removed == null)
-                    removed = mSoftMap.remove(key);
-            } else {
-                if (value instanceof Mailbox)
-                    value = new SoftReference<Object>(value);
-                removed = mSoftMap.put(key, value);
-            }
-            if (removed instanceof SoftReference)
-                removed = ((SoftReference<?>) removed).get();
-            return removed;
+        @Override public synchronized Object put(Integer key, Object value) {
+            boolean hard = mHardSize > 0;
+            if (!hard && value instanceof Mailbox)
+                value = new SoftReference<Object>(value);
+            Slot removed = mSlots.put(key, new Slot(value, hard));
+            if (hard)
+                mHardCount++;
+            if (removed != null && removed.hard)
+                mHardCount--;
+            demote();
+            return removed == null ? null : removed.get();
         }
 
         @Override public void putAll(Map<? extends Integer, ? extends Object> t) {
@@ -1120,34 +1233,46 @@ public class MailboxManager {
                 put(entry.getKey(), entry.getValue());
         }
 
-        @Override public Object remove(Object key) {
-            Object removed = mHardSize > 0 ? mHardMap.remove(key) : null;
-            if (removed == null) {
-                removed = mSoftMap.remove(key);
-                if (removed instanceof SoftReference)
-                    removed = ((SoftReference<?>) removed).get();
-            }
-            return removed;
+        @Override public synchronized Object remove(Object key) {
+            Slot removed = mSlots.remove(key);
+            if (removed == null)
+                return null;
+            if (removed.hard)
+                mHardCount--;
+            return removed.get();
         }
 
         @Override public int size() {
-            return mHardMap.size() + mSoftMap.size();
+            return mSlots.size();
+        }
+
+        @VisibleForTesting
+        synchronized int getHardCount() {
+            return mHardCount;
+        }
+
+        @VisibleForTesting
+        boolean isHard(Object key) {
+            Slot slot = mSlots.get(key);
+            return slot != null && slot.hard;
         }
 
         @Override public Collection<Object> values() {
             List<Object> values = new ArrayList<Object>(size());
-            if (mHardSize > 0)
-                values.addAll(mHardMap.values());
-            for (Object o : mSoftMap.values()) {
-                if (o instanceof SoftReference)
-                    o = ((SoftReference<?>) o).get();
-                values.add(o);
-            }
+            for (Slot slot : mSlots.values())
+                values.add(slot.get());
             return values;
         }
 
         @Override public String toString() {
-            return "<" + mHardMap.toString() + ", " + mSoftMap.toString() + ">";
+            StringBuilder hard = new StringBuilder("{"), soft = new StringBuilder("{");
+            for (Map.Entry<Integer, Slot> entry : mSlots.entrySet()) {
+                StringBuilder sb = entry.getValue().hard ? hard : soft;
+                if (sb.length() > 1)
+                    sb.append(", ");
+                sb.append(entry.getKey()).append('=').append(entry.getValue().value);
+            }
+            return "<" + hard.append('}') + ", " + soft.append('}') + ">";
         }
     }
 }
@@ -23,6 +23,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
@@ -51,6 +52,7 @@ import com.zimbra.cs.account.CalendarResource;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.account.accesscontrol.Rights.User;
 import com.zimbra.cs.db.DbMailItem;
+import com.zimbra.cs.imap.ImapMessageSummary;
 import com.zimbra.cs.index.IndexDocument;
 import com.zimbra.cs.index.SortBy;
 import com.zimbra.cs.mailbox.MailItem.CustomMetadata.CustomMetadataList;
@@ -208,6 +210,7 @@ public class Message extends MailItem {
     private String recipients;
     private String fragment;
     private String rawSubject;
+    private ImapMessageSummary imapSummary;
 
     private DraftInfo draftInfo;
     private ArrayList<CalendarItemInfo> calendarItemInfos;
@@ -253,6 +256,26 @@ public class Message extends MailItem {
         return Strings.nullToEmpty(fragment);
     }
 
+    /** Returns the precomputed IMAP ENVELOPE and BODYSTRUCTURE of the message,
+     *  or <tt>null</tt> if none was stored with it. */
+    public ImapMessageSummary getImapSummary() {
+        return imapSummary;
+    }
+
+    /** Stores an IMAP summary computed after the message was created.  Only
+     *  the metadata column is rewritten, and the message's change number is
+     *  left alone, since nothing a client can see has changed. */
+    void setImapSummary(ImapMessageSummary summary) throws ServiceException {
+        ImapMessageSummary previous = imapSummary;
+        imapSummary = summary;
+        try {
+            DbMailItem.saveDerivedMetadata(this, encodeMetadata().toString());
+        } catch (ServiceException | RuntimeException e) {
+            imapSummary = previous;
+            throw e;
+        }
+    }
+
     /**
      * Returns the normalized subject of the message.  This is done by taking the {@code Subject:} header and removing
      * prefixes (e.g. {@code "Re:"}) and suffixes (e.g. {@code "(fwd)"}) and the like.
@@ -469,7 +492,17 @@ public class Message extends MailItem {
      * @see TnefConverter
      * @see UUEncodeConverter */
     public MimeMessage getMimeMessage(boolean runConverters) throws ServiceException {
-        MimeMessage mm = MessageCache.getMimeMessage(this, runConverters);
+        return copyIfNeeded(MessageCache.getMimeMessage(this, runConverters));
+    }
+
+    /** Returns the same as {@link #getMimeMessage(boolean) getMimeMessage(false)} if the message is in the
+     *  {@link MessageCache}, or <tt>null</tt> if getting it would mean reading and parsing the blob. */
+    public MimeMessage getCachedMimeMessage() throws ServiceException {
+        MimeMessage mm = MessageCache.getCachedMimeMessage(this);
+        return mm == null ? null : copyIfNeeded(mm);
+    }
+
+    private MimeMessage copyIfNeeded(MimeMessage mm) throws ServiceException {
         if (mm instanceof ZMimeMessage && ZMimeMessage.usingZimbraParser()) {
             try {
                 mm = new Mime.FixedMimeMessage(mm, mMailbox.getAccount());
@@ -592,7 +625,8 @@ public class Message extends MailItem {
         data.setFlags(flags & (Flag.FLAGS_MESSAGE | Flag.FLAGS_GENERIC));
         data.setTags(ntags);
         data.setSubject(pm.getNormalizedSubject());
-        data.metadata = encodeMetadata(DEFAULT_COLOR_RGB, 1, 1, extended, pm, pm.getFragment(acct.getLocale()), dinfo, null, null).toString();
+        data.metadata = encodeMetadata(DEFAULT_COLOR_RGB, 1, 1, extended, pm, pm.getFragment(acct.getLocale()),
+                pm.getImapSummary(), dinfo, null, null).toString();
         data.unreadCount = unread ? 1 : 0;
         data.contentChanged(mbox);
 
@@ -1394,26 +1428,46 @@ public class Message extends MailItem {
     @Override
     public List<IndexDocument> generateIndexData() throws TemporaryIndexingException {
         try {
-            ParsedMessage pm = getParsedMessage();
-            pm.setDefaultCharset(getAccount().getPrefMailDefaultCharset());
-
             if (mMailbox.index.isReIndexInProgress()) {
-                getMailbox().reanalyze(getId(), getType(), pm, getSize());
+                return analyze(getParsedMessage(), true);
             }
-
-            // don't hold the lock while extracting text!
-            pm.analyzeFully();
-
-            if (pm.hasTemporaryAnalysisFailure()) {
-                throw new TemporaryIndexingException();
-            }
-            return pm.getLuceneDocuments();
+            // a message delivered to many mailboxes is only analyzed by the first of them to index it
+            return IndexDataCache.get(getDigest(), getMailbox().attachmentsIndexingEnabled(),
+                    getAccount().getPrefMailDefaultCharset(), new Callable<List<IndexDocument>>() {
+                @Override
+                public List<IndexDocument> call() throws Exception {
+                    return analyze(getParsedMessage(), false);
+                }
+            });
         } catch (ServiceException e) {
             ZimbraLog.index.warn("Unable to generate index data for Message %d. Item will not be indexed.", getId(), e);
             return Collections.emptyList();
         }
     }
 
+    private List<IndexDocument> analyze(ParsedMessage pm, boolean reanalyze)
+            throws ServiceException, TemporaryIndexingException {
+        pm.setDefaultCharset(getAccount().getPrefMailDefaultCharset());
+
+        if (reanalyze) {
+            getMailbox().reanalyze(getId(), getType(), pm, getSize());
+        }
+
+        // don't hold the lock while extracting text!
+        pm.analyzeFully();
+
+        if (pm.hasTemporaryAnalysisFailure()) {
+            throw new TemporaryIndexingException();
+        }
+        return pm.getLuceneDocuments();
+    }
+
+    @Override
+    void contentChanged() throws ServiceException {
+        imapSummary = null;
+        super.contentChanged();
+    }
+
     @Override
     void reanalyze(Object data, long newSize) throws ServiceException {
         if (!(data instanceof ParsedMessage)) {
@@ -1440,6 +1494,12 @@ public class Message extends MailItem {
         // the fragment may have changed
         fragment = pm.getFragment(acct.getLocale());
 
+        // a ParsedMessage built from the cached MimeMessage (e.g. when reindexing) has no IMAP summary,
+        // so keep the one we have unless contentChanged() discarded it
+        if (pm.getImapSummary() != null) {
+            imapSummary = pm.getImapSummary();
+        }
+
         // make sure the "attachments" FLAG is correct
         boolean hadAttachment = mData.isSet(Flag.FlagInfo.ATTACHED);
         mData.unsetFlag(Flag.FlagInfo.ATTACHED);
@@ -1477,7 +1537,7 @@ public class Message extends MailItem {
 
         // rewrite the DB row to reflect our new view
         saveData(new DbMailItem(mMailbox), encodeMetadata(mRGBColor, mMetaVersion, mVersion, mExtendedData, pm, fragment,
-                draftInfo, calendarItemInfos, calendarIntendedFor));
+                imapSummary, draftInfo, calendarItemInfos, calendarIntendedFor));
 
         if (parent instanceof VirtualConversation) {
             ((VirtualConversation) parent).recalculateMetadata(Collections.singletonList(this));
@@ -1547,24 +1607,27 @@ public class Message extends MailItem {
         if (rawSubj != null) {
             rawSubject = rawSubj;
         }
+
+        imapSummary = ImapMessageSummary.decodeMetadata(meta.getMap(Metadata.FN_IMAP_SUMMARY, true));
     }
 
     @Override
     Metadata encodeMetadata(Metadata meta) {
         return encodeMetadata(meta, mRGBColor, mMetaVersion, mVersion, mExtendedData, sender, recipients, fragment,
-                mData.getSubject(), rawSubject, draftInfo, calendarItemInfos, calendarIntendedFor);
+                mData.getSubject(), rawSubject, imapSummary, draftInfo, calendarItemInfos, calendarIntendedFor);
     }
 
     private static Metadata encodeMetadata(Color color, int metaVersion, int version, CustomMetadataList extended, ParsedMessage pm,
-            String fragment, DraftInfo dinfo, List<CalendarItemInfo> calItemInfos, String calIntendedFor) {
+            String fragment, ImapMessageSummary imapSummary, DraftInfo dinfo, List<CalendarItemInfo> calItemInfos,
+            String calIntendedFor) {
         return encodeMetadata(new Metadata(), color, metaVersion, version, extended, pm.getSender(), pm.getRecipients(),
-                fragment, pm.getNormalizedSubject(), pm.getSubject(), dinfo,
+                fragment, pm.getNormalizedSubject(), pm.getSubject(), imapSummary, dinfo,
                 calItemInfos, calIntendedFor);
     }
 
     static Metadata encodeMetadata(Metadata meta, Color color, int metaVersion, int version, CustomMetadataList extended, String sender,
-            String recipients, String fragment, String subject, String rawSubj, DraftInfo dinfo,
-            List<CalendarItemInfo> calItemInfos, String calIntendedFor) {
+            String recipients, String fragment, String subject, String rawSubj, ImapMessageSummary imapSummary,
+            DraftInfo dinfo, List<CalendarItemInfo> calItemInfos, String calIntendedFor) {
         // try to figure out a simple way to make the raw subject from the normalized one
         String prefix = null;
         if (rawSubj == null || rawSubj.equals(subject)) {
@@ -1579,6 +1642,9 @@ public class Message extends MailItem {
         meta.put(Metadata.FN_FRAGMENT, fragment);
         meta.put(Metadata.FN_PREFIX, prefix);
         meta.put(Metadata.FN_RAW_SUBJ, rawSubj);
+        if (imapSummary != null) {
+            meta.put(Metadata.FN_IMAP_SUMMARY, imapSummary.encodeMetadata());
+        }
 
         if (calItemInfos != null) {
             MetadataList mdList = new MetadataList();
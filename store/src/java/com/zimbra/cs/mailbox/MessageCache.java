@@ -18,14 +18,19 @@ package com.zimbra.cs.mailbox;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.mail.MessagingException;
 import javax.mail.internet.MimeMessage;
 
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.mime.MimeConstants;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ByteUtil;
@@ -42,25 +47,86 @@ import com.zimbra.cs.store.MailboxBlob;
 import com.zimbra.cs.store.StoreManager;
 import com.zimbra.cs.util.JMSession;
 
+/**
+ * Cache mapping blob digest to the parsed message structure.
+ * <p>
+ * Lookups don't take a global lock.  Eviction uses the CLOCK approximation
+ * of LRU: cached nodes sit in a FIFO queue and carry a "referenced" bit that
+ * is set on every hit; the evicting thread gives referenced nodes a second
+ * chance and drops the first unreferenced one.  The cache is bounded both by
+ * entry count (<tt>zimbraMessageCacheSize</tt>) and by the estimated memory
+ * held by the parsed messages (<tt>message_cache_max_bytes</tt>).
+ * <p>
+ * All work on a single node (parsing, expanding, decrypting) is done while
+ * holding the node's monitor, so concurrent requests for the same message
+ * result in a single parse.
+ */
 public class MessageCache {
 
     private static final Log sLog = LogFactory.getLog(MessageCache.class);
 
     private static final class CacheNode {
-        CacheNode()  { }
+        CacheNode(String digest, int mboxId) {
+            this.digest = digest;
+            this.mboxId = mboxId;
+        }
+        final String digest;
+        /** Mailbox that first loaded the message; evictions are charged to it. */
+        final int mboxId;
         MimeMessage message;
         MimeMessage expanded;
-        Map<Integer, String> smimeAccessInfo = new HashMap<Integer, String>();
+        final Map<Integer, String> smimeAccessInfo = Collections.synchronizedMap(new HashMap<Integer, String>());
+        volatile boolean referenced = true;
+
+        // Accounting fields are guarded by this lock rather than the node's monitor, so that eviction
+        // doesn't have to wait for a parse in progress.
+        private final Object acctLock = new Object();
         long size = 0;
+        long weight = 0;
+        private boolean cached = false;
+
+        /** Adds to the node's data size and weight, and to the cache totals if the node is cached. */
+        void charge(long sizeDelta, long weightDelta) {
+            synchronized (acctLock) {
+                size += sizeDelta;
+                weight += weightDelta;
+                if (cached) {
+                    sDataSize.addAndGet(sizeDelta);
+                    sWeight.addAndGet(weightDelta);
+                }
+            }
+        }
+
+        void setCached(boolean b) {
+            synchronized (acctLock) {
+                if (cached == b) {
+                    return;
+                }
+                cached = b;
+                sDataSize.addAndGet(b ? size : -size);
+                sWeight.addAndGet(b ? weight : -weight);
+            }
+        }
     }
 
     /** Cache mapping message digest to the corresponding message structure. */
-    private static Map<String, CacheNode> sCache = new LinkedHashMap<String, CacheNode>(150, (float) 0.75, true);
+    private static final ConcurrentHashMap<String, CacheNode> sCache = new ConcurrentHashMap<String, CacheNode>(150);
+    /** Eviction order.  May contain nodes that have already been purged; they are skipped. */
+    private static final ConcurrentLinkedQueue<CacheNode> sClock = new ConcurrentLinkedQueue<CacheNode>();
+    private static final AtomicInteger sClockLength = new AtomicInteger();
+    private static final AtomicBoolean sEvicting = new AtomicBoolean();
     /** Maximum number of items in {@link #sCache}. */
-    private static int sMaxCacheSize;
+    private static volatile int sMaxCacheSize;
+    /** Maximum estimated number of bytes held by the items in {@link #sCache}. */
+    private static volatile long sMaxCacheWeight;
     /** Number of bytes of message data stored in the cache.  This value includes only
      * messages that are read into memory, not streamed from disk. */
-    private volatile static long sDataSize = 0;
+    private static final AtomicLong sDataSize = new AtomicLong();
+    /** Estimated number of bytes held by the cached message structures. */
+    private static final AtomicLong sWeight = new AtomicLong();
+
+    /** Estimated heap cost of the parsed structure of a message that is streamed from disk. */
+    private static final long STRUCTURE_WEIGHT = 2048;
 
     static {
         try {
@@ -72,24 +138,27 @@ public class MessageCache {
 
     public static void loadSettings() throws ServiceException {
         sMaxCacheSize = Provisioning.getInstance().getLocalServer().getMessageCacheSize();
-        ZimbraLog.cache.info("setting message cache size to " + sMaxCacheSize);
+        sMaxCacheWeight = LC.message_cache_max_bytes.longValue();
+        ZimbraLog.cache.info("setting message cache size to %d, max bytes %d", sMaxCacheSize, sMaxCacheWeight);
+        evictIfNeeded();
     }
 
     /** Returns the number of messages in the cache. */
     public static int getSize() {
-        synchronized (sCache) {
-            return sCache.size();
-        }
+        return sCache.size();
     }
 
     public static boolean contains(String digest) {
-        synchronized (sCache) {
-            return sCache.containsKey(digest);
-        }
+        return sCache.containsKey(digest);
     }
 
     public static long getDataSize() {
-        return sDataSize;
+        return sDataSize.get();
+    }
+
+    /** Returns the estimated number of bytes held by the cached messages. */
+    public static long getWeight() {
+        return sWeight.get();
     }
 
     /** Uncaches any data associated with the given item.  This must be done
@@ -124,13 +193,28 @@ public class MessageCache {
      *  stale data. */
     public static void purge(String digest) {
         if (digest != null) {
-            synchronized (sCache) {
-                CacheNode node = sCache.remove(digest);
-                if (node != null) {
-                    sLog.debug("Purged digest %s from the message cache.", digest);
-                    sDataSize -= node.size;
-                }
+            CacheNode node = sCache.remove(digest);
+            if (node != null) {
+                sLog.debug("Purged digest %s from the message cache.", digest);
+                node.setCached(false);
+            }
+        }
+    }
+
+    /** Returns the unexpanded message if it has already been parsed into the
+     *  cache, or <tt>null</tt> without loading it otherwise.  A hit counts as
+     *  a reference for eviction but isn't recorded in the hit rate stats. */
+    static MimeMessage getCachedMimeMessage(MailItem item) {
+        String digest = item.getDigest();
+        CacheNode cnode = digest == null ? null : sCache.get(digest);
+        if (cnode == null) {
+            return null;
+        }
+        synchronized (cnode) {
+            if (cnode.message != null) {
+                cnode.referenced = true;
             }
+            return cnode.message;
         }
     }
 
@@ -150,101 +234,125 @@ public class MessageCache {
      * @see com.zimbra.cs.mime.UUEncodeConverter */
     static MimeMessage getMimeMessage(MailItem item, boolean expand) throws ServiceException {
         String digest = item.getDigest();
-        CacheNode cnode = null;
-        boolean cacheHit = true;
-        boolean newNode = false;
-        InputStream in = null;
         int mboxId = item.getMailboxId();
+        boolean cacheHit = true;
         boolean isEncrypted = false;
+        MimeMessage result;
 
-        synchronized (sCache) {
-            cnode = sCache.get(digest);
+        CacheNode cnode = sCache.get(digest);
+        boolean newNode = false;
+        if (cnode == null) {
+            CacheNode created = new CacheNode(digest, mboxId);
+            cnode = sCache.putIfAbsent(digest, created);
             if (cnode == null) {
+                cnode = created;
                 newNode = true;
-                cnode = new CacheNode();
             }
         }
+        cnode.referenced = true;
 
-        try {
-            if (cnode.message == null) {
-                sLog.debug("Loading MimeMessage for item %d.", item.getId());
-                cacheHit = false;
-                try {
-                    in = fetchFromStore(item);
-                    cnode.message = new Mime.FixedMimeMessage(JMSession.getSession(), in);
-                    if (item.getSize() < MESSAGE_CACHE_DISK_STREAMING_THRESHOLD) {
-                        cnode.size = item.getSize();
-                        // Not the best place to increment the data size, but cacheItem()
-                        // won't get called if we're expanding a message for an existing
-                        // node.
-                        sDataSize += cnode.size;
+        // Threads asking for the same message line up here while the first one parses it.
+        synchronized (cnode) {
+            InputStream in = null;
+            try {
+                if (cnode.message == null) {
+                    sLog.debug("Loading MimeMessage for item %d.", item.getId());
+                    cacheHit = false;
+                    try {
+                        in = fetchFromStore(item);
+                        cnode.message = new Mime.FixedMimeMessage(JMSession.getSession(), in);
+                        if (item.getSize() < MESSAGE_CACHE_DISK_STREAMING_THRESHOLD) {
+                            cnode.charge(item.getSize(), item.getSize() + STRUCTURE_WEIGHT);
+                        } else {
+                            cnode.charge(0, STRUCTURE_WEIGHT);
+                        }
+                    } finally {
+                        ByteUtil.closeStream(in);
                     }
-                } finally {
-                    ByteUtil.closeStream(in);
                 }
-            }
 
-            if (expand) {
-                sLog.debug("Expanding MimeMessage for item %d.", item.getId());
-                try {
-                    MimeMessage decryptedMimeMessage = null;
-                    if (item instanceof Message) {
-                        // if the mime is encrypted; decrypt it first
-                        if (cnode.message != null) {
-                            isEncrypted = Mime.isEncrypted(cnode.message.getContentType());
-                        }
-                        if (isEncrypted) {
-                            if (isSmimeFeatureToggled(item.getMailbox(), cnode)) {
-                                sLog.debug(
-                                    "Smime feature is toggled. So remove old entry from smimeAccessInfo for mailboxId=%d and itemDigest=%s",
-                                    mboxId, item.getDigest());
-                                cnode.smimeAccessInfo.remove(mboxId);
+                if (expand) {
+                    sLog.debug("Expanding MimeMessage for item %d.", item.getId());
+                    try {
+                        MimeMessage decryptedMimeMessage = null;
+                        if (item instanceof Message) {
+                            // if the mime is encrypted; decrypt it first
+                            if (cnode.message != null) {
+                                isEncrypted = Mime.isEncrypted(cnode.message.getContentType());
                             }
-                            if (cnode.expanded == null || !cnode.smimeAccessInfo.containsKey(mboxId)) {
-                                cacheHit = false;
-                                decryptedMimeMessage = doDecryption(item, cnode, mboxId);
+                            if (isEncrypted) {
+                                if (isSmimeFeatureToggled(item.getMailbox(), cnode)) {
+                                    sLog.debug(
+                                        "Smime feature is toggled. So remove old entry from smimeAccessInfo for mailboxId=%d and itemDigest=%s",
+                                        mboxId, item.getDigest());
+                                    cnode.smimeAccessInfo.remove(mboxId);
+                                }
+                                if (cnode.expanded == null || !cnode.smimeAccessInfo.containsKey(mboxId)) {
+                                    cacheHit = false;
+                                    decryptedMimeMessage = doDecryption(item, cnode, mboxId);
+                                }
                             }
                         }
+                        //expand if the message has not yet been expanded or if the message is decrypted successfully
+                        if (cnode.expanded == null || (decryptedMimeMessage != null && cnode.expanded != decryptedMimeMessage)) {
+                            cacheHit = false;
+                            expandMessage(item, cnode, decryptedMimeMessage);
+                        }
+                    } catch (Exception e) {
+                        // if the conversion bombs for any reason, revert to the original
+                        sLog.warn("MIME converter failed for message %d.  Reverting to original.", item.getId(), e);
+                        cnode.expanded = cnode.message;
                     }
-                    //expand if the message has not yet been expanded or if the message is decrypted successfully
-                    if (cnode.expanded == null || (decryptedMimeMessage != null && cnode.expanded != decryptedMimeMessage)) {
-                        cacheHit = false;
-                        expandMessage(item, cnode, decryptedMimeMessage);
-                    }
-                } catch (Exception e) {
-                    // if the conversion bombs for any reason, revert to the original
-                    sLog.warn("MIME converter failed for message %d.  Reverting to original.", item.getId(), e);
-                    cnode.expanded = cnode.message;
                 }
+
+                if (newNode) {
+                    cacheItem(cnode);
+                }
+            } catch (IOException e) {
+                uncacheIfEmpty(cnode);
+                throw ServiceException.FAILURE("IOException while retrieving content for item " + item.getId(), e);
+            } catch (MessagingException e) {
+                uncacheIfEmpty(cnode);
+                throw ServiceException.FAILURE("MessagingException while creating MimeMessage for item " + item.getId(), e);
+            } catch (ServiceException e) {
+                uncacheIfEmpty(cnode);
+                throw e;
+            } catch (RuntimeException e) {
+                uncacheIfEmpty(cnode);
+                throw e;
+            } finally {
+                ByteUtil.closeStream(in);
             }
 
-            if (newNode) {
-                cacheItem(digest, cnode);
+            if (expand) {
+                if (isEncrypted && (!cnode.smimeAccessInfo.containsKey(mboxId)
+                    || cnode.smimeAccessInfo.get(mboxId) != null)) {
+                    result = cnode.message;
+                } else {
+                    result = cnode.expanded;
+                }
+            } else {
+                result = cnode.message;
             }
-        } catch (IOException e) {
-            throw ServiceException.FAILURE("IOException while retrieving content for item " + item.getId(), e);
-        } catch (MessagingException e) {
-            throw ServiceException.FAILURE("MessagingException while creating MimeMessage for item " + item.getId(), e);
-        } finally {
-            ByteUtil.closeStream(in);
         }
 
         if (cacheHit) {
             sLog.debug("Cache hit for item %d: digest=%s, expand=%b.", item.getId(), item.getDigest(), expand);
             ZimbraPerf.COUNTER_MBOX_MSG_CACHE.increment(100);
+            ZimbraPerf.MSG_CACHE_TRACKER.hit(mboxId);
         } else {
             sLog.debug("Cache miss for item %d: digest=%s, expand=%b.", item.getId(), item.getDigest(), expand);
             ZimbraPerf.COUNTER_MBOX_MSG_CACHE.increment(0);
+            ZimbraPerf.MSG_CACHE_TRACKER.miss(mboxId);
         }
+        evictIfNeeded();
+        return result;
+    }
 
-        if (expand) {
-            if (isEncrypted && (!cnode.smimeAccessInfo.containsKey(mboxId)
-                || cnode.smimeAccessInfo.get(mboxId) != null)) {
-                return cnode.message;
-            }
-            return cnode.expanded;
-        } else {
-            return cnode.message;
+    /** Drops a node that was inserted for loading but never got a message. */
+    private static void uncacheIfEmpty(CacheNode cnode) {
+        if (cnode.message == null && sCache.remove(cnode.digest, cnode)) {
+            cnode.setCached(false);
         }
     }
 
@@ -286,8 +394,7 @@ public class MessageCache {
         expander.expand();
         cnode.expanded = expander.getExpanded();
         if (cnode.expanded != cnode.message) {
-            sDataSize += cnode.size;
-            cnode.size *= 2;
+            cnode.charge(cnode.size, cnode.weight);
         }
     }
 
@@ -354,47 +461,97 @@ public class MessageCache {
      */
     public static void cacheMessage(String digest, MimeMessage original, MimeMessage expanded) {
         sLog.debug("Caching existing MimeMessage, digest=%s.", digest);
-        CacheNode cnode = new CacheNode();
+        CacheNode cnode = new CacheNode(digest, -1);
         cnode.message = original;
         cnode.expanded = expanded;
-        cacheItem(digest, cnode);
+        cnode.charge(0, expanded != null && expanded != original ? 2 * STRUCTURE_WEIGHT : STRUCTURE_WEIGHT);
+        CacheNode previous = sCache.put(digest, cnode);
+        if (previous != null) {
+            previous.setCached(false);
+        }
+        cacheItem(cnode);
+        evictIfNeeded();
+    }
+
+    /** Starts accounting for a node that has been put in {@link #sCache}, unless it was purged meanwhile. */
+    private static void cacheItem(CacheNode cnode) {
+        sLog.debug("Caching MimeMessage for digest %s.", cnode.digest);
+        if (sCache.get(cnode.digest) != cnode) {
+            return;
+        }
+        cnode.setCached(true);
+        if (sCache.get(cnode.digest) != cnode) {
+            // purged while we were adding it up
+            cnode.setCached(false);
+            return;
+        }
+        sClock.add(cnode);
+        sClockLength.incrementAndGet();
     }
 
-    private static void cacheItem(String digest, CacheNode cnode) {
-        sLog.debug("Caching MimeMessage for digest %s.", digest);
-        synchronized (sCache) {
-            sCache.put(digest, cnode);
-            // Cache data size was incremented in getMimeMessage().
-
-            // trim the cache if needed
-            if (sCache.size() > sMaxCacheSize) {
-                Iterator<Map.Entry<String, CacheNode>> it = sCache.entrySet().iterator();
-                while (sCache.size() > sMaxCacheSize && it.hasNext()) {
-                    Map.Entry<String, CacheNode> entry = it.next();
-                    sLog.debug("Pruning digest %s from the cache.", entry.getKey());
-                    it.remove();
-                    sDataSize -= entry.getValue().size;
+    private static boolean isOverLimit() {
+        return sCache.size() > sMaxCacheSize || sWeight.get() > sMaxCacheWeight;
+    }
+
+    /** The queue also holds purged nodes; sweep it when they pile up. */
+    private static boolean isClockBloated() {
+        return sClockLength.get() > 2 * sCache.size() + 64;
+    }
+
+    /**
+     * Trims the cache if it is over either limit.  Only one thread evicts at
+     * a time; others return right away and let the cache overshoot briefly.
+     */
+    private static void evictIfNeeded() {
+        if (!isOverLimit() && !isClockBloated()) {
+            return;
+        }
+        if (!sEvicting.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            // Every live node can be passed over at most once per sweep for being referenced.
+            int secondChances = sClockLength.get();
+            CacheNode node;
+            while ((isOverLimit() || isClockBloated()) && (node = sClock.poll()) != null) {
+                sClockLength.decrementAndGet();
+                if (sCache.get(node.digest) != node) {
+                    continue;  // already purged
+                }
+                if (!isOverLimit() || (node.referenced && secondChances-- > 0)) {
+                    node.referenced = false;
+                    sClock.add(node);
+                    sClockLength.incrementAndGet();
+                    continue;
+                }
+                if (sCache.remove(node.digest, node)) {
+                    sLog.debug("Pruning digest %s from the cache.", node.digest);
+                    node.setCached(false);
+                    ZimbraPerf.COUNTER_MBOX_MSG_CACHE_EVICTIONS.increment();
+                    ZimbraPerf.MSG_CACHE_TRACKER.eviction(node.mboxId);
                 }
             }
+        } finally {
+            sEvicting.set(false);
         }
     }
 
     public static void removeDecryptedMessages(int mboxId) {
         sLog.debug("Start removing decrypted messages for mboxId=%d", mboxId);
-        synchronized (sCache) {
-            Iterator<Map.Entry<String, CacheNode>> it = sCache.entrySet().iterator();
-            while (it.hasNext()) {
-                Map.Entry<String, CacheNode> entry = it.next();
-                CacheNode cacheNode = entry.getValue();
-                try {
-                    if (Mime.isEncrypted(cacheNode.message.getContentType())
-                        && cacheNode.smimeAccessInfo.containsKey(mboxId)) {
-                        cacheNode.smimeAccessInfo.remove(mboxId);
-                    }
-                } catch (MessagingException e) {
-                    sLog.warn("MessagingException while checking content type for cache node with digest = %s",
-                        entry.getKey(), e);
+        for (Map.Entry<String, CacheNode> entry : sCache.entrySet()) {
+            CacheNode cacheNode = entry.getValue();
+            MimeMessage message = cacheNode.message;
+            if (message == null) {
+                continue;  // still loading
+            }
+            try {
+                if (Mime.isEncrypted(message.getContentType())
+                    && cacheNode.smimeAccessInfo.containsKey(mboxId)) {
+                    cacheNode.smimeAccessInfo.remove(mboxId);
                 }
+            } catch (MessagingException e) {
+                sLog.warn("MessagingException while checking content type for cache node with digest = %s",
+                    entry.getKey(), e);
             }
         }
         sLog.debug("Removed decrypted messages for mboxId=%d", mboxId);
@@ -402,11 +559,9 @@ public class MessageCache {
 
     public static String getDecryptionError(int id, String digest) {
         if (digest != null) {
-            synchronized (sCache) {
-                CacheNode node = sCache.get(digest);
-                if (node != null) {
-                    return node.smimeAccessInfo.get(id);
-                }
+            CacheNode node = sCache.get(digest);
+            if (node != null) {
+                return node.smimeAccessInfo.get(id);
             }
         }
         return null;
@@ -18,23 +18,42 @@ package com.zimbra.cs.mailbox;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.account.Account;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.account.callback.CallbackUtil;
-import com.zimbra.cs.util.Config;
+import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.util.Zimbra;
 
 /**
- * Iterates all the mailboxes in the system, purges them one at a time
- * and sleeps between purges for a time interval specified by
- * {@link Provisioning#A_zimbraMailPurgeSleepInterval}.
+ * Iterates all the mailboxes in the system and purges them on a pool of
+ * {@link LC#purge_threads} workers, each of which sleeps between purges for a
+ * time interval specified by {@link Provisioning#A_zimbraMailPurgeSleepInterval}.
+ * <p>
+ * Mailboxes known to have work left over from an incomplete purge go first,
+ * followed by the rest in order of their last complete purge.  Since that time
+ * is stored in the <tt>mailbox</tt> table, a restarted server resumes with the
+ * mailboxes the previous cycle had not reached yet.  The number of concurrent
+ * purges is also capped by {@link LC#purge_max_db_connections}, as each purge
+ * holds a database connection for the duration of its transaction, and the
+ * overall rate by {@link LC#purge_max_mailboxes_per_second}.
  *
  * @author bburtin
  */
@@ -43,10 +62,26 @@ extends Thread {
 
     private static volatile PurgeThread sPurgeThread = null;
     private static Object THREAD_CONTROL_LOCK = new Object();
-    private boolean mShutdownRequested = false;
+    private volatile boolean mShutdownRequested = false;
+
+    /** Mailboxes whose last purge did not remove everything it should have. */
+    private final Set<Integer> mIncompleteMailboxes = Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private final int mNumWorkers;
+    private final ExecutorService mWorkers;
+    private final Semaphore mWorkerPermits;
+    private final RateLimiter mRateLimiter;
+
+    private static final AtomicInteger sCycleSize = new AtomicInteger();
+    private static final AtomicInteger sCycleDone = new AtomicInteger();
 
     private PurgeThread() {
         setName("MailboxPurge");
+        mNumWorkers = Math.max(1, Math.min(LC.purge_threads.intValue(), LC.purge_max_db_connections.intValue()));
+        mWorkers = Executors.newFixedThreadPool(mNumWorkers,
+                new ThreadFactoryBuilder().setNameFormat("MailboxPurge-%d").setDaemon(true).build());
+        mWorkerPermits = new Semaphore(mNumWorkers);
+        int rate = LC.purge_max_mailboxes_per_second.intValue();
+        mRateLimiter = rate > 0 ? RateLimiter.create(rate) : null;
     }
 
     /**
@@ -104,8 +139,22 @@ extends Thread {
     }
 
     /**
-     * Iterates all mailboxes, purging one at a time and sleeping
-     * between purges.
+     * Returns the number of mailboxes scheduled in the current purge cycle.
+     */
+    public static int getCycleSize() {
+        return sCycleSize.get();
+    }
+
+    /**
+     * Returns the number of mailboxes handled so far in the current purge cycle,
+     * including the ones that were skipped.
+     */
+    public static int getCycleDone() {
+        return sCycleDone.get();
+    }
+
+    /**
+     * Iterates all mailboxes, handing them to the worker pool in priority order.
      */
     @Override public void run() {
         // Sleep before doing work, to give the server time to warm up.  Also limits the amount
@@ -117,74 +166,67 @@ extends Thread {
             Thread.sleep(sleepTime);
         } catch (InterruptedException e) {
             ZimbraLog.purge.info("Shutting down purge thread.");
-            sPurgeThread = null;
+            stop(false);
             return;
         }
+        ZimbraLog.purge.info("Purging mailboxes with %d worker(s).", mNumWorkers);
 
         Set<Integer> purgePendingMailboxes = new HashSet<Integer>();
         while (true) {
-            List<Integer> mailboxIds = getMailboxIds();
-            boolean slept = false;
-
-            for (int i = 0; i < mailboxIds.size(); i++) {
-                int mailboxId = mailboxIds.get(i);
-                if (mShutdownRequested) {
-                    ZimbraLog.purge.info("Shutting down purge thread.");
-                    sPurgeThread = null;
-                    return;
-                }
-                ZimbraLog.addMboxToContext(mailboxId);
+            Queue<Integer> mailboxIds = new ConcurrentLinkedQueue<Integer>(getMailboxIds());
+            sCycleSize.set(mailboxIds.size());
+            sCycleDone.set(0);
+            boolean attemptedPurge = false;
 
-                // Purge the next mailbox
-                boolean attemptedPurge = false;
-                try {
-                    MailboxManager mm = MailboxManager.getInstance();
-                    if (mm.isMailboxLoadedAndAvailable(mailboxId) || purgePendingMailboxes.contains(mailboxId)) {
-                        attemptedPurge = true;
-                        Mailbox mbox = mm.getMailboxById(mailboxId);
-                        Account account = mbox.getAccount();
-                        Provisioning prov = Provisioning.getInstance();
-                        if (!Provisioning.ACCOUNT_STATUS_MAINTENANCE.equals(account.getAccountStatus(prov)) &&
-                                !account.isIsExternalVirtualAccount()) {
-                            ZimbraLog.addAccountNameToContext(account.getName());
-                            boolean purgedAll = mbox.purgeMessages(null);
-                            if (!purgedAll) {
-                                ZimbraLog.purge.info("Not all messages were purged.  Scheduling mailbox to be purged again.");
-                                mailboxIds.add(mailboxId);
-                            }
-                            Config.setInt(Config.KEY_PURGE_LAST_MAILBOX_ID, mbox.getId());
-                        } else {
-                            ZimbraLog.purge.debug("Skipping mailbox %d because the account is in maintenance status or is an external virtual account.", mailboxId);
-                        }
-                    } else {
-                        ZimbraLog.purge.debug("Skipping mailbox %d because it is not loaded into memory.", mailboxId);
+            try {
+                while (true) {
+                    if (mShutdownRequested) {
+                        ZimbraLog.purge.info("Shutting down purge thread.");
+                        stop(true);
+                        return;
                     }
-                } catch (ServiceException se) {
-                    if (ServiceException.WRONG_HOST.equals(se.getCode())) {
-                        if (ZimbraLog.purge.isDebugEnabled()) {
-                            ZimbraLog.purge.debug("not purging mailbox moved to other host ", se);
-                        } else {
-                            ZimbraLog.purge.info("not purging mailbox %d; account moved to another host", mailboxId);
+                    Integer mailboxId = mailboxIds.poll();
+                    if (mailboxId == null) {
+                        // workers may requeue mailboxes they could not purge completely
+                        awaitWorkers();
+                        if (mailboxIds.isEmpty()) {
+                            break;
                         }
-                    } else {
-                        ZimbraLog.purge.warn("Unable to purge mailbox %d", mailboxId, se);
+                        continue;
+                    }
+
+                    MailboxManager mm = MailboxManager.getInstance();
+                    if (!mm.isMailboxLoadedAndAvailable(mailboxId) && !purgePendingMailboxes.contains(mailboxId)) {
+                        ZimbraLog.purge.debug("Skipping mailbox %d because it is not loaded into memory.", mailboxId);
+                        sCycleDone.incrementAndGet();
+                        continue;
                     }
-                } catch (OutOfMemoryError oome) {
-                    Zimbra.halt("Ran out of memory while purging mailboxes", oome);
-                } catch (Throwable t) {
-                    ZimbraLog.purge.warn("Unable to purge mailbox %d", mailboxId, t);
-                }
 
-                ZimbraLog.clearContext();
-                if (attemptedPurge) {
-                    // Sleep after every purge attempt.
-                    sleep();
-                    slept = true;
+                    attemptedPurge = true;
+                    mWorkerPermits.acquire();
+                    if (mRateLimiter != null) {
+                        mRateLimiter.acquire();
+                    }
+                    final int id = mailboxId;
+                    mWorkers.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                purge(id, mailboxIds);
+                            } finally {
+                                mWorkerPermits.release();
+                            }
+                        }
+                    });
                 }
-           }
+            } catch (InterruptedException e) {
+                ZimbraLog.purge.info("Shutting down purge thread.");
+                stop(true);
+                return;
+            }
 
             // If nothing's getting purged, sleep to avoid a tight loop
-            if (!slept) {
+            if (!attemptedPurge) {
                 sleep();
             }
 
@@ -197,6 +239,76 @@ extends Thread {
         }
     }
 
+    /**
+     * Purges a single mailbox on a worker thread, then sleeps for the purge
+     * interval.  If the purge was not complete, the mailbox is added back to
+     * <tt>mailboxIds</tt> so that it is purged again during the same cycle.
+     */
+    private void purge(int mailboxId, Queue<Integer> mailboxIds) {
+        ZimbraLog.addMboxToContext(mailboxId);
+        long start = ZimbraPerf.STOPWATCH_PURGE.start();
+        try {
+            Mailbox mbox = MailboxManager.getInstance().getMailboxById(mailboxId);
+            Account account = mbox.getAccount();
+            Provisioning prov = Provisioning.getInstance();
+            if (!Provisioning.ACCOUNT_STATUS_MAINTENANCE.equals(account.getAccountStatus(prov)) &&
+                    !account.isIsExternalVirtualAccount()) {
+                ZimbraLog.addAccountNameToContext(account.getName());
+                boolean purgedAll = mbox.purgeMessages(null);
+                if (purgedAll) {
+                    mIncompleteMailboxes.remove(mailboxId);
+                } else {
+                    ZimbraLog.purge.info("Not all messages were purged.  Scheduling mailbox to be purged again.");
+                    mIncompleteMailboxes.add(mailboxId);
+                    mailboxIds.add(mailboxId);
+                    sCycleSize.incrementAndGet();
+                }
+            } else {
+                ZimbraLog.purge.debug("Skipping mailbox %d because the account is in maintenance status or is an external virtual account.", mailboxId);
+            }
+        } catch (ServiceException se) {
+            if (ServiceException.WRONG_HOST.equals(se.getCode())) {
+                if (ZimbraLog.purge.isDebugEnabled()) {
+                    ZimbraLog.purge.debug("not purging mailbox moved to other host ", se);
+                } else {
+                    ZimbraLog.purge.info("not purging mailbox %d; account moved to another host", mailboxId);
+                }
+            } else {
+                ZimbraLog.purge.warn("Unable to purge mailbox %d", mailboxId, se);
+            }
+        } catch (OutOfMemoryError oome) {
+            Zimbra.halt("Ran out of memory while purging mailboxes", oome);
+        } catch (Throwable t) {
+            ZimbraLog.purge.warn("Unable to purge mailbox %d", mailboxId, t);
+        } finally {
+            ZimbraPerf.STOPWATCH_PURGE.stop(start);
+            sCycleDone.incrementAndGet();
+            ZimbraLog.clearContext();
+        }
+
+        // Sleep after every purge attempt.
+        sleep();
+    }
+
+    /**
+     * Blocks until every submitted purge has finished.
+     */
+    private void awaitWorkers() throws InterruptedException {
+        mWorkerPermits.acquire(mNumWorkers);
+        mWorkerPermits.release(mNumWorkers);
+    }
+
+    private void stop(boolean interruptWorkers) {
+        if (interruptWorkers) {
+            mWorkers.shutdownNow();
+        } else {
+            mWorkers.shutdown();
+        }
+        sCycleSize.set(0);
+        sCycleDone.set(0);
+        sPurgeThread = null;
+    }
+
     /**
      * Sleeps for the time interval specified by {@link Provisioning#A_zimbraMailPurgeSleepInterval}.
      * If sleep is interrupted, sets {@link #mShutdownRequested} to <tt>true</tt>.
@@ -237,23 +349,15 @@ extends Thread {
     }
 
     /**
-     * Returns all the mailbox id's in purge order, starting with the one
-     * after {@link Config#KEY_PURGE_LAST_MAILBOX_ID}.
+     * Returns all the mailbox id's in purge order, as determined by
+     * {@link #prioritize}.
      */
     private List<Integer> getMailboxIds() {
         List<Integer> mailboxIds = new ArrayList<Integer>();
 
         try {
             mailboxIds = CallbackUtil.getSortedMailboxIdList();
-            // Reorder id's so that we start with the one after the last purged
-            int lastId = Config.getInt(Config.KEY_PURGE_LAST_MAILBOX_ID, 0);
-            for (int i = 0; i < mailboxIds.size(); i++) {
-                if (mailboxIds.get(i) > lastId) {
-                    Collections.rotate(mailboxIds, -i);
-                    break;
-                }
-            }
-
+            prioritize(mailboxIds, MailboxManager.getInstance().getLastPurgeTimes(), mIncompleteMailboxes);
         } catch (ServiceException e) {
             ZimbraLog.purge.warn("Unable to get mailbox id's", e);
             return Collections.emptyList();
@@ -261,4 +365,30 @@ extends Thread {
 
         return mailboxIds;
     }
+
+    /**
+     * Sorts <tt>mailboxIds</tt> so that the mailboxes in <tt>incomplete</tt>
+     * come first, followed by the others in ascending order of their last
+     * complete purge.  Ties are broken by mailbox id.
+     */
+    static void prioritize(List<Integer> mailboxIds, final Map<Integer, Long> lastPurgeTimes,
+            final Set<Integer> incomplete) {
+        Collections.sort(mailboxIds, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer id1, Integer id2) {
+                boolean pending1 = incomplete.contains(id1);
+                boolean pending2 = incomplete.contains(id2);
+                if (pending1 != pending2) {
+                    return pending1 ? -1 : 1;
+                }
+                int cmp = Long.compare(lastPurgeTime(id1), lastPurgeTime(id2));
+                return cmp != 0 ? cmp : id1.compareTo(id2);
+            }
+
+            private long lastPurgeTime(Integer id) {
+                Long time = lastPurgeTimes.get(id);
+                return time == null ? 0 : time;
+            }
+        });
+    }
 }
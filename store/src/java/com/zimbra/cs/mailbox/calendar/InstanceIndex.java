@@ -0,0 +1,129 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.mailbox.calendar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.cs.mailbox.CalendarItem.Instance;
+import com.zimbra.cs.mailbox.calendar.Recurrence.IRecurrence;
+
+/**
+ * Memoized expansion of one calendar item's recurrence.
+ * <p>
+ * The index remembers every instance of the time range it has expanded so far. A query inside that range is answered
+ * from memory, and a query that overlaps or touches it only expands the part that sticks out, so a view sliding a
+ * week at a time over a long-running series expands each week once. A query disjoint from the covered range starts
+ * over rather than filling in the gap.
+ * <p>
+ * An index belongs to one {@link IRecurrence} object. {@link CalendarItem} rebuilds its recurrence whenever an invite
+ * changes, which leaves the old index behind; see {@link #isFor(IRecurrence)}.
+ *
+ * @see LC#calendar_recurrence_cache_max_instances
+ */
+public final class InstanceIndex {
+
+    private final IRecurrence recurrence;
+    private final int calItemId;
+
+    // Holds, sorted, every instance that starts before coveredEnd and ends after coveredStart.
+    private List<Instance> instances;
+    private long coveredStart;
+    private long coveredEnd;
+
+    public InstanceIndex(IRecurrence recurrence, int calItemId) {
+        this.recurrence = recurrence;
+        this.calItemId = calItemId;
+    }
+
+    public boolean isFor(IRecurrence recur) {
+        return recurrence == recur;
+    }
+
+    /**
+     * Returns the instances that overlap the range, as {@link Recurrence#expandInstances(IRecurrence, int, long, long)}
+     * would. The list is the caller's to modify, the instances are shared.
+     */
+    public synchronized List<Instance> expand(long start, long end) throws ServiceException {
+        int max = LC.calendar_recurrence_cache_max_instances.intValue();
+        if (max <= 0 || start >= end || start == Long.MIN_VALUE) {
+            return Recurrence.expandInstances(recurrence, calItemId, start, end);
+        }
+
+        if (instances == null || start > coveredEnd || end < coveredStart) {
+            instances = expand(start, end, Long.MIN_VALUE, Long.MAX_VALUE);
+            coveredStart = start;
+            coveredEnd = end;
+        } else {
+            if (start < coveredStart) {
+                // The ones we don't have yet end at or before the old start. Reach one millisecond past it so that a
+                // zero-length instance right there is included.
+                List<Instance> before = expand(start, coveredStart + 1, Long.MIN_VALUE, coveredStart);
+                if (!before.isEmpty()) {
+                    before.addAll(instances);
+                    Collections.sort(before);
+                    instances = before;
+                }
+                coveredStart = start;
+            }
+            if (end > coveredEnd) {
+                // The ones we don't have yet start at or after the old end.
+                List<Instance> after = expand(coveredEnd - 1, end, coveredEnd, Long.MAX_VALUE);
+                if (!after.isEmpty()) {
+                    instances.addAll(after);
+                    Collections.sort(instances);
+                }
+                coveredEnd = end;
+            }
+            if (instances.size() > max) {
+                instances = expand(start, end, Long.MIN_VALUE, Long.MAX_VALUE);
+                coveredStart = start;
+                coveredEnd = end;
+            }
+        }
+
+        List<Instance> result = new ArrayList<Instance>();
+        for (Instance inst : instances) {
+            if (inst.getStart() < end && inst.getEnd() > start) {
+                result.add(inst);
+            }
+        }
+        if (instances.size() > max) {
+            instances = null; // this query alone is too big to keep
+        }
+        return result;
+    }
+
+    /**
+     * Expands the instances overlapping {@code [start, end)}, keeping those that end no later than {@code maxEnd} and
+     * start no earlier than {@code minStart}.
+     */
+    private List<Instance> expand(long start, long end, long minStart, long maxEnd) throws ServiceException {
+        List<Instance> list = Recurrence.expandInstances(recurrence, calItemId, start, end);
+        for (Iterator<Instance> iter = list.iterator(); iter.hasNext(); ) {
+            Instance inst = iter.next();
+            if (inst.getEnd() <= start || inst.getEnd() > maxEnd || inst.getStart() < minStart) {
+                iter.remove();
+            }
+        }
+        return list;
+    }
+}
@@ -23,12 +23,10 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 import com.zimbra.common.calendar.ICalTimeZone;
@@ -554,7 +552,6 @@ public class Recurrence
      *
      */
     public static class SimpleRepeatingRule implements IInstanceGeneratingRule {
-        Map<String, List<Instance>> expandMap = new HashMap<String, List<Instance>>();
         public SimpleRepeatingRule(ParsedDateTime dtstart, ParsedDuration duration,
                 ZRecur recur, InviteInfo invId)
         {
@@ -728,11 +725,7 @@ public class Recurrence
                 ZimbraLog.calendar.warn("Unable to expand a recurrence with no DTSTART");
                 return new ArrayList<Instance>();
             }
-            String KEY = String.valueOf(calItemId) + '-' + start + '-' + end;
-            List<Instance> toRet = expandMap.get(KEY);
-            if (toRet != null) {
-                return toRet;
-            }
+            List<Instance> toRet;
             ICalTimeZone tz = mDtStart.getTimeZone();
             if (tz == null)
                 tz = ICalTimeZone.getUTC();
@@ -774,8 +767,6 @@ public class Recurrence
             	ZimbraLog.calendar.warn("Invalid recurrence rule: " + mRecur.toString(), iae);
                 toRet = new ArrayList<Instance>();
             }
-            // cache and return;
-            expandMap.put(KEY, toRet);
             return toRet;
         }
 
@@ -18,12 +18,18 @@
 package com.zimbra.cs.mailbox.calendar.cache;
 
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.EvictionListener;
 
 import com.zimbra.common.account.Key.AccountBy;
 import com.zimbra.common.calendar.ParsedDateTime;
@@ -362,117 +368,117 @@ public class CalSummaryCache {
         sMaxSearchDays = LC.calendar_search_max_days.intValueWithinRange(0, 3660);
     }
 
-    @SuppressWarnings("serial")
-    private static class SummaryLRU extends LinkedHashMap<CalSummaryKey, CalendarData> {
-        private final int mMaxAllowed;
+    /**
+     * LRU of calendar summaries by calendar folder, safe for concurrent use without external locking.  Lookups and
+     * updates of different folders don't contend with each other, and per-account bookkeeping is only locked per
+     * account.
+     */
+    static class SummaryLRU {
+        private final ConcurrentLinkedHashMap<CalSummaryKey, CalendarData> mMap;
 
         // map that keeps track of which calendar folders are cached for each account
         // This map is updated every time a calendar folder is added, removed, or aged out
-        // of the LRU.
-        private final Map<String /* account id */, Set<Integer> /* folder ids */> mAccountFolders;
-
-        private SummaryLRU(int capacity) {
-            super(capacity + 1, 1.0f, true);
-            mMaxAllowed = Math.max(capacity, 1);
-            mAccountFolders = new HashMap<String, Set<Integer>>();
-        }
-
-        @Override
-        public void clear() {
-            super.clear();
-            mAccountFolders.clear();
-        }
-
-        @Override
-        public CalendarData put(CalSummaryKey key, CalendarData value) {
-            CalendarData prevVal = super.put(key, value);
-            if (prevVal == null)
-                registerWithAccount(key);
-            return prevVal;
-        }
-
-        @Override
-        public void putAll(Map<? extends CalSummaryKey, ? extends CalendarData> t) {
-            super.putAll(t);
-            for (CalSummaryKey key : t.keySet()) {
-                registerWithAccount(key);
-            }
+        // of the LRU.  Adds and removes change mMap inside the account's compute() so that the two maps agree.
+        private final ConcurrentMap<String /* account id */, Set<Integer> /* folder ids */> mAccountFolders =
+                new ConcurrentHashMap<String, Set<Integer>>();
+
+        // Aged-out keys not yet dropped from mAccountFolders.  The eviction listener runs inside mMap.put(), which
+        // runs inside an mAccountFolders.compute(), so it can't update mAccountFolders itself.
+        private final Queue<CalSummaryKey> mEvicted = new ConcurrentLinkedQueue<CalSummaryKey>();
+
+        SummaryLRU(int capacity) {
+            mMap = new ConcurrentLinkedHashMap.Builder<CalSummaryKey, CalendarData>()
+                    .maximumWeightedCapacity(Math.max(capacity, 1))
+                    .listener(new EvictionListener<CalSummaryKey, CalendarData>() {
+                        @Override
+                        public void onEviction(CalSummaryKey key, CalendarData value) {
+                            mEvicted.add(key);
+                        }
+                    })
+                    .build();
         }
 
-        @Override
-        public CalendarData remove(Object key) {
-            CalendarData prevVal = super.remove(key);
-            if (prevVal != null && key instanceof CalSummaryKey) {
-                CalSummaryKey k = (CalSummaryKey) key;
-                deregisterFromAccount(k);
-            }
-            return prevVal;
+        public CalendarData get(CalSummaryKey key) {
+            return mMap.get(key);
         }
 
-        @Override
-        protected boolean removeEldestEntry(Map.Entry<CalSummaryKey, CalendarData> eldest) {
-            boolean remove = size() > mMaxAllowed;
-            if (remove)
-                deregisterFromAccount(eldest.getKey());
-            return remove;
+        public int size() {
+            return mMap.size();
         }
 
-        private void registerWithAccount(CalSummaryKey key) {
-            String accountId = key.getAccountId();
-            int folderId = key.getFolderId();
-            Set<Integer> folders = mAccountFolders.get(accountId);
-            if (folders == null) {
-                folders = new HashSet<Integer>();
-                mAccountFolders.put(accountId, folders);
+        public CalendarData put(CalSummaryKey key, CalendarData value) {
+            final int folderId = key.getFolderId();
+            final CalendarData[] prevVal = new CalendarData[1];
+            mAccountFolders.compute(key.getAccountId(), (accountId, folders) -> {
+                prevVal[0] = mMap.put(key, value);
+                if (folders == null) {
+                    folders = ConcurrentHashMap.newKeySet();
+                }
+                folders.add(folderId);
+                return folders;
+            });
+            deregisterEvicted();
+            return prevVal[0];
+        }
+
+        public CalendarData remove(CalSummaryKey key) {
+            final int folderId = key.getFolderId();
+            final CalendarData[] prevVal = new CalendarData[1];
+            // If no folders are cached for the account, drop the account entry from the map to save memory.
+            mAccountFolders.computeIfPresent(key.getAccountId(), (accountId, folders) -> {
+                prevVal[0] = mMap.remove(key);
+                folders.remove(folderId);
+                return folders.isEmpty() ? null : folders;
+            });
+            deregisterEvicted();
+            return prevVal[0];
+        }
+
+        private void deregisterEvicted() {
+            CalSummaryKey key;
+            while ((key = mEvicted.poll()) != null) {
+                final CalSummaryKey evicted = key;
+                mAccountFolders.computeIfPresent(evicted.getAccountId(), (accountId, folders) -> {
+                    // the folder may have been cached again since it aged out
+                    if (!mMap.containsKey(evicted)) {
+                        folders.remove(evicted.getFolderId());
+                    }
+                    return folders.isEmpty() ? null : folders;
+                });
             }
-            folders.add(folderId);
         }
 
-        private void deregisterFromAccount(CalSummaryKey key) {
-            String accountId = key.getAccountId();
-            int folderId = key.getFolderId();
+        /** Returns the folders of the account that are registered as cached. */
+        Set<Integer> getFolders(String accountId) {
             Set<Integer> folders = mAccountFolders.get(accountId);
-            if (folders != null) {
-                folders.remove(folderId);
-                // If no folders are cached for the account, drop the account entry from the map to save memory.
-                if (folders.isEmpty())
-                    mAccountFolders.remove(accountId);
-            }
+            return folders == null ? Collections.<Integer>emptySet() : new HashSet<Integer>(folders);
         }
 
         public static final int FOLDER_NOT_FOUND = -1;
 
         public int getFolderForItem(String accountId, int itemId) {
-            int retval = FOLDER_NOT_FOUND;
             Set<Integer> folders = mAccountFolders.get(accountId);
             if (folders != null) {
                 for (int folderId : folders) {
-                    CalSummaryKey key = new CalSummaryKey(accountId, folderId);
-                    CalendarData calData = get(key);
-                    if (calData != null) {
-                        CalendarItemData ci = calData.getCalendarItemData(itemId);
-                        if (ci != null) {
-                            retval = folderId;
-                            break;
-                        }
+                    CalendarData calData = mMap.get(new CalSummaryKey(accountId, folderId));
+                    if (calData != null && calData.getCalendarItemData(itemId) != null) {
+                        return folderId;
                     }
                 }
             }
-            return retval;
+            return FOLDER_NOT_FOUND;
         }
 
         /**
          * Toss all folders of the account from the LRU.
-         * @param mboxId
+         * @param accountId
          */
         public void removeAccount(String accountId) {
             Set<Integer> folders = mAccountFolders.get(accountId);
             if (folders != null) {
-                // Get a copy of the folder list to avoid ConcurrentModificationException on mMboxFolders.
-                Integer[] fids = folders.toArray(new Integer[0]);
-                for (int folderId : fids) {
-                    CalSummaryKey key = new CalSummaryKey(accountId, folderId);
-                    remove(key);
+                // Get a copy of the folder list; remove() updates the set as we go.
+                for (Integer folderId : folders.toArray(new Integer[0])) {
+                    remove(new CalSummaryKey(accountId, folderId));
                 }
             }
         }
@@ -576,11 +582,9 @@ public class CalSummaryCache {
         int currentModSeq = folder.getImapMODSEQ();
 
         // Lookup from heap LRU.
-            synchronized (mSummaryCache) {
-                if (mLRUCapacity > 0) {
-                    calData = mSummaryCache.get(key);
-                    lruSize = mSummaryCache.size();
-                }
+            if (mLRUCapacity > 0) {
+                calData = mSummaryCache.get(key);
+                lruSize = mSummaryCache.size();
             }
             if (calData != null) {
                 // Sanity check: Cached data can't be newer than the backend data.
@@ -593,6 +597,7 @@ public class CalSummaryCache {
                 }
             }
 
+        boolean memoryMissed = calData == null;
         if (calData == null) {
             // Load from file.
             try {
@@ -601,10 +606,8 @@ public class CalSummaryCache {
                     // If data is up to date, add to LRU.
                     if (calData.getModSeq() == currentModSeq) {
                         if (mLRUCapacity > 0) {
-                            synchronized (mSummaryCache) {
-                                mSummaryCache.put(key, calData);
-                                lruSize = mSummaryCache.size();
-                            }
+                            mSummaryCache.put(key, calData);
+                            lruSize = mSummaryCache.size();
                         }
                     } else {
                         // Data loaded from file doesn't have stale items list.  It can't be refreshed incrementally.
@@ -648,11 +651,9 @@ public class CalSummaryCache {
                                                    sRangeMonthFrom, sRangeNumMonths);
             calData = reloadCalendarOverRange(ownerOctxt, mbox, folderId, type,
                     defaultRange.getFirst(), defaultRange.getSecond(), reusableCalData, incrementalUpdate);
-            synchronized (mSummaryCache) {
-                if (mLRUCapacity > 0) {
-                    mSummaryCache.put(key, calData);
-                    lruSize = mSummaryCache.size();
-                }
+            if (mLRUCapacity > 0) {
+                mSummaryCache.put(key, calData);
+                lruSize = mSummaryCache.size();
             }
             dataFrom = CacheLevel.Miss;
 
@@ -686,6 +687,11 @@ public class CalSummaryCache {
         // hit/miss tracking
         // COUNTER_CALENDAR_CACHE_HIT - A hit is a successful lookup from either memory or file.
         // COUNTER_CALENDAR_CACHE_MEM_HIT - A hit is a successful lookup from memory only.
+        // COUNTER_CALENDAR_CACHE_FILE_HIT - A hit is a successful lookup from file, counting only lookups that missed
+        //                                   memory.
+        if (memoryMissed) {
+            ZimbraPerf.COUNTER_CALENDAR_CACHE_FILE_HIT.increment(dataFrom == CacheLevel.File ? 1 : 0);
+        }
         switch (dataFrom) {
         case Memory:
         case Memcached:
@@ -717,9 +723,7 @@ public class CalSummaryCache {
             return;
         int mboxId = mbox.getId();
         CalSummaryKey key = new CalSummaryKey(mbox.getAccountId(), folderId);
-        synchronized (mSummaryCache) {
-            mSummaryCache.remove(key);
-        }
+        mSummaryCache.remove(key);
         try {
             FileStore.deleteCalendarData(mboxId, folderId);
         } catch (ServiceException e) {
@@ -732,10 +736,8 @@ public class CalSummaryCache {
             return;
         CalSummaryKey key = new CalSummaryKey(mbox.getAccountId(), folderId);
         CalendarData calData = null;
-        synchronized (mSummaryCache) {
-            if (mLRUCapacity > 0) {
-                calData = mSummaryCache.get(key);
-            }
+        if (mLRUCapacity > 0) {
+            calData = mSummaryCache.get(key);
         }
         // Invalidate the item from the calendar.
         if (calData != null) {
@@ -772,10 +774,7 @@ public class CalSummaryCache {
                     // If this is a folder move, invalidate the item from the old folder too.
                     if ((change.why & Change.FOLDER) != 0) {
                         String accountId = mbox.getAccountId();
-                        int prevFolderId;
-                        synchronized (mSummaryCache) {
-                            prevFolderId = mSummaryCache.getFolderForItem(accountId, itemId);
-                        }
+                        int prevFolderId = mSummaryCache.getFolderForItem(accountId, itemId);
                         if (prevFolderId != folderId && prevFolderId != SummaryLRU.FOLDER_NOT_FOUND) {
                             invalidateItem(mbox, prevFolderId, itemId);
                         }
@@ -810,10 +809,7 @@ public class CalSummaryCache {
                         lastMbox = mbox;
                         int itemId = entry.getKey().getItemId();
                         String accountId = mbox.getAccountId();
-                        int folderId;
-                        synchronized (mSummaryCache) {
-                            folderId = mSummaryCache.getFolderForItem(accountId, itemId);
-                        }
+                        int folderId = mSummaryCache.getFolderForItem(accountId, itemId);
                         if (folderId != SummaryLRU.FOLDER_NOT_FOUND) {
                             invalidateItem(mbox, folderId, itemId);
                         }
@@ -828,9 +824,7 @@ public class CalSummaryCache {
     }
 
     void purgeMailbox(Mailbox mbox) throws ServiceException {
-        synchronized (mSummaryCache) {
-            mSummaryCache.removeAccount(mbox.getAccountId());
-        }
+        mSummaryCache.removeAccount(mbox.getAccountId());
         if (MemcachedConnector.isConnected()) {
             mMemcachedCache.purgeMailbox(mbox);
         }
@@ -33,7 +33,6 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.zip.GZIPInputStream;
 
 import javax.mail.Address;
 import javax.mail.Header;
@@ -64,7 +63,6 @@ import com.zimbra.common.mime.shim.JavaMailInternetAddress;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ByteUtil;
 import com.zimbra.common.util.EmailUtil;
-import com.zimbra.common.util.FileUtil;
 import com.zimbra.common.util.L10nUtil;
 import com.zimbra.common.util.Log;
 import com.zimbra.common.util.LogFactory;
@@ -75,6 +73,7 @@ import com.zimbra.common.zmime.ZMimeMessage;
 import com.zimbra.common.zmime.ZMimeMultipart;
 import com.zimbra.cs.convert.ConversionException;
 import com.zimbra.cs.db.DbMailItem;
+import com.zimbra.cs.imap.ImapMessageSummary;
 import com.zimbra.cs.index.Fragment;
 import com.zimbra.cs.index.IndexDocument;
 import com.zimbra.cs.index.LuceneFields;
@@ -89,6 +88,8 @@ import com.zimbra.cs.object.ObjectHandlerException;
 import com.zimbra.cs.store.Blob;
 import com.zimbra.cs.store.BlobInputStream;
 import com.zimbra.cs.store.StoreManager;
+import com.zimbra.cs.store.codec.BlobCodec;
+import com.zimbra.cs.store.codec.SeekableBlob;
 import com.zimbra.cs.util.JMSession;
 
 /**
@@ -144,6 +145,8 @@ public final class ParsedMessage {
     private Boolean hasReplyToHeader = null;
     private final List<IndexDocument> luceneDocuments = new ArrayList<IndexDocument>(2);
     private CalendarPartInfo calendarPartInfo;
+    private ImapMessageSummary imapSummary;
+    private boolean imapSummaryComputed = false;
     private boolean wasMutated;
     private InputStream sharedStream;
     private final Map<Mailbox, Threader> threaders = new HashMap<Mailbox, Threader>();
@@ -227,8 +230,16 @@ public final class ParsedMessage {
         }
 
         long size;
-        if (FileUtil.isGzipped(file)) {
-            size = ByteUtil.getDataLength(new GZIPInputStream(new FileInputStream(file)));
+        BlobCodec codec = BlobCodec.detect(file);
+        SeekableBlob seekable = codec == null ? null : codec.openSeekable(file);
+        if (seekable != null) {
+            try {
+                size = seekable.getRawSize();
+            } finally {
+                seekable.close();
+            }
+        } else if (codec != null) {
+            size = ByteUtil.getDataLength(codec.decompress(new FileInputStream(file)));
         } else {
             size = file.length();
         }
@@ -317,6 +328,8 @@ public final class ParsedMessage {
             ((ZMimeMessage) expandedMessage).setProperty("mail.mime.charset", charset);
         }
         subject = normalizedSubject = null;
+        imapSummary = null;
+        imapSummaryComputed = false;
         return this;
     }
 
@@ -513,6 +526,29 @@ public final class ParsedMessage {
         }
     }
 
+    /**
+     * Returns the IMAP ENVELOPE/BODYSTRUCTURE summary of the message as it will be stored, or <tt>null</tt>
+     * if the message was built from a <tt>MimeMessage</tt> rather than parsed from its raw content, or if the
+     * summary can't be rendered.  Affected by mutation but not conversion.
+     */
+    public ImapMessageSummary getImapSummary() {
+        if (!imapSummaryComputed) {
+            imapSummaryComputed = true;
+            if (sharedStream != null) {
+                InputStream raw = null;
+                try {
+                    raw = getRawInputStream();
+                    imapSummary = ImapMessageSummary.compute(mimeMessage, raw);
+                } catch (Exception e) {
+                    LOG.debug("unable to compute IMAP summary; FETCH will parse the message instead", e);
+                } finally {
+                    ByteUtil.closeStream(raw);
+                }
+            }
+        }
+        return imapSummary;
+    }
+
     public boolean isAttachmentIndexingEnabled() {
         return indexAttachments;
     }
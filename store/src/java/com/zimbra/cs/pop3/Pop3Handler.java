@@ -17,15 +17,21 @@
 
 package com.zimbra.cs.pop3;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PushbackInputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 import org.apache.commons.codec.binary.Base64;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.zimbra.common.account.Key.AccountBy;
 import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
@@ -42,8 +48,10 @@ import com.zimbra.cs.mailbox.Message;
 import com.zimbra.cs.security.sasl.Authenticator;
 import com.zimbra.cs.security.sasl.AuthenticatorUser;
 import com.zimbra.cs.security.sasl.PlainAuthenticator;
+import com.zimbra.cs.server.NioOutputStream;
 import com.zimbra.cs.server.ServerThrottle;
 import com.zimbra.cs.stats.ZimbraPerf;
+import com.zimbra.cs.store.BlobInputStream;
 
 /**
  * @since Nov 25, 2004
@@ -57,6 +65,7 @@ abstract class Pop3Handler {
     private static final String TERMINATOR = ".";
     private static final int TERMINATOR_C = '.';
     private static final byte[] TERMINATOR_BYTE = {'.'};
+    private static final int SCAN_BUFFER_SIZE = 8192;
 
     // Connection specific data
     final Pop3Config config;
@@ -85,6 +94,7 @@ abstract class Pop3Handler {
     // Message specific data
     private String currentCommandLine;
     private int expire;
+    private ByteBuffer scanBuffer;
 
     private final ServerThrottle throttle;
 
@@ -420,6 +430,121 @@ abstract class Pop3Handler {
         output.flush();
     }
 
+    /**
+     * Sends a message that is already in POP3 wire form straight from its blob file, bypassing the heap.  Anything
+     * else needs the line ending normalization and dot-stuffing done by {@link #sendMessage}.
+     *
+     * @return false if nothing was written
+     */
+    private boolean sendMessageZeroCopy(InputStream is) throws IOException {
+        if (!(output instanceof NioOutputStream) || !(is instanceof BlobInputStream)) {
+            return false;
+        }
+        NioOutputStream nioutput = (NioOutputStream) output;
+        BlobInputStream bis = (BlobInputStream) is;
+        long count = bis.getRemaining();
+        if (count > Integer.MAX_VALUE || !nioutput.canTransfer(count)) {
+            return false;
+        }
+        File file = bis.getUncompressedFile();
+        if (file == null) {
+            return false;
+        }
+        long position = bis.getFilePosition();
+        if (scanBuffer == null) {
+            scanBuffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        }
+        try (FileInputStream fis = new FileInputStream(file)) {
+            if (!isWireForm(fis.getChannel(), position, count, scanBuffer)) {
+                return false;
+            }
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+        if (!nioutput.transferFrom(file, position, count)) {
+            return false;
+        }
+        output.write(TERMINATOR_BYTE);
+        output.write(LINE_SEPARATOR);
+        output.flush();
+        return true;
+    }
+
+    /**
+     * Returns true if {@link #sendMessage} would send the content unchanged: every line ends in CRLF, including the
+     * last one, and no line starts with the terminator.
+     */
+    @VisibleForTesting
+    static boolean isWireForm(ByteBuffer content) {
+        WireFormScanner scanner = new WireFormScanner();
+        return scanner.update(content) && scanner.isWireForm();
+    }
+
+    /**
+     * Runs {@link #isWireForm(ByteBuffer)} over <tt>count</tt> bytes of a file starting at <tt>position</tt>, reading
+     * them through <tt>buffer</tt> a chunk at a time rather than mapping the file.
+     */
+    @VisibleForTesting
+    static boolean isWireForm(FileChannel channel, long position, long count, ByteBuffer buffer) throws IOException {
+        WireFormScanner scanner = new WireFormScanner();
+        long end = position + count;
+        while (position < end) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                return false;  // the file is shorter than the blob claims
+            }
+            position += n;
+            buffer.flip();
+            if (!scanner.update(buffer)) {
+                return false;
+            }
+        }
+        return scanner.isWireForm();
+    }
+
+    /**
+     * Checks content for {@link #isWireForm(ByteBuffer)} one chunk at a time, carrying line state across chunks.
+     */
+    private static final class WireFormScanner {
+        private boolean startOfLine = true;
+        private boolean afterCR = false;
+        private long length = 0;
+
+        /**
+         * Scans the remaining bytes of <tt>chunk</tt> without moving its position.
+         *
+         * @return false as soon as the content can't be in wire form
+         */
+        boolean update(ByteBuffer chunk) {
+            int limit = chunk.limit();
+            length += limit - chunk.position();
+            for (int i = chunk.position(); i < limit; i++) {
+                byte b = chunk.get(i);
+                if (afterCR) {
+                    if (b != '\n') {
+                        return false;
+                    }
+                    afterCR = false;
+                    startOfLine = true;
+                } else if (b == '\r') {
+                    afterCR = true;
+                } else if (b == '\n' || (b == TERMINATOR_C && startOfLine)) {
+                    return false;
+                } else {
+                    startOfLine = false;
+                }
+            }
+            return true;
+        }
+
+        /** Returns true if everything scanned so far is in wire form and ends with CRLF. */
+        boolean isWireForm() {
+            return length >= 2 && startOfLine && !afterCR;
+        }
+    }
+
     private void doQUIT() throws IOException, ServiceException, Pop3CmdException {
         dropConnection = true;
         if (mailbox != null) {
@@ -685,7 +810,10 @@ abstract class Pop3Handler {
         try {
             is = m.getContentStream();
             sendOK("message follows", false);
-            sendMessage(is, Integer.MAX_VALUE);
+            if (!sendMessageZeroCopy(is)) {
+                sendMessage(is, Integer.MAX_VALUE);
+                ZimbraPerf.COUNTER_BLOB_COPIED_BYTES.increment(m.getSize());
+            }
         } finally {
             ByteUtil.closeStream(is);
         }
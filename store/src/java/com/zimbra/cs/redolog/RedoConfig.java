@@ -23,6 +23,7 @@
  */
 package com.zimbra.cs.redolog;
 
+import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.account.Server;
@@ -82,6 +83,14 @@ public class RedoConfig {
         mRedoLogCrashRecoveryLookbackSec =
             config.getLongAttr(Provisioning.A_zimbraRedoLogCrashRecoveryLookbackSec,
                                D_REDOLOG_CRASH_RECOVERY_LOOKBACK_SEC);
+
+        mRedoLogGroupCommitEnabled = LC.redolog_group_commit_enabled.booleanValue();
+        mRedoLogGroupCommitMmapEnabled = LC.redolog_group_commit_mmap_enabled.booleanValue();
+        mRedoLogGroupCommitSegmentSizeKB = LC.redolog_group_commit_segment_size_kb.longValue();
+        mRedoLogGroupCommitRingSize = LC.redolog_group_commit_ring_size.intValue();
+        mRedoLogCrashRecoveryThreads = LC.redolog_crash_recovery_threads.intValue();
+        mRedoLogReplayQueueCapacity = LC.redolog_replay_queue_capacity.intValue();
+        mRedoLogReplayBatchSize = LC.redolog_replay_batch_size.intValue();
     }
 
 
@@ -213,4 +222,77 @@ public class RedoConfig {
     public static synchronized long redoLogCrashRecoveryLookbackSec() {
         return theInstance.mRedoLogCrashRecoveryLookbackSec;
     }
+
+    private boolean mRedoLogGroupCommitEnabled;
+    /**
+     * If true, the redo log is written by GroupCommitLogWriter instead of
+     * FileLogWriter.  Logging threads hand their entries to a single
+     * committer thread, which fsyncs as soon as a batch is ready rather than
+     * on the fsync interval timer.
+     * @return
+     */
+    public static synchronized boolean redoLogGroupCommitEnabled() {
+        return theInstance.mRedoLogGroupCommitEnabled;
+    }
+
+    private boolean mRedoLogGroupCommitMmapEnabled;
+    /**
+     * Whether the group commit writer memory-maps its log segments.
+     * @return
+     */
+    public static synchronized boolean redoLogGroupCommitMmapEnabled() {
+        return theInstance.mRedoLogGroupCommitMmapEnabled;
+    }
+
+    private long mRedoLogGroupCommitSegmentSizeKB;
+    /**
+     * Returns the size by which the group commit writer grows the redo log
+     * file ahead of the writes.
+     * @return segment size in kilobytes; default is 16MB
+     */
+    public static synchronized long redoLogGroupCommitSegmentSizeKB() {
+        return theInstance.mRedoLogGroupCommitSegmentSizeKB;
+    }
+
+    private int mRedoLogGroupCommitRingSize;
+    /**
+     * Returns the number of entries that can be queued for the group commit
+     * writer before logging threads have to wait for it.
+     * @return
+     */
+    public static synchronized int redoLogGroupCommitRingSize() {
+        return theInstance.mRedoLogGroupCommitRingSize;
+    }
+
+    private int mRedoLogCrashRecoveryThreads;
+    /**
+     * Returns the number of threads that redo uncommitted operations during
+     * crash recovery.  With more than one thread, operations of different
+     * mailboxes are redone in parallel, while operations of the same mailbox
+     * are still redone in log order.
+     * @return number of threads; default is 1
+     */
+    public static synchronized int redoLogCrashRecoveryThreads() {
+        return theInstance.mRedoLogCrashRecoveryThreads;
+    }
+
+    private int mRedoLogReplayQueueCapacity;
+    /**
+     * Returns the number of operations per replay thread that may be queued
+     * ahead of the replay during parallel crash recovery.
+     * @return
+     */
+    public static synchronized int redoLogReplayQueueCapacity() {
+        return theInstance.mRedoLogReplayQueueCapacity;
+    }
+
+    private int mRedoLogReplayBatchSize;
+    /**
+     * Returns the maximum number of consecutive operations of one mailbox a
+     * replay thread redoes before moving on to other mailboxes.
+     * @return
+     */
+    public static synchronized int redoLogReplayBatchSize() {
+        return theInstance.mRedoLogReplayBatchSize;
+    }
 }
@@ -38,11 +38,13 @@ import com.zimbra.cs.db.Db;
 import com.zimbra.cs.mailbox.MailServiceException;
 import com.zimbra.cs.redolog.logger.FileLogReader;
 import com.zimbra.cs.redolog.logger.FileLogWriter;
+import com.zimbra.cs.redolog.logger.GroupCommitLogWriter;
 import com.zimbra.cs.redolog.logger.LogWriter;
 import com.zimbra.cs.redolog.op.AbortTxn;
 import com.zimbra.cs.redolog.op.Checkpoint;
 import com.zimbra.cs.redolog.op.CommitTxn;
 import com.zimbra.cs.redolog.op.RedoableOp;
+import com.zimbra.cs.redolog.util.ParallelRedoPlayer;
 import com.zimbra.cs.util.Zimbra;
 import com.zimbra.znative.IO;
 
@@ -166,6 +168,8 @@ public class RedoLogManager {
     public LogWriter createLogWriter(RedoLogManager redoMgr,
                                         File logfile,
                                         long fsyncIntervalMS) {
+        if (RedoConfig.redoLogGroupCommitEnabled())
+            return new GroupCommitLogWriter(redoMgr, logfile, fsyncIntervalMS);
         return new FileLogWriter(redoMgr, logfile, fsyncIntervalMS);
     }
 
@@ -221,7 +225,13 @@ public class RedoLogManager {
             try {
                 mLogWriter.open();
                 mRolloverMgr.initSequence(mLogWriter.getSequence());
-                RedoPlayer redoPlayer = new RedoPlayer(true);
+                RedoPlayer redoPlayer;
+                int recoveryThreads = RedoConfig.redoLogCrashRecoveryThreads();
+                if (recoveryThreads > 1)
+                    redoPlayer = new ParallelRedoPlayer(true, false, false, false, recoveryThreads,
+                            RedoConfig.redoLogReplayQueueCapacity(), RedoConfig.redoLogReplayBatchSize(), false);
+                else
+                    redoPlayer = new RedoPlayer(true);
                 try {
                     numRecoveredOps = redoPlayer.runCrashRecovery(this, postStartupRecoveryOps);
                 } finally {
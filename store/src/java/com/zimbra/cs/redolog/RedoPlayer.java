@@ -136,6 +136,15 @@ public class RedoPlayer {
 
                 processOp(op, redoCommitted, mboxIDsMap, startTime, endTime, ignoreCommitsAtOrAfter);
             }
+
+            // A log that GroupCommitLogWriter didn't close ends with zero-filled, pre-allocated space.
+            long size = logReader.getSize();
+            long end = logReader.position();
+            if (mWritable && end < size) {
+                ZimbraLog.redolog.info("Truncating %d bytes of unused space at the end of %s",
+                        size - end, logfile.getAbsolutePath());
+                logReader.truncate(end);
+            }
         } catch (IOException e) {
             // The IOException could be a real I/O problem or it could mean
             // there was a server crash previously and there were half-written
@@ -436,30 +445,50 @@ public class RedoPlayer {
                 if (ZimbraLog.redolog.isInfoEnabled())
                     ZimbraLog.redolog.info("REDOING: " + op);
 
-                boolean success = false;
-                try {
-                    op.redo();
-                    success = true;
-                } catch (Exception e) {
-                    ZimbraLog.redolog.error("Redo failed for [" + op + "]." +
-                            "  Backend state of affected item is indeterminate." +
-                            "  Marking operation as aborted and moving on.", e);
-                } finally {
-                    if (success) {
-                        CommitTxn commit = new CommitTxn(op);
-                        redoLogMgr.logOnly(commit, true);
-                    } else {
-                        AbortTxn abort = new AbortTxn(op);
-                        redoLogMgr.logOnly(abort, true);
-                    }
-                }
+                playRecoveryOp(redoLogMgr, op);
             }
+            waitForPendingOps();
             mOpsMap.clear();
         }
 
         return numOps;
     }
 
+    /**
+     * Redoes an uncommitted op during crash recovery and logs its outcome.
+     * A failed op is marked as aborted.  Subclasses may defer the work, as
+     * long as {@link #waitForPendingOps()} waits for it.
+     * @return true if the op was redone successfully
+     */
+    protected boolean playRecoveryOp(RedoLogManager redoLogMgr, RedoableOp op) {
+        boolean success = false;
+        try {
+            op.redo();
+            success = true;
+        } catch (Exception e) {
+            ZimbraLog.redolog.error("Redo failed for [" + op + "]." +
+                    "  Backend state of affected item is indeterminate." +
+                    "  Marking operation as aborted and moving on.", e);
+        } finally {
+            if (success) {
+                CommitTxn commit = new CommitTxn(op);
+                redoLogMgr.logOnly(commit, true);
+            } else {
+                AbortTxn abort = new AbortTxn(op);
+                redoLogMgr.logOnly(abort, true);
+            }
+        }
+        return success;
+    }
+
+    /**
+     * Blocks until all ops passed to {@link #playOp(RedoableOp)} or
+     * {@link #playRecoveryOp(RedoLogManager, RedoableOp)} have been executed.
+     * Ops are executed inline here, so there is nothing to wait for.
+     */
+    protected void waitForPendingOps() {
+    }
+
     /**
      * Returns a copy of the pending ops map.
      * @return
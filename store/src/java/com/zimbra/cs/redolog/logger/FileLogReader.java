@@ -115,6 +115,11 @@ public class FileLogReader {
                 }
                 return op;
             } catch (IOException e) {
+                if (first && isZeroFilledFrom(pos)) {
+                    // Space pre-allocated by GroupCommitLogWriter that hasn't been written yet.
+                    mFileSizeAtOpen = pos;
+                    return null;
+                }
                 if (e instanceof EOFException)
                     throw e;
                 if (first) {
@@ -166,6 +171,36 @@ public class FileLogReader {
         }
     }
 
+    /**
+     * Returns true if every byte from pos to the end of the file is zero.
+     * Every op starts with the non-zero redo op marker, so a zero-filled tail
+     * can't be part of the log.  The file pointer is left at pos.
+     */
+    private boolean isZeroFilledFrom(long pos) throws IOException {
+        mRAF.seek(pos);
+        if (pos >= mFileSizeAtOpen || mRAF.read() != 0) {
+            mRAF.seek(pos);
+            return false;
+        }
+        byte[] buf = new byte[8 * 1024];
+        try {
+            long remaining = mFileSizeAtOpen - pos - 1;
+            while (remaining > 0) {
+                int n = mRAF.read(buf, 0, (int) Math.min(buf.length, remaining));
+                if (n < 0)
+                    break;
+                for (int i = 0; i < n; i++) {
+                    if (buf[i] != 0)
+                        return false;
+                }
+                remaining -= n;
+            }
+            return true;
+        } finally {
+            mRAF.seek(pos);
+        }
+    }
+
     /**
      * Search the pattern in mRAF, positioning the pointer at the beginning of the pattern.
      * @param pattern
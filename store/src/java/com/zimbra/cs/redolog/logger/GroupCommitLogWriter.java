@@ -0,0 +1,762 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.redolog.logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.zimbra.common.localconfig.DebugConfig;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ByteUtil;
+import com.zimbra.common.util.Constants;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.account.Provisioning;
+import com.zimbra.cs.redolog.CommitId;
+import com.zimbra.cs.redolog.RedoCommitCallback;
+import com.zimbra.cs.redolog.RedoConfig;
+import com.zimbra.cs.redolog.RedoLogManager;
+import com.zimbra.cs.redolog.RolloverManager;
+import com.zimbra.cs.redolog.op.CommitTxn;
+import com.zimbra.cs.redolog.op.RedoableOp;
+import com.zimbra.cs.util.Zimbra;
+
+/**
+ * {@link LogWriter} that takes the file I/O off the logging threads.
+ * <p>
+ * Logging threads serialize their op, claim a slot in a fixed size ring
+ * buffer with a single atomic increment and publish the bytes into it.  A
+ * dedicated committer thread drains the ring in claim order, appends the
+ * records to the log file and fsyncs as soon as a batch contains a
+ * synchronous entry or a commit callback, instead of sleeping for a fixed
+ * interval the way {@link FileLogWriter} does.  Everything that was
+ * published while an fsync was in progress rides along with the next one,
+ * so the batch size adapts to the load.
+ * <p>
+ * The log file is grown in pre-allocated, zero-filled segments, so that
+ * fdatasync does not have to update the file length on every commit.
+ * Segments are optionally memory-mapped.  The unused tail of the last
+ * segment is trimmed when the log is closed or rolled over.  While the log
+ * is open, {@link FileLogReader} treats the zero-filled tail as the end of
+ * the log, and crash recovery truncates it.  The on-disk format is
+ * otherwise identical to the one written by {@link FileLogWriter}.
+ */
+public class GroupCommitLogWriter implements LogWriter {
+
+    private static String sServerId;
+    static {
+        try {
+            sServerId = Provisioning.getInstance().getLocalServer().getId();
+        } catch (ServiceException e) {
+            ZimbraLog.redolog.error("Unable to get local server ID", e);
+            sServerId = "unknown";
+        }
+    }
+
+    private static final long PARK_NANOS = 1000000;  // 1ms; committer idle wait
+    private static final long RIDE_ALONG_NANOS = 100000;  // 0.1ms; wait for claimed, unpublished slots before fsync
+    private static final byte[] NO_DATA = new byte[0];
+
+    protected RedoLogManager mRedoLogMgr;
+
+    // Synchronizes open/close and access to mHeader, mCreateTime and the file handles
+    // while the committer thread is not running.
+    private final Object mLock = new Object();
+
+    private FileHeader mHeader;
+    private long mFirstOpTstamp;
+    private long mLastOpTstamp;
+    private long mCreateTime;
+
+    private File mFile;
+    private volatile RandomAccessFile mRAF;
+    private FileChannel mChannel;
+
+    private final long mSegmentSize;
+    private final boolean mMmapEnabled;
+    private final long mMaxSyncDelayMS;
+    private final boolean mFsyncDisabled;
+
+    // Owned by the committer thread while the log is open.
+    private long mWritePos;                 // file offset of next append
+    private long mAllocatedEnd;             // end of pre-allocated region
+    private MappedByteBuffer mSegment;      // current mapped segment, if mmap is enabled
+    private long mSegmentStart;
+    private final List<MappedByteBuffer> mDirtySegments = new ArrayList<MappedByteBuffer>(2);
+    private final List<Notif> mPendingNotifs = new ArrayList<Notif>();
+    private long mFirstUnsyncedTime;
+    private final ByteBuffer[] mBatch;
+
+    // Ring buffer.  Slots are claimed with mClaimSeq and released once mWrittenSeq passes them.
+    private final Slot[] mRing;
+    private final int mRingMask;
+    private final AtomicLong mClaimSeq = new AtomicLong();
+    private volatile long mWrittenSeq;      // last seq appended to the file
+    private volatile long mDurableSeq;      // last seq fsynced
+    private final AtomicLong mSyncRequestSeq = new AtomicLong();
+
+    private final AtomicLong mSize = new AtomicLong();  // file size including entries still in the ring
+    private volatile long mLastLogTime;
+
+    private volatile boolean mOpen;
+    private volatile boolean mStopping;
+    private volatile Committer mCommitter;
+    private volatile boolean mAwaitingPublish;  // committer is waiting for claimed slots to be published
+
+    // wait/notify between synchronous loggers and the committer thread
+    private final Object mDurableCond = new Object();
+
+    // wait/notify between loggers waiting for a free ring slot and the committer thread
+    private final Object mSlotCond = new Object();
+    private volatile int mSlotWaiters;
+
+    // for gathering some stats; nonessential for functionality
+    private final AtomicLong mLogCount = new AtomicLong();
+    private long mFsyncCount;
+    private long mBatchCount;
+
+    private boolean mNoStat;
+
+    /**
+     * @param fsyncIntervalMS maximum time an asynchronously logged entry
+     *                        may stay unsynced; 0 means every batch is synced
+     * @param segmentSize     size of each pre-allocated segment in bytes
+     * @param ringSize        number of ring slots; rounded up to a power of 2
+     * @param mmap            whether segments are memory-mapped
+     */
+    public GroupCommitLogWriter(RedoLogManager redoLogMgr, File logfile, long fsyncIntervalMS,
+            long segmentSize, int ringSize, boolean mmap) {
+        mRedoLogMgr = redoLogMgr;
+
+        mHeader = new FileHeader(sServerId);
+        mFile = logfile;
+        mSize.set(mFile.length());
+        mLastLogTime = mFile.lastModified();
+
+        mMaxSyncDelayMS = Math.max(fsyncIntervalMS, 0);
+        mFsyncDisabled = DebugConfig.disableRedoLogFsync;
+        mSegmentSize = Math.max(segmentSize, 64 * 1024);
+        mMmapEnabled = mmap;
+
+        int size = Integer.highestOneBit(Math.max(ringSize, 2) - 1) << 1;
+        mRing = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            mRing[i] = new Slot();
+        }
+        mRingMask = size - 1;
+        mBatch = new ByteBuffer[size];
+    }
+
+    public GroupCommitLogWriter(RedoLogManager redoLogMgr, File logfile, long fsyncIntervalMS) {
+        this(redoLogMgr, logfile, fsyncIntervalMS, RedoConfig.redoLogGroupCommitSegmentSizeKB() * 1024L,
+                RedoConfig.redoLogGroupCommitRingSize(), RedoConfig.redoLogGroupCommitMmapEnabled());
+    }
+
+    @Override public long getSequence() {
+        synchronized (mLock) {
+            return mHeader.getSequence();
+        }
+    }
+
+    @Override public long getSize() {
+        return mSize.get();
+    }
+
+    @Override public long getCreateTime() {
+        synchronized (mLock) {
+            return mCreateTime;
+        }
+    }
+
+    @Override public long getLastLogTime() {
+        return mLastLogTime;
+    }
+
+    @Override public boolean isEmpty() throws IOException {
+        return getSize() <= FileHeader.HEADER_LEN;
+    }
+
+    @Override public boolean exists() {
+        return mFile.exists();
+    }
+
+    @Override public String getAbsolutePath() {
+        return mFile.getAbsolutePath();
+    }
+
+    @Override public boolean renameTo(File dest) {
+        return mFile.renameTo(dest);
+    }
+
+    @Override public boolean delete() {
+        return mFile.delete();
+    }
+
+    @Override public synchronized void open() throws IOException {
+        synchronized (mLock) {
+            if (mRAF != null) return;  // already open
+
+            mRAF = new RandomAccessFile(mFile, "rw");
+            mChannel = mRAF.getChannel();
+
+            if (mRAF.length() >= FileHeader.HEADER_LEN) {
+                mHeader.read(mRAF);
+                mCreateTime = mHeader.getCreateTime();
+                if (mCreateTime == 0) {
+                    mCreateTime = System.currentTimeMillis();
+                    mHeader.setCreateTime(mCreateTime);
+                }
+                mFirstOpTstamp = mHeader.getFirstOpTstamp();
+                mLastOpTstamp = mHeader.getLastOpTstamp();
+            } else {
+                mCreateTime = System.currentTimeMillis();
+                mHeader.setCreateTime(mCreateTime);
+                mHeader.setSequence(mRedoLogMgr.getCurrentLogSequence());
+            }
+            mHeader.setOpen(true);
+            mHeader.write(mRAF);
+
+            // Segments are allocated lazily on the first append, so that opening the log for crash
+            // recovery doesn't grow the file the recovery scan is about to truncate.
+            long len = mRAF.length();
+            mWritePos = mAllocatedEnd = len;
+            mSize.set(len);
+            mSegment = null;
+            mDirtySegments.clear();
+
+            // Slots still carry the sequence numbers of the previous open; clear them so that
+            // they don't look published once the sequence starts over.
+            for (Slot slot : mRing) {
+                slot.seq = 0;
+                slot.op = null;
+                slot.data = null;
+            }
+            mClaimSeq.set(0);
+            mWrittenSeq = mDurableSeq = 0;
+            mSyncRequestSeq.set(0);
+            mFsyncCount = mBatchCount = 0;
+            mLogCount.set(0);
+
+            mStopping = false;
+            mOpen = true;
+            mCommitter = new Committer();
+            mCommitter.start();
+        }
+    }
+
+    @Override public synchronized void close() throws IOException {
+        synchronized (mLock) {
+            if (mRAF == null)
+                return;
+            mOpen = false;
+        }
+
+        // Let the committer drain and sync whatever was claimed before the close.
+        mStopping = true;
+        mCommitter.stopThread();
+        mCommitter = null;
+
+        synchronized (mLock) {
+            // The committer has synced everything, and the mappings must be released
+            // before the file can be truncated on some platforms.
+            unmapSegments();
+            // Give back the unused part of the last segment.
+            if (mAllocatedEnd > mWritePos)
+                mRAF.setLength(mWritePos);
+            if (mLastOpTstamp != 0)
+                mHeader.setLastOpTstamp(mLastOpTstamp);
+            mHeader.setOpen(false);
+            mHeader.setFileSize(mRAF.length());
+            mHeader.write(mRAF);
+
+            mChannel.force(true);
+            mRAF.close();
+            mRAF = null;
+            mChannel = null;
+            mAllocatedEnd = mWritePos;
+        }
+
+        synchronized (mDurableCond) {
+            mDurableCond.notifyAll();
+        }
+        synchronized (mSlotCond) {
+            mSlotCond.notifyAll();
+        }
+
+        // Write some stats, so we can see how well the commits were grouped.
+        if (!mNoStat && mLogCount.get() > 0 && ZimbraLog.redolog.isDebugEnabled())
+            ZimbraLog.redolog.debug("Logged: %d items, %d batches, %d fsyncs", mLogCount.get(), mBatchCount, mFsyncCount);
+    }
+
+    /**
+     * Queues the op for the committer thread.  If <tt>synchronous</tt> is
+     * true, the method returns only after the entry has been fsynced,
+     * together with everything else that was queued in the meantime.
+     *
+     * @throws IOException if the log is closed, including when it is closed
+     *                     while the entry is being queued
+     */
+    @Override public void log(RedoableOp op, InputStream data, boolean synchronous) throws IOException {
+        if (!mOpen)
+            throw new IOException("Redolog file closed");
+
+        byte[] buf = ByteUtil.getContent(data, 1024);
+
+        long seq = mClaimSeq.incrementAndGet();
+        if (seq - mRing.length > mWrittenSeq)
+            waitForSlot(seq);
+
+        // The committer drains every slot claimed before close() cleared mOpen.  If the log was
+        // closed in the meantime, the entry may not be written, so it is rejected; the slot is
+        // still published, empty, so that a committer that did see the claim doesn't wait for it.
+        boolean closed = !mOpen;
+        Slot slot = mRing[(int) (seq & mRingMask)];
+        slot.op = closed ? null : op;
+        slot.data = closed ? NO_DATA : buf;
+        slot.seq = seq;  // volatile write publishes the slot
+        if (mAwaitingPublish)
+            wakeCommitter();
+        if (closed)
+            throw new IOException("Redolog file closed");
+
+        mSize.addAndGet(buf.length);
+        mLogCount.incrementAndGet();
+        mLastLogTime = System.currentTimeMillis();
+
+        if (synchronous)
+            waitForSync(seq);
+        else if (mMaxSyncDelayMS == 0)
+            wakeCommitter();
+    }
+
+    @Override public void flush() throws IOException {
+        long seq = mClaimSeq.get();
+        if (seq > mDurableSeq)
+            waitForSync(seq);
+    }
+
+    // Blocks until the committer has freed up the slot for seq.
+    private void waitForSlot(long seq) throws IOException {
+        wakeCommitter();
+        synchronized (mSlotCond) {
+            mSlotWaiters++;
+            try {
+                while (seq - mRing.length > mWrittenSeq) {
+                    if (mCommitter == null)
+                        throw new IOException("Redolog file closed");
+                    try {
+                        mSlotCond.wait(1000);
+                    } catch (InterruptedException e) {
+                        ZimbraLog.redolog.info("Thread interrupted while waiting for redolog buffer space");
+                    }
+                }
+            } finally {
+                mSlotWaiters--;
+            }
+        }
+    }
+
+    private void waitForSync(long seq) throws IOException {
+        long req;
+        while ((req = mSyncRequestSeq.get()) < seq && !mSyncRequestSeq.compareAndSet(req, seq))
+            ;
+        wakeCommitter();
+        synchronized (mDurableCond) {
+            while (mDurableSeq < seq) {
+                if (mRAF == null)
+                    throw new IOException("Redolog file closed");
+                try {
+                    mDurableCond.wait(1000);
+                } catch (InterruptedException e) {
+                    ZimbraLog.redolog.info("Thread interrupted during fsync");
+                }
+            }
+        }
+    }
+
+    private void wakeCommitter() {
+        Committer committer = mCommitter;
+        if (committer != null)
+            LockSupport.unpark(committer);
+    }
+
+    public void noStat(boolean b) {
+        mNoStat = b;
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override public synchronized File rollover(LinkedHashMap /*<TxnId, RedoableOp>*/ activeOps)
+    throws IOException {
+        RolloverManager romgr = mRedoLogMgr.getRolloverManager();
+
+        long lastSeq = getSequence();
+
+        // Close current log, so it's impossible for its content to change.
+        noStat(true);
+        close();
+
+        romgr.incrementSequence();
+
+        String currentPath = mFile.getAbsolutePath();
+
+        // Write the active ops to a temporary log.  It's small and written once, so the plain
+        // writer without fsync thread does the job.
+        File tempLogfile = new File(mFile.getParentFile(), romgr.getTempFilename(lastSeq + 1));
+        FileLogWriter tempLogger = new FileLogWriter(mRedoLogMgr, tempLogfile, 0);
+        tempLogger.open();
+        tempLogger.noStat(true);
+
+        // Rewrite change entries for all active operations, maintaining
+        // their order of occurrence.  (LinkedHashMap ensures ordering.)
+        for (Iterator it = activeOps.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry entry = (Map.Entry) it.next();
+            RedoableOp op = (RedoableOp) entry.getValue();
+            tempLogger.log(op, op.getInputStream(), false);
+        }
+        tempLogger.close();
+
+        // Rename the current log to rolled-over name.
+        File rolloverFile = romgr.getRolloverFile(lastSeq);
+        if (RedoConfig.redoLogDeleteOnRollover()) {
+            // Delete the current log.  We don't need to hold on to the
+            // indexing-only log files after rollover.
+            if (!mFile.delete())
+                throw new IOException("Unable to delete current redo log " + mFile.getAbsolutePath());
+        } else {
+            File destDir = rolloverFile.getParentFile();
+            if (destDir != null && !destDir.exists())
+                destDir.mkdirs();
+            if (!mFile.renameTo(rolloverFile))
+                throw new IOException("Unable to rename current redo log to " + rolloverFile.getAbsolutePath());
+        }
+
+        // Rename the temporary logger to current logfile name.
+        String tempPath = tempLogfile.getAbsolutePath();
+        mFile = new File(currentPath);
+        if (!tempLogfile.renameTo(mFile))
+            throw new IOException("Unable to rename " + tempPath + " to " + currentPath);
+
+        // Reopen current log.
+        open();
+        noStat(false);
+
+        return rolloverFile;
+    }
+
+    /**
+     * Appends all published slots to the file.  Called by the committer thread only.
+     * @return number of entries appended
+     */
+    private int drain() throws IOException {
+        long next = mWrittenSeq + 1;
+        int count = 0;
+        long bytes = 0;
+        while (count < mBatch.length) {
+            Slot slot = mRing[(int) ((next + count) & mRingMask)];
+            if (slot.seq != next + count)
+                break;  // not published yet
+            RedoableOp op = slot.op;
+
+            // Record first transaction in header.  Slots rejected after close have no op.
+            if (op != null) {
+                long tstamp = op.getTimestamp();
+                mLastOpTstamp = Math.max(tstamp, mLastOpTstamp);
+                if (mFirstOpTstamp == 0) {
+                    mFirstOpTstamp = tstamp;
+                    synchronized (mLock) {
+                        mHeader.setFirstOpTstamp(mFirstOpTstamp);
+                        mHeader.setLastOpTstamp(mLastOpTstamp);
+                        mHeader.write(mRAF);
+                    }
+                }
+            }
+
+            // Commit callbacks are made in log order, after the commit record has been fsynced.
+            if (op instanceof CommitTxn) {
+                RedoCommitCallback cb = ((CommitTxn) op).getCallback();
+                if (cb != null) {
+                    long redoSeq = mRedoLogMgr.getRolloverManager().getCurrentSequence();
+                    mPendingNotifs.add(new Notif(cb, new CommitId(redoSeq, (CommitTxn) op)));
+                }
+            }
+
+            mBatch[count] = ByteBuffer.wrap(slot.data);
+            bytes += slot.data.length;
+            slot.op = null;  // help with GC
+            slot.data = null;
+            count++;
+        }
+        if (count == 0)
+            return 0;
+
+        ensureAllocated(mWritePos + bytes);
+        if (mMmapEnabled) {
+            for (int i = 0; i < count; i++) {
+                put(mBatch[i]);
+            }
+        } else {
+            mChannel.position(mWritePos);
+            long remaining = bytes;
+            while (remaining > 0) {
+                remaining -= mChannel.write(mBatch, 0, count);
+            }
+            mWritePos += bytes;
+        }
+        for (int i = 0; i < count; i++) {
+            mBatch[i] = null;
+        }
+
+        if (mDurableSeq == mWrittenSeq)
+            mFirstUnsyncedTime = System.currentTimeMillis();
+        mWrittenSeq = next + count - 1;  // frees the slots for reuse
+        if (mSlotWaiters > 0) {
+            synchronized (mSlotCond) {
+                mSlotCond.notifyAll();
+            }
+        }
+        mBatchCount++;
+        return count;
+    }
+
+    // Copies the record into the mapped segments, mapping the next segment when the current one is full.
+    private void put(ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (mSegment == null || mWritePos >= mSegmentStart + mSegment.capacity()) {
+                if (mSegment != null)
+                    mDirtySegments.add(mSegment);
+                mSegmentStart = mWritePos;
+                mSegment = mChannel.map(FileChannel.MapMode.READ_WRITE, mSegmentStart,
+                        Math.min(Math.max(mAllocatedEnd - mSegmentStart, 1), Integer.MAX_VALUE));
+            }
+            int n = (int) Math.min(buf.remaining(), mSegmentStart + mSegment.capacity() - mWritePos);
+            ByteBuffer chunk = buf.slice();
+            chunk.limit(n);
+            mSegment.position((int) (mWritePos - mSegmentStart));
+            mSegment.put(chunk);
+            buf.position(buf.position() + n);
+            mWritePos += n;
+        }
+    }
+
+    // Grows the file by whole segments until it can hold end bytes.  Zeros are written rather than
+    // just setting the length, so the blocks are really allocated and later appends don't need a
+    // metadata update at fsync time.
+    private void ensureAllocated(long end) throws IOException {
+        if (end <= mAllocatedEnd)
+            return;
+        ByteBuffer zeros = ByteBuffer.allocate(64 * 1024);
+        long newEnd = mAllocatedEnd;
+        while (newEnd < end) {
+            newEnd += mSegmentSize;
+        }
+        long pos = mAllocatedEnd;
+        while (pos < newEnd) {
+            zeros.clear();
+            zeros.limit((int) Math.min(zeros.capacity(), newEnd - pos));
+            pos += mChannel.write(zeros, pos);
+        }
+        mAllocatedEnd = newEnd;
+        if (mSegment != null) {
+            // Remap from the current position so the new segment covers the newly allocated space.
+            mDirtySegments.add(mSegment);
+            mSegment = null;
+        }
+    }
+
+    // Called by the committer thread only.
+    private void sync() throws IOException {
+        long seq = mWrittenSeq;
+        if (!mFsyncDisabled) {
+            if (mSegment != null)
+                mSegment.force();
+            for (MappedByteBuffer segment : mDirtySegments) {
+                segment.force();
+            }
+            mChannel.force(false);
+            mFsyncCount++;
+        }
+        // Segments other than the current one are full and won't be written again.
+        for (MappedByteBuffer segment : mDirtySegments) {
+            unmap(segment);
+        }
+        mDirtySegments.clear();
+        mDurableSeq = seq;
+
+        for (Notif notif : mPendingNotifs) {
+            try {
+                notif.getCallback().callback(notif.getCommitId());
+            } catch (OutOfMemoryError e) {
+                Zimbra.halt("out of memory", e);
+            } catch (Throwable t) {
+                ZimbraLog.misc.error("Error while making commit callback", t);
+            }
+        }
+        mPendingNotifs.clear();
+
+        synchronized (mDurableCond) {
+            mDurableCond.notifyAll();
+        }
+    }
+
+    private boolean isSyncDue() {
+        if (mDurableSeq == mWrittenSeq)
+            return false;
+        return mSyncRequestSeq.get() > mDurableSeq || !mPendingNotifs.isEmpty() || mStopping ||
+            System.currentTimeMillis() - mFirstUnsyncedTime >= mMaxSyncDelayMS;
+    }
+
+    private class Committer extends Thread {
+        Committer() {
+            super("GroupCommitLogWriter.Committer-" + System.currentTimeMillis());
+            setDaemon(true);
+        }
+
+        @Override public void run() {
+            ZimbraLog.redolog.info("Starting group commit thread for %s", mFile.getAbsolutePath());
+            try {
+                while (true) {
+                    int n = drain();
+                    if (isSyncDue()) {
+                        // Entries that were claimed but not yet published are about to show up;
+                        // give them a moment so they make it into this fsync.
+                        awaitPublished();
+                        sync();
+                    } else if (n == 0) {
+                        if (mStopping && mClaimSeq.get() == mWrittenSeq)
+                            break;
+                        LockSupport.parkNanos(this, PARK_NANOS);
+                    }
+                }
+            } catch (IOException e) {
+                String message = "Error while writing " + mFile.getAbsolutePath() + "; Aborting.";
+                Zimbra.halt(message, e);
+            }
+            ZimbraLog.redolog.info("group commit thread exiting");
+        }
+
+        // Drains slots that are claimed but not yet published, for up to RIDE_ALONG_NANOS.
+        // Loggers unpark the committer as soon as they publish.
+        private void awaitPublished() throws IOException {
+            long deadline = System.nanoTime() + RIDE_ALONG_NANOS;
+            mAwaitingPublish = true;
+            try {
+                while (mClaimSeq.get() > mWrittenSeq) {
+                    if (drain() > 0)
+                        continue;
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0)
+                        break;
+                    LockSupport.parkNanos(this, remaining);
+                }
+            } finally {
+                mAwaitingPublish = false;
+            }
+        }
+
+        // Stop the committer thread.  Wait until the thread really stops.
+        void stopThread() {
+            try {
+                while (isAlive()) {
+                    LockSupport.unpark(this);
+                    join(Constants.MILLIS_PER_SECOND);
+                }
+            } catch (InterruptedException e) {
+                ZimbraLog.redolog.warn("InterruptedException while stopping group commit thread", e);
+            }
+        }
+    }
+
+    // Releases the current and all dirty segments.  Called with the committer stopped.
+    private void unmapSegments() {
+        if (mSegment != null)
+            unmap(mSegment);
+        for (MappedByteBuffer segment : mDirtySegments) {
+            unmap(segment);
+        }
+        mSegment = null;
+        mDirtySegments.clear();
+    }
+
+    private static Method sUnmap;       // sun.misc.Unsafe.invokeCleaner on Java 9+
+    private static Object sUnsafe;
+    private static boolean sUnmapFailed;
+
+    /**
+     * Releases the mapping right away rather than when the buffer is garbage
+     * collected, which otherwise keeps address space and file blocks of
+     * rolled-over logs around indefinitely.  The buffer must not be accessed
+     * afterwards.
+     */
+    private static synchronized void unmap(MappedByteBuffer buf) {
+        if (sUnmapFailed)
+            return;
+        try {
+            if (sUnmap == null) {
+                try {
+                    Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                    sUnmap = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                    Field f = unsafeClass.getDeclaredField("theUnsafe");
+                    f.setAccessible(true);
+                    sUnsafe = f.get(null);
+                } catch (NoSuchMethodException e) {
+                    // Java 8: ((DirectBuffer) buf).cleaner().clean()
+                    Method cleaner = buf.getClass().getMethod("cleaner");
+                    cleaner.setAccessible(true);
+                    Object c = cleaner.invoke(buf);
+                    if (c != null)
+                        c.getClass().getMethod("clean").invoke(c);
+                    return;
+                }
+            }
+            sUnmap.invoke(sUnsafe, buf);
+        } catch (Exception e) {
+            sUnmapFailed = true;
+            ZimbraLog.redolog.warn("Unable to unmap redolog segments; they will be released on garbage collection", e);
+        }
+    }
+
+    private static class Slot {
+        volatile long seq;
+        RedoableOp op;
+        byte[] data;
+    }
+
+    private static class Notif {
+        private final RedoCommitCallback mCallback;
+        private final CommitId mCommitId;
+
+        public Notif(RedoCommitCallback callback, CommitId cid) {
+            mCallback = callback;
+            mCommitId = cid;
+        }
+        public RedoCommitCallback getCallback() { return mCallback; }
+        public CommitId getCommitId() { return mCommitId; }
+    }
+}
@@ -27,7 +27,6 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.zip.GZIPInputStream;
 
 import javax.activation.DataSource;
 
@@ -53,6 +52,7 @@ import com.zimbra.cs.redolog.RedoLogInput;
 import com.zimbra.cs.redolog.RedoLogOutput;
 import com.zimbra.cs.store.Blob;
 import com.zimbra.cs.store.StoreManager;
+import com.zimbra.cs.store.codec.BlobCodec;
 
 public class CreateMessage extends RedoableOp
 implements CreateCalendarItemPlayer, CreateCalendarItemRecorder {
@@ -524,7 +524,7 @@ implements CreateCalendarItemPlayer, CreateCalendarItemRecorder {
             try {
                 in = mData.getInputStream();
                 if (mData.getLength() != mMsgSize) {
-                    in = new GZIPInputStream(in);
+                    in = BlobCodec.decompressIfNeeded(in);
                 }
                 mbox.addMessage(octxt, in, mMsgSize, mReceivedDate, getDeliveryOptions(), dctxt);
             } catch (MailServiceException e) {
@@ -22,7 +22,6 @@ package com.zimbra.cs.redolog.op;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.zip.GZIPInputStream;
 
 import com.zimbra.common.util.ByteUtil;
 import com.zimbra.cs.mailbox.Mailbox;
@@ -33,6 +32,7 @@ import com.zimbra.cs.redolog.RedoLogInput;
 import com.zimbra.cs.redolog.RedoLogOutput;
 import com.zimbra.cs.store.Blob;
 import com.zimbra.cs.store.StoreManager;
+import com.zimbra.cs.store.codec.BlobCodec;
 
 public class SaveDraft extends CreateMessage {
 
@@ -79,7 +79,7 @@ public class SaveDraft extends CreateMessage {
         try {
             in = mData.getInputStream();
             if (mData.getLength() != mMsgSize)
-                in = new GZIPInputStream(in);
+                in = BlobCodec.decompressIfNeeded(in);
 
             blob = sm.storeIncoming(in);
             ParsedMessage pm = new ParsedMessage(blob.getFile(), getTimestamp(), mbox.attachmentsIndexingEnabled());
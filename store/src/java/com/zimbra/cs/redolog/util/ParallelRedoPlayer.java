@@ -17,33 +17,89 @@
 
 package com.zimbra.cs.redolog.util;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.redolog.RedoLogManager;
 import com.zimbra.cs.redolog.RedoPlayer;
 import com.zimbra.cs.redolog.op.RedoableOp;
 import com.zimbra.cs.util.Zimbra;
 
+/**
+ * Replays ops on a work-stealing pool.
+ * <p>
+ * Each mailbox has its own queue of pending ops.  A mailbox with pending ops
+ * is scheduled on the pool as a single task, which plays up to
+ * <tt>batchSize</tt> consecutive ops of that mailbox before yielding to
+ * other mailboxes.  Since at most one task per mailbox is ever scheduled,
+ * ops of the same mailbox are played in log order, but unlike a fixed
+ * mailbox-to-thread assignment any idle thread can pick up any mailbox, so
+ * a few busy mailboxes no longer hold up everything that hashes to the same
+ * thread.
+ * <p>
+ * Ops that span multiple mailboxes are still executed by the calling thread,
+ * so that later ops that depend on them are not started out of order.
+ */
 public class ParallelRedoPlayer extends RedoPlayer {
 
-    private PlayerThread[] mPlayerThreads;
+    private static final int DEFAULT_BATCH_SIZE = 32;
+    private static final long PROGRESS_INTERVAL_MS = 30 * 1000;
+
+    private final ForkJoinPool mPool;
+    private final int mBatchSize;
+    private final ConcurrentMap<Integer, MailboxQueue> mQueues = new ConcurrentHashMap<Integer, MailboxQueue>();
+
+    // Bounds the number of ops queued but not yet played, so the log scan doesn't run too far ahead.
+    private final Semaphore mPermits;
+    private final int mMaxPending;
+
+    // replay metrics
+    private final long mStartTime = System.currentTimeMillis();
+    private final AtomicLong mOpsQueued = new AtomicLong();
+    private final AtomicLong mOpsPlayed = new AtomicLong();
+    private final AtomicLong mOpsFailed = new AtomicLong();
+    private final AtomicLong mBatches = new AtomicLong();
+    private final AtomicLong mPlayTimeMS = new AtomicLong();
+    private volatile long mLastProgressTime = mStartTime;
 
     public ParallelRedoPlayer(boolean writable, boolean unloggedReplay,
                               boolean ignoreReplayErrors, boolean skipDeleteOps,
                               int numThreads, int queueCapacity, boolean handleMailboxConflict) {
+        this(writable, unloggedReplay, ignoreReplayErrors, skipDeleteOps, numThreads, queueCapacity,
+             DEFAULT_BATCH_SIZE, handleMailboxConflict);
+    }
+
+    /**
+     * @param queueCapacity number of pending ops allowed per player thread
+     * @param batchSize     maximum number of consecutive ops of one mailbox
+     *                      played before the thread moves on to other mailboxes
+     */
+    public ParallelRedoPlayer(boolean writable, boolean unloggedReplay,
+                              boolean ignoreReplayErrors, boolean skipDeleteOps,
+                              int numThreads, int queueCapacity, int batchSize, boolean handleMailboxConflict) {
         super(writable, unloggedReplay, ignoreReplayErrors, skipDeleteOps, handleMailboxConflict);
         ZimbraLog.redolog.debug("Starting ParallelRedoPlayer");
         numThreads = Math.max(numThreads, 1);
-        mPlayerThreads = new PlayerThread[numThreads];
-        for (int i = 0; i < numThreads; i++) {
-            String name = "RedoPlayer-" + Integer.toString(i);
-            PlayerThread player = new PlayerThread(queueCapacity);
-            mPlayerThreads[i] = player;
-            player.setName(name);
-            player.start();
-        }
+        mPool = new ForkJoinPool(numThreads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            private int mCount = 0;
+            @Override
+            public synchronized ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                t.setName("RedoPlayer-" + Integer.toString(mCount++));
+                return t;
+            }
+        }, null, true /* FIFO scheduling of mailbox tasks */);
+        mBatchSize = Math.max(batchSize, 1);
+        mMaxPending = Math.max(queueCapacity, 1) * numThreads;
+        mPermits = new Semaphore(mMaxPending);
     }
 
     @Override public void shutdown() {
@@ -51,9 +107,12 @@ public class ParallelRedoPlayer extends RedoPlayer {
         try {
             super.shutdown();
         } finally {
-            for (int i = 0; i < mPlayerThreads.length; i++) {
-                mPlayerThreads[i].shutdown();
-            }
+            waitForPendingOps();
+            mPool.shutdown();
+            try {
+                mPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {}
+            logProgress();
         }
         ZimbraLog.redolog.debug("ParallelRedoPlayer shutdown complete");
     }
@@ -68,21 +127,42 @@ public class ParallelRedoPlayer extends RedoPlayer {
                 ZimbraLog.redolog.info("Executing: " + op.toString());
             op.redo();
         } else {
-            // Ops for the same mailbox must be played back in order.  To ensure that,
-            // all ops for the same mailbox are sent to the same player thread.  The
-            // ops are added to the thread's internal queue and played back in order.
-            // This assignment of ops to threads will result in uneven distribution.
-            int index = Math.abs(mboxId % mPlayerThreads.length);
-            PlayerThread player = mPlayerThreads[index];
-            RedoTask task = new RedoTask(op);
             if (ZimbraLog.redolog.isDebugEnabled())
                 ZimbraLog.redolog.info("Enqueuing: " + op.toString());
-            try {
-                player.enqueue(task);
-            } catch (InterruptedException e) {}
+            enqueue(mboxId, new RedoTask(op, null));
         }
     }
 
+    @Override protected boolean playRecoveryOp(RedoLogManager redoLogMgr, RedoableOp op) {
+        int mboxId = op.getMailboxId();
+        if (mboxId == RedoableOp.MAILBOX_ID_ALL || mboxId == RedoableOp.UNKNOWN_ID)
+            return super.playRecoveryOp(redoLogMgr, op);
+        enqueue(mboxId, new RedoTask(op, redoLogMgr));
+        return true;
+    }
+
+    /**
+     * Blocks until every op queued so far has been played.
+     */
+    @Override protected void waitForPendingOps() {
+        mPermits.acquireUninterruptibly(mMaxPending);
+        mPermits.release(mMaxPending);
+    }
+
+    private void enqueue(int mboxId, RedoTask task) {
+        mPermits.acquireUninterruptibly();
+        mOpsQueued.incrementAndGet();
+        MailboxQueue queue = mQueues.get(mboxId);
+        if (queue == null) {
+            MailboxQueue newQueue = new MailboxQueue(mboxId);
+            queue = mQueues.putIfAbsent(mboxId, newQueue);
+            if (queue == null)
+                queue = newQueue;
+        }
+        if (queue.add(task))
+            mPool.execute(queue);
+    }
+
     private Throwable mError = null;
     private final Object mErrorLock = new Object();
 
@@ -106,67 +186,121 @@ public class ParallelRedoPlayer extends RedoPlayer {
         }
     }
 
+    /** Number of ops handed to the player threads so far. */
+    public long getOpsQueued()   { return mOpsQueued.get(); }
+    /** Number of ops the player threads have finished, successfully or not. */
+    public long getOpsPlayed()   { return mOpsPlayed.get(); }
+    public long getOpsFailed()   { return mOpsFailed.get(); }
+    /** Number of distinct mailboxes seen so far. */
+    public int getMailboxCount() { return mQueues.size(); }
+    public long getBatchCount()  { return mBatches.get(); }
+
+    /** Ops played per second since the player was created. */
+    public double getThroughput() {
+        long elapsed = Math.max(System.currentTimeMillis() - mStartTime, 1);
+        return mOpsPlayed.get() * 1000.0 / elapsed;
+    }
+
+    private void logProgress() {
+        long played = mOpsPlayed.get();
+        long batches = mBatches.get();
+        ZimbraLog.redolog.info("Replay progress: %d of %d ops played (%d failed) in %d mailboxes; " +
+                "%.1f ops/sec, %.1f ops/batch, %.2f ms/op, %d pool steals",
+                played, mOpsQueued.get(), mOpsFailed.get(), mQueues.size(), getThroughput(),
+                batches > 0 ? (double) played / batches : 0.0, played > 0 ? (double) mPlayTimeMS.get() / played : 0.0,
+                mPool.getStealCount());
+    }
+
+    private void played(RedoTask task, long elapsed, boolean failed) {
+        mPermits.release();
+        mPlayTimeMS.addAndGet(elapsed);
+        if (failed)
+            mOpsFailed.incrementAndGet();
+        mOpsPlayed.incrementAndGet();
+        long now = System.currentTimeMillis();
+        if (now - mLastProgressTime >= PROGRESS_INTERVAL_MS) {
+            mLastProgressTime = now;
+            logProgress();
+        }
+    }
+
     private static class RedoTask {
-        private RedoableOp mOp;
-        public RedoTask(RedoableOp op)  { mOp = op; }
-        public RedoableOp getOp()       { return mOp; }
-        public boolean isShutdownTask() { return false; }
+        private final RedoableOp mOp;
+        private final RedoLogManager mRecoveryLogMgr;  // non-null for crash recovery
+
+        public RedoTask(RedoableOp op, RedoLogManager recoveryLogMgr) {
+            mOp = op;
+            mRecoveryLogMgr = recoveryLogMgr;
+        }
+        public RedoableOp getOp()                 { return mOp; }
+        public RedoLogManager getRecoveryLogMgr() { return mRecoveryLogMgr; }
     }
 
     /**
-     * Special task to tell the queue drain thread to go away.
+     * Pending ops of one mailbox.  The queue is scheduled on the pool
+     * whenever it goes from empty to non-empty, and reschedules itself while
+     * it still has ops after a batch; so there is never more than one thread
+     * playing ops of the same mailbox.
      */
-    private static class ShutdownTask extends RedoTask {
-        public ShutdownTask() { super(null); }
-        @Override
-        public boolean isShutdownTask() { return true; }
-    }
+    private class MailboxQueue implements Runnable {
+        private final int mMailboxId;
+        private final ArrayDeque<RedoTask> mTasks = new ArrayDeque<RedoTask>();
+        private boolean mScheduled;
 
-    private class PlayerThread extends Thread {
-        private BlockingQueue<RedoTask> mQueue;
+        MailboxQueue(int mboxId) {
+            mMailboxId = mboxId;
+        }
 
-        private PlayerThread(int queueCapacity) {
-            queueCapacity = Math.max(queueCapacity, 1);
-            mQueue = new LinkedBlockingQueue<RedoTask>(queueCapacity);
+        /**
+         * @return true if the queue needs to be scheduled
+         */
+        synchronized boolean add(RedoTask task) {
+            mTasks.add(task);
+            if (mScheduled)
+                return false;
+            mScheduled = true;
+            return true;
         }
 
-        public void enqueue(RedoTask task) throws InterruptedException {
-            mQueue.put(task);
+        private synchronized RedoTask poll() {
+            return mTasks.poll();
         }
 
-        public void shutdown() {
-            if (hadError())
-                mQueue.clear();  // Ensure mQueue.put() below will not block.
-            ShutdownTask t = new ShutdownTask();
-            try {
-                mQueue.put(t);
-            } catch (InterruptedException e) {}
-            try {
-                join();
-            } catch (InterruptedException e) {}
+        /**
+         * @return true if the queue still has ops and must be rescheduled
+         */
+        private synchronized boolean finishBatch() {
+            if (mTasks.isEmpty()) {
+                mScheduled = false;
+                return false;
+            }
+            return true;
         }
 
         @Override public void run() {
-            while (true) {
-                RedoTask task;
-                try {
-                    task = mQueue.take();
-                } catch (InterruptedException e) {
-                    break;
-                }
-                if (task.isShutdownTask())
+            mBatches.incrementAndGet();
+            for (int i = 0; i < mBatchSize; i++) {
+                RedoTask task = poll();
+                if (task == null)
                     break;
+                play(task);
+            }
+            // Go to the back of the line so other mailboxes get their turn.
+            if (finishBatch())
+                mPool.execute(this);
+        }
 
-                if (hadError()) {
-                    // If there was an error, keep consuming from the queue without executing anything.
-                    // This thread must consume all tasks until shutdown task is received.  If this
-                    // thread stopped consuming, the producer may not be able to enqueue the shutdown
-                    // task.
-                    continue;
-                }
-
-                RedoableOp op = task.getOp();
-                try {
+        private void play(RedoTask task) {
+            long start = System.currentTimeMillis();
+            boolean failed = false;
+            RedoableOp op = task.getOp();
+            try {
+                if (task.getRecoveryLogMgr() != null) {
+                    failed = !ParallelRedoPlayer.super.playRecoveryOp(task.getRecoveryLogMgr(), op);
+                } else if (hadError()) {
+                    // If there was an error, keep consuming from the queue without executing anything,
+                    // so that shutdown isn't held up by the remaining ops.
+                } else {
                     if (ZimbraLog.redolog.isDebugEnabled()) {
                         ZimbraLog.redolog.info("Executing: " + op.toString());
                     }
@@ -175,13 +309,16 @@ public class ParallelRedoPlayer extends RedoPlayer {
                     } else {
                         op.redo();
                     }
-                } catch (OutOfMemoryError oome) {
-                    Zimbra.halt("Out of memory while executing redo op", oome);
-                } catch (Throwable e) {
-                    ZimbraLog.redolog.error("Unable to execute redo op: " + op.toString(), e);
-                    if (!ignoreReplayErrors())
-                        raiseError(e);
                 }
+            } catch (OutOfMemoryError oome) {
+                Zimbra.halt("Out of memory while executing redo op", oome);
+            } catch (Throwable e) {
+                failed = true;
+                ZimbraLog.redolog.error("Unable to execute redo op in mailbox " + mMailboxId + ": " + op.toString(), e);
+                if (!ignoreReplayErrors())
+                    raiseError(e);
+            } finally {
+                played(task, System.currentTimeMillis() - start, failed);
             }
         }
     }
@@ -84,13 +84,10 @@ import com.zimbra.cs.util.Zimbra;
  * error.  By default errors are logged and ignored.
  *
  * Specify --threads <number of threads> to set the degree of parallelism.
- * By default 50 threads are used.  Operations for a given mailbox is always
- * executed by the same thread to guarantee execution order within a mailbox.
- * Thread assignment is done by taking the module of mailbox id divided by
- * number of threads.  Thus in the default setting mailboxes 1 and 51 are
- * handled by the same thread.  This means replay is not fully parallelized.
- * This is a consequence of the need to guarantee order of execution for each
- * mailbox.
+ * By default 50 threads are used.  Operations for a given mailbox are never
+ * executed by two threads at the same time, to guarantee execution order
+ * within a mailbox.  Mailboxes are not tied to threads though; any idle thread
+ * picks up the next mailbox that has pending operations.
  *
  * When only 1 thread is used or --mailboxId option is used all replay is done
  * by the main thread.  Even when multiple replay threads are used operations
@@ -100,12 +97,16 @@ import com.zimbra.cs.util.Zimbra;
  * depend on the non-mailbox-specific operation (e.g. CreateMessage that links
  * to blob stored by StoreIncomingBlob) are not started out of order.
  *
- * Specify --queueCapacity <number of ops> to set the capacity of the operation
- * queue used by each replay thread.  Default capacity is 100.  This parameter
- * is related to the degree of parallelism.  When a replay thread's queue is full
- * and the main thread must submit another operation to the thread, it will block
- * and will be prevented from submitting operations that might have been run in
- * parallel by other replay threads that have available room in the queue.
+ * Specify --queueCapacity <number of ops> to set how many operations per
+ * replay thread may be pending.  Default capacity is 100.  When that many
+ * operations are pending, the main thread blocks until one of them has been
+ * executed.
+ *
+ * Specify --batchSize <number of ops> to set how many consecutive operations
+ * of one mailbox a replay thread executes before moving on to other mailboxes.
+ * Default is 32.
+ *
+ * Replay progress and throughput are logged periodically and at the end.
  */
 public class PlaybackUtil {
 
@@ -118,6 +119,7 @@ public class PlaybackUtil {
     private static final String OPT_STOP_ON_ERROR = "stopOnError";
     private static final String OPT_THREADS = "threads";
     private static final String OPT_QUEUE_CAPACITY = "queueCapacity";
+    private static final String OPT_BATCH_SIZE = "batchSize";
     private static final String OPT_HELP = "h";
 
     private static Options sOptions = new Options();
@@ -130,6 +132,7 @@ public class PlaybackUtil {
         sOptions.addOption(null, OPT_MAILBOX_ID, true, "Replay for this mailbox only");
         sOptions.addOption(null, OPT_THREADS, true, "Number of parallel redo threads; default=50");
         sOptions.addOption(null, OPT_QUEUE_CAPACITY, true, "Queue capacity per player thread; default=100");
+        sOptions.addOption(null, OPT_BATCH_SIZE, true, "Ops of one mailbox played in a row; default=32");
 
         Option logfilesOpt = new Option(null, OPT_LOGFILES, true, "Replay these logfiles, in order");
         logfilesOpt.setArgs(Option.UNLIMITED_VALUES);
@@ -176,6 +179,7 @@ public class PlaybackUtil {
         private static final int MBOX_ID_UNSET = -1;
         private static final int PLAYER_THREADS = 50;
         private static final int QUEUE_CAPACITY = 100;
+        private static final int BATCH_SIZE = 32;
 
         public long fromTime = Long.MIN_VALUE;
         public long fromSeq = Long.MIN_VALUE;
@@ -184,6 +188,7 @@ public class PlaybackUtil {
         public int mboxId = MBOX_ID_UNSET;
         public int threads = PLAYER_THREADS;
         public int queueCapacity = QUEUE_CAPACITY;
+        public int batchSize = BATCH_SIZE;
         public File[] logfiles;
         public boolean stopOnError = false;
         public boolean help = false;
@@ -259,6 +264,9 @@ public class PlaybackUtil {
         if (cl.hasOption(OPT_QUEUE_CAPACITY))
             params.queueCapacity = Integer.parseInt(cl.getOptionValue(OPT_QUEUE_CAPACITY));
         System.out.printf("Using %d as queue capacity for each redo player thread\n", params.queueCapacity);
+        if (cl.hasOption(OPT_BATCH_SIZE))
+            params.batchSize = Integer.parseInt(cl.getOptionValue(OPT_BATCH_SIZE));
+        System.out.printf("Using %d as batch size for each mailbox\n", params.batchSize);
 
         List<File> logList = new ArrayList<File>();
         if (cl.hasOption(OPT_LOGFILES)) {
@@ -325,7 +333,7 @@ public class PlaybackUtil {
             mPlayer = new RedoPlayer(false, true, !mParams.stopOnError, false, true);
         else
             mPlayer = new ParallelRedoPlayer(false, true, !mParams.stopOnError, false,
-                                             mParams.threads, mParams.queueCapacity, true);
+                                             mParams.threads, mParams.queueCapacity, mParams.batchSize, true);
     }
 
     public void playback() throws Throwable {
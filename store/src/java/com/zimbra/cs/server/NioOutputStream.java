@@ -17,15 +17,29 @@
 
 package com.zimbra.cs.server;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
 
 import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.file.FilenameFileRegion;
+import org.apache.mina.core.filterchain.IoFilter;
+import org.apache.mina.core.filterchain.IoFilterChain;
+import org.apache.mina.core.future.IoFutureListener;
 import org.apache.mina.core.future.WriteFuture;
 import org.apache.mina.core.session.IoSession;
+import org.apache.mina.filter.codec.ProtocolCodecFilter;
+import org.apache.mina.filter.executor.ExecutorFilter;
 
 import com.google.common.base.Charsets;
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.util.ByteUtil;
 import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.stats.ZimbraPerf;
+import com.zimbra.cs.store.BlobInputStream;
 
 public final class NioOutputStream extends OutputStream {
     private final IoSession session;
@@ -88,9 +102,86 @@ public final class NioOutputStream extends OutputStream {
         }
     }
 
+    /**
+     * Returns true if <tt>count</tt> bytes are worth sending with {@link #transferFrom(File, long, long)}: zero-copy
+     * is enabled, no filter on the session needs to see the bytes (TLS, SASL), and they don't fit the write buffer,
+     * in which case copying them is cheaper than opening the file.
+     */
+    public boolean canTransfer(long count) {
+        if (count <= buf.capacity() || !LC.nio_zero_copy_enabled.booleanValue()) {
+            return false;
+        }
+        for (IoFilterChain.Entry entry : session.getFilterChain().getAll()) {
+            IoFilter filter = entry.getFilter();
+            if (!(filter instanceof ExecutorFilter || filter instanceof NioLoggingFilter ||
+                    filter instanceof ProtocolCodecFilter)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sends the remaining bytes of <tt>in</tt> straight from the blob file to the socket if it is an uncompressed
+     * {@link BlobInputStream} and {@link #canTransfer} allows it, leaving the stream at its end.
+     *
+     * @return false if nothing was written and the caller must copy the stream itself
+     */
+    public boolean transferFrom(InputStream in) throws IOException {
+        if (!(in instanceof BlobInputStream)) {
+            return false;
+        }
+        BlobInputStream bis = (BlobInputStream) in;
+        long count = bis.getRemaining();
+        if (!canTransfer(count)) {
+            return false;
+        }
+        File file = bis.getUncompressedFile();
+        if (file == null || !transferFrom(file, bis.getFilePosition(), count)) {
+            return false;
+        }
+        bis.skip(count);
+        return true;
+    }
+
+    /**
+     * Flushes buffered output and sends <tt>count</tt> bytes of <tt>file</tt> starting at <tt>position</tt> with
+     * {@link FileChannel#transferTo}, so the bytes never pass through the heap.
+     *
+     * @return false if nothing was written because the file could not be opened or {@link #canTransfer} refused
+     */
+    public synchronized boolean transferFrom(File file, long position, long count) throws IOException {
+        if (!canTransfer(count)) {
+            return false;
+        }
+        final FileInputStream in;
+        try {
+            in = new FileInputStream(file);
+        } catch (IOException e) {
+            ZimbraLog.nio.debug("unable to open %s for zero-copy transfer", file, e);
+            return false;
+        }
+        flush();
+        long writeBytes = session.getScheduledWriteBytes();
+        WriteFuture future = session.write(new FilenameFileRegion(file, in.getChannel(), position, count));
+        future.addListener(new IoFutureListener<WriteFuture>() {
+            @Override
+            public void operationComplete(WriteFuture future) {
+                ByteUtil.closeStream(in);
+            }
+        });
+        ZimbraPerf.COUNTER_BLOB_ZERO_COPY_BYTES.increment(count);
+        awaitScheduledWrites(future, writeBytes);
+        return true;
+    }
+
     private synchronized void writeToSession(Object output) throws IOException {
         long writeBytes = session.getScheduledWriteBytes();
         WriteFuture future = session.write(output);
+        awaitScheduledWrites(future, writeBytes);
+    }
+
+    private void awaitScheduledWrites(WriteFuture future, long writeBytes) throws IOException {
         if (writeBytes > maxScheduledBytes) {
             ZimbraLog.nio.debug("IOSession has %d scheduled write bytes; waiting for buffer to catch up", writeBytes);
             long start = System.currentTimeMillis();
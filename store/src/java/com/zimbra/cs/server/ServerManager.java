@@ -25,6 +25,7 @@ import com.zimbra.cs.imap.NioImapServer;
 import com.zimbra.cs.imap.TcpImapServer;
 import com.zimbra.cs.lmtpserver.LmtpConfig;
 import com.zimbra.cs.lmtpserver.LmtpServer;
+import com.zimbra.cs.lmtpserver.NioLmtpServer;
 import com.zimbra.cs.lmtpserver.TcpLmtpServer;
 import com.zimbra.cs.milter.MilterConfig;
 import com.zimbra.cs.milter.MilterServer;
@@ -87,7 +88,8 @@ public final class ServerManager {
 
     private LmtpServer startLmtpServer() throws ServiceException {
         LmtpConfig config = LmtpConfig.getInstance();
-        LmtpServer server = new TcpLmtpServer(config);
+        LmtpServer server = NIO_ENABLED || LC.nio_lmtp_enabled.booleanValue() ?
+            new NioLmtpServer(config) : new TcpLmtpServer(config);
         server.start();
         return server;
     }
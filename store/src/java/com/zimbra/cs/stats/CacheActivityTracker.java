@@ -0,0 +1,105 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.stats;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.zimbra.common.stats.StatsDumperDataSource;
+
+/**
+ * Tracks cache hits, misses and evictions per mailbox and writes them to
+ * their own output file (e.g. msg_cache.csv), one line per mailbox that had
+ * any cache activity during the stat period.
+ */
+public class CacheActivityTracker implements StatsDumperDataSource {
+
+    private final String mFilename;
+    private final ConcurrentHashMap<Integer, MailboxStats> mStats = new ConcurrentHashMap<Integer, MailboxStats>();
+
+    private static final class MailboxStats {
+        final AtomicLong hits = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+        final AtomicLong evictions = new AtomicLong();
+    }
+
+    public CacheActivityTracker(String filename) {
+        mFilename = filename;
+    }
+
+    public void hit(int mailboxId) {
+        getStats(mailboxId).hits.incrementAndGet();
+    }
+
+    public void miss(int mailboxId) {
+        getStats(mailboxId).misses.incrementAndGet();
+    }
+
+    public void eviction(int mailboxId) {
+        getStats(mailboxId).evictions.incrementAndGet();
+    }
+
+    private MailboxStats getStats(int mailboxId) {
+        MailboxStats stats = mStats.get(mailboxId);
+        if (stats == null) {
+            stats = new MailboxStats();
+            MailboxStats previous = mStats.putIfAbsent(mailboxId, stats);
+            if (previous != null) {
+                stats = previous;
+            }
+        }
+        return stats;
+    }
+
+    ////////////// StatsDumperDataSource implementation //////////////
+
+    @Override
+    public Collection<String> getDataLines() {
+        if (mStats.isEmpty()) {
+            return null;
+        }
+        List<String> dataLines = new ArrayList<String>(mStats.size());
+        for (Map.Entry<Integer, MailboxStats> entry : mStats.entrySet()) {
+            // Mailboxes are dropped after each dump, so the map only holds the ones that were active
+            // during the last period.  A racing increment may land in a removed entry and be lost.
+            mStats.remove(entry.getKey(), entry.getValue());
+            MailboxStats stats = entry.getValue();
+            dataLines.add(String.format("%d,%d,%d,%d", entry.getKey(),
+                    stats.hits.get(), stats.misses.get(), stats.evictions.get()));
+        }
+        return dataLines;
+    }
+
+    @Override
+    public String getFilename() {
+        return mFilename;
+    }
+
+    @Override
+    public String getHeader() {
+        return "mailbox_id,hit_count,miss_count,eviction_count";
+    }
+
+    @Override
+    public boolean hasTimestampColumn() {
+        return true;
+    }
+}
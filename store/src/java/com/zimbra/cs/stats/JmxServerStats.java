@@ -24,6 +24,7 @@ import java.util.List;
 import com.zimbra.common.stats.Accumulator;
 import com.zimbra.common.stats.DeltaCalculator;
 import com.zimbra.cs.db.DbPool;
+import com.zimbra.cs.mailbox.ItemCacheBudget;
 import com.zimbra.cs.mailbox.MessageCache;
 
 public class JmxServerStats implements JmxServerStatsMBean {
@@ -108,6 +109,14 @@ public class JmxServerStats implements JmxServerStatsMBean {
         return (long) mItemCache.getRealtimeAverage();
     }
 
+    public long getItemCacheSize() {
+        return ItemCacheBudget.getInstance().getSize();
+    }
+
+    public long getItemCacheEvictions() {
+        return ZimbraPerf.COUNTER_MBOX_ITEM_CACHE_EVICTIONS.getTotal();
+    }
+
     public long getMailboxCacheHitRate() {
         return (long) mMailboxCache.getRealtimeAverage();
     }
@@ -27,6 +27,8 @@ public interface JmxServerStatsMBean extends JmxStatsMBeanBase
     long getImapRequests();
     long getImapResponseMs();
     long getItemCacheHitRate();
+    long getItemCacheSize();
+    long getItemCacheEvictions();
     long getLdapDirectoryContextGetMs();
     long getLdapDirectoryContextGets();
     long getLmtpDeliveredBytes();
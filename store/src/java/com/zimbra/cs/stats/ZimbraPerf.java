@@ -106,12 +106,24 @@ public class ZimbraPerf {
     @Description("Number of SOAP sessions")
     public static final String RTS_SOAP_SESSIONS = "soap_sessions";
 
+    @Description("Number of mailboxes scheduled in the current purge cycle")
+    public static final String RTS_PURGE_CYCLE_SIZE = "purge_cycle_size";
+
+    @Description("Number of mailboxes handled so far in the current purge cycle")
+    public static final String RTS_PURGE_CYCLE_DONE = "purge_cycle_done";
+
     @Description("Number of mailboxes cached in memory")
     public static final String RTS_MBOX_CACHE_SIZE = "mbox_cache_size";
 
     @Description("Number of message structures cached in memory")
     public static final String RTS_MSG_CACHE_SIZE = "msg_cache_size";
 
+    @Description("Estimated number of bytes held by message structures cached in memory")
+    public static final String RTS_MSG_CACHE_BYTES = "msg_cache_bytes";
+
+    @Description("Number of items cached in memory across all mailboxes")
+    public static final String RTS_ITEM_CACHE_SIZE = "item_cache_size";
+
     @Description("Number of open file descriptors that reference message content")
     public static final String RTS_FD_CACHE_SIZE = "fd_cache_size";
 
@@ -179,22 +191,37 @@ public class ZimbraPerf {
     public static final Counter COUNTER_LMTP_DLVD_BYTES = new Counter();
     public static final StopWatch STOPWATCH_DB_CONN = new StopWatch();
     public static final StopWatch STOPWATCH_LDAP_DC = new StopWatch();
+    public static final StopWatch STOPWATCH_LDAP_ACCOUNT_LOAD = new StopWatch();
     public static final StopWatch STOPWATCH_MBOX_ADD_MSG = new StopWatch();
     public static final StopWatch STOPWATCH_MBOX_GET = new StopWatch();         // Mailbox accessor response time
+    public static final StopWatch STOPWATCH_PURGE = new StopWatch();
     public static final Counter COUNTER_MBOX_CACHE = new Counter();           // Mailbox cache hit rate
     public static final Counter COUNTER_MBOX_MSG_CACHE = new Counter();
+    public static final Counter COUNTER_MBOX_MSG_CACHE_EVICTIONS = new Counter();
     public static final Counter COUNTER_MBOX_ITEM_CACHE = new Counter();
+    public static final Counter COUNTER_MBOX_ITEM_CACHE_EVICTIONS = new Counter();
     public static final StopWatch STOPWATCH_SOAP = new StopWatch();
     public static final StopWatch STOPWATCH_IMAP = new StopWatch();
     public static final StopWatch STOPWATCH_POP = new StopWatch();
+    public static final Counter COUNTER_BLOB_ZERO_COPY_BYTES = new Counter();
+    public static final Counter COUNTER_BLOB_COPIED_BYTES = new Counter();
+    public static final StopWatch STOPWATCH_BLOB_DEDUPE = new StopWatch();
+    public static final Counter COUNTER_BLOB_DEDUPE_HIT = new Counter();
+    public static final Counter COUNTER_BLOB_DEDUPE_BYTES_SAVED = new Counter();
     public static final Counter COUNTER_IDX_WRT = new Counter();
     public static final Counter COUNTER_IDX_WRT_OPENED = new Counter();
     public static final Counter COUNTER_IDX_WRT_OPENED_CACHE_HIT = new Counter();
     public static final Counter COUNTER_CALENDAR_CACHE_HIT = new Counter();
     public static final Counter COUNTER_CALENDAR_CACHE_MEM_HIT = new Counter();
+    public static final Counter COUNTER_CALENDAR_CACHE_FILE_HIT = new Counter();
     public static final Counter COUNTER_CALENDAR_CACHE_LRU_SIZE = new Counter();
     public static final Counter COUNTER_IDX_BYTES_WRITTEN = new Counter();
     public static final Counter COUNTER_IDX_BYTES_READ = new Counter();
+    public static final Counter COUNTER_IDX_SEARCH_BYTES_READ = new Counter();
+    public static final Counter COUNTER_IDX_SEARCHER_EVICTIONS = new Counter();
+    public static final Counter COUNTER_IMAP_SEARCH_LOCAL = new Counter();
+    public static final Counter COUNTER_IMAP_SEARCH_HYBRID = new Counter();
+    public static final Counter COUNTER_IMAP_SEARCH_INDEX = new Counter();
     public static final Counter COUNTER_BLOB_INPUT_STREAM_READ = new Counter();
     public static final Counter COUNTER_BLOB_INPUT_STREAM_SEEK_RATE = new Counter();
     public static final StopWatch STOPWATCH_EWS = new StopWatch();
@@ -206,6 +233,7 @@ public class ZimbraPerf {
     public static final ActivityTracker LDAP_TRACKER = new ActivityTracker("ldap.csv");
     public static final ActivityTracker SYNC_TRACKER = new ActivityTracker("sync.csv");
     public static final ActivityTracker SQL_TRACKER  = new ActivityTracker("sql.csv");
+    public static final CacheActivityTracker MSG_CACHE_TRACKER = new CacheActivityTracker("msg_cache.csv");
 
     private static int mailboxCacheSize;
     private static long mailboxCacheSizeTimestamp = 0;
@@ -219,7 +247,8 @@ public class ZimbraPerf {
             RTS_POP_CONN, RTS_POP_THREADS, RTS_POP_SSL_CONN, RTS_POP_SSL_THREADS,
             RTS_IMAP_CONN, RTS_IMAP_THREADS, RTS_IMAP_SSL_CONN, RTS_IMAP_SSL_THREADS,
             RTS_HTTP_IDLE_THREADS, RTS_HTTP_THREADS, RTS_SOAP_SESSIONS,
-            RTS_MBOX_CACHE_SIZE, RTS_MSG_CACHE_SIZE,
+            RTS_PURGE_CYCLE_SIZE, RTS_PURGE_CYCLE_DONE,
+            RTS_MBOX_CACHE_SIZE, RTS_MSG_CACHE_SIZE, RTS_MSG_CACHE_BYTES, RTS_ITEM_CACHE_SIZE,
             RTS_FD_CACHE_SIZE, RTS_FD_CACHE_HIT_RATE,
             RTS_ACL_CACHE_HIT_RATE,
             RTS_ACCOUNT_CACHE_SIZE, RTS_ACCOUNT_CACHE_HIT_RATE,
@@ -264,6 +293,12 @@ public class ZimbraPerf {
     @Description("Average latency (ms) of getting an LDAP directory context")
     private static final String DC_LDAP_DC_MS_AVG = "ldap_dc_ms_avg";
 
+    @Description("Number of accounts looked up in LDAP because they weren't in the account cache")
+    private static final String DC_LDAP_ACCOUNT_LOAD_COUNT = "ldap_account_load_count";
+
+    @Description("Average latency (ms) of looking up an account in LDAP")
+    private static final String DC_LDAP_ACCOUNT_LOAD_MS_AVG = "ldap_account_load_ms_avg";
+
     @Description("Number of messages that were added to a mailbox")
     private static final String DC_MBOX_ADD_MSG_COUNT = "mbox_add_msg_count";
 
@@ -282,9 +317,15 @@ public class ZimbraPerf {
     @Description("Message cache hit rate")
     private static final String DC_MBOX_MSG_CACHE = "mbox_msg_cache";
 
+    @Description("Number of message structures evicted from the message cache")
+    private static final String DC_MBOX_MSG_CACHE_EVICTIONS = "mbox_msg_cache_evictions";
+
     @Description("Item cache hit rate")
     private static final String DC_MBOX_ITEM_CACHE = "mbox_item_cache";
 
+    @Description("Number of items dropped from mailbox item caches to stay within the server-wide item cache budget")
+    private static final String DC_MBOX_ITEM_CACHE_EVICTIONS = "mbox_item_cache_evictions";
+
     @Description("Number of SOAP requests received")
     private static final String DC_SOAP_COUNT = "soap_count";
 
@@ -303,6 +344,12 @@ public class ZimbraPerf {
     @Description("Average processing time (ms) of POP3 requests")
     private static final String DC_POP_MS_AVG = "pop_ms_avg";
 
+    @Description("Bytes of message content sent to IMAP and POP3 clients straight from blob files with FileChannel.transferTo")
+    private static final String DC_BLOB_ZERO_COPY_BYTES = "blob_zero_copy_bytes";
+
+    @Description("Bytes of message content sent to IMAP and POP3 clients by copying through the heap")
+    private static final String DC_BLOB_COPIED_BYTES = "blob_copied_bytes";
+
     @Description("Number of times that the file descriptor cache read message data from disk")
     private static final String DC_BIS_READ = "bis_read";
 
@@ -330,12 +377,48 @@ public class ZimbraPerf {
     @Description("Average of idx_bytes_read")
     private static final String DC_IDX_BYTES_READ_AVG = "idx_bytes_read_avg";
 
+    @Description("Average bytes read by Lucene per search")
+    private static final String DC_IDX_SEARCH_BYTES_READ_AVG = "idx_search_bytes_read_avg";
+
+    @Description("Number of cached index searchers closed to stay within zimbra_index_max_readers")
+    private static final String DC_IDX_SEARCHER_EVICTIONS = "idx_searcher_evictions";
+
+    @Description("Number of incoming blobs looked up in the blob digest index")
+    private static final String DC_BLOB_DEDUPE_COUNT = "blob_dedupe_count";
+
+    @Description("Average latency (ms) added to storing a blob by the blob digest index lookup")
+    private static final String DC_BLOB_DEDUPE_MS_AVG = "blob_dedupe_ms_avg";
+
+    @Description("Percentage of blob digest index lookups that linked the blob to an existing copy")
+    private static final String DC_BLOB_DEDUPE_HIT = "blob_dedupe_hit";
+
+    @Description("Bytes of blob storage saved by hard-linking duplicate blobs")
+    private static final String DC_BLOB_DEDUPE_BYTES_SAVED = "blob_dedupe_bytes_saved";
+
+    @Description("Number of mailbox purges")
+    private static final String DC_PURGE_COUNT = "purge_count";
+
+    @Description("Average latency (ms) of purging a mailbox")
+    private static final String DC_PURGE_MS_AVG = "purge_ms_avg";
+
+    @Description("Number of IMAP searches answered entirely from in-memory folder state")
+    private static final String DC_IMAP_SEARCH_LOCAL = "imap_search_local";
+
+    @Description("Number of IMAP searches split between in-memory folder state and the index")
+    private static final String DC_IMAP_SEARCH_HYBRID = "imap_search_hybrid";
+
+    @Description("Number of IMAP searches run entirely through the index")
+    private static final String DC_IMAP_SEARCH_INDEX = "imap_search_index";
+
     @Description("Hit rate of calendar summary cache, counting cache hit from both memory and file")
     private static final String DC_CALCACHE_HIT = "calcache_hit";
 
     @Description("Hit rate of calendar summary cache, counting cache hit from memory only")
     private static final String DC_CALCACHE_MEM_HIT = "calcache_mem_hit";
 
+    @Description("Hit rate of calendar summary cache files, counting only lookups that missed memory")
+    private static final String DC_CALCACHE_FILE_HIT = "calcache_file_hit";
+
     @Description("Number of calendars (folders) in the calendar summary cache LRU in Java heap")
     private static final String DC_CALCACHE_LRU_SIZE = "calcache_lru_size";
 
@@ -473,19 +556,34 @@ public class ZimbraPerf {
                                     .setAverageName(DC_DB_CONN_MS_AVG),
                             new DeltaCalculator(STOPWATCH_LDAP_DC).setCountName(DC_LDAP_DC_COUNT)
                                     .setAverageName(DC_LDAP_DC_MS_AVG),
+                            new DeltaCalculator(STOPWATCH_LDAP_ACCOUNT_LOAD).setCountName(DC_LDAP_ACCOUNT_LOAD_COUNT)
+                                    .setAverageName(DC_LDAP_ACCOUNT_LOAD_MS_AVG),
                             new DeltaCalculator(STOPWATCH_MBOX_ADD_MSG).setCountName(DC_MBOX_ADD_MSG_COUNT)
                                     .setAverageName(DC_MBOX_ADD_MSG_MS_AVG),
                             new DeltaCalculator(STOPWATCH_MBOX_GET).setCountName(DC_MBOX_GET_COUNT)
                                     .setAverageName(DC_MBOX_GET_MS_AVG),
+                            new DeltaCalculator(STOPWATCH_PURGE).setCountName(DC_PURGE_COUNT)
+                                    .setAverageName(DC_PURGE_MS_AVG),
                             new DeltaCalculator(COUNTER_MBOX_CACHE).setAverageName(DC_MBOX_CACHE),
                             new DeltaCalculator(COUNTER_MBOX_MSG_CACHE).setAverageName(DC_MBOX_MSG_CACHE),
+                            new DeltaCalculator(COUNTER_MBOX_MSG_CACHE_EVICTIONS)
+                                    .setTotalName(DC_MBOX_MSG_CACHE_EVICTIONS),
                             new DeltaCalculator(COUNTER_MBOX_ITEM_CACHE).setAverageName(DC_MBOX_ITEM_CACHE),
+                            new DeltaCalculator(COUNTER_MBOX_ITEM_CACHE_EVICTIONS)
+                                    .setTotalName(DC_MBOX_ITEM_CACHE_EVICTIONS),
                             new DeltaCalculator(STOPWATCH_SOAP).setCountName(DC_SOAP_COUNT)
                                     .setAverageName(DC_SOAP_MS_AVG),
                             new DeltaCalculator(STOPWATCH_IMAP).setCountName(DC_IMAP_COUNT)
                                     .setAverageName(DC_IMAP_MS_AVG),
                             new DeltaCalculator(STOPWATCH_POP).setCountName(DC_POP_COUNT)
                                     .setAverageName(DC_POP_MS_AVG),
+                            new DeltaCalculator(COUNTER_BLOB_ZERO_COPY_BYTES).setTotalName(DC_BLOB_ZERO_COPY_BYTES),
+                            new DeltaCalculator(COUNTER_BLOB_COPIED_BYTES).setTotalName(DC_BLOB_COPIED_BYTES),
+                            new DeltaCalculator(STOPWATCH_BLOB_DEDUPE).setCountName(DC_BLOB_DEDUPE_COUNT)
+                                    .setAverageName(DC_BLOB_DEDUPE_MS_AVG),
+                            new DeltaCalculator(COUNTER_BLOB_DEDUPE_HIT).setAverageName(DC_BLOB_DEDUPE_HIT),
+                            new DeltaCalculator(COUNTER_BLOB_DEDUPE_BYTES_SAVED)
+                                    .setTotalName(DC_BLOB_DEDUPE_BYTES_SAVED),
                             new DeltaCalculator(COUNTER_IDX_WRT).setAverageName(DC_IDX_WRT_AVG),
                             new DeltaCalculator(COUNTER_IDX_WRT_OPENED).setTotalName(DC_IDX_WRT_OPENED),
                             new DeltaCalculator(COUNTER_IDX_WRT_OPENED_CACHE_HIT)
@@ -493,6 +591,8 @@ public class ZimbraPerf {
                             new DeltaCalculator(COUNTER_CALENDAR_CACHE_HIT).setAverageName(DC_CALCACHE_HIT),
                             new DeltaCalculator(COUNTER_CALENDAR_CACHE_MEM_HIT)
                                     .setAverageName(DC_CALCACHE_MEM_HIT),
+                            new DeltaCalculator(COUNTER_CALENDAR_CACHE_FILE_HIT)
+                                    .setAverageName(DC_CALCACHE_FILE_HIT),
                             new DeltaCalculator(COUNTER_CALENDAR_CACHE_LRU_SIZE)
                                     .setAverageName(DC_CALCACHE_LRU_SIZE),
                             new DeltaCalculator(COUNTER_IDX_BYTES_WRITTEN)
@@ -500,6 +600,13 @@ public class ZimbraPerf {
                                     .setAverageName(DC_IDX_BYTES_WRITTTEN_AVG),
                             new DeltaCalculator(COUNTER_IDX_BYTES_READ)
                                     .setTotalName(DC_IDX_BYTES_READ).setAverageName(DC_IDX_BYTES_READ_AVG),
+                            new DeltaCalculator(COUNTER_IDX_SEARCH_BYTES_READ)
+                                    .setAverageName(DC_IDX_SEARCH_BYTES_READ_AVG),
+                            new DeltaCalculator(COUNTER_IDX_SEARCHER_EVICTIONS)
+                                    .setTotalName(DC_IDX_SEARCHER_EVICTIONS),
+                            new DeltaCalculator(COUNTER_IMAP_SEARCH_LOCAL).setTotalName(DC_IMAP_SEARCH_LOCAL),
+                            new DeltaCalculator(COUNTER_IMAP_SEARCH_HYBRID).setTotalName(DC_IMAP_SEARCH_HYBRID),
+                            new DeltaCalculator(COUNTER_IMAP_SEARCH_INDEX).setTotalName(DC_IMAP_SEARCH_INDEX),
                             new DeltaCalculator(COUNTER_BLOB_INPUT_STREAM_READ).setTotalName(DC_BIS_READ),
                             new DeltaCalculator(COUNTER_BLOB_INPUT_STREAM_SEEK_RATE)
                                     .setAverageName(DC_BIS_SEEK_RATE),
@@ -513,6 +620,9 @@ public class ZimbraPerf {
                     new Accumulator[] {
                             new DeltaCalculator(STOPWATCH_IMAP)
                                     .setCountName(DC_IMAP_COUNT).setAverageName(DC_IMAP_MS_AVG),
+                            new DeltaCalculator(COUNTER_IMAP_SEARCH_LOCAL).setTotalName(DC_IMAP_SEARCH_LOCAL),
+                            new DeltaCalculator(COUNTER_IMAP_SEARCH_HYBRID).setTotalName(DC_IMAP_SEARCH_HYBRID),
+                            new DeltaCalculator(COUNTER_IMAP_SEARCH_INDEX).setTotalName(DC_IMAP_SEARCH_INDEX),
                             realtimeStats
                     }
                 );
@@ -562,6 +672,7 @@ public class ZimbraPerf {
         StatsDumper.schedule(LDAP_TRACKER, CSV_DUMP_FREQUENCY);
         StatsDumper.schedule(SYNC_TRACKER, CSV_DUMP_FREQUENCY);
         StatsDumper.schedule(SQL_TRACKER, CSV_DUMP_FREQUENCY);
+        StatsDumper.schedule(MSG_CACHE_TRACKER, CSV_DUMP_FREQUENCY);
         ThreadStats threadStats = new ThreadStats("threads.csv");
         StatsDumper.schedule(threadStats, CSV_DUMP_FREQUENCY);
     }
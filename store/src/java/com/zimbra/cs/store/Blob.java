@@ -25,14 +25,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.io.FileUtils;
 
 import com.google.common.base.MoreObjects;
 import com.zimbra.common.util.ByteUtil;
-import com.zimbra.common.util.FileUtil;
 import com.zimbra.common.zmime.ZSharedFileInputStream;
+import com.zimbra.cs.store.codec.BlobCodec;
 
 /**
  * Represents a blob in blob store incoming directory.  An incoming blob
@@ -45,6 +44,7 @@ public class Blob {
     private File file;
     private String path;
     private Boolean compressed = null;
+    private BlobCodec codec;
     private String digest;
     private Long rawSize;
 
@@ -82,17 +82,32 @@ public class Blob {
     public InputStream getInputStream() throws IOException {
         InputStream in = new ZSharedFileInputStream(file);
         if (isCompressed()) {
-            in = new GZIPInputStream(in);
+            in = getCompressionCodec().decompress(in);
         }
         return in;
     }
 
+    /**
+     * Returns the codec this blob's file was compressed with, or <tt>null</tt>
+     * if it is not compressed.
+     */
+    public BlobCodec getCompressionCodec() throws IOException {
+        if (!isCompressed()) {
+            return null;
+        }
+        if (codec == null) {
+            BlobCodec detected = BlobCodec.detect(file);
+            this.codec = detected != null ? detected : BlobCodec.GZIP;
+        }
+        return codec;
+    }
+
     public boolean isCompressed() throws IOException {
         if (compressed == null) {
             if (rawSize != null && rawSize.longValue() == file.length()) {
                 this.compressed = Boolean.FALSE;
             } else {
-                this.compressed = FileUtil.isGzipped(file);
+                this.compressed = BlobCodec.detect(file) != null;
             }
         }
         return compressed;
@@ -147,6 +162,7 @@ public class Blob {
 
     public Blob setCompressed(final boolean isCompressed) {
         this.compressed = isCompressed;
+        this.codec = null;
         return this;
     }
 
@@ -162,6 +178,7 @@ public class Blob {
 
     public Blob setFile(File file) {
         this.file = file;
+        this.codec = null;
         return this;
     }
 
@@ -27,8 +27,6 @@ import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 import org.apache.commons.io.IOUtils;
 
 import com.zimbra.common.localconfig.DebugConfig;
@@ -36,6 +34,7 @@ import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ByteUtil;
 import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.store.codec.BlobCodec;
 
 public class BlobBuilder {
     protected Blob blob;
@@ -50,6 +49,7 @@ public class BlobBuilder {
     private byte[] buf;
     private int bufLen = 0;
     private boolean compressionThresholdExceeded = false;
+    private BlobCodec codec;
 
     protected BlobBuilder(Blob targetBlob) {
         this.blob = targetBlob;
@@ -82,6 +82,13 @@ public class BlobBuilder {
         return 0;
     }
 
+    /**
+     * Returns the codec used when the blob exceeds the compression threshold.
+     */
+    protected BlobCodec getCompressionCodec() throws IOException {
+        return BlobCodec.GZIP;
+    }
+
     public BlobBuilder disableDigest(boolean disable) {
         this.disableDigest = disable;
         return this;
@@ -162,7 +169,8 @@ public class BlobBuilder {
 
             // This call exceeded compression threshold.  Compress the stream and
             // write everything that we've read so far.
-            out = new GZIPOutputStream(out);
+            codec = getCompressionCodec();
+            out = codec.compress(out);
             writeToFile(buf, 0, bufLen);
             blob.setCompressed(true);
             compressionThresholdExceeded = true;
@@ -221,6 +229,10 @@ public class BlobBuilder {
         }
 
         try {
+            if (codec != null) {
+                // write the compressed stream's trailer before the fsync
+                codec.finish(out);
+            }
             if (!DebugConfig.disableMessageStoreFsync) {
                 out.flush();
                 if (fc != null) {
@@ -240,13 +252,13 @@ public class BlobBuilder {
             blob.setRawSize(totalBytes);
             File file = blob.getFile();
             File uncompresedFile = null;
-            if (blob.isCompressed() && totalBytes == file.length())
+            if (codec != null && blob.isCompressed() && totalBytes == file.length())
             {
               ZimbraLog.store.info("Blob compression is useless avoid it");
-              GZIPInputStream in = null;
+              InputStream in = null;
               try {
                 uncompresedFile = File.createTempFile("blob","",file.getParentFile());
-                in = new GZIPInputStream(new FileInputStream(file));
+                in = codec.decompress(new FileInputStream(file));
                 out = createOutputStream(uncompresedFile);
                 IOUtils.copy(in,out);
                 blob.setCompressed(false);
@@ -28,6 +28,7 @@ import com.zimbra.common.localconfig.LC;
 import com.zimbra.common.mime.MimePart.InputStreamSource;
 import com.zimbra.common.util.Log;
 import com.zimbra.common.util.LogFactory;
+import com.zimbra.cs.store.codec.BlobCodec;
 
 public class BlobInputStream extends InputStream
 implements SharedInputStream, InputStreamSource {
@@ -231,6 +232,39 @@ implements SharedInputStream, InputStreamSource {
         mRoot.mFile = newFile;
     }
 
+    /**
+     * Returns the file holding this stream's bytes verbatim, so that they can be sent with
+     * {@link java.nio.channels.FileChannel#transferTo} instead of being read through the stream.
+     * The unread bytes are at file offsets {@link #getFilePosition()} through
+     * {@link #getFilePosition()} + {@link #getRemaining()}.
+     * @return the file, or <tt>null</tt> if the blob is stored compressed or the file is gone
+     */
+    public File getUncompressedFile() throws IOException {
+        File file = getRootFile();
+        if (file == null || !file.exists()) {
+            return null;
+        }
+        // same test FileDescriptorCache uses to decide whether to go through the uncompressed file cache
+        if (file.length() != mRawSize && BlobCodec.detect(file) != null) {
+            return null;
+        }
+        return file;
+    }
+
+    /**
+     * Returns the offset in the blob file of the next byte to be read.
+     */
+    public long getFilePosition() {
+        return mPos;
+    }
+
+    /**
+     * Returns the number of bytes left to read; unlike {@link #available()} this is not capped at 2GB.
+     */
+    public long getRemaining() {
+        return mEnd - mPos;
+    }
+
     ////////////// InputStream methods //////////////
 
     @Override
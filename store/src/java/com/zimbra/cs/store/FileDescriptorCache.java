@@ -27,17 +27,17 @@ import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.GZIPInputStream;
 
 import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.stats.Counter;
 import com.zimbra.common.util.FileCache;
-import com.zimbra.common.util.FileUtil;
 import com.zimbra.common.util.Log;
 import com.zimbra.common.util.LogFactory;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.account.Server;
+import com.zimbra.cs.store.codec.BlobCodec;
+import com.zimbra.cs.store.codec.SeekableBlob;
 
 /**
  * Caches file descriptors to blobs in the mail store.  If the blob is compressed,
@@ -162,12 +162,18 @@ public class FileDescriptorCache
         mHitRate.increment(0);
         File file = new File(path);
 
-        if (file.length() != rawSize && FileUtil.isGzipped(file)) {
+        BlobCodec codec = file.length() != rawSize ? BlobCodec.detect(file) : null;
+        SeekableBlob seekable = codec != null ? codec.openSeekable(file) : null;
+        if (seekable != null) {
+            // no need to go through the uncompressed file cache
+            sLog.debug("Opening new %s file descriptor for %s.", codec, path);
+            sharedFile = new SharedFile(file, codec, seekable);
+        } else if (codec != null) {
             sLog.debug("Adding file descriptor cache entry for %s from the uncompressed file cache.", path);
             FileCache.Item uncompressed = mUncompressedFileCache.get(path);
             if (uncompressed == null) {
                 InputStream in = null;
-                in = new GZIPInputStream(new FileInputStream(file));
+                in = codec.decompress(new FileInputStream(file));
                 mUncompressedFileCache.put(path, in);
                 uncompressed = mUncompressedFileCache.get(path);
                 if (uncompressed == null) {
@@ -24,15 +24,21 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 
 import com.zimbra.cs.stats.ZimbraPerf;
+import com.zimbra.cs.store.codec.BlobCodec;
+import com.zimbra.cs.store.codec.SeekableBlob;
 
 /**
  * Synchronized container for a <tt>RandomAccessFile</tt> object.  Used by multiple
- * <tt>BlobInputStream</tt> objects that share a single file descriptor.
+ * <tt>BlobInputStream</tt> objects that share a single file descriptor.  Blobs
+ * compressed with a codec that supports random access are read through a
+ * {@link SeekableBlob} instead, and offsets refer to the uncompressed data.
  */
 public class SharedFile {
 
     private File mFile;
     private RandomAccessFile mRAF;
+    private final BlobCodec mCodec;
+    private SeekableBlob mSeekable;
     private long mPos = 0;
     
     /**
@@ -61,10 +67,25 @@ public class SharedFile {
             throw new IOException(file.getPath() + " does not exist.");
         }
         mFile = file;
+        mCodec = null;
         mLength = file.length();
         openIfNecessary();
     }
 
+    /**
+     * Creates a new <tt>SharedFile</tt> that reads the uncompressed contents
+     * of a compressed blob through an already opened <tt>SeekableBlob</tt>.
+     */
+    SharedFile(File file, BlobCodec codec, SeekableBlob seekable) {
+        if (file == null) {
+            throw new NullPointerException("file cannot be null");
+        }
+        mFile = file;
+        mCodec = codec;
+        mSeekable = seekable;
+        mLength = seekable.getRawSize();
+    }
+
     synchronized long getLength() {
         return mLength;
     }
@@ -74,7 +95,11 @@ public class SharedFile {
         int numRead = 0;
         boolean seeked = false;
         openIfNecessary();
-        
+
+        if (mSeekable != null) {
+            ZimbraPerf.COUNTER_BLOB_INPUT_STREAM_READ.increment();
+            return mSeekable.read(fileOffset, b, off, len);
+        }
         if (mPos != fileOffset) {
             mRAF.seek(fileOffset);
             mPos = fileOffset;
@@ -108,7 +133,14 @@ public class SharedFile {
     
     private synchronized void openIfNecessary()
     throws IOException {
-        if (mRAF == null) {
+        if (mCodec != null) {
+            if (mSeekable == null) {
+                if (!mFile.exists()) {
+                    throw new IOException(mFile.getPath() + " does not exist.");
+                }
+                mSeekable = mCodec.openSeekable(mFile);
+            }
+        } else if (mRAF == null) {
             if (!mFile.exists()) {
                 throw new IOException(mFile.getPath() + " does not exist.");
             }
@@ -124,6 +156,10 @@ public class SharedFile {
             mPos = 0;
             mRAF = null;
         }
+        if (mSeekable != null) {
+            mSeekable.close();
+            mSeekable = null;
+        }
     }
     
     public String toString() {
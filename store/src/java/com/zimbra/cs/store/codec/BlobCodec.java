@@ -0,0 +1,232 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.store.codec;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.zimbra.common.util.ByteUtil;
+import com.zimbra.common.util.FileUtil;
+
+/**
+ * Compression format used for blobs on a volume.  The codec a blob was
+ * written with is recognized from the leading magic bytes of the file, so
+ * volumes can switch codecs without rewriting existing blobs: readers always
+ * call {@link #detect} rather than trusting the volume's current setting.
+ */
+public abstract class BlobCodec {
+
+    /** The original blob format, and the default for volumes that don't declare a codec. */
+    public static final BlobCodec GZIP = new Gzip();
+    /** Block-framed LZ4 with a trailing block index; supports {@link #openSeekable}. */
+    public static final BlobCodec LZ4 = new Lz4BlobCodec();
+
+    private static final BlobCodec[] CODECS = { GZIP, LZ4 };
+
+    static final int MAGIC_LENGTH = 4;
+
+    /**
+     * Returns the name stored in volume metadata for this codec.
+     */
+    public abstract String getName();
+
+    /**
+     * Returns <tt>true</tt> if the given leading bytes of a file identify this codec.
+     */
+    abstract boolean matches(byte[] magic, int len);
+
+    /**
+     * Wraps <tt>out</tt> in a compressing stream.  Closing the returned stream
+     * closes <tt>out</tt>.
+     */
+    public abstract OutputStream compress(OutputStream out) throws IOException;
+
+    /**
+     * Writes any trailing data to a stream returned by {@link #compress} without
+     * closing the underlying stream, so that it can be fsynced before close.
+     */
+    public abstract void finish(OutputStream compressed) throws IOException;
+
+    /**
+     * Wraps <tt>in</tt> in a decompressing stream.
+     */
+    public abstract InputStream decompress(InputStream in) throws IOException;
+
+    /**
+     * Opens the blob for random access to its uncompressed data, or returns
+     * <tt>null</tt> if this codec's format has to be decompressed sequentially.
+     */
+    @SuppressWarnings("unused")
+    public SeekableBlob openSeekable(File file) throws IOException {
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+
+    /**
+     * Returns the codec with the given name (case-insensitive), or <tt>null</tt>
+     * if there is none.
+     */
+    public static BlobCodec forName(String name) {
+        for (BlobCodec codec : CODECS) {
+            if (codec.getName().equalsIgnoreCase(name)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the codec the file was compressed with, or <tt>null</tt> if the
+     * file is not compressed.
+     */
+    public static BlobCodec detect(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] magic = new byte[MAGIC_LENGTH];
+            return detect(magic, readMagic(in, magic));
+        } finally {
+            ByteUtil.closeStream(in);
+        }
+    }
+
+    /**
+     * Returns the codec the stream was compressed with, or <tt>null</tt> if the
+     * data is not compressed.  The stream must support mark/reset; its position
+     * is left unchanged.
+     */
+    public static BlobCodec detect(InputStream in) throws IOException {
+        if (!in.markSupported()) {
+            throw new IllegalArgumentException("stream must support mark/reset");
+        }
+        byte[] magic = new byte[MAGIC_LENGTH];
+        in.mark(MAGIC_LENGTH);
+        try {
+            return detect(magic, readMagic(in, magic));
+        } finally {
+            in.reset();
+        }
+    }
+
+    private static int readMagic(InputStream in, byte[] magic) throws IOException {
+        int len = 0;
+        while (len < magic.length) {
+            int n = in.read(magic, len, magic.length - len);
+            if (n < 0) {
+                break;
+            }
+            len += n;
+        }
+        return len;
+    }
+
+    private static BlobCodec detect(byte[] magic, int len) {
+        for (BlobCodec codec : CODECS) {
+            if (codec.matches(magic, len)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a stream over the uncompressed contents of <tt>in</tt>, whichever
+     * codec it was written with.  Uncompressed data is passed through.
+     */
+    public static InputStream decompressIfNeeded(InputStream in) throws IOException {
+        if (!in.markSupported()) {
+            in = new BufferedInputStream(in);
+        }
+        BlobCodec codec = detect(in);
+        return codec == null ? in : codec.decompress(in);
+    }
+
+    /**
+     * Compresses <tt>src</tt> into <tt>dest</tt> with this codec.  On failure
+     * <tt>dest</tt> is deleted.
+     */
+    public void compress(File src, File dest, boolean sync) throws IOException {
+        InputStream in = null;
+        FileOutputStream fos = null;
+        OutputStream out = null;
+        boolean isComplete = false;
+        try {
+            in = new FileInputStream(src);
+            fos = new FileOutputStream(dest);
+            out = compress(fos);
+            ByteUtil.copy(in, false, out, false);
+            finish(out);
+            if (sync) {
+                fos.getChannel().force(true);
+            }
+            isComplete = true;
+        } finally {
+            ByteUtil.closeStream(in);
+            ByteUtil.closeStream(out != null ? out : fos);
+            if (!isComplete) {
+                dest.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes the uncompressed contents of <tt>src</tt> to <tt>dest</tt>.
+     */
+    public void uncompress(File src, File dest, boolean sync) throws IOException {
+        FileUtil.uncompress(decompress(new FileInputStream(src)), dest, sync);
+    }
+
+    private static final class Gzip extends BlobCodec {
+
+        @Override
+        public String getName() {
+            return "gzip";
+        }
+
+        @Override
+        boolean matches(byte[] magic, int len) {
+            return len >= 2 && magic[0] == (byte) GZIPInputStream.GZIP_MAGIC
+                    && magic[1] == (byte) (GZIPInputStream.GZIP_MAGIC >> 8);
+        }
+
+        @Override
+        public OutputStream compress(OutputStream out) throws IOException {
+            return new GZIPOutputStream(out);
+        }
+
+        @Override
+        public void finish(OutputStream compressed) throws IOException {
+            ((DeflaterOutputStream) compressed).finish();
+        }
+
+        @Override
+        public InputStream decompress(InputStream in) throws IOException {
+            return new GZIPInputStream(in);
+        }
+    }
+}
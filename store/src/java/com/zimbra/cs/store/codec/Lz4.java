@@ -0,0 +1,245 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.store.codec;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Pure Java implementation of the LZ4 block format.  Only the block layer is
+ * implemented here; framing, checksumming and random access are handled by
+ * {@link Lz4BlobCodec}.
+ * <p>
+ * The compressor is the single-pass hash table variant (equivalent to
+ * {@code LZ4_compress_fast} with acceleration 1), which trades a few percent
+ * of ratio against gzip for an order of magnitude in speed.
+ */
+final class Lz4 {
+
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_LOG = 12;
+    private static final int HASH_SHIFT = 32 - HASH_LOG;
+    /** A match may not start within the last 12 bytes of a block. */
+    private static final int MF_LIMIT = 12;
+    /** The last 5 bytes of a block are always literals. */
+    private static final int LAST_LITERALS = 5;
+    private static final int MAX_DISTANCE = 0xFFFF;
+    private static final int SKIP_TRIGGER = 6;
+    private static final int RUN_MASK = 0x0F;
+    private static final int ML_MASK = 0x0F;
+
+    private Lz4() {
+    }
+
+    /**
+     * Returns the size of the buffer needed to compress {@code len} bytes in
+     * the worst (incompressible) case.
+     */
+    static int maxCompressedLength(int len) {
+        return len + len / 255 + 16;
+    }
+
+    /**
+     * Allocates the match table used by {@link #compress}.  Callers compressing
+     * many blocks should reuse it.
+     */
+    static int[] newTable() {
+        return new int[1 << HASH_LOG];
+    }
+
+    private static int hash(int i) {
+        return (i * -1640531535) >>> HASH_SHIFT;
+    }
+
+    private static int readInt(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+
+    private static int writeLength(int len, byte[] dst, int dp) {
+        while (len >= 0xFF) {
+            dst[dp++] = (byte) 0xFF;
+            len -= 0xFF;
+        }
+        dst[dp++] = (byte) len;
+        return dp;
+    }
+
+    /**
+     * Compresses {@code src[srcOff, srcOff + srcLen)} into {@code dst} starting at
+     * {@code dstOff}.  {@code dst} must have room for
+     * {@link #maxCompressedLength(int) maxCompressedLength(srcLen)} bytes.
+     *
+     * @return the number of bytes written to {@code dst}
+     */
+    static int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int[] table) {
+        int srcEnd = srcOff + srcLen;
+        int anchor = srcOff;
+        int dp = dstOff;
+
+        if (srcLen > MF_LIMIT) {
+            Arrays.fill(table, -1);
+            int mfLimit = srcEnd - MF_LIMIT;
+            int matchLimit = srcEnd - LAST_LITERALS;
+            int sp = srcOff;
+            int attempts = 1 << SKIP_TRIGGER;
+
+            while (sp < mfLimit) {
+                int seq = readInt(src, sp);
+                int h = hash(seq);
+                int ref = table[h];
+                table[h] = sp;
+                if (ref < 0 || sp - ref > MAX_DISTANCE || readInt(src, ref) != seq) {
+                    sp += attempts++ >>> SKIP_TRIGGER;
+                    continue;
+                }
+                attempts = 1 << SKIP_TRIGGER;
+
+                // extend the match backwards into the pending literals
+                while (sp > anchor && ref > srcOff && src[sp - 1] == src[ref - 1]) {
+                    sp--;
+                    ref--;
+                }
+                int matchLen = MIN_MATCH;
+                while (sp + matchLen < matchLimit && src[sp + matchLen] == src[ref + matchLen]) {
+                    matchLen++;
+                }
+
+                int litLen = sp - anchor;
+                int token = dp++;
+                int t;
+                if (litLen >= RUN_MASK) {
+                    t = RUN_MASK << 4;
+                    dp = writeLength(litLen - RUN_MASK, dst, dp);
+                } else {
+                    t = litLen << 4;
+                }
+                System.arraycopy(src, anchor, dst, dp, litLen);
+                dp += litLen;
+
+                int offset = sp - ref;
+                dst[dp++] = (byte) offset;
+                dst[dp++] = (byte) (offset >>> 8);
+
+                int ml = matchLen - MIN_MATCH;
+                if (ml >= ML_MASK) {
+                    t |= ML_MASK;
+                    dp = writeLength(ml - ML_MASK, dst, dp);
+                } else {
+                    t |= ml;
+                }
+                dst[token] = (byte) t;
+
+                sp += matchLen;
+                anchor = sp;
+                if (sp - 2 < mfLimit) {
+                    table[hash(readInt(src, sp - 2))] = sp - 2;
+                }
+            }
+        }
+
+        // trailing literals
+        int litLen = srcEnd - anchor;
+        if (litLen >= RUN_MASK) {
+            dst[dp++] = (byte) (RUN_MASK << 4);
+            dp = writeLength(litLen - RUN_MASK, dst, dp);
+        } else {
+            dst[dp++] = (byte) (litLen << 4);
+        }
+        System.arraycopy(src, anchor, dst, dp, litLen);
+        dp += litLen;
+        return dp - dstOff;
+    }
+
+    /**
+     * Decompresses the block {@code src[srcOff, srcOff + srcLen)} into {@code dst}.
+     * Every offset and length is bounds-checked, so corrupt input results in an
+     * {@link IOException} rather than an out-of-bounds read.
+     *
+     * @return the number of bytes written to {@code dst}
+     */
+    static int decompress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff, int dstLen)
+    throws IOException {
+        int sp = srcOff;
+        int srcEnd = srcOff + srcLen;
+        int dp = dstOff;
+        int dstEnd = dstOff + dstLen;
+
+        while (true) {
+            if (sp >= srcEnd) {
+                throw new IOException("corrupt LZ4 block: truncated sequence");
+            }
+            int token = src[sp++] & 0xFF;
+
+            int litLen = token >>> 4;
+            if (litLen == RUN_MASK) {
+                int b;
+                do {
+                    if (sp >= srcEnd) {
+                        throw new IOException("corrupt LZ4 block: truncated literal length");
+                    }
+                    b = src[sp++] & 0xFF;
+                    litLen += b;
+                } while (b == 0xFF);
+            }
+            if (litLen > srcEnd - sp || litLen > dstEnd - dp) {
+                throw new IOException("corrupt LZ4 block: literal run out of bounds");
+            }
+            System.arraycopy(src, sp, dst, dp, litLen);
+            sp += litLen;
+            dp += litLen;
+            if (sp == srcEnd) {
+                return dp - dstOff;
+            }
+
+            if (srcEnd - sp < 2) {
+                throw new IOException("corrupt LZ4 block: truncated match offset");
+            }
+            int offset = (src[sp] & 0xFF) | (src[sp + 1] & 0xFF) << 8;
+            sp += 2;
+            if (offset == 0 || offset > dp - dstOff) {
+                throw new IOException("corrupt LZ4 block: bad match offset " + offset);
+            }
+
+            int matchLen = token & ML_MASK;
+            if (matchLen == ML_MASK) {
+                int b;
+                do {
+                    if (sp >= srcEnd) {
+                        throw new IOException("corrupt LZ4 block: truncated match length");
+                    }
+                    b = src[sp++] & 0xFF;
+                    matchLen += b;
+                } while (b == 0xFF);
+            }
+            matchLen += MIN_MATCH;
+            if (matchLen > dstEnd - dp) {
+                throw new IOException("corrupt LZ4 block: match out of bounds");
+            }
+
+            int ref = dp - offset;
+            if (offset >= matchLen) {
+                System.arraycopy(dst, ref, dst, dp, matchLen);
+                dp += matchLen;
+            } else {
+                // overlapping copy replicates the last offset bytes
+                for (int end = dp + matchLen; dp < end; ) {
+                    dst[dp++] = dst[ref++];
+                }
+            }
+        }
+    }
+}
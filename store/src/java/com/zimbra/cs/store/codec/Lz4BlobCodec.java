@@ -0,0 +1,399 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.store.codec;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * LZ4 blob codec.  Data is compressed in independent fixed-size blocks so that
+ * a reader can decompress only the blocks covering the range it needs.  File
+ * layout (all integers big-endian):
+ * <pre>
+ *   header:  magic (4 bytes: 0x89 'Z' 'L' '4'), version (1), log2(block size) (1), reserved (2)
+ *   blocks:  int length, data; the high bit of length is set if the block is stored uncompressed
+ *   end:     int 0
+ *   trailer: long offset of each block header, int block count, long raw size, int trailer magic
+ * </pre>
+ * Every block except the last holds exactly one block size of uncompressed
+ * data.  Sequential readers stop at the end marker and never look at the
+ * trailer; {@link #openSeekable} reads only the trailer and the blocks it needs.
+ */
+final class Lz4BlobCodec extends BlobCodec {
+
+    static final byte[] MAGIC = { (byte) 0x89, 'Z', 'L', '4' };
+    private static final int TRAILER_MAGIC = 0x5A4C3449; // "ZL4I"
+    private static final byte VERSION = 1;
+    static final int DEFAULT_BLOCK_LOG = 16;
+    private static final int HEADER_SIZE = 8;
+    private static final int TRAILER_SIZE = 16;
+    private static final int STORED = 0x80000000;
+
+    @Override
+    public String getName() {
+        return "lz4";
+    }
+
+    @Override
+    boolean matches(byte[] magic, int len) {
+        return len >= MAGIC.length && magic[0] == MAGIC[0] && magic[1] == MAGIC[1]
+                && magic[2] == MAGIC[2] && magic[3] == MAGIC[3];
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) throws IOException {
+        return new FrameOutputStream(out, DEFAULT_BLOCK_LOG);
+    }
+
+    @Override
+    public void finish(OutputStream compressed) throws IOException {
+        ((FrameOutputStream) compressed).finish();
+    }
+
+    @Override
+    public InputStream decompress(InputStream in) throws IOException {
+        return new FrameInputStream(in);
+    }
+
+    @Override
+    public SeekableBlob openSeekable(File file) throws IOException {
+        return new SeekableFrame(file);
+    }
+
+    private static int checkBlockLog(int blockLog) throws IOException {
+        if (blockLog < 10 || blockLog > 22) {
+            throw new IOException("invalid LZ4 block size: 2^" + blockLog);
+        }
+        return blockLog;
+    }
+
+    private static int readBlock(BlockSource in, int header, byte[] compressed, byte[] block, int rawLen)
+    throws IOException {
+        int len = header & ~STORED;
+        if (len > compressed.length || ((header & STORED) != 0 && len > block.length)) {
+            throw new IOException("corrupt LZ4 blob: block length " + len);
+        }
+        if ((header & STORED) != 0) {
+            in.readFully(block, 0, len);
+            return len;
+        }
+        in.readFully(compressed, 0, len);
+        return Lz4.decompress(compressed, 0, len, block, 0, rawLen);
+    }
+
+    /** The subset of {@link java.io.DataInput} shared by the sequential and random access readers. */
+    private interface BlockSource {
+        void readFully(byte[] b, int off, int len) throws IOException;
+    }
+
+    static final class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte[] block;
+        private final byte[] compressed;
+        private final int[] table = Lz4.newTable();
+        private int blockLen;
+        private long position;
+        private long rawSize;
+        private long[] offsets = new long[16];
+        private int blockCount;
+        private boolean finished;
+
+        FrameOutputStream(OutputStream out, int blockLog) throws IOException {
+            checkBlockLog(blockLog);
+            this.out = new DataOutputStream(out);
+            this.block = new byte[1 << blockLog];
+            this.compressed = new byte[Lz4.maxCompressedLength(block.length)];
+            this.out.write(MAGIC);
+            this.out.writeByte(VERSION);
+            this.out.writeByte(blockLog);
+            this.out.writeShort(0);
+            position = HEADER_SIZE;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (finished) {
+                throw new IOException("stream is finished");
+            }
+            if (blockLen == block.length) {
+                writeBlock();
+            }
+            block[blockLen++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (finished) {
+                throw new IOException("stream is finished");
+            }
+            while (len > 0) {
+                if (blockLen == block.length) {
+                    writeBlock();
+                }
+                int n = Math.min(len, block.length - blockLen);
+                System.arraycopy(b, off, block, blockLen, n);
+                blockLen += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            if (blockLen == 0) {
+                return;
+            }
+            if (blockCount == offsets.length) {
+                offsets = Arrays.copyOf(offsets, blockCount * 2);
+            }
+            offsets[blockCount++] = position;
+
+            int len = Lz4.compress(block, 0, blockLen, compressed, 0, table);
+            if (len < blockLen) {
+                out.writeInt(len);
+                out.write(compressed, 0, len);
+            } else {
+                len = blockLen;
+                out.writeInt(len | STORED);
+                out.write(block, 0, len);
+            }
+            position += 4 + len;
+            rawSize += blockLen;
+            blockLen = 0;
+        }
+
+        /**
+         * Writes the last block, the end marker and the block index.
+         */
+        void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            writeBlock();
+            out.writeInt(0);
+            for (int i = 0; i < blockCount; i++) {
+                out.writeLong(offsets[i]);
+            }
+            out.writeInt(blockCount);
+            out.writeLong(rawSize);
+            out.writeInt(TRAILER_MAGIC);
+            out.flush();
+            finished = true;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            // partial blocks stay buffered so that block boundaries don't depend on flush timing
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                finish();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    static final class FrameInputStream extends InputStream implements BlockSource {
+        private final DataInputStream in;
+        private final byte[] block;
+        private final byte[] compressed;
+        private int pos;
+        private int limit;
+        private boolean eof;
+
+        FrameInputStream(InputStream in) throws IOException {
+            this.in = new DataInputStream(in);
+            byte[] header = new byte[HEADER_SIZE];
+            this.in.readFully(header);
+            if (!BlobCodec.LZ4.matches(header, header.length) || header[4] != VERSION) {
+                throw new IOException("not an LZ4 blob");
+            }
+            block = new byte[1 << checkBlockLog(header[5])];
+            compressed = new byte[Lz4.maxCompressedLength(block.length)];
+        }
+
+        private boolean fill() throws IOException {
+            while (pos == limit) {
+                if (eof) {
+                    return false;
+                }
+                int header = in.readInt();
+                if (header == 0) {
+                    eof = true;
+                    return false;
+                }
+                limit = readBlock(this, header, compressed, block, block.length);
+                pos = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public void readFully(byte[] b, int off, int len) throws IOException {
+            in.readFully(b, off, len);
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? block[pos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, limit - pos);
+            System.arraycopy(block, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && fill()) {
+                int step = (int) Math.min(n - skipped, limit - pos);
+                pos += step;
+                skipped += step;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return limit - pos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Random access reader.  Keeps the most recently used block decompressed,
+     * so sequential reads through a {@code BlobInputStream} decompress each
+     * block once.  Not thread-safe; callers serialize access.
+     */
+    static final class SeekableFrame implements SeekableBlob, BlockSource {
+        private final RandomAccessFile raf;
+        private final int blockLog;
+        private final long[] offsets;
+        private final long rawSize;
+        private final byte[] block;
+        private final byte[] compressed;
+        private int current = -1;
+        private int blockLen;
+
+        SeekableFrame(File file) throws IOException {
+            raf = new RandomAccessFile(file, "r");
+            boolean success = false;
+            try {
+                long length = raf.length();
+                if (length < HEADER_SIZE + 4 + TRAILER_SIZE) {
+                    throw new IOException("truncated LZ4 blob: " + file);
+                }
+                byte[] header = new byte[HEADER_SIZE];
+                raf.readFully(header);
+                if (!BlobCodec.LZ4.matches(header, header.length) || header[4] != VERSION) {
+                    throw new IOException("not an LZ4 blob: " + file);
+                }
+                blockLog = checkBlockLog(header[5]);
+
+                raf.seek(length - TRAILER_SIZE);
+                int count = raf.readInt();
+                rawSize = raf.readLong();
+                if (raf.readInt() != TRAILER_MAGIC || count < 0 || rawSize < 0
+                        || length - TRAILER_SIZE - HEADER_SIZE < 8L * count
+                        || (rawSize + (1L << blockLog) - 1) >>> blockLog != count) {
+                    throw new IOException("corrupt LZ4 blob trailer: " + file);
+                }
+                offsets = new long[count];
+                raf.seek(length - TRAILER_SIZE - 8L * count);
+                for (int i = 0; i < count; i++) {
+                    offsets[i] = raf.readLong();
+                }
+                block = new byte[1 << blockLog];
+                compressed = new byte[Lz4.maxCompressedLength(block.length)];
+                success = true;
+            } finally {
+                if (!success) {
+                    raf.close();
+                }
+            }
+        }
+
+        @Override
+        public long getRawSize() {
+            return rawSize;
+        }
+
+        @Override
+        public void readFully(byte[] b, int off, int len) throws IOException {
+            raf.readFully(b, off, len);
+        }
+
+        private void load(int index) throws IOException {
+            current = -1;
+            raf.seek(offsets[index]);
+            int expected = (int) Math.min(block.length, rawSize - ((long) index << blockLog));
+            blockLen = readBlock(this, raf.readInt(), compressed, block, expected);
+            if (blockLen != expected) {
+                throw new EOFException("corrupt LZ4 blob: block " + index + " has " + blockLen +
+                        " bytes, expected " + expected);
+            }
+            current = index;
+        }
+
+        @Override
+        public int read(long position, byte[] b, int off, int len) throws IOException {
+            if (position < 0) {
+                throw new IllegalArgumentException("negative position " + position);
+            }
+            if (position >= rawSize) {
+                return -1;
+            }
+            int index = (int) (position >>> blockLog);
+            if (index != current) {
+                load(index);
+            }
+            int start = (int) (position - ((long) index << blockLog));
+            int n = Math.min(len, blockLen - start);
+            System.arraycopy(block, start, b, off, n);
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            raf.close();
+        }
+    }
+}
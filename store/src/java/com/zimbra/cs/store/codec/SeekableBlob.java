@@ -0,0 +1,41 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.store.codec;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Random read access to the uncompressed contents of a compressed blob, for
+ * codecs whose on-disk format supports it.
+ */
+public interface SeekableBlob extends Closeable {
+
+    /**
+     * Returns the uncompressed size of the blob.
+     */
+    long getRawSize();
+
+    /**
+     * Reads up to {@code len} bytes of uncompressed data starting at
+     * {@code position}.
+     *
+     * @return the number of bytes read, or {@code -1} if {@code position} is at
+     * or beyond the end of the blob
+     */
+    int read(long position, byte[] b, int off, int len) throws IOException;
+}
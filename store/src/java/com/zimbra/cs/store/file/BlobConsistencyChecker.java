@@ -27,7 +27,6 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
 
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
@@ -37,7 +36,6 @@ import com.zimbra.common.soap.AdminConstants;
 import com.zimbra.common.soap.Element;
 import com.zimbra.common.soap.MailConstants;
 import com.zimbra.common.util.ByteUtil;
-import com.zimbra.common.util.FileUtil;
 import com.zimbra.common.util.Log;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.db.DbBlobConsistency;
@@ -46,6 +44,7 @@ import com.zimbra.cs.db.DbPool.DbConnection;
 import com.zimbra.cs.mailbox.Mailbox;
 import com.zimbra.cs.mailbox.MailboxManager;
 import com.zimbra.cs.store.StoreManager;
+import com.zimbra.cs.store.codec.BlobCodec;
 import com.zimbra.cs.volume.Volume;
 import com.zimbra.cs.volume.VolumeManager;
 
@@ -395,8 +394,9 @@ public class BlobConsistencyChecker {
     protected long getDataSize(File file, long expected)
     throws IOException {
         long fileLen = file.length();
-        if (fileLen != expected && FileUtil.isGzipped(file)) {
-            return ByteUtil.getDataLength(new GZIPInputStream(new FileInputStream(file)));
+        BlobCodec codec = fileLen != expected ? BlobCodec.detect(file) : null;
+        if (codec != null) {
+            return ByteUtil.getDataLength(codec.decompress(new FileInputStream(file)));
         } else {
             return fileLen;
         }
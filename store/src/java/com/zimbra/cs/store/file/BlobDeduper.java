@@ -41,6 +41,7 @@ import com.zimbra.cs.db.DbPool;
 import com.zimbra.cs.db.DbPool.DbConnection;
 import com.zimbra.cs.db.DbVolumeBlobs;
 import com.zimbra.cs.mailbox.MailServiceException;
+import com.zimbra.cs.stats.ZimbraPerf;
 import com.zimbra.cs.store.MailboxBlob.MailboxBlobInfo;
 import com.zimbra.cs.util.SpoolingCache;
 import com.zimbra.cs.volume.Volume;
@@ -236,6 +237,7 @@ public class BlobDeduper {
     private synchronized void incrementCountAndSize(int count, long size) {
         totalLinksCreated += count;
         totalSizeSaved += size;
+        ZimbraPerf.COUNTER_BLOB_DEDUPE_BYTES_SAVED.increment(size);
     }
 
     public synchronized Pair<Integer, Long> getCountAndSize() {
@@ -49,6 +49,7 @@ public final class FileBlobStore extends StoreManager {
     @Override
     public void startup() throws IOException, ServiceException {
         IncomingDirectory.startSweeper();
+        OnlineBlobDeduper.startBackgroundPass();
 
         // initialize file uncompressed file cache and file descriptor cache
         File tmpDir = new File(LC.zimbra_tmp_directory.value());
@@ -62,6 +63,7 @@ public final class FileBlobStore extends StoreManager {
     @Override
     public void shutdown() {
         IncomingDirectory.stopSweeper();
+        OnlineBlobDeduper.stopBackgroundPass();
         BlobInputStream.getFileDescriptorCache().shutdown();
     }
 
@@ -105,7 +107,11 @@ public final class FileBlobStore extends StoreManager {
         // if the blob is already compressed, *don't* calculate a digest/size from what we write
         builder.disableCompression(storeAsIs).disableDigest(storeAsIs);
 
-        return builder.init().append(in).finish();
+        Blob blob = builder.init().append(in).finish();
+        if (!storeAsIs && OnlineBlobDeduper.isEnabled() && OnlineBlobDeduper.isEligible(blob.getRawSize())) {
+            OnlineBlobDeduper.dedupe((VolumeBlob) blob);
+        }
+        return blob;
     }
 
     @Override
@@ -127,7 +133,9 @@ public final class FileBlobStore extends StoreManager {
     throws IOException, ServiceException {
         Volume volume = MANAGER.getCurrentMessageVolume();
         //FileBlobStore optimizes copy by using link where possible
-        return link(src.getLocalBlob(), destMbox, destItemId, destRevision, volume.getId());
+        VolumeMailboxBlob mblob = link(src.getLocalBlob(), destMbox, destItemId, destRevision, volume.getId());
+        OnlineBlobDeduper.add(mblob);
+        return mblob;
     }
 
     /**
@@ -176,12 +184,12 @@ public final class FileBlobStore extends StoreManager {
                 FileUtil.copy(srcFile, dest, !DebugConfig.disableMessageStoreFsync);
                 destCompressed = src.isCompressed();
             } else {
-                FileUtil.compress(srcFile, dest, !DebugConfig.disableMessageStoreFsync);
+                destVolume.getCompressionCodec().compress(srcFile, dest, !DebugConfig.disableMessageStoreFsync);
                 destCompressed = true;
             }
         } else {
             if (src.isCompressed()) {
-                FileUtil.uncompress(srcFile, dest, !DebugConfig.disableMessageStoreFsync);
+                src.getCompressionCodec().uncompress(srcFile, dest, !DebugConfig.disableMessageStoreFsync);
             } else {
                 FileUtil.copy(srcFile, dest, !DebugConfig.disableMessageStoreFsync);
             }
@@ -197,7 +205,9 @@ public final class FileBlobStore extends StoreManager {
     throws IOException, ServiceException {
         Volume volume = MANAGER.getCurrentMessageVolume();
         VolumeBlob blob = ((VolumeStagedBlob) src).getLocalBlob();
-        return link(blob, destMbox, destItemId, destRevision, volume.getId());
+        VolumeMailboxBlob mblob = link(blob, destMbox, destItemId, destRevision, volume.getId());
+        OnlineBlobDeduper.add(mblob);
+        return mblob;
     }
 
     public VolumeMailboxBlob link(Blob src, Mailbox destMbox, int destItemId, int destRevision, short destVolumeId)
@@ -306,7 +316,9 @@ public final class FileBlobStore extends StoreManager {
         }
 
         VolumeBlob vblob = (VolumeBlob) new VolumeBlob(destFile, volume.getId()).copyCachedDataFrom(blob);
-        return new VolumeMailboxBlob(destMbox, destItemId, destRevision, volume.getLocator(), vblob);
+        VolumeMailboxBlob mblob = new VolumeMailboxBlob(destMbox, destItemId, destRevision, volume.getLocator(), vblob);
+        OnlineBlobDeduper.add(mblob);
+        return mblob;
     }
 
     @Override
@@ -314,6 +326,7 @@ public final class FileBlobStore extends StoreManager {
         if (mblob == null) {
             return false;
         }
+        OnlineBlobDeduper.remove(mblob);
         return deleteFile(mblob.getLocalBlob().getFile());
     }
 
@@ -0,0 +1,237 @@
+/*
+ * ***** BEGIN LICENSE BLOCK *****
+ * Zimbra Collaboration Suite Server
+ * Copyright (C) 2016 Synacor, Inc.
+ *
+ * This program is free software: you can redistribute it and/or modify it under
+ * the terms of the GNU General Public License as published by the Free Software Foundation,
+ * version 2 of the License.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT ANY WARRANTY;
+ * without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ * You should have received a copy of the GNU General Public License along with this program.
+ * If not, see <https://www.gnu.org/licenses/>.
+ * ***** END LICENSE BLOCK *****
+ */
+package com.zimbra.cs.store.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimerTask;
+
+import com.zimbra.common.localconfig.LC;
+import com.zimbra.common.service.ServiceException;
+import com.zimbra.common.util.ZimbraLog;
+import com.zimbra.cs.db.DbPool;
+import com.zimbra.cs.db.DbPool.DbConnection;
+import com.zimbra.cs.db.DbVolumeBlobs;
+import com.zimbra.cs.mailbox.MailServiceException;
+import com.zimbra.cs.mailbox.Mailbox;
+import com.zimbra.cs.store.MailboxBlob;
+import com.zimbra.cs.store.MailboxBlob.MailboxBlobInfo;
+import com.zimbra.cs.store.codec.BlobCodec;
+import com.zimbra.cs.stats.ZimbraPerf;
+import com.zimbra.cs.util.Zimbra;
+import com.zimbra.cs.volume.Volume;
+import com.zimbra.cs.volume.VolumeManager;
+
+/**
+ * Deduplicates blobs as they are written, using the <tt>volume_blobs</tt>
+ * table maintained by {@link BlobDeduper} as a digest index.
+ * <p>
+ * When a new incoming blob has the same digest as a blob already stored on
+ * its volume, the incoming file is replaced by a hard link to the existing
+ * one before it is linked or renamed into any mailbox.  Every mailbox blob
+ * created through {@link FileBlobStore} inside a mailbox transaction is
+ * recorded in the index as part of that transaction, so rows only exist for
+ * committed items, and deleting a mailbox blob removes its row.  A row whose file has
+ * been deleted or moved some other way is simply skipped.
+ * Blobs stored before the index was populated are picked up by running
+ * {@link BlobDeduper} periodically, which only scans items changed since
+ * its previous run.
+ */
+final class OnlineBlobDeduper {
+    private static final int MAX_CANDIDATES = 5;
+
+    private static TimerTask backgroundTask;
+
+    private OnlineBlobDeduper() {
+    }
+
+    static boolean isEnabled() {
+        return LC.blob_dedupe_online_enabled.booleanValue();
+    }
+
+    /**
+     * Returns <tt>true</tt> if a blob of <tt>rawSize</tt> bytes is large
+     * enough to be worth an index lookup.
+     */
+    static boolean isEligible(long rawSize) {
+        return rawSize >= LC.blob_dedupe_min_size.longValue();
+    }
+
+    /**
+     * Replaces the file behind <tt>blob</tt> with a hard link to an existing
+     * blob with the same content on the same volume, if the index knows of
+     * one.  Failures are logged and leave the blob untouched.  Callers check
+     * {@link #isEnabled} and {@link #isEligible} first.
+     */
+    static void dedupe(VolumeBlob blob) {
+        long start = ZimbraPerf.STOPWATCH_BLOB_DEDUPE.start();
+        boolean linked = false;
+        try {
+            String digest = blob.getDigest();
+            List<BlobReference> candidates;
+            DbConnection conn = null;
+            try {
+                conn = DbPool.getConnection();
+                candidates = DbVolumeBlobs.getBlobReferences(conn, digest, blob.getVolumeId(), MAX_CANDIDATES);
+            } finally {
+                DbPool.quietClose(conn);
+            }
+
+            File file = blob.getFile();
+            for (BlobReference ref : candidates) {
+                String path = FileBlobStore.getBlobPath(ref.getMailboxId(), ref.getItemId(), ref.getRevision(),
+                        ref.getVolumeId());
+                File existing = new File(path);
+                // digests match; make sure the stored form (compressed or not) does too
+                if (existing.length() != file.length() || (BlobCodec.detect(existing) != null) != blob.isCompressed()) {
+                    continue;
+                }
+                if (replaceWithLink(path, file)) {
+                    linked = true;
+                    ZimbraPerf.COUNTER_BLOB_DEDUPE_BYTES_SAVED.increment(file.length());
+                    ZimbraLog.store.debug("Linked incoming blob %s to %s (digest %s).", file.getPath(), path, digest);
+                    break;
+                }
+            }
+        } catch (IOException | ServiceException e) {
+            ZimbraLog.store.warn("Unable to deduplicate blob %s", blob.getPath(), e);
+        } finally {
+            ZimbraPerf.STOPWATCH_BLOB_DEDUPE.stop(start);
+            ZimbraPerf.COUNTER_BLOB_DEDUPE_HIT.increment(linked ? 100 : 0);
+        }
+    }
+
+    /**
+     * Links <tt>existingPath</tt> to a temporary name next to <tt>file</tt>
+     * and renames it over <tt>file</tt>, so that <tt>file</tt> is never missing.
+     */
+    private static boolean replaceWithLink(String existingPath, File file) {
+        File temp = new File(file.getPath() + "_DEDUPE");
+        try {
+            // not IO.link(), which copies when the native library isn't loaded
+            Files.createLink(temp.toPath(), Paths.get(existingPath));
+            return temp.renameTo(file);
+        } catch (IOException | UnsupportedOperationException e) {
+            // the existing blob was deleted or moved after we found it, or the file system has no hard links
+            ZimbraLog.store.debug("Unable to link %s to %s", existingPath, temp.getPath(), e);
+            return false;
+        } finally {
+            if (temp.exists()) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Adds <tt>mblob</tt> to the digest index as part of the mailbox
+     * transaction that created the blob.  Blobs linked or copied outside a
+     * transaction, such as the test blob of <tt>VerifyStoreManager</tt>, are
+     * left for {@link BlobDeduper} to pick up if they turn out to be kept.
+     */
+    static void add(VolumeMailboxBlob mblob) {
+        if (!isEnabled()) {
+            return;
+        }
+        Mailbox mbox = mblob.getMailbox();
+        if (mbox == null || !mbox.isInTransaction()) {
+            return;
+        }
+        try {
+            if (!isEligible(mblob.getSize())) {
+                return;
+            }
+            MailboxBlobInfo info = new MailboxBlobInfo(mbox.getAccountId(), mbox.getId(), mblob.getItemId(),
+                    mblob.getRevision(), mblob.getLocator(), mblob.getDigest());
+            DbVolumeBlobs.addBlobReference(mbox.getOperationConnection(), info);
+        } catch (MailServiceException e) {
+            if (!MailServiceException.ALREADY_EXISTS.equals(e.getCode())) {
+                ZimbraLog.store.warn("Unable to add blob %s to the digest index", mblob, e);
+            }
+        } catch (IOException | ServiceException e) {
+            ZimbraLog.store.warn("Unable to add blob %s to the digest index", mblob, e);
+        }
+    }
+
+    /**
+     * Drops <tt>mblob</tt> from the digest index before its file is deleted,
+     * so that lookups stop returning the purged item.
+     */
+    static void remove(MailboxBlob mblob) {
+        if (!isEnabled() || mblob.getMailbox() == null) {
+            return;
+        }
+        DbConnection conn = null;
+        try {
+            // regardless of size: BlobDeduper indexes every blob and never drops rows for purged items
+            Mailbox mbox = mblob.getMailbox();
+            MailboxBlobInfo info = new MailboxBlobInfo(mbox.getAccountId(), mbox.getId(), mblob.getItemId(),
+                    mblob.getRevision(), mblob.getLocator(), null);
+            conn = DbPool.getConnection();
+            DbVolumeBlobs.deleteBlobRef(conn, info);
+            conn.commit();
+        } catch (IOException | ServiceException e) {
+            ZimbraLog.store.warn("Unable to remove blob %s from the digest index", mblob, e);
+        } finally {
+            DbPool.quietClose(conn);
+        }
+    }
+
+    /**
+     * Schedules {@link BlobDeduper} to run over all message volumes every
+     * {@link LC#blob_dedupe_background_interval_ms}.  Does nothing if the
+     * interval is <tt>0</tt>.
+     */
+    static synchronized void startBackgroundPass() {
+        long interval = LC.blob_dedupe_background_interval_ms.longValue();
+        if (interval <= 0 || backgroundTask != null) {
+            return;
+        }
+        backgroundTask = new TimerTask() {
+            @Override
+            public void run() {
+                BlobDeduper deduper = BlobDeduper.getInstance();
+                if (deduper.isRunning()) {
+                    return;
+                }
+                List<Short> volumeIds = new ArrayList<Short>();
+                for (Volume vol : VolumeManager.getInstance().getAllVolumes()) {
+                    if (vol.getType() == Volume.TYPE_MESSAGE || vol.getType() == Volume.TYPE_MESSAGE_SECONDARY) {
+                        volumeIds.add(vol.getId());
+                    }
+                }
+                try {
+                    deduper.process(volumeIds);
+                } catch (ServiceException | IOException e) {
+                    ZimbraLog.store.warn("Unable to start background blob deduplication", e);
+                }
+            }
+        };
+        Zimbra.sTimer.schedule(backgroundTask, interval, interval);
+    }
+
+    static synchronized void stopBackgroundPass() {
+        if (backgroundTask != null) {
+            backgroundTask.cancel();
+            backgroundTask = null;
+        }
+        BlobDeduper.getInstance().stopProcessing();
+    }
+}
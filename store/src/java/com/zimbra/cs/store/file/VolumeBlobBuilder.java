@@ -22,6 +22,7 @@ import com.zimbra.common.service.ServiceException;
 import com.zimbra.common.util.ZimbraLog;
 import com.zimbra.cs.store.Blob;
 import com.zimbra.cs.store.BlobBuilder;
+import com.zimbra.cs.store.codec.BlobCodec;
 import com.zimbra.cs.volume.VolumeManager;
 
 public final class VolumeBlobBuilder extends BlobBuilder {
@@ -57,6 +58,15 @@ public final class VolumeBlobBuilder extends BlobBuilder {
         return 0;
     }
 
+    @Override
+    protected BlobCodec getCompressionCodec() throws IOException {
+        try {
+            return VolumeManager.getInstance().getVolume(getVolumeId()).getCompressionCodec();
+        } catch (ServiceException e) {
+            throw new IOException("Unable to determine volume compression codec", e);
+        }
+    }
+
     @Override
     public Blob finish() throws IOException, ServiceException {
         if (isFinished()) {
@@ -50,6 +50,7 @@ import com.zimbra.cs.db.Versions;
 import com.zimbra.cs.ephemeral.EphemeralStore;
 import com.zimbra.cs.ephemeral.LdapEphemeralStore;
 import com.zimbra.cs.extension.ExtensionUtil;
+import com.zimbra.cs.mailbox.ImapSummaryBackfill;
 import com.zimbra.cs.mailbox.MailboxIndex;
 import com.zimbra.cs.mailbox.MailboxManager;
 import com.zimbra.cs.mailbox.PurgeThread;
@@ -327,6 +328,10 @@ public final class Zimbra {
                 PurgeThread.startup();
             }
 
+            if (app.supports(ImapSummaryBackfill.class.getName())) {
+                ImapSummaryBackfill.startup();
+            }
+
             if (app.supports(AutoProvisionThread.class.getName())) {
                 AutoProvisionThread.switchAutoProvThreadIfNecessary();
             }
@@ -396,6 +401,7 @@ public final class Zimbra {
         if (sIsMailboxd) {
             PurgeThread.shutdown();
             AutoProvisionThread.shutdown();
+            ImapSummaryBackfill.shutdown();
         }
 
         ZimbraApplication app = ZimbraApplication.getInstance();
@@ -25,6 +25,7 @@ import com.zimbra.common.service.ServiceException;
 import com.zimbra.cs.account.Provisioning;
 import com.zimbra.cs.mailbox.Metadata;
 import com.zimbra.cs.store.IncomingDirectory;
+import com.zimbra.cs.store.codec.BlobCodec;
 import com.zimbra.cs.util.Zimbra;
 import com.zimbra.soap.admin.type.VolumeInfo;
 
@@ -70,16 +71,19 @@ public final class Volume {
         private int lastSyncDate;
         private int currentSyncDate;
         private int groupId;
+        private String compressionCodec;
 
         private static final String FN_DATE_LASTSYNC = "lsd";
         private static final String FN_DATE_CURRENTSYNC = "csd";
         private static final String FN_LAST_GROUP_ID = "gid";
+        private static final String FN_COMPRESSION_CODEC = "cc";
 
         Metadata serialize() {
             Metadata meta = new Metadata();
             meta.put(FN_DATE_LASTSYNC, lastSyncDate);
             meta.put(FN_DATE_CURRENTSYNC, currentSyncDate);
             meta.put(FN_LAST_GROUP_ID, groupId);
+            meta.put(FN_COMPRESSION_CODEC, compressionCodec);
             return meta;
         }
 
@@ -87,6 +91,7 @@ public final class Volume {
             this.lastSyncDate = meta.getInt(FN_DATE_LASTSYNC, 0);
             this.currentSyncDate = meta.getInt(FN_DATE_CURRENTSYNC, 0);
             this.groupId = meta.getInt(FN_LAST_GROUP_ID, 0);
+            this.compressionCodec = meta.get(FN_COMPRESSION_CODEC, null);
         }
         
         public VolumeMetadata(int lastSyncDate, int currentSyncDate, int groupId) {
@@ -118,6 +123,18 @@ public final class Volume {
         public void setGroupId(int id) {
             this.groupId = id;
         }
+
+        /**
+         * Returns the name of the codec new blobs are compressed with, or
+         * <tt>null</tt> for the default (gzip).
+         */
+        public String getCompressionCodec() {
+            return compressionCodec;
+        }
+
+        public void setCompressionCodec(String name) {
+            this.compressionCodec = name;
+        }
         
         public String toString() {
             return serialize().toString();
@@ -212,6 +229,18 @@ public final class Volume {
         }
         
         public Builder setMetadata(VolumeMetadata metadata) {
+            // callers that only track sync state shouldn't reset the volume's codec
+            if (metadata.getCompressionCodec() == null && volume.metadata != null) {
+                metadata.setCompressionCodec(volume.metadata.get(VolumeMetadata.FN_COMPRESSION_CODEC, null));
+            }
+            volume.metadata = metadata.serialize();
+            return this;
+        }
+
+        public Builder setCompressionCodec(String name) throws ServiceException {
+            VolumeMetadata metadata = volume.metadata != null ?
+                    new VolumeMetadata(volume.metadata) : new VolumeMetadata(0, 0, 0);
+            metadata.setCompressionCodec(Strings.emptyToNull(name));
             volume.metadata = metadata.serialize();
             return this;
         }
@@ -246,6 +275,12 @@ public final class Volume {
             if (volume.compressionThreshold < 0) {
                 throw VolumeServiceException.INVALID_REQUEST("compressionThreshold cannot be a negative number");
             }
+            if (volume.metadata != null) {
+                String codec = volume.metadata.get(VolumeMetadata.FN_COMPRESSION_CODEC, null);
+                if (codec != null && BlobCodec.forName(codec) == null) {
+                    throw VolumeServiceException.INVALID_REQUEST("Unknown compression codec: " + codec);
+                }
+            }
 
             volume.incomingMsgDir = volume.rootPath + File.separator + INCOMING_DIR;
             switch (volume.type) {
@@ -315,6 +350,15 @@ public final class Volume {
         return compressionThreshold;
     }
     
+    /**
+     * Returns the codec used to compress new blobs on this volume.  Blobs
+     * already on the volume may use another codec; see {@link BlobCodec#detect}.
+     */
+    public BlobCodec getCompressionCodec() {
+        BlobCodec codec = BlobCodec.forName(metadata.get(VolumeMetadata.FN_COMPRESSION_CODEC, null));
+        return codec != null ? codec : BlobCodec.GZIP;
+    }
+
     public VolumeMetadata getMetadata() throws ServiceException {
         return new VolumeMetadata(metadata);
     }
@@ -464,6 +508,7 @@ public final class Volume {
                 .add("mboxGroupBits", mboxGroupBits).add("mboxBits", mboxBits)
                 .add("fileGroupBits", fileGroupBits).add("fileBits", fileBits)
                 .add("compressBlobs", compressBlobs).add("compressionThreshold",compressionThreshold)
+                .add("compressionCodec", getCompressionCodec())
                 .toString();
     }
 
@@ -479,6 +524,7 @@ public final class Volume {
         jaxb.setFbits(fileBits);
         jaxb.setCompressBlobs(compressBlobs);
         jaxb.setCompressionThreshold(compressionThreshold);
+        jaxb.setCompressionCodec(getCompressionCodec().getName());
         jaxb.setCurrent(VolumeManager.getInstance().isCurrent(this));
         return jaxb;
     }
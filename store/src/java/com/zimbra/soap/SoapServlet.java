@@ -17,6 +17,7 @@
 
 package com.zimbra.soap;
 
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -375,10 +376,13 @@ public class SoapServlet extends ZimbraServlet {
             envelope.output(out);
             out.flush();
         } else {
-            // serialize the envelope to a byte array and send the response with Content-Length header.
-            byte[] soapBytes = envelope.toUTF8();
-            resp.setContentLength(soapBytes.length);
-            resp.getOutputStream().write(soapBytes);
+            // serialize the envelope to memory and send the response with Content-Length header.
+            ByteArrayOutputStream soapBytes = new ByteArrayOutputStream();
+            ZimbraServletOutputStream out = new ZimbraServletOutputStream(soapBytes);
+            envelope.output(out);
+            out.flush();
+            resp.setContentLength(soapBytes.size());
+            soapBytes.writeTo(resp.getOutputStream());
             resp.getOutputStream().flush();
         }
         envelope.destroy();